@@ -97,7 +97,16 @@ export SPRING_DATASOURCE_DYNAMIC_DATASOURCE_SOURCE_URL=${SCHEDULER_DATASOURCE_UR
 export SPRING_DATASOURCE_DYNAMIC_DATASOURCE_SOURCE_USERNAME=${SCHEDULER_DATASOURCE_USERNAME}
 export SPRING_DATASOURCE_DYNAMIC_DATASOURCE_SOURCE_PASSWORD=${SCHEDULER_DATASOURCE_PASSWORD}
 # destination mysql
-export SPRING_DATASOURCE_DYNAMIC_DATASOURCE_DIAGNOSE_URL=${SPRING_DATASOURCE_URL}
+# MySQL sends JDBC batches as multi-row statements only with rewriteBatchedStatements
+if [[ "${SPRING_DATASOURCE_URL}" == jdbc:mysql:* ]]; then
+  if [[ "${SPRING_DATASOURCE_URL}" == *\?* ]]; then
+    export SPRING_DATASOURCE_DYNAMIC_DATASOURCE_DIAGNOSE_URL="${SPRING_DATASOURCE_URL}&rewriteBatchedStatements=true"
+  else
+    export SPRING_DATASOURCE_DYNAMIC_DATASOURCE_DIAGNOSE_URL="${SPRING_DATASOURCE_URL}?rewriteBatchedStatements=true"
+  fi
+else
+  export SPRING_DATASOURCE_DYNAMIC_DATASOURCE_DIAGNOSE_URL=${SPRING_DATASOURCE_URL}
+fi
 export SPRING_DATASOURCE_DYNAMIC_DATASOURCE_DIAGNOSE_USERNAME=${SPRING_DATASOURCE_USERNAME}
 export SPRING_DATASOURCE_DYNAMIC_DATASOURCE_DIAGNOSE_PASSWORD=${SPRING_DATASOURCE_PASSWORD}
 
@@ -126,6 +126,17 @@ CREATE TABLE task_syncer_init (
 );
 CREATE UNIQUE INDEX idx_is_init ON task_syncer_init (is_init);
 
+CREATE TABLE task_syncer_checkpoint (
+    target_table character varying(64) NOT NULL,
+    range_no integer NOT NULL,
+    range_start bigint,
+    range_end bigint,
+    last_key character varying(1024),
+    done integer DEFAULT 0 NOT NULL,
+    update_time timestamp DEFAULT NULL,
+    PRIMARY KEY (target_table, range_no)
+);
+
 CREATE TABLE task_diagnosis_advice (
     id serial PRIMARY KEY NOT NULL,
     log_type character varying(64),
@@ -161,6 +161,21 @@ CREATE TABLE `task_syncer_init` (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT 'task-syncer application initialization table';
 
 
+-- ----------------------------
+-- Table structure for task_syncer_checkpoint
+-- ----------------------------
+CREATE TABLE `task_syncer_checkpoint` (
+    `target_table` varchar(64) NOT NULL COMMENT 'Target table of the initial copy',
+    `range_no` int(11) NOT NULL COMMENT 'Key range copied by one worker',
+    `range_start` bigint(20) DEFAULT NULL COMMENT 'Exclusive lower bound of the range, NULL for none',
+    `range_end` bigint(20) DEFAULT NULL COMMENT 'Inclusive upper bound of the range, NULL for none',
+    `last_key` varchar(1024) DEFAULT NULL COMMENT 'Key of the last copied row, JSON array',
+    `done` int(11) NOT NULL DEFAULT '0' COMMENT 'Whether the range has been copied: 0 -> No, 1 -> Yes',
+    `update_time` datetime DEFAULT NULL COMMENT 'Update time',
+    PRIMARY KEY (`target_table`, `range_no`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT 'task-syncer initial copy progress table';
+
+
 -- ----------------------------
 -- Table structure for task_diagnose_advice
 -- ----------------------------
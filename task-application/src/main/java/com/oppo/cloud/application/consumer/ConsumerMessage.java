@@ -18,6 +18,7 @@ package com.oppo.cloud.application.consumer;
 
 import com.alibaba.fastjson2.JSON;
 import com.alibaba.fastjson2.TypeReference;
+import com.oppo.cloud.application.config.KafkaConfig;
 import com.oppo.cloud.application.constant.RetCode;
 import com.oppo.cloud.application.domain.DelayedTaskInfo;
 import com.oppo.cloud.application.domain.ParseRet;
@@ -27,6 +28,7 @@ import com.oppo.cloud.common.domain.syncer.TableMessage;
 import com.oppo.cloud.model.TaskInstance;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.Acknowledgment;
@@ -37,6 +39,7 @@ import org.springframework.stereotype.Component;
 
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Consume task-instance task instances.
@@ -58,20 +61,35 @@ public class ConsumerMessage {
     private DelayedTaskService delayedTaskService;
 
     /**
-     * Log consumption
+     * Records waiting for their sends before being committed
+     */
+    @Autowired
+    private PendingSends pendingSends;
+
+    @Autowired
+    private KafkaConfig kafkaConfig;
+
+    /**
+     * Log consumption, the offset is committed once the applications of the record are acknowledged by Kafka
      */
     @KafkaListener(topics = "${spring.kafka.topics}", containerFactory = "kafkaListenerContainerFactory")
     public void receive(@Payload String message, @Header(KafkaHeaders.RECEIVED_PARTITION_ID) int partition,
-                        @Header(KafkaHeaders.RECEIVED_TOPIC) String topic, Consumer consumer,
-                        Acknowledgment ack) throws Exception {
+                        @Header(KafkaHeaders.RECEIVED_TOPIC) String topic, @Header(KafkaHeaders.OFFSET) long offset,
+                        Consumer consumer, Acknowledgment ack) throws Exception {
         log.debug(String.format("%d, From partition %d: %s", consumer.hashCode(), partition, message));
+        TopicPartition tp = new TopicPartition(topic, partition);
+        if (pendingSends.skip(tp, offset)) {
+            return;
+        }
 
         TableMessage tableMessage = JSON.parseObject(message, TableMessage.class);
         TaskInstance taskInstance = JSON.parseObject(tableMessage.getBody(), TaskInstance.class);
         Map<String, String> rawData =
                 JSON.parseObject(tableMessage.getRawData(), new TypeReference<Map<String, String>>() {});
+        CompletableFuture<?> sent = CompletableFuture.completedFuture(null);
         try {
             ParseRet parseRet = logParserService.handle(taskInstance, rawData);
+            sent = parseRet.getSent();
             // Adding delay for retry
             if (parseRet.getRetCode() == RetCode.RET_OP_NEED_RETRY) {
                 delayedTaskService
@@ -81,6 +99,7 @@ public class ConsumerMessage {
             log.error(e.getMessage());
         }
 
-        consumer.commitSync();
+        pendingSends.add(tp, offset, sent);
+        pendingSends.await(consumer, kafkaConfig.getMaxPendingSends(), kafkaConfig.getIdleEventIntervalMs());
     }
 }
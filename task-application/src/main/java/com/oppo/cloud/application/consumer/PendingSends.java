@@ -0,0 +1,199 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.application.consumer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consumed records waiting for their sends to be acknowledged. The offset of a partition is committed up to its
+ * first record not acknowledged yet; when a send fails, the partition is rewound to its record.
+ * Every method is called from the consumer thread owning the partitions.
+ */
+@Slf4j
+@Component
+public class PendingSends implements ConsumerAwareRebalanceListener {
+
+    /**
+     * Time to wait for the sends of revoked partitions
+     */
+    private static final long REVOKE_TIMEOUT_MS = 30000;
+
+    private static class Pending {
+
+        private final long offset;
+
+        private final CompletableFuture<?> sent;
+
+        Pending(long offset, CompletableFuture<?> sent) {
+            this.offset = offset;
+            this.sent = sent;
+        }
+    }
+
+    private final Map<TopicPartition, Deque<Pending>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Offsets partitions were rewound to, records after them are skipped until the redelivery
+     */
+    private final Map<TopicPartition, Long> rewinds = new ConcurrentHashMap<>();
+
+    /**
+     * Whether a record was consumed after a failed record of its partition and must be skipped
+     */
+    public boolean skip(TopicPartition tp, long offset) {
+        Long rewind = rewinds.get(tp);
+        if (rewind == null) {
+            return false;
+        }
+        if (offset == rewind) {
+            rewinds.remove(tp);
+            return false;
+        }
+        return offset > rewind;
+    }
+
+    public void add(TopicPartition tp, long offset, CompletableFuture<?> sent) {
+        pending.computeIfAbsent(tp, k -> new ArrayDeque<>()).addLast(new Pending(offset, sent));
+    }
+
+    /**
+     * Number of records not committed yet in the partitions of the consumer
+     */
+    public int size(Consumer<?, ?> consumer) {
+        int size = 0;
+        for (TopicPartition tp : consumer.assignment()) {
+            Deque<Pending> deque = pending.get(tp);
+            size += deque == null ? 0 : deque.size();
+        }
+        return size;
+    }
+
+    /**
+     * Wait for the oldest sends while more than max records are pending, then commit
+     */
+    public void await(Consumer<?, ?> consumer, int max, long timeoutMs) {
+        commit(consumer, false);
+        while (size(consumer) > max) {
+            for (TopicPartition tp : consumer.assignment()) {
+                Deque<Pending> deque = pending.get(tp);
+                if (deque != null && !deque.isEmpty()) {
+                    awaitSent(deque.peekFirst().sent, timeoutMs);
+                }
+            }
+            commit(consumer, false);
+        }
+    }
+
+    /**
+     * Commit the acknowledged records of the partitions of the consumer
+     */
+    public void commit(Consumer<?, ?> consumer, boolean sync) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition tp : consumer.assignment()) {
+            Deque<Pending> deque = pending.get(tp);
+            if (deque == null) {
+                continue;
+            }
+            while (!deque.isEmpty() && deque.peekFirst().sent.isDone()) {
+                Pending head = deque.pollFirst();
+                if (head.sent.isCompletedExceptionally()) {
+                    log.warn("send failed, rewind {} to offset {}", tp, head.offset);
+                    deque.clear();
+                    rewinds.put(tp, head.offset);
+                    consumer.seek(tp, head.offset);
+                    break;
+                }
+                offsets.put(tp, new OffsetAndMetadata(head.offset + 1));
+            }
+        }
+        if (offsets.isEmpty()) {
+            return;
+        }
+        if (sync) {
+            consumer.commitSync(offsets);
+        } else {
+            consumer.commitAsync(offsets, (committed, e) -> {
+                if (e != null) {
+                    log.warn("failed to commit offsets {}: {}", committed, e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Commit the records acknowledged since the last poll
+     */
+    @EventListener
+    public void onIdle(ListenerContainerIdleEvent event) {
+        if (event.getConsumer() != null) {
+            commit(event.getConsumer(), false);
+        }
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        for (TopicPartition tp : partitions) {
+            Deque<Pending> deque = pending.get(tp);
+            if (deque != null && !deque.isEmpty()) {
+                awaitSent(CompletableFuture.allOf(deque.stream().map(p -> p.sent).toArray(CompletableFuture[]::new)),
+                        REVOKE_TIMEOUT_MS);
+            }
+        }
+        try {
+            commit(consumer, true);
+        } catch (Exception e) {
+            log.warn("failed to commit revoked partitions {}: {}", partitions, e.getMessage());
+        }
+        for (TopicPartition tp : partitions) {
+            pending.remove(tp);
+            rewinds.remove(tp);
+        }
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        for (TopicPartition tp : partitions) {
+            pending.remove(tp);
+            rewinds.remove(tp);
+        }
+    }
+
+    private static void awaitSent(CompletableFuture<?> sent, long timeoutMs) {
+        try {
+            sent.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // failures are handled by the commit
+        }
+    }
+}
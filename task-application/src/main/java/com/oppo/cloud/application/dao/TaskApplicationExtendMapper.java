@@ -23,4 +23,9 @@ public interface TaskApplicationExtendMapper extends TaskApplicationMapper {
 
     int save(TaskApplication record);
 
+    /**
+     * Insert unless the application is already saved, returns 0 for a duplicate
+     */
+    int saveIgnore(TaskApplication record);
+
 }
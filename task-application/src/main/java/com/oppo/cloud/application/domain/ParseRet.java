@@ -21,6 +21,7 @@ import com.oppo.cloud.model.TaskInstance;
 import lombok.Data;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Parsing result
@@ -40,6 +41,10 @@ public class ParseRet {
      * raw column dependent data
      */
     private Map<String, Object> rawData;
+    /**
+     * Completed once the saved applications are acknowledged by Kafka
+     */
+    private CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
 
     public ParseRet(RetCode retCode, TaskInstance taskInstance) {
         this.retCode = retCode;
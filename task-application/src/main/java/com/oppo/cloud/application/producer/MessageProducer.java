@@ -18,9 +18,11 @@ package com.oppo.cloud.application.producer;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Component;
-import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.util.concurrent.ListenableFuture;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -32,7 +34,7 @@ import java.util.concurrent.TimeoutException;
 public class MessageProducer {
 
     @Autowired
-    private KafkaTemplate kafkaTemplate;
+    private KafkaTemplate<String, String> kafkaTemplate;
 
     /**
      * synchronous message sending
@@ -43,20 +45,10 @@ public class MessageProducer {
     }
 
     /**
-     * asynchronous message sending
+     * asynchronous message sending, completed once the broker acknowledges the message
      */
-    public void sendMessageAsync(String topic, String message) {
-        kafkaTemplate.send(topic, message).addCallback(new ListenableFutureCallback() {
-
-            @Override
-            public void onFailure(Throwable ex) {
-                // todo: log
-            }
-
-            @Override
-            public void onSuccess(Object result) {
-                // todo: log
-            }
-        });
+    public CompletableFuture<SendResult<String, String>> sendMessageAsync(String topic, String message) {
+        ListenableFuture<SendResult<String, String>> future = kafkaTemplate.send(topic, message);
+        return future.completable();
     }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.application.service.impl;
+
+import com.oppo.cloud.application.domain.LogPathJoin;
+import com.oppo.cloud.application.domain.Rule;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Log parsing rules compiled once: regular expressions, the data columns the rules use and whether the
+ * extraction of a rule can stop at its first match.
+ */
+public final class ExtractionPipeline {
+
+    /**
+     * Extracted name collected from every line of the logs, other names are single values
+     */
+    public static final String APPLICATION_ID = "applicationId";
+
+    private static final Pattern PARAM = Pattern.compile("\\$\\{(\\w+)}");
+
+    /**
+     * Log path part, static data or a column matched by a regular expression
+     */
+    public static final class PathPart {
+
+        private final LogPathJoin join;
+
+        private final Pattern regex;
+
+        private PathPart(LogPathJoin join) {
+            this.join = join;
+            this.regex = StringUtils.isBlank(join.getColumn()) ? null : Pattern.compile(join.getRegex());
+        }
+
+        public LogPathJoin getJoin() {
+            return join;
+        }
+
+        public Pattern getRegex() {
+            return regex;
+        }
+    }
+
+    public static final class Step {
+
+        private final Rule rule;
+
+        private final List<PathPart> pathParts;
+
+        private final Pattern extractRegex;
+
+        private final String name;
+
+        private final boolean collectAll;
+
+        private Step(Rule rule) {
+            this.rule = rule;
+            List<PathPart> parts = new ArrayList<>();
+            for (LogPathJoin join : rule.getLogPathJoins()) {
+                parts.add(new PathPart(join));
+            }
+            this.pathParts = Collections.unmodifiableList(parts);
+            this.extractRegex = Pattern.compile(rule.getExtractLog().getRegex());
+            this.name = rule.getExtractLog().getName();
+            this.collectAll = APPLICATION_ID.equals(name);
+        }
+
+        public Rule getRule() {
+            return rule;
+        }
+
+        public List<PathPart> getPathParts() {
+            return pathParts;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Whether every line of the logs is matched, otherwise the extraction stops at the first match
+         */
+        public boolean isCollectAll() {
+            return collectAll;
+        }
+
+        /**
+         * Extract the value of a log line into the data, several values become a list
+         */
+        public boolean extract(String line, Map<String, Object> data) {
+            Matcher matcher = extractRegex.matcher(line);
+            if (!matcher.matches()) {
+                return false;
+            }
+            String matchVal = matcher.group(name);
+            Object val = data.get(name);
+            if (val == null) {
+                data.put(name, matchVal);
+            } else if (val instanceof List) {
+                ((List<Object>) val).add(matchVal);
+            } else {
+                // The value already exists, and the original value becomes a list type.
+                List<Object> values = new ArrayList<>();
+                values.add(val);
+                values.add(matchVal);
+                data.put(name, values);
+            }
+            return true;
+        }
+    }
+
+    private final List<Step> steps;
+
+    private final Set<String> columns;
+
+    private ExtractionPipeline(List<Step> steps, Set<String> columns) {
+        this.steps = steps;
+        this.columns = columns;
+    }
+
+    public static ExtractionPipeline compile(List<Rule> rules) {
+        List<Step> steps = new ArrayList<>();
+        Set<String> columns = new LinkedHashSet<>();
+        if (rules != null) {
+            for (Rule rule : rules) {
+                steps.add(new Step(rule));
+                if (rule.getLogPathDep() != null && StringUtils.isNotBlank(rule.getLogPathDep().getQuery())) {
+                    Matcher matcher = PARAM.matcher(rule.getLogPathDep().getQuery());
+                    while (matcher.find()) {
+                        columns.add(matcher.group(1));
+                    }
+                }
+                for (LogPathJoin join : rule.getLogPathJoins()) {
+                    if (StringUtils.isNotBlank(join.getColumn())) {
+                        columns.add(join.getColumn());
+                    }
+                }
+            }
+        }
+        return new ExtractionPipeline(Collections.unmodifiableList(steps), Collections.unmodifiableSet(columns));
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Data columns used by the queries and log paths of the rules, including columns of earlier rules' results
+     */
+    public Set<String> getColumns() {
+        return columns;
+    }
+}
@@ -25,7 +25,6 @@ import com.oppo.cloud.application.constant.RetCode;
 import com.oppo.cloud.application.dao.TaskApplicationExtendMapper;
 import com.oppo.cloud.application.domain.LogPathJoin;
 import com.oppo.cloud.application.domain.ParseRet;
-import com.oppo.cloud.application.domain.Rule;
 import com.oppo.cloud.application.producer.MessageProducer;
 import com.oppo.cloud.application.service.LogParserService;
 import com.oppo.cloud.application.util.EscapePathUtil;
@@ -37,13 +36,14 @@ import com.oppo.cloud.model.TaskInstance;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
 
+import java.sql.ResultSetMetaData;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * log parsing service
@@ -105,13 +105,66 @@ public class LogParserServiceImpl implements LogParserService {
     /**
      * Spark Application Id
      */
-    private static final String APPLICATION_ID = "applicationId";
+    private static final String APPLICATION_ID = ExtractionPipeline.APPLICATION_ID;
+
+    /**
+     * task instance columns always needed besides those used by the rules
+     */
+    private static final List<String> BASE_COLUMNS = Arrays.asList("id", "project_name", "flow_name", "task_name",
+            "execution_time", "retry_times", "task_type", "task_state");
 
     /**
      * log address storage
      */
     private final static String LOG_PATH_KEY = "__log_path";
 
+    /**
+     * rules compiled once
+     */
+    private ExtractionPipeline pipeline;
+
+    /**
+     * selected task instance columns
+     */
+    private String selectColumns;
+
+    /**
+     * Get the compiled parsing rules
+     */
+    public synchronized ExtractionPipeline getPipeline() {
+        if (pipeline == null) {
+            pipeline = ExtractionPipeline.compile(customConfig.getRules());
+        }
+        return pipeline;
+    }
+
+    /**
+     * Get the task instance columns used by the rules, all columns if the table cannot be described
+     */
+    public synchronized String getSelectColumns() {
+        if (selectColumns == null) {
+            Set<String> wanted = new LinkedHashSet<>(BASE_COLUMNS);
+            wanted.addAll(getPipeline().getColumns());
+            try {
+                Set<String> existing = jdbcTemplate.query("SELECT * FROM task_instance WHERE 1 = 0", rs -> {
+                    Set<String> names = new HashSet<>();
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                        names.add(metaData.getColumnLabel(i).toLowerCase());
+                    }
+                    return names;
+                });
+                // columns of earlier rules' results are not task instance columns
+                wanted.removeIf(column -> existing == null || !existing.contains(column.toLowerCase()));
+                selectColumns = String.join(", ", wanted);
+            } catch (Exception e) {
+                log.error("failed to describe task_instance, select all columns: {}", e.getMessage());
+                return "*";
+            }
+        }
+        return selectColumns;
+    }
+
     /**
      * Get Hadoop cluster configuration information
      */
@@ -169,10 +222,11 @@ public class LogParserServiceImpl implements LogParserService {
         Object[] args = null;
         try {
             if (taskInstance.getId() != null && taskInstance.getId() != 0) {
-                sql = "SELECT * FROM task_instance WHERE id = ?";
+                sql = "SELECT " + getSelectColumns() + " FROM task_instance WHERE id = ?";
                 args = new Object[]{taskInstance.getId()};
             } else {
-                sql = "SELECT * FROM task_instance WHERE flow_name = ? and task_name = ? and execution_time = ?";
+                sql = "SELECT " + getSelectColumns()
+                        + " FROM task_instance WHERE flow_name = ? and task_name = ? and execution_time = ?";
                 args = new Object[]{taskInstance.getFlowName(), taskInstance.getTaskName(),
                         taskInstance.getExecutionTime()};
             }
@@ -197,8 +251,8 @@ public class LogParserServiceImpl implements LogParserService {
         List<String> logPathList = new ArrayList<>();
         ParseRet parseRet = new ParseRet(RetCode.RET_SKIP, null);
 
-        for (Rule rule : customConfig.getRules()) {
-            LogParser logParser = new LogParser(data, rule, count, taskInstance.getTaskType());
+        for (ExtractionPipeline.Step step : getPipeline().getSteps()) {
+            LogParser logParser = new LogParser(data, step, count, taskInstance.getTaskType());
             try {
                 RetCode retCode = logParser.extract();
                 parseRet = new ParseRet(retCode, taskInstance);
@@ -223,18 +277,20 @@ public class LogParserServiceImpl implements LogParserService {
 
         String logPath = String.join(",", logPathList);
         // save applicationId
+        List<CompletableFuture<?>> sends = new ArrayList<>();
         Object applicationId = data.get(APPLICATION_ID);
         if (applicationId instanceof List) {
             // remove duplicate applicationId
             Set<String> setId = new HashSet<>();
             for (Object appId : (List) applicationId) {
                 if (setId.add((String) appId)) {
-                    addTaskApplication((String) appId, taskInstance, logPath);
+                    sends.add(addTaskApplication((String) appId, taskInstance, logPath));
                 }
             }
         } else {
-            addTaskApplication((String) applicationId, taskInstance, logPath);
+            sends.add(addTaskApplication((String) applicationId, taskInstance, logPath));
         }
+        parseRet.setSent(CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])));
         log.info("project: {}, process:{}, task:{}, execute_time: {}, parse applicationId done!",
                 taskInstance.getProjectName(), taskInstance.getFlowName(), taskInstance.getTaskName(),
                 taskInstance.getExecutionTime());
@@ -243,28 +299,41 @@ public class LogParserServiceImpl implements LogParserService {
     }
 
     /**
-     * add task application ID
+     * add task application ID, the returned future completes once Kafka acknowledges the application
      */
-    public void addTaskApplication(String applicationId, TaskInstance taskInstance, String logPath) {
+    public CompletableFuture<?> addTaskApplication(String applicationId, TaskInstance taskInstance, String logPath) {
         // write data back to Kafka subscription
         log.debug("application save: applicationId=" + applicationId + " task_instance=" + taskInstance + ",lopPath="
                 + logPath);
         TaskApplication taskApplication = getTaskApplication(applicationId, taskInstance, logPath);
         try {
-            taskApplicationExtendMapper.save(taskApplication);
-        } catch (DuplicateKeyException e) {
-            return;
-            // duplicate key with return
+            if (taskApplicationExtendMapper.saveIgnore(taskApplication) == 0) {
+                // duplicate key with return
+                return CompletableFuture.completedFuture(null);
+            }
         } catch (Exception e) {
             log.error("insertErr:" + e.getMessage());
         }
 
-        try {
-            messageProducer.sendMessageSync(kafkaConfig.getProducerTopics(),
-                    JSON.toJSONString(taskApplication));
-        } catch (Exception ex) {
-            log.error("failed to send insert data to kafka, err: " + ex.getMessage());
-        }
+        CompletableFuture<SendResult<String, String>> sent = new CompletableFuture<>();
+        messageProducer.sendMessageAsync(kafkaConfig.getProducerTopics(), JSON.toJSONString(taskApplication))
+                .whenCompleteAsync((result, ex) -> {
+                    if (ex == null) {
+                        sent.complete(result);
+                        return;
+                    }
+                    log.error("failed to send insert data to kafka, err: " + ex.getMessage());
+                    // remove the saved application, so that the retry of the task instance sends it again
+                    if (taskApplication.getId() != null) {
+                        try {
+                            taskApplicationExtendMapper.deleteByPrimaryKey(taskApplication.getId());
+                        } catch (Exception e) {
+                            log.error("deleteErr:" + e.getMessage());
+                        }
+                    }
+                    sent.completeExceptionally(ex);
+                });
+        return sent;
     }
 
     private static TaskApplication getTaskApplication(String applicationId, TaskInstance taskInstance, String logPath) {
@@ -292,9 +361,9 @@ public class LogParserServiceImpl implements LogParserService {
          */
         private Map<String, Object> data;
         /**
-         * log parsing rules
+         * compiled log parsing rule
          */
-        private Rule rule;
+        private final ExtractionPipeline.Step step;
 
         /**
          * parsing sequence
@@ -313,9 +382,9 @@ public class LogParserServiceImpl implements LogParserService {
          */
         private String taskType = "";
 
-        public LogParser(Map<String, Object> data, Rule rule, int index, String taskType) {
+        public LogParser(Map<String, Object> data, ExtractionPipeline.Step step, int index, String taskType) {
             this.data = data;
-            this.rule = rule;
+            this.step = step;
             this.index = index;
 
             if (taskType != null) {
@@ -328,8 +397,8 @@ public class LogParserServiceImpl implements LogParserService {
          * log extraction
          */
         public RetCode extract() throws Exception {
-            if (!StringUtils.isBlank(rule.getLogPathDep().getQuery())) {
-                String sql = StringUtil.replaceParams(rule.getLogPathDep().getQuery(), data);
+            if (!StringUtils.isBlank(step.getRule().getLogPathDep().getQuery())) {
+                String sql = StringUtil.replaceParams(step.getRule().getLogPathDep().getQuery(), data);
                 log.info("extract SQL:{}, data:{}", sql, data);
                 Map<String, Object> depData = null;
                 try {
@@ -376,43 +445,17 @@ public class LogParserServiceImpl implements LogParserService {
             logPath = String.join(",", filePaths);
             data.put(LOG_PATH_KEY, logPath);
 
-            boolean hasApplicationIds = false;
-            int countFileIfHasContent = 0;
-            Pattern pattern = Pattern.compile(rule.getExtractLog().getRegex());
-
-            for (String filePath : filePaths) {
-                String[] lines = HDFSUtil.readLines(nameNodeConf, filePath);
-                log.info(filePath + " has no log content");
-                if (lines.length > 0) {
-                    countFileIfHasContent += 1;
+            // stream the logs, single values stop at the first match
+            boolean[] hasApplicationIds = {false};
+            int countFileIfHasContent = HDFSUtil.scanLines(nameNodeConf, filePaths, line -> {
+                if (step.extract(line, this.data)) {
+                    hasApplicationIds[0] = true;
+                    return step.isCollectAll();
                 }
-                // extract keywords
-                for (String line : lines) {
-                    Matcher matcher = pattern.matcher(line);
-                    if (matcher.matches()) {
-                        String matchVal = matcher.group(rule.getExtractLog().getName());
-
-                        if (this.data.get(rule.getExtractLog().getName()) != null) { // The value already exists, and the original value becomes a list type.
-                            Object val = this.data.get(rule.getExtractLog().getName());
-                            // If it is application ID, there may be multiple
-                            if (val instanceof List) {
-                                ((List) val).add(matchVal);
-                            } else {
-                                List l = new ArrayList<Object>();
-                                l.add(val);
-                                l.add(matchVal);
-                                val = l;
-                            }
-                            this.data.put(rule.getExtractLog().getName(), val);
-                        } else {
-                            this.data.put(rule.getExtractLog().getName(), matchVal);
-                        }
-                        hasApplicationIds = true;
-                    }
-                }
-            }
+                return true;
+            });
 
-            if (hasApplicationIds) {
+            if (hasApplicationIds[0]) {
                 return RetCode.RET_OK;
             }
 
@@ -430,8 +473,9 @@ public class LogParserServiceImpl implements LogParserService {
          */
         public String getLogPath() {
             List<String> paths = new ArrayList<>();
-            for (LogPathJoin logPathJoin : rule.getLogPathJoins()) {
-                if (StringUtils.isBlank(logPathJoin.getColumn())) {
+            for (ExtractionPipeline.PathPart pathPart : step.getPathParts()) {
+                LogPathJoin logPathJoin = pathPart.getJoin();
+                if (pathPart.getRegex() == null) {
                     paths.add(logPathJoin.getData());
                 } else {
                     log.info("logPathJoin:{}, data:{}", logPathJoin, data);
@@ -441,8 +485,7 @@ public class LogParserServiceImpl implements LogParserService {
                         return "";
                     }
                     String columnData = columnDataObj.toString();
-                    Pattern pattern = Pattern.compile(logPathJoin.getRegex());
-                    Matcher matcher = pattern.matcher(columnData);
+                    Matcher matcher = pathPart.getRegex().matcher(columnData);
                     if (matcher.matches()) {
                         String matchedData = matcher.group(logPathJoin.getName());
                         matchedData = EscapePathUtil.escape(matchedData);
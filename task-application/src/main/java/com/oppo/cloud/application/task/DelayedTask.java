@@ -34,9 +34,11 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * process log delay task
@@ -47,6 +49,11 @@ import java.util.concurrent.Executor;
 @ConditionalOnProperty(prefix = "custom.delayedTask", name = "enable", havingValue = "true")
 public class DelayedTask implements CommandLineRunner {
 
+    /**
+     * Time to wait for the saved applications to be acknowledged by Kafka
+     */
+    private static final long SEND_TIMEOUT_SECONDS = 60;
+
     @Value("${custom.delayedTask.queue}")
     private String queue;
 
@@ -82,11 +89,19 @@ public class DelayedTask implements CommandLineRunner {
         }
         if (processingMap != null) {
             log.info("initProcessingTaskSize:{}", processingMap.size());
+            if (processingMap.isEmpty()) {
+                return;
+            }
+            Map<Object, Double> valueScores = new HashMap<>();
+            double now = System.currentTimeMillis();
             processingMap.forEach((k, v) -> {
                 log.info("initProcessingTaskData,k:{},v:{}", k, v);
-                redisService.zSetAdd(queue, v, System.currentTimeMillis());
-                redisService.hDel(processingKey, k);
+                valueScores.put(v, now);
             });
+            // keep the processing tasks if they cannot be queued again
+            if (redisService.zSetAddAll(queue, valueScores) != null) {
+                redisService.hDel(processingKey, processingMap.keySet().toArray());
+            }
         }
     }
 
@@ -118,8 +133,17 @@ public class DelayedTask implements CommandLineRunner {
         Map<String, String> rawData = delayedTaskInfo.getRawData();
         try {
             ParseRet parseRet = logParserService.handle(instance, rawData);
+            boolean ok = parseRet.getRetCode() == RetCode.RET_OK;
+            if (ok) {
+                try {
+                    parseRet.getSent().get(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    log.error("delay task send err: {}", e.getMessage());
+                    ok = false;
+                }
+            }
             // retry unsuccessful
-            if (parseRet.getRetCode() != RetCode.RET_OK) {
+            if (!ok) {
                 if (delayedTaskInfo.getTryTimes() > tryTimes) {
                     log.error("discard delay task:{}", delayedTaskInfo);
                     redisService.hDel(processingKey, delayedTaskInfo.getKey());
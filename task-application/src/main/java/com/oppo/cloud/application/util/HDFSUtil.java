@@ -23,7 +23,9 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.*;
 import org.apache.hadoop.security.UserGroupInformation;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.security.PrivilegedExceptionAction;
@@ -140,6 +142,45 @@ public class HDFSUtil {
         }
     }
 
+    /**
+     * Handler of the lines of a file
+     */
+    public interface LineHandler {
+
+        /**
+         * Handle a line, false to stop reading
+         */
+        boolean accept(String line);
+    }
+
+    /**
+     * Stream the lines of files to a handler without loading them into memory, until it asks to stop.
+     * Returns the number of files having content
+     */
+    public static int scanLines(NameNodeConf nameNodeConf, List<String> filePaths, LineHandler handler)
+            throws Exception {
+        int filesWithContent = 0;
+        try (FileSystem fs = HDFSUtil.getFileSystem(nameNodeConf)) {
+            for (String filePath : filePaths) {
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(fs.open(new Path(filePath)), StandardCharsets.UTF_8), 65536)) {
+                    String line = reader.readLine();
+                    if (line != null) {
+                        filesWithContent++;
+                    }
+                    for (; line != null; line = reader.readLine()) {
+                        if (!handler.accept(line)) {
+                            return filesWithContent;
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new Exception(String.format("failed to read file: %s, err: %s", filePath, e.getMessage()));
+                }
+            }
+        }
+        return filesWithContent;
+    }
+
     /**
      * get file list with wildcard using *
      */
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.application.consumer;
+
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+class PendingSendsTest {
+
+    private final TopicPartition tp0 = new TopicPartition("task-instance", 0);
+
+    private final TopicPartition tp1 = new TopicPartition("task-instance", 1);
+
+    private MockConsumer<String, String> consumer;
+
+    private PendingSends pendingSends;
+
+    @BeforeEach
+    void setUp() {
+        consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.assign(Arrays.asList(tp0, tp1));
+        Map<TopicPartition, Long> beginning = new HashMap<>();
+        beginning.put(tp0, 0L);
+        beginning.put(tp1, 0L);
+        consumer.updateBeginningOffsets(beginning);
+        pendingSends = new PendingSends();
+    }
+
+    private Long committed(TopicPartition tp) {
+        OffsetAndMetadata offset = consumer.committed(Collections.singleton(tp)).get(tp);
+        return offset == null ? null : offset.offset();
+    }
+
+    @Test
+    void commitAcknowledgedPrefix() {
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        CompletableFuture<Void> second = new CompletableFuture<>();
+        pendingSends.add(tp0, 10, first);
+        pendingSends.add(tp0, 11, second);
+        pendingSends.add(tp1, 5, CompletableFuture.completedFuture(null));
+
+        // the second send is acknowledged before the first one
+        second.complete(null);
+        pendingSends.commit(consumer, true);
+        Assertions.assertNull(committed(tp0));
+        Assertions.assertEquals(6L, committed(tp1));
+        Assertions.assertEquals(2, pendingSends.size(consumer));
+
+        first.complete(null);
+        pendingSends.commit(consumer, true);
+        Assertions.assertEquals(12L, committed(tp0));
+        Assertions.assertEquals(0, pendingSends.size(consumer));
+    }
+
+    @Test
+    void rewindFailedSend() {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        pendingSends.add(tp0, 1, CompletableFuture.completedFuture(null));
+        pendingSends.add(tp0, 2, failed);
+        pendingSends.add(tp0, 3, CompletableFuture.completedFuture(null));
+        failed.completeExceptionally(new IllegalStateException("broker down"));
+
+        pendingSends.commit(consumer, true);
+        Assertions.assertEquals(2L, committed(tp0));
+        Assertions.assertEquals(2L, consumer.position(tp0));
+        Assertions.assertEquals(0, pendingSends.size(consumer));
+
+        // records polled before the rewind are skipped until the failed record is redelivered
+        Assertions.assertTrue(pendingSends.skip(tp0, 4));
+        Assertions.assertFalse(pendingSends.skip(tp0, 2));
+        Assertions.assertFalse(pendingSends.skip(tp0, 3));
+        Assertions.assertFalse(pendingSends.skip(tp1, 4));
+    }
+
+    @Test
+    void awaitOldestSends() {
+        CompletableFuture<Void> slow = new CompletableFuture<>();
+        pendingSends.add(tp0, 0, slow);
+        pendingSends.add(tp0, 1, CompletableFuture.completedFuture(null));
+        CompletableFuture.runAsync(() -> slow.complete(null));
+
+        pendingSends.await(consumer, 1, 5000);
+        Assertions.assertTrue(slow.isDone());
+        Assertions.assertEquals(0, pendingSends.size(consumer));
+    }
+
+    @Test
+    void revokeWaitsAndCommits() {
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        pendingSends.add(tp1, 7, sent);
+        CompletableFuture.runAsync(() -> sent.complete(null));
+
+        pendingSends.onPartitionsRevokedBeforeCommit(consumer, Collections.singleton(tp1));
+        Assertions.assertEquals(8L, committed(tp1));
+        Assertions.assertEquals(0, pendingSends.size(consumer));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.application.service.impl;
+
+import com.oppo.cloud.application.domain.ExtractLog;
+import com.oppo.cloud.application.domain.LogPathDep;
+import com.oppo.cloud.application.domain.LogPathJoin;
+import com.oppo.cloud.application.domain.Rule;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class ExtractionPipelineTest {
+
+    private static final List<String> LINES = Arrays.asList(
+            "INFO start",
+            "INFO Submitted application application_1_0001",
+            "INFO Submitted application application_1_0002",
+            "INFO done");
+
+    private static Rule rule(String query, String column, String name, String regex) {
+        LogPathDep logPathDep = new LogPathDep();
+        logPathDep.setQuery(query);
+        LogPathJoin data = new LogPathJoin();
+        data.setData("hdfs://logs");
+        LogPathJoin join = new LogPathJoin();
+        join.setColumn(column);
+        join.setRegex("^(?<path>.*)$");
+        join.setName("path");
+        ExtractLog extractLog = new ExtractLog();
+        extractLog.setRegex(regex);
+        extractLog.setName(name);
+        Rule rule = new Rule();
+        rule.setLogPathDep(logPathDep);
+        rule.setLogPathJoins(Arrays.asList(data, join));
+        rule.setExtractLog(extractLog);
+        return rule;
+    }
+
+    /**
+     * Feed the lines to a step the way the log parser does, until the step asks to stop
+     */
+    private static int scan(ExtractionPipeline.Step step, Map<String, Object> data) {
+        int read = 0;
+        for (String line : LINES) {
+            read++;
+            if (step.extract(line, data) && !step.isCollectAll()) {
+                break;
+            }
+        }
+        return read;
+    }
+
+    @Test
+    void columns() {
+        ExtractionPipeline pipeline = ExtractionPipeline.compile(Arrays.asList(
+                rule("select log_path from t where flow = '${flow_name}' and time = '${execution_time}'",
+                        "log_path", "logId", "^.*(?<logId>application_\\d+_\\d+).*$"),
+                rule("", "worker_group", "applicationId", "^.*(?<applicationId>application_\\d+_\\d+).*$")));
+        Assertions.assertEquals(Arrays.asList("flow_name", "execution_time", "log_path", "worker_group"),
+                Arrays.asList(pipeline.getColumns().toArray()));
+        Assertions.assertEquals(2, pipeline.getSteps().size());
+        Assertions.assertNull(pipeline.getSteps().get(0).getPathParts().get(0).getRegex());
+        Assertions.assertNotNull(pipeline.getSteps().get(0).getPathParts().get(1).getRegex());
+    }
+
+    @Test
+    void stopAtFirstMatch() {
+        ExtractionPipeline.Step step = ExtractionPipeline.compile(Arrays.asList(
+                rule("", "log_path", "logId", "^.*(?<logId>application_\\d+_\\d+).*$"))).getSteps().get(0);
+        Map<String, Object> data = new HashMap<>();
+        Assertions.assertFalse(step.isCollectAll());
+        Assertions.assertEquals(2, scan(step, data));
+        Assertions.assertEquals("application_1_0001", data.get("logId"));
+    }
+
+    @Test
+    void collectApplicationIds() {
+        ExtractionPipeline.Step step = ExtractionPipeline.compile(Arrays.asList(
+                rule("", "log_path", "applicationId", "^.*(?<applicationId>application_\\d+_\\d+).*$")))
+                .getSteps().get(0);
+        Map<String, Object> data = new HashMap<>();
+        Assertions.assertTrue(step.isCollectAll());
+        Assertions.assertEquals(LINES.size(), scan(step, data));
+        Assertions.assertEquals(Arrays.asList("application_1_0001", "application_1_0002"), data.get("applicationId"));
+    }
+}
@@ -66,4 +66,9 @@ public class Constant {
 
     public static final String HDFS_SCHEME = "hdfs://";
 
+    /**
+     * Redis channel notifying changes of metadata cached by the services, the message is the table name,
+     * or a TableMessage json of the changed row.
+     */
+    public static final String METADATA_INVALIDATE_CHANNEL = "compass:metadata:invalidate";
 }
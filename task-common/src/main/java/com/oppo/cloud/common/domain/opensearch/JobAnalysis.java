@@ -24,6 +24,7 @@ import org.apache.commons.lang3.StringUtils;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 @Data
@@ -142,7 +143,26 @@ public class JobAnalysis extends OpenSearchInfo {
                 : baseIndex + "-" + DateUtil.format(this.getExecutionDate(), "yyyy-MM-dd");
     }
 
+    /**
+     * Document id derived from project/flow/task/execution date, so that concurrent writers address the same document
+     */
     public String genDocId() {
-        return StringUtils.isNotBlank(this.getDocId()) ? this.getDocId() : UUID.randomUUID().toString();
+        if (StringUtils.isNotBlank(this.getDocId())) {
+            return this.getDocId();
+        }
+        String docId = genDocId(projectName, flowName, taskName, executionDate);
+        return docId != null ? docId : UUID.randomUUID().toString();
+    }
+
+    /**
+     * Deterministic job key, null when any part is missing
+     */
+    public static String genDocId(String projectName, String flowName, String taskName, Date executionDate) {
+        if (projectName == null || flowName == null || taskName == null || executionDate == null) {
+            return null;
+        }
+        String key = String.join("|", projectName, flowName, taskName,
+                String.valueOf(executionDate.getTime() / 1000));
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
     }
 }
@@ -73,6 +73,18 @@ public class LogSummary extends OpenSearchInfo {
     @ApiModelProperty(value = "advice")
     private String advice;
 
+    @ApiModelProperty(value = "fingerprint of action and normalized raw log")
+    private String fingerprint;
+
+    @ApiModelProperty(value = "occurrences of the fingerprint")
+    private Long count;
+
+    @ApiModelProperty(value = "sample of executors logging the fingerprint")
+    private List<String> executors;
+
+    @ApiModelProperty(value = "sample of log paths holding the fingerprint")
+    private List<String> logPaths;
+
     public Map<String, Object> genDoc() throws Exception {
         Map<String, Object> res = new HashMap<>();
         Field[] fileds = this.getClass().getDeclaredFields();
@@ -61,6 +61,14 @@ public class LogSummaryMapping extends Mapping {
                         new AbstractMap.SimpleEntry<>("groupData", object()),
                         /* log timestamp */
                         new AbstractMap.SimpleEntry<>("logTimestamp", digit("integer")),
+                        /* fingerprint */
+                        new AbstractMap.SimpleEntry<>("fingerprint", keyword()),
+                        /* occurrences */
+                        new AbstractMap.SimpleEntry<>("count", digit("long")),
+                        /* executors sample */
+                        new AbstractMap.SimpleEntry<>("executors", keyword()),
+                        /* log paths sample */
+                        new AbstractMap.SimpleEntry<>("logPaths", keyword()),
                         /* heads rule */
                         new AbstractMap.SimpleEntry<>("heads", text()),
                         /* middles rule */
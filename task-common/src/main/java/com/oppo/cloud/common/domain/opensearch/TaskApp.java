@@ -31,6 +31,7 @@ import org.apache.commons.lang3.StringUtils;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 @Data
@@ -170,8 +171,17 @@ public class TaskApp extends OpenSearchInfo {
                 : baseIndex + "-" + DateUtil.format(this.getExecutionDate(), "yyyy-MM-dd");
     }
 
+    /**
+     * Document id derived from the application id, so that concurrent writers address the same document
+     */
     public String genDocId() {
-        return StringUtils.isNotBlank(this.getDocId()) ? this.getDocId() : UUID.randomUUID().toString();
+        if (StringUtils.isNotBlank(this.getDocId())) {
+            return this.getDocId();
+        }
+        if (StringUtils.isBlank(applicationId)) {
+            return UUID.randomUUID().toString();
+        }
+        return UUID.nameUUIDFromBytes(applicationId.getBytes(StandardCharsets.UTF_8)).toString();
     }
 
     public void updateTaskApp(YarnApp yarnApp, SparkApp sparkApp, RedisService redisService, String sparkCompressionCodec) throws Exception {
@@ -16,12 +16,15 @@
 
 package com.oppo.cloud.common.service;
 
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.script.RedisScript;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Redis operation service
@@ -58,6 +61,16 @@ public interface RedisService {
      */
     Boolean hasKey(String key);
 
+    /**
+     * Set the expiration timeout of key in seconds
+     */
+    Boolean expire(String key, long timeout);
+
+    /**
+     * Publish a message on a channel
+     */
+    void publish(String channel, Object message);
+
     /**
      * Set the value of a hash hashKey
      */
@@ -137,4 +150,51 @@ public interface RedisService {
      */
     Boolean acquireLock(String key, String value, Long timeout);
 
+    /**
+     * Get the values of all given keys in one round trip, a missing key has a null value
+     * redis: MGET command
+     */
+    List<Object> multiGet(Collection<String> keys);
+
+    /**
+     * Set multiple keys to multiple values in one round trip
+     * redis: MSET command
+     */
+    Boolean multiSet(Map<String, Object> keyValues);
+
+    /**
+     * Set multiple hash fields of key in one round trip
+     * redis: HSET command
+     */
+    Boolean hMultiSet(String key, Map<Object, Object> entries);
+
+    /**
+     * Prepend values to key in one round trip, null on failure
+     * redis: LPUSH command
+     */
+    Long lLeftPushAll(String key, Collection<?> values);
+
+    /**
+     * Append values to key in one round trip, null on failure
+     * redis: RPUSH command
+     */
+    Long lRightPushAll(String key, Collection<?> values);
+
+    /**
+     * Add values with their scores to a sorted set at key in one round trip, null on failure
+     * redis: ZADD command
+     */
+    Long zSetAddAll(String key, Map<Object, Double> valueScores);
+
+    /**
+     * Remove values from sorted set in one round trip. Return number of removed elements, null on failure.
+     * redis: ZREM command
+     */
+    Long zSetRemoveAll(String key, Collection<?> values);
+
+    /**
+     * Execute commands in one pipeline, the results are returned in the order of the commands, null on failure
+     */
+    <T> List<T> executePipelined(Consumer<RedisOperations<String, Object>> commands, Class<T> resultType);
+
 }
@@ -17,15 +17,28 @@
 package com.oppo.cloud.common.service.impl;
 
 import com.oppo.cloud.common.service.RedisService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.core.script.RedisScript;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Redis operation implementation
@@ -33,6 +46,10 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 public class RedisServiceImpl implements RedisService {
 
+    private static final String BATCH_SIZE_METRIC = "compass.redis.batch.size";
+
+    private static final String BATCH_LATENCY_METRIC = "compass.redis.batch.latency";
+
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
@@ -117,6 +134,33 @@ public class RedisServiceImpl implements RedisService {
 
     }
 
+    /**
+     * Set the expiration timeout of key
+     * redis: EXPIRE command
+     */
+    @Override
+    public Boolean expire(String key, long timeout) {
+        try {
+            return redisTemplate.expire(key, timeout, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.error("failed to expire key: {}, timeout: {}, err: {}", key, timeout, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Publish a message on a channel
+     * redis: PUBLISH command
+     */
+    @Override
+    public void publish(String channel, Object message) {
+        try {
+            redisTemplate.convertAndSend(channel, message);
+        } catch (Exception e) {
+            log.error("failed to publish channel: {}, message: {}, err: {}", channel, message, e.getMessage());
+        }
+    }
+
     /**
      * Set the value of a hash hashKey
      * redis: HSET command
@@ -292,4 +336,183 @@ public class RedisServiceImpl implements RedisService {
     public Boolean acquireLock(String key, String value, Long timeout) {
         return redisTemplate.opsForValue().setIfAbsent(key, value, timeout, TimeUnit.SECONDS);
     }
+
+    /**
+     * Get the values of all given keys in one round trip, a missing key has a null value
+     */
+    @Override
+    public List<Object> multiGet(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        long start = System.nanoTime();
+        try {
+            return redisTemplate.opsForValue().multiGet(keys);
+        } catch (Exception e) {
+            log.error("failed to multiGet, keys: {}, err: {}", keys, e.getMessage());
+            return null;
+        } finally {
+            recordBatch("mget", keys.size(), start);
+        }
+    }
+
+    /**
+     * Set multiple keys to multiple values in one round trip
+     */
+    @Override
+    public Boolean multiSet(Map<String, Object> keyValues) {
+        if (keyValues.isEmpty()) {
+            return true;
+        }
+        long start = System.nanoTime();
+        try {
+            redisTemplate.opsForValue().multiSet(keyValues);
+            return true;
+        } catch (Exception e) {
+            log.error("failed to multiSet, keys: {}, err: {}", keyValues.keySet(), e.getMessage());
+            return false;
+        } finally {
+            recordBatch("mset", keyValues.size(), start);
+        }
+    }
+
+    /**
+     * Set multiple hash fields of key in one round trip
+     */
+    @Override
+    public Boolean hMultiSet(String key, Map<Object, Object> entries) {
+        if (entries.isEmpty()) {
+            return true;
+        }
+        long start = System.nanoTime();
+        try {
+            redisTemplate.opsForHash().putAll(key, entries);
+            return true;
+        } catch (Exception e) {
+            log.error("failed to hMultiSet, key: {}, hashKeys: {}, err: {}", key, entries.keySet(), e.getMessage());
+            return false;
+        } finally {
+            recordBatch("hset", entries.size(), start);
+        }
+    }
+
+    /**
+     * Prepend values to key in one round trip
+     */
+    @Override
+    public Long lLeftPushAll(String key, Collection<?> values) {
+        if (values.isEmpty()) {
+            return lLen(key);
+        }
+        long start = System.nanoTime();
+        try {
+            return redisTemplate.opsForList().leftPushAll(key, new ArrayList<Object>(values));
+        } catch (Exception e) {
+            log.error("failed to lLeftPushAll, key: {}, size: {}, err: {}", key, values.size(), e.getMessage());
+            return null;
+        } finally {
+            recordBatch("lpush", values.size(), start);
+        }
+    }
+
+    /**
+     * Append values to key in one round trip
+     */
+    @Override
+    public Long lRightPushAll(String key, Collection<?> values) {
+        if (values.isEmpty()) {
+            return lLen(key);
+        }
+        long start = System.nanoTime();
+        try {
+            return redisTemplate.opsForList().rightPushAll(key, new ArrayList<Object>(values));
+        } catch (Exception e) {
+            log.error("failed to lRightPushAll, key: {}, size: {}, err: {}", key, values.size(), e.getMessage());
+            return null;
+        } finally {
+            recordBatch("rpush", values.size(), start);
+        }
+    }
+
+    /**
+     * Add values with their scores to a sorted set at key in one round trip
+     */
+    @Override
+    public Long zSetAddAll(String key, Map<Object, Double> valueScores) {
+        if (valueScores.isEmpty()) {
+            return 0L;
+        }
+        long start = System.nanoTime();
+        try {
+            Set<ZSetOperations.TypedTuple<Object>> tuples = new HashSet<>();
+            valueScores.forEach((value, score) -> tuples.add(new DefaultTypedTuple<>(value, score)));
+            return redisTemplate.opsForZSet().add(key, tuples);
+        } catch (Exception e) {
+            log.error("failed to zSetAddAll, key: {}, size: {}, err: {}", key, valueScores.size(), e.getMessage());
+            return null;
+        } finally {
+            recordBatch("zadd", valueScores.size(), start);
+        }
+    }
+
+    /**
+     * Remove values from sorted set in one round trip. Return number of removed elements.
+     */
+    @Override
+    public Long zSetRemoveAll(String key, Collection<?> values) {
+        if (values.isEmpty()) {
+            return 0L;
+        }
+        long start = System.nanoTime();
+        try {
+            return redisTemplate.opsForZSet().remove(key, values.toArray());
+        } catch (Exception e) {
+            log.error("failed to zSetRemoveAll, key: {}, size: {}, err: {}", key, values.size(), e.getMessage());
+            return null;
+        } finally {
+            recordBatch("zrem", values.size(), start);
+        }
+    }
+
+    /**
+     * Execute commands in one pipeline, the results are returned in the order of the commands
+     */
+    @Override
+    public <T> List<T> executePipelined(Consumer<RedisOperations<String, Object>> commands, Class<T> resultType) {
+        long start = System.nanoTime();
+        List<Object> results;
+        try {
+            results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    commands.accept((RedisOperations<String, Object>) operations);
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            log.error("failed to executePipelined, err: {}", e.getMessage());
+            return null;
+        }
+        recordBatch("pipeline", results.size(), start);
+        List<T> typedResults = new ArrayList<>(results.size());
+        for (Object result : results) {
+            typedResults.add(resultType.cast(result));
+        }
+        return typedResults;
+    }
+
+    /**
+     * Record the batch size and round trip latency of a batch command
+     */
+    private void recordBatch(String command, int size, long startNanos) {
+        DistributionSummary.builder(BATCH_SIZE_METRIC)
+                .tag("command", command)
+                .register(Metrics.globalRegistry)
+                .record(size);
+        Timer.builder(BATCH_LATENCY_METRIC)
+                .tag("command", command)
+                .register(Metrics.globalRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
 }
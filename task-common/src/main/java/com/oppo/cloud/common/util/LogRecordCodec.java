@@ -0,0 +1,404 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util;
+
+import com.alibaba.fastjson2.JSONB;
+import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.TypeReference;
+import com.oppo.cloud.common.constant.LogPathType;
+import com.oppo.cloud.common.domain.job.App;
+import com.oppo.cloud.common.domain.job.LogInfo;
+import com.oppo.cloud.common.domain.job.LogPath;
+import com.oppo.cloud.common.domain.job.LogRecord;
+import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
+import com.oppo.cloud.common.domain.opensearch.TaskApp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LogRecord message codec.
+ * <p>
+ * The binary format is: magic(2 bytes) + version(1 byte) + body. In the body, the log paths of apps are prefix
+ * compressed against the previous path and repeated names(protocol, logType, logGroup) are written once into a
+ * symbol table, jobAnalysis and taskAppMap are encoded as JSONB.
+ * <p>
+ * On redis, the binary record is wrapped into a small json envelope carrying id, createTime and consumeCount,
+ * so that the consumer lua script keeps working. Decoding detects json or binary messages automatically.
+ */
+public class LogRecordCodec {
+
+    public static final String FORMAT_JSON = "json";
+
+    public static final String FORMAT_BINARY = "binary";
+
+    public static final String ENVELOPE_CODEC = "codec";
+
+    public static final String ENVELOPE_PAYLOAD = "payload";
+
+    private static final byte[] MAGIC = {'L', 'R'};
+
+    private static final byte VERSION = 1;
+
+    private static final String CODEC_NAME = "LR" + VERSION;
+
+    /**
+     * Encode logRecord as a redis message in the given format(json or binary)
+     */
+    public static String encode(LogRecord logRecord, String format) {
+        if (!FORMAT_BINARY.equals(format)) {
+            return JSONObject.toJSONString(logRecord);
+        }
+        JSONObject envelope = new JSONObject();
+        envelope.put("id", logRecord.getId());
+        envelope.put("createTime", logRecord.getCreateTime());
+        envelope.put("consumeCount", logRecord.getConsumeCount());
+        envelope.put(ENVELOPE_CODEC, CODEC_NAME);
+        envelope.put(ENVELOPE_PAYLOAD, Base64.getEncoder().encodeToString(toBytes(logRecord)));
+        return envelope.toJSONString();
+    }
+
+    /**
+     * Decode a redis message, either a json logRecord or a binary envelope
+     */
+    public static LogRecord decode(String message) {
+        JSONObject json = JSONObject.parseObject(message);
+        String codec = json.getString(ENVELOPE_CODEC);
+        if (codec == null) {
+            return json.toJavaObject(LogRecord.class);
+        }
+        if (!CODEC_NAME.equals(codec)) {
+            throw new IllegalArgumentException("unsupported logRecord codec: " + codec);
+        }
+        LogRecord logRecord = fromBytes(Base64.getDecoder().decode(json.getString(ENVELOPE_PAYLOAD)));
+        // the envelope is updated by the consumer, its fields take precedence
+        Integer consumeCount = json.getInteger("consumeCount");
+        if (consumeCount != null) {
+            logRecord.setConsumeCount(consumeCount);
+        }
+        Long createTime = json.getLong("createTime");
+        if (createTime != null) {
+            logRecord.setCreateTime(createTime);
+        }
+        return logRecord;
+    }
+
+    /**
+     * Encode logRecord as versioned binary
+     */
+    public static byte[] toBytes(LogRecord logRecord) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+            Writer writer = new Writer(new DataOutputStream(bytes));
+            writer.out.write(MAGIC);
+            writer.out.writeByte(VERSION);
+            writer.writeString(logRecord.getId());
+            writer.out.writeLong(logRecord.getCreateTime());
+            writer.writeVarInt(logRecord.getConsumeCount() == null ? 0 : logRecord.getConsumeCount());
+            writer.out.writeBoolean(Boolean.TRUE.equals(logRecord.getIsOneClick()));
+            writer.writeBytes(logRecord.getJobAnalysis() == null ? null : JSONB.toBytes(logRecord.getJobAnalysis()));
+            writer.writeBytes(logRecord.getTaskAppMap() == null ? null : JSONB.toBytes(logRecord.getTaskAppMap()));
+            writer.writeApps(logRecord.getApps());
+            writer.out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to encode logRecord " + logRecord.getId(), e);
+        }
+    }
+
+    /**
+     * Decode versioned binary logRecord
+     */
+    public static LogRecord fromBytes(byte[] data) {
+        if (!isBinary(data)) {
+            throw new IllegalArgumentException("not a binary logRecord");
+        }
+        try {
+            Reader reader = new Reader(new DataInputStream(new ByteArrayInputStream(data, MAGIC.length,
+                    data.length - MAGIC.length)));
+            byte version = reader.in.readByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("unsupported logRecord version: " + version);
+            }
+            LogRecord logRecord = new LogRecord();
+            logRecord.setId(reader.readString());
+            logRecord.setCreateTime(reader.in.readLong());
+            logRecord.setConsumeCount(reader.readVarInt());
+            logRecord.setIsOneClick(reader.in.readBoolean());
+            byte[] jobAnalysis = reader.readBytes();
+            if (jobAnalysis != null) {
+                logRecord.setJobAnalysis(JSONB.parseObject(jobAnalysis, JobAnalysis.class));
+            }
+            byte[] taskAppMap = reader.readBytes();
+            if (taskAppMap != null) {
+                logRecord.setTaskAppMap(JSONB.parseObject(taskAppMap, new TypeReference<Map<String, TaskApp>>() {
+                }.getType()));
+            }
+            logRecord.setApps(reader.readApps());
+            return logRecord;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("failed to decode logRecord", e);
+        }
+    }
+
+    public static boolean isBinary(byte[] data) {
+        return data != null && data.length > MAGIC.length && data[0] == MAGIC[0] && data[1] == MAGIC[1];
+    }
+
+    private static class Writer {
+
+        private final DataOutputStream out;
+
+        private final Map<String, Integer> symbols = new HashMap<>();
+
+        private String previousPath = "";
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeApps(List<App> apps) throws IOException {
+            if (apps == null) {
+                writeVarInt(-1);
+                return;
+            }
+            writeVarInt(apps.size());
+            for (App app : apps) {
+                writeString(app.getAppId());
+                writeVarInt(app.getTryNumber() == null ? -1 : app.getTryNumber());
+                writeString(app.getAmHost());
+                List<LogInfo> logInfoList = app.getLogInfoList();
+                writeVarInt(logInfoList == null ? -1 : logInfoList.size());
+                if (logInfoList == null) {
+                    continue;
+                }
+                for (LogInfo logInfo : logInfoList) {
+                    writeSymbol(logInfo.getLogGroup());
+                    Map<String, List<LogPath>> logPathMap = logInfo.getLogPathMap();
+                    writeVarInt(logPathMap == null ? -1 : logPathMap.size());
+                    if (logPathMap == null) {
+                        continue;
+                    }
+                    for (Map.Entry<String, List<LogPath>> entry : logPathMap.entrySet()) {
+                        writeSymbol(entry.getKey());
+                        writeVarInt(entry.getValue() == null ? -1 : entry.getValue().size());
+                        if (entry.getValue() == null) {
+                            continue;
+                        }
+                        for (LogPath logPath : entry.getValue()) {
+                            writeSymbol(logPath.getProtocol());
+                            writeSymbol(logPath.getLogType());
+                            out.writeByte(logPath.getLogPathType() == null ? -1 : logPath.getLogPathType().ordinal());
+                            writePath(logPath.getLogPath());
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * path: length of the prefix shared with the previous path + remaining suffix
+         */
+        void writePath(String path) throws IOException {
+            if (path == null) {
+                writeVarInt(-1);
+                return;
+            }
+            int max = Math.min(path.length(), previousPath.length());
+            int shared = 0;
+            while (shared < max && path.charAt(shared) == previousPath.charAt(shared)) {
+                shared++;
+            }
+            writeVarInt(shared);
+            writeString(path.substring(shared));
+            previousPath = path;
+        }
+
+        /**
+         * symbol: index into the symbol table, a new symbol is followed by its value
+         */
+        void writeSymbol(String value) throws IOException {
+            if (value == null) {
+                writeVarInt(-1);
+                return;
+            }
+            Integer index = symbols.get(value);
+            if (index != null) {
+                writeVarInt(index);
+                return;
+            }
+            writeVarInt(symbols.size());
+            symbols.put(value, symbols.size());
+            writeString(value);
+        }
+
+        void writeString(String value) throws IOException {
+            writeBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void writeBytes(byte[] value) throws IOException {
+            if (value == null) {
+                writeVarInt(-1);
+                return;
+            }
+            writeVarInt(value.length);
+            out.write(value);
+        }
+
+        /**
+         * zigzag varint, -1 marks null
+         */
+        void writeVarInt(int value) throws IOException {
+            int v = (value << 1) ^ (value >> 31);
+            while ((v & ~0x7F) != 0) {
+                out.writeByte((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.writeByte(v);
+        }
+    }
+
+    private static class Reader {
+
+        private final DataInputStream in;
+
+        private final List<String> symbols = new ArrayList<>();
+
+        private String previousPath = "";
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        List<App> readApps() throws IOException {
+            int appSize = readVarInt();
+            if (appSize < 0) {
+                return null;
+            }
+            List<App> apps = new ArrayList<>(appSize);
+            for (int i = 0; i < appSize; i++) {
+                App app = new App();
+                app.setAppId(readString());
+                int tryNumber = readVarInt();
+                app.setTryNumber(tryNumber < 0 ? null : tryNumber);
+                app.setAmHost(readString());
+                int logInfoSize = readVarInt();
+                if (logInfoSize >= 0) {
+                    List<LogInfo> logInfoList = new ArrayList<>(logInfoSize);
+                    for (int j = 0; j < logInfoSize; j++) {
+                        logInfoList.add(readLogInfo());
+                    }
+                    app.setLogInfoList(logInfoList);
+                }
+                apps.add(app);
+            }
+            return apps;
+        }
+
+        LogInfo readLogInfo() throws IOException {
+            LogInfo logInfo = new LogInfo();
+            logInfo.setLogGroup(readSymbol());
+            int mapSize = readVarInt();
+            if (mapSize < 0) {
+                return logInfo;
+            }
+            Map<String, List<LogPath>> logPathMap = new LinkedHashMap<>();
+            for (int i = 0; i < mapSize; i++) {
+                String key = readSymbol();
+                int pathSize = readVarInt();
+                List<LogPath> logPaths = null;
+                if (pathSize >= 0) {
+                    logPaths = new ArrayList<>(pathSize);
+                    for (int j = 0; j < pathSize; j++) {
+                        LogPath logPath = new LogPath();
+                        logPath.setProtocol(readSymbol());
+                        logPath.setLogType(readSymbol());
+                        byte logPathType = in.readByte();
+                        logPath.setLogPathType(logPathType < 0 ? null : LogPathType.values()[logPathType]);
+                        logPath.setLogPath(readPath());
+                        logPaths.add(logPath);
+                    }
+                }
+                logPathMap.put(key, logPaths);
+            }
+            logInfo.setLogPathMap(logPathMap);
+            return logInfo;
+        }
+
+        String readPath() throws IOException {
+            int shared = readVarInt();
+            if (shared < 0) {
+                return null;
+            }
+            String path = previousPath.substring(0, shared) + readString();
+            previousPath = path;
+            return path;
+        }
+
+        String readSymbol() throws IOException {
+            int index = readVarInt();
+            if (index < 0) {
+                return null;
+            }
+            if (index < symbols.size()) {
+                return symbols.get(index);
+            }
+            String value = readString();
+            symbols.add(value);
+            return value;
+        }
+
+        String readString() throws IOException {
+            byte[] value = readBytes();
+            return value == null ? null : new String(value, StandardCharsets.UTF_8);
+        }
+
+        byte[] readBytes() throws IOException {
+            int length = readVarInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] value = new byte[length];
+            in.readFully(value);
+            return value;
+        }
+
+        int readVarInt() throws IOException {
+            int v = 0;
+            int shift = 0;
+            while (true) {
+                int b = in.readUnsignedByte();
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+                shift += 7;
+            }
+            return (v >>> 1) ^ -(v & 1);
+        }
+    }
+}
@@ -0,0 +1,507 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util.opensearch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.opensearch.action.ActionListener;
+import org.opensearch.action.DocWriteRequest;
+import org.opensearch.action.bulk.BulkItemResponse;
+import org.opensearch.action.bulk.BulkRequest;
+import org.opensearch.action.bulk.BulkResponse;
+import org.opensearch.client.RequestOptions;
+import org.opensearch.client.RestHighLevelClient;
+import org.opensearch.rest.RestStatus;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Asynchronous bulk processor shared by writers.
+ * Documents are buffered and sent when the action count, byte size or flush interval is reached.
+ * In-flight bulk requests are capped, producers block once the buffered bytes exceed the buffer size,
+ * and only items rejected by the cluster (429) are retried with exponential backoff.
+ * Batches never exceed the byte ceiling of the size policy, which also decides what happens to oversized documents.
+ * When a spool is configured, batches failing because the cluster is unavailable are spooled to local disk.
+ */
+@Slf4j
+public class AsyncBulkProcessor implements Closeable {
+
+    /**
+     * Sends a bulk request, abstracted so that the transport can be stubbed.
+     */
+    public interface BulkSender {
+
+        void send(BulkRequest request, ActionListener<BulkResponse> listener);
+    }
+
+    private final BulkSender sender;
+
+    private final int bulkActions;
+
+    private final long bulkSize;
+
+    private final long bufferSize;
+
+    private final int maxRetries;
+
+    private final long retryBackoff;
+
+    private final int concurrentRequests;
+
+    private final Semaphore inFlight;
+
+    private final BulkSpool spool;
+
+    private final BulkSizePolicy sizePolicy;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    /**
+     * Items waiting for the next bulk request
+     */
+    private List<Item> buffer = new ArrayList<>();
+
+    /**
+     * Bytes of the items waiting for the next bulk request
+     */
+    private long bufferedBytes;
+
+    /**
+     * Bytes of all uncompleted items, buffered or in flight
+     */
+    private long pendingBytes;
+
+    private volatile boolean closed;
+
+    private AsyncBulkProcessor(Builder builder) {
+        this.sender = builder.sender;
+        this.bulkActions = builder.bulkActions;
+        this.bulkSize = Math.min(builder.bulkSize, builder.sizePolicy.getMaxRequestBytes());
+        this.bufferSize = builder.bufferSize;
+        this.maxRetries = builder.maxRetries;
+        this.retryBackoff = builder.retryBackoff;
+        this.concurrentRequests = builder.concurrentRequests;
+        this.inFlight = new Semaphore(builder.concurrentRequests);
+        this.spool = builder.spool;
+        this.sizePolicy = builder.sizePolicy;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "opensearch-bulk-processor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flushQuietly, builder.flushInterval, builder.flushInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public static Builder builder(RestHighLevelClient client) {
+        return new Builder((request, listener) -> client.bulkAsync(request, RequestOptions.DEFAULT, listener));
+    }
+
+    public static Builder builder(BulkSender sender) {
+        return new Builder(sender);
+    }
+
+    /**
+     * Add a document request, blocking while the buffer is full.
+     * The returned future completes with the item response, which may itself be a failure.
+     */
+    public CompletableFuture<BulkItemResponse> add(DocWriteRequest<?> request) {
+        if (closed) {
+            CompletableFuture<BulkItemResponse> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("bulk processor already closed"));
+            return future;
+        }
+        DocWriteRequest<?> fitted = sizePolicy.fit(request);
+        if (fitted == null) {
+            return CompletableFuture.completedFuture(BulkSizePolicy.droppedResponse(0, request));
+        }
+        Item item = new Item(fitted, BulkSizePolicy.sizeOf(fitted));
+        // oversized documents are sent alone instead of joining the buffer
+        boolean isolated = sizePolicy.isOversized(fitted);
+        List<Item> full = null;
+        List<Item> batch = null;
+        lock.lock();
+        try {
+            while (pendingBytes > 0 && pendingBytes + item.bytes > bufferSize) {
+                released.await();
+            }
+            pendingBytes += item.bytes;
+            if (isolated) {
+                batch = Collections.singletonList(item);
+            } else {
+                if (!buffer.isEmpty() && bufferedBytes + item.bytes > bulkSize) {
+                    full = drain();
+                }
+                buffer.add(item);
+                bufferedBytes += item.bytes;
+                if (buffer.size() >= bulkActions || bufferedBytes >= bulkSize) {
+                    batch = drain();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            item.future.completeExceptionally(e);
+            return item.future;
+        } finally {
+            lock.unlock();
+        }
+        if (full != null) {
+            execute(full);
+        }
+        if (batch != null) {
+            execute(batch);
+        }
+        return item.future;
+    }
+
+    /**
+     * Send buffered documents now
+     */
+    public void flush() {
+        List<Item> batch;
+        lock.lock();
+        try {
+            batch = drain();
+        } finally {
+            lock.unlock();
+        }
+        if (!batch.isEmpty()) {
+            execute(batch);
+        }
+    }
+
+    /**
+     * Flush and wait until every document has completed
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        closed = true;
+        flush();
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (pendingBytes > 0) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = released.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+        scheduler.shutdown();
+        return true;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (!awaitClose(30, TimeUnit.SECONDS)) {
+                log.warn("bulk processor closed with pending documents");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler.shutdownNow();
+    }
+
+    public int getInFlightRequests() {
+        return concurrentRequests - inFlight.availablePermits();
+    }
+
+    public long getPendingBytes() {
+        lock.lock();
+        try {
+            return pendingBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Interval flush on the scheduler thread, skipped while every request slot is taken:
+     * the scheduler never blocks, so the retries it runs are not held behind a full processor
+     */
+    private void flushQuietly() {
+        try {
+            if (!inFlight.tryAcquire()) {
+                return;
+            }
+            List<Item> batch;
+            lock.lock();
+            try {
+                batch = drain();
+            } finally {
+                lock.unlock();
+            }
+            if (batch.isEmpty()) {
+                inFlight.release();
+                return;
+            }
+            send(batch);
+        } catch (Exception e) {
+            log.error("Exception:", e);
+        }
+    }
+
+    private List<Item> drain() {
+        List<Item> batch = buffer;
+        buffer = new ArrayList<>();
+        bufferedBytes = 0;
+        return batch;
+    }
+
+    private void execute(List<Item> batch) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(batch, e);
+            return;
+        }
+        send(batch);
+    }
+
+    /**
+     * Send a batch on the scheduler thread after the delay, waiting again while every request slot is taken
+     */
+    private void executeLater(List<Item> batch, long delay) {
+        try {
+            scheduler.schedule(() -> {
+                if (inFlight.tryAcquire()) {
+                    send(batch);
+                } else {
+                    executeLater(batch, retryBackoff);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            fail(batch, e);
+        }
+    }
+
+    /**
+     * Send a batch with a request slot already taken
+     */
+    private void send(List<Item> batch) {
+        BulkRequest request = new BulkRequest();
+        batch.forEach(item -> request.add(item.request));
+        BulkSizePolicy.recordRequest(batch.stream().mapToLong(item -> item.bytes).sum());
+        try {
+            sender.send(request, new ActionListener<BulkResponse>() {
+
+                @Override
+                public void onResponse(BulkResponse response) {
+                    inFlight.release();
+                    handle(batch, response);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    inFlight.release();
+                    log.error("bulkErr:{},{}", batch.size(), e.getMessage());
+                    spoolOrFail(batch, e);
+                }
+            });
+        } catch (Exception e) {
+            inFlight.release();
+            log.error("bulkErr:{},{}", batch.size(), e.getMessage());
+            spoolOrFail(batch, e);
+        }
+    }
+
+    private void spoolOrFail(List<Item> batch, Exception e) {
+        if (spool != null && BulkSpool.isOutage(e)
+                && spool.append(batch.stream().map(item -> item.request).collect(Collectors.toList()))) {
+            fail(batch, new BulkSpool.SpooledException(batch.size(), e));
+            return;
+        }
+        fail(batch, e);
+    }
+
+    private void handle(List<Item> batch, BulkResponse response) {
+        BulkItemResponse[] responses = response.getItems();
+        List<Item> rejected = new ArrayList<>();
+        List<DocWriteRequest<?>> written = new ArrayList<>(batch.size());
+        int attempt = 0;
+        int rejections = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Item item = batch.get(i);
+            BulkItemResponse itemResponse = i < responses.length ? responses[i] : null;
+            if (itemResponse != null && isRejected(itemResponse)) {
+                rejections++;
+            }
+            if (itemResponse == null) {
+                fail(item, new IllegalStateException("missing bulk item response"));
+            } else if (isRejected(itemResponse) && item.attempts < maxRetries) {
+                item.attempts++;
+                attempt = Math.max(attempt, item.attempts);
+                rejected.add(item);
+            } else {
+                if (!itemResponse.isFailed()) {
+                    written.add(item.request);
+                }
+                complete(item, itemResponse);
+            }
+        }
+        BulkSizePolicy.recordRejected(rejections);
+        if (spool != null) {
+            spool.written(written);
+        }
+        if (rejected.isEmpty()) {
+            return;
+        }
+        long delay = retryBackoff << (attempt - 1);
+        log.warn("bulkRejected:{}, retry in {}ms", rejected.size(), delay);
+        executeLater(rejected, delay);
+    }
+
+    private boolean isRejected(BulkItemResponse response) {
+        return response.isFailed() && response.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS;
+    }
+
+    private void complete(Item item, BulkItemResponse response) {
+        item.future.complete(response);
+        release(item);
+    }
+
+    private void fail(Item item, Exception e) {
+        item.future.completeExceptionally(e);
+        release(item);
+    }
+
+    private void fail(List<Item> batch, Exception e) {
+        batch.forEach(item -> fail(item, e));
+    }
+
+    private void release(Item item) {
+        lock.lock();
+        try {
+            pendingBytes -= item.bytes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Item {
+
+        private final DocWriteRequest<?> request;
+
+        private final long bytes;
+
+        private final CompletableFuture<BulkItemResponse> future = new CompletableFuture<>();
+
+        private int attempts;
+
+        Item(DocWriteRequest<?> request, long bytes) {
+            this.request = request;
+            this.bytes = bytes;
+        }
+    }
+
+    public static class Builder {
+
+        private final BulkSender sender;
+
+        private int bulkActions = 1000;
+
+        private long bulkSize = 5 * 1024 * 1024;
+
+        private long bufferSize = 50 * 1024 * 1024;
+
+        private long flushInterval = 1000;
+
+        private int concurrentRequests = 2;
+
+        private int maxRetries = 3;
+
+        private long retryBackoff = 200;
+
+        private BulkSpool spool;
+
+        private BulkSizePolicy sizePolicy = BulkSizePolicy.defaults();
+
+        private Builder(BulkSender sender) {
+            this.sender = sender;
+        }
+
+        public Builder bulkActions(int bulkActions) {
+            this.bulkActions = bulkActions;
+            return this;
+        }
+
+        public Builder bulkSize(long bytes) {
+            this.bulkSize = bytes;
+            return this;
+        }
+
+        public Builder bufferSize(long bytes) {
+            this.bufferSize = bytes;
+            return this;
+        }
+
+        public Builder flushInterval(long millis) {
+            this.flushInterval = millis;
+            return this;
+        }
+
+        public Builder concurrentRequests(int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public Builder retryBackoff(long millis) {
+            this.retryBackoff = millis;
+            return this;
+        }
+
+        public Builder spool(BulkSpool spool) {
+            this.spool = spool;
+            return this;
+        }
+
+        public Builder sizePolicy(BulkSizePolicy sizePolicy) {
+            this.sizePolicy = sizePolicy;
+            return this;
+        }
+
+        public AsyncBulkProcessor build() {
+            if (bulkActions <= 0 || bulkSize <= 0 || concurrentRequests <= 0 || flushInterval <= 0) {
+                throw new IllegalArgumentException("bulk processor limits must be positive");
+            }
+            return new AsyncBulkProcessor(this);
+        }
+    }
+}
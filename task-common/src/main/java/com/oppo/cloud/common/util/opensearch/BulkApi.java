@@ -16,18 +16,24 @@
 
 package com.oppo.cloud.common.util.opensearch;
 
+import org.opensearch.action.DocWriteRequest;
+import org.opensearch.action.DocWriteResponse;
+import org.opensearch.action.bulk.BulkItemResponse;
 import org.opensearch.action.bulk.BulkRequest;
 import org.opensearch.action.bulk.BulkResponse;
 import org.opensearch.action.index.IndexRequest;
 import org.opensearch.client.RequestOptions;
 import org.opensearch.client.RestHighLevelClient;
 import org.opensearch.common.xcontent.XContentType;
+import org.opensearch.rest.RestStatus;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Batch document addition interface
@@ -36,26 +42,62 @@ public class BulkApi {
 
     public static BulkResponse bulk(RestHighLevelClient client, final String index,
                                     final List<Map<String, Object>> documents) throws IOException {
-        final BulkRequest bulkRequest = new BulkRequest();
+        final List<DocWriteRequest<?>> requests = new ArrayList<>(documents.size());
         documents.forEach(document -> {
             final IndexRequest indexRequest = new IndexRequest(index);
             indexRequest.id((String) document.getOrDefault("docId", UUID.randomUUID().toString()));
             document.remove("docId");
             indexRequest.source(document);
-            bulkRequest.add(indexRequest);
+            requests.add(indexRequest);
         });
-        return client.bulk(bulkRequest, RequestOptions.DEFAULT);
+        return execute(client, requests, null);
     }
 
     public static BulkResponse bulkJson(RestHighLevelClient client, final String index,
                                         final List<String> list) throws IOException {
-        final BulkRequest bulkRequest = new BulkRequest();
+        final List<DocWriteRequest<?>> requests = new ArrayList<>(list.size());
         list.forEach(document -> {
             final IndexRequest indexRequest = new IndexRequest(index);
             indexRequest.source(document, XContentType.JSON);
-            bulkRequest.add(indexRequest);
+            requests.add(indexRequest);
         });
-        return client.bulk(bulkRequest, RequestOptions.DEFAULT);
+        return execute(client, requests, null);
+    }
+
+    /**
+     * 指定document _id, spooling the documents when the cluster is unavailable
+     */
+    public static BulkResponse bulkByIds(RestHighLevelClient client, final String index,
+                                         final Map<String, Map<String, Object>> documents,
+                                         BulkSpool spool) throws IOException {
+        final List<DocWriteRequest<?>> requests = new ArrayList<>(documents.size());
+        documents.forEach((k, v) -> requests.add(new IndexRequest(index).id(k).source(v)));
+        return execute(client, requests, spool);
+    }
+
+    /**
+     * Same as {@link #bulkByIds(RestHighLevelClient, String, Map, BulkSpool)} with the given size policy
+     */
+    public static BulkResponse bulkByIds(RestHighLevelClient client, final String index,
+                                         final Map<String, Map<String, Object>> documents,
+                                         BulkSpool spool, BulkSizePolicy policy) throws IOException {
+        final List<DocWriteRequest<?>> requests = new ArrayList<>(documents.size());
+        documents.forEach((k, v) -> requests.add(new IndexRequest(index).id(k).source(v)));
+        return execute(client, requests, spool, policy);
+    }
+
+    /**
+     * Send a bulk request; when the cluster is unavailable the request is spooled and
+     * {@link BulkSpool.SpooledException} is thrown.
+     */
+    public static BulkResponse bulkOrSpool(RestHighLevelClient client, BulkRequest bulkRequest,
+                                           BulkSpool spool) throws IOException {
+        return execute(client, bulkRequest.requests(), spool);
+    }
+
+    public static BulkResponse bulkOrSpool(RestHighLevelClient client, BulkRequest bulkRequest, BulkSpool spool,
+                                           BulkSizePolicy policy) throws IOException {
+        return execute(client, bulkRequest.requests(), spool, policy);
     }
 
     /**
@@ -63,13 +105,119 @@ public class BulkApi {
      */
     public static BulkResponse bulkByIds(RestHighLevelClient client, final String index,
                                          final Map<String, Map<String, Object>> documents) throws IOException {
-        final BulkRequest bulkRequest = new BulkRequest();
+        return bulkByIds(client, index, documents, null);
+    }
+
+    /**
+     * Send requests in chunks under the byte ceiling of the default size policy and merge the item responses
+     * in request order. Documents are never truncated, oversized ones are sent alone.
+     * When the cluster is unavailable and a spool is given, the unsent chunks are spooled
+     * and {@link BulkSpool.SpooledException} is thrown.
+     */
+    public static BulkResponse execute(RestHighLevelClient client, List<? extends DocWriteRequest<?>> requests,
+                                       BulkSpool spool) throws IOException {
+        return execute(client, requests, spool, BulkSizePolicy.defaults());
+    }
+
+    /**
+     * Same as {@link #execute(RestHighLevelClient, List, BulkSpool)} with the given size policy
+     */
+    public static BulkResponse execute(RestHighLevelClient client, List<? extends DocWriteRequest<?>> requests,
+                                       BulkSpool spool, BulkSizePolicy policy) throws IOException {
+        BulkItemResponse[] items = new BulkItemResponse[requests.size()];
+        List<DocWriteRequest<?>> fitted = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            DocWriteRequest<?> request = policy.fit(requests.get(i));
+            if (request == null) {
+                items[i] = BulkSizePolicy.droppedResponse(i, requests.get(i));
+            }
+            fitted.add(request);
+        }
+        List<List<Integer>> chunks = policy.split(fitted);
+        long took = 0;
+        for (int c = 0; c < chunks.size(); c++) {
+            List<Integer> chunk = chunks.get(c);
+            final BulkRequest bulkRequest = new BulkRequest();
+            long bytes = 0;
+            for (int position : chunk) {
+                bulkRequest.add(fitted.get(position));
+                bytes += BulkSizePolicy.sizeOf(fitted.get(position));
+            }
+            BulkResponse response;
+            try {
+                response = client.bulk(bulkRequest, RequestOptions.DEFAULT);
+            } catch (IOException | RuntimeException e) {
+                if (spool != null && BulkSpool.isOutage(e)) {
+                    List<DocWriteRequest<?>> unsent = new ArrayList<>();
+                    chunks.subList(c, chunks.size()).forEach(positions -> positions.forEach(p -> unsent.add(fitted.get(p))));
+                    if (spool.append(unsent)) {
+                        throw new BulkSpool.SpooledException(unsent.size(), e);
+                    }
+                }
+                throw e;
+            }
+            BulkSizePolicy.recordRequest(bytes);
+            took += response.getTook().millis();
+            BulkItemResponse[] chunkItems = response.getItems();
+            int rejected = 0;
+            List<DocWriteRequest<?>> written = new ArrayList<>(chunk.size());
+            for (int k = 0; k < chunkItems.length && k < chunk.size(); k++) {
+                BulkItemResponse item = chunkItems[k];
+                int position = chunk.get(k);
+                if (item.isFailed()) {
+                    if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                        rejected++;
+                    }
+                    items[position] = new BulkItemResponse(position, item.getOpType(), item.getFailure());
+                } else {
+                    items[position] = new BulkItemResponse(position, item.getOpType(), item.<DocWriteResponse>getResponse());
+                    written.add(fitted.get(position));
+                }
+            }
+            BulkSizePolicy.recordRejected(rejected);
+            if (spool != null) {
+                spool.written(written);
+            }
+        }
+        return new BulkResponse(items, took);
+    }
+
+    /**
+     * Submit documents to the async bulk processor, one future per document
+     */
+    public static List<CompletableFuture<BulkItemResponse>> bulk(AsyncBulkProcessor processor, final String index,
+                                                                 final List<Map<String, Object>> documents) {
+        List<CompletableFuture<BulkItemResponse>> futures = new ArrayList<>(documents.size());
+        documents.forEach(document -> {
+            final IndexRequest indexRequest = new IndexRequest(index);
+            indexRequest.id((String) document.getOrDefault("docId", UUID.randomUUID().toString()));
+            document.remove("docId");
+            indexRequest.source(document);
+            futures.add(processor.add(indexRequest));
+        });
+        return futures;
+    }
+
+    public static List<CompletableFuture<BulkItemResponse>> bulkJson(AsyncBulkProcessor processor, final String index,
+                                                                     final List<String> list) {
+        List<CompletableFuture<BulkItemResponse>> futures = new ArrayList<>(list.size());
+        list.forEach(document -> {
+            final IndexRequest indexRequest = new IndexRequest(index);
+            indexRequest.source(document, XContentType.JSON);
+            futures.add(processor.add(indexRequest));
+        });
+        return futures;
+    }
+
+    public static List<CompletableFuture<BulkItemResponse>> bulkByIds(AsyncBulkProcessor processor, final String index,
+                                                                      final Map<String, Map<String, Object>> documents) {
+        List<CompletableFuture<BulkItemResponse>> futures = new ArrayList<>(documents.size());
         documents.forEach((k, v) -> {
             final IndexRequest indexRequest = new IndexRequest(index);
             indexRequest.source(v);
             indexRequest.id(k);
-            bulkRequest.add(indexRequest);
+            futures.add(processor.add(indexRequest));
         });
-        return client.bulk(bulkRequest, RequestOptions.DEFAULT);
+        return futures;
     }
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util.opensearch;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.opensearch.action.DocWriteRequest;
+import org.opensearch.action.bulk.BulkItemResponse;
+import org.opensearch.action.index.IndexRequest;
+import org.opensearch.action.update.UpdateRequest;
+import org.opensearch.common.bytes.BytesReference;
+import org.opensearch.common.xcontent.XContentType;
+import org.opensearch.rest.RestStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size limits of bulk writes: requests are split at a byte ceiling,
+ * and documents above the document limit are truncated, sent alone or dropped.
+ */
+@Slf4j
+@Getter
+public class BulkSizePolicy {
+
+    public enum OversizeAction {
+        /**
+         * Cut the longest string fields until the document fits
+         */
+        TRUNCATE,
+        /**
+         * Send the document in a bulk request of its own
+         */
+        ISOLATE,
+        /**
+         * Do not send the document, its item fails with 413
+         */
+        DROP
+    }
+
+    public static final String DOCUMENTS_METRIC = "compass.opensearch.bulk.documents";
+
+    public static final String REQUEST_BYTES_METRIC = "compass.opensearch.bulk.request.bytes";
+
+    /**
+     * Bytes of the action line and separators added to each document
+     */
+    private static final int ACTION_OVERHEAD = 128;
+
+    private static final String TRUNCATED_SUFFIX = "...[truncated]";
+
+    private final long maxRequestBytes;
+
+    private final long maxDocumentBytes;
+
+    private final OversizeAction oversizeAction;
+
+    public BulkSizePolicy(long maxRequestBytes, long maxDocumentBytes, OversizeAction oversizeAction) {
+        if (maxRequestBytes <= 0 || maxDocumentBytes <= 0) {
+            throw new IllegalArgumentException("bulk size limits must be positive");
+        }
+        this.maxRequestBytes = maxRequestBytes;
+        this.maxDocumentBytes = Math.min(maxDocumentBytes, maxRequestBytes);
+        this.oversizeAction = oversizeAction;
+    }
+
+    /**
+     * Chunking only: documents are never modified, oversized ones are sent alone
+     */
+    public static BulkSizePolicy defaults() {
+        return new BulkSizePolicy(10 * 1024 * 1024, 1024 * 1024, OversizeAction.ISOLATE);
+    }
+
+    /**
+     * Serialized size of a request in a bulk body
+     */
+    public static long sizeOf(DocWriteRequest<?> request) {
+        if (request instanceof IndexRequest && ((IndexRequest) request).source() != null) {
+            return ((IndexRequest) request).source().length() + ACTION_OVERHEAD;
+        }
+        if (request instanceof UpdateRequest) {
+            return ((UpdateRequest) request).ramBytesUsed() + ACTION_OVERHEAD;
+        }
+        return ACTION_OVERHEAD;
+    }
+
+    public boolean isOversized(DocWriteRequest<?> request) {
+        return sizeOf(request) > maxDocumentBytes;
+    }
+
+    /**
+     * Apply the oversize action.
+     *
+     * @return the request to send, possibly truncated, or null when it is dropped
+     */
+    public DocWriteRequest<?> fit(DocWriteRequest<?> request) {
+        if (!isOversized(request)) {
+            return request;
+        }
+        long size = sizeOf(request);
+        switch (oversizeAction) {
+            case DROP:
+                log.warn("bulkDocumentDropped:{},{},{}", request.index(), request.id(), size);
+                count("dropped");
+                return null;
+            case TRUNCATE:
+                if (request instanceof IndexRequest && truncate((IndexRequest) request)) {
+                    log.warn("bulkDocumentTruncated:{},{},{}", request.index(), request.id(), size);
+                    count("truncated");
+                    return request;
+                }
+                // fall through when nothing can be cut
+            default:
+                log.warn("bulkDocumentIsolated:{},{},{}", request.index(), request.id(), size);
+                count("isolated");
+                return request;
+        }
+    }
+
+    /**
+     * Group requests into chunks under the byte ceiling; oversized requests get chunks of their own.
+     * Null requests (dropped) are skipped.
+     *
+     * @return positions of the requests in each chunk
+     */
+    public List<List<Integer>> split(List<? extends DocWriteRequest<?>> requests) {
+        List<List<Integer>> chunks = new ArrayList<>();
+        List<Integer> current = new ArrayList<>();
+        long currentBytes = 0;
+        for (int i = 0; i < requests.size(); i++) {
+            DocWriteRequest<?> request = requests.get(i);
+            if (request == null) {
+                continue;
+            }
+            long size = sizeOf(request);
+            if (size > maxDocumentBytes) {
+                chunks.add(Collections.singletonList(i));
+                continue;
+            }
+            if (!current.isEmpty() && currentBytes + size > maxRequestBytes) {
+                chunks.add(current);
+                current = new ArrayList<>();
+                currentBytes = 0;
+            }
+            current.add(i);
+            currentBytes += size;
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+        if (chunks.size() > 1) {
+            log.info("bulkSplit:{},{}", requests.size(), chunks.size());
+        }
+        return chunks;
+    }
+
+    /**
+     * Item response of a dropped document
+     */
+    public static BulkItemResponse droppedResponse(int position, DocWriteRequest<?> request) {
+        return new BulkItemResponse(position, request.opType(), new BulkItemResponse.Failure(request.index(),
+                "_doc", request.id(), new IllegalArgumentException("document exceeds the bulk size limit"),
+                RestStatus.REQUEST_ENTITY_TOO_LARGE));
+    }
+
+    public static void recordRequest(long bytes) {
+        DistributionSummary.builder(REQUEST_BYTES_METRIC)
+                .baseUnit("bytes")
+                .register(Metrics.globalRegistry)
+                .record(bytes);
+    }
+
+    public static void recordRejected(int count) {
+        if (count > 0) {
+            Metrics.counter(DOCUMENTS_METRIC, "outcome", "rejected").increment(count);
+        }
+    }
+
+    private static void count(String outcome) {
+        Metrics.counter(DOCUMENTS_METRIC, "outcome", outcome).increment();
+    }
+
+    /**
+     * Cut the longest top-level string fields of a json document until it fits
+     */
+    private boolean truncate(IndexRequest request) {
+        if (request.getContentType() != XContentType.JSON) {
+            return false;
+        }
+        JSONObject source = JSON.parseObject(BytesReference.toBytes(request.source()));
+        long excess = sizeOf(request) - maxDocumentBytes;
+        boolean cut = false;
+        while (excess > 0) {
+            Map.Entry<String, Object> longest = null;
+            for (Map.Entry<String, Object> entry : source.entrySet()) {
+                if (entry.getValue() instanceof String && (longest == null
+                        || ((String) entry.getValue()).length() > ((String) longest.getValue()).length())) {
+                    longest = entry;
+                }
+            }
+            if (longest == null || ((String) longest.getValue()).length() <= TRUNCATED_SUFFIX.length()) {
+                return false;
+            }
+            String value = (String) longest.getValue();
+            int bytes = value.getBytes(StandardCharsets.UTF_8).length;
+            int keep = (int) Math.max(0, (long) value.length() * (bytes - excess - TRUNCATED_SUFFIX.length()) / bytes);
+            longest.setValue(value.substring(0, keep) + TRUNCATED_SUFFIX);
+            cut = true;
+            byte[] json = source.toJSONString().getBytes(StandardCharsets.UTF_8);
+            excess = json.length + ACTION_OVERHEAD - maxDocumentBytes;
+            if (excess <= 0) {
+                request.source(json, XContentType.JSON);
+            }
+        }
+        return cut;
+    }
+}
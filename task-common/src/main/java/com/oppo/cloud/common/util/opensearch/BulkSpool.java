@@ -0,0 +1,663 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util.opensearch;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.opensearch.OpenSearchStatusException;
+import org.opensearch.action.DocWriteRequest;
+import org.opensearch.action.bulk.BulkItemResponse;
+import org.opensearch.action.bulk.BulkRequest;
+import org.opensearch.action.bulk.BulkResponse;
+import org.opensearch.action.delete.DeleteRequest;
+import org.opensearch.action.index.IndexRequest;
+import org.opensearch.action.update.UpdateRequest;
+import org.opensearch.client.RequestOptions;
+import org.opensearch.client.RestHighLevelClient;
+import org.opensearch.common.Strings;
+import org.opensearch.common.bytes.BytesReference;
+import org.opensearch.common.xcontent.DeprecationHandler;
+import org.opensearch.common.xcontent.NamedXContentRegistry;
+import org.opensearch.common.xcontent.XContentParser;
+import org.opensearch.common.xcontent.XContentType;
+import org.opensearch.rest.RestStatus;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only local spool for bulk writes that failed because the cluster was unavailable.
+ * Requests are appended to checksummed segment files under a size cap,
+ * and a background drainer replays sealed segments at a limited rate once the cluster recovers.
+ * Record layout: [int length][int crc32][int header length][header json][body].
+ * <p>
+ * Every record carries a sequence number. Writers report their successful index and delete requests through
+ * {@link #written}, and spooled records of those documents that are older than the write are dropped on replay,
+ * so that stale data never overwrites newer data.
+ */
+@Slf4j
+public class BulkSpool implements Closeable {
+
+    /**
+     * Thrown to callers when their documents were spooled instead of written
+     */
+    public static class SpooledException extends IOException {
+
+        public SpooledException(int count, Throwable cause) {
+            super(String.format("%d documents spooled for replay: %s", count, cause.getMessage()), cause);
+        }
+    }
+
+    /**
+     * Synchronous bulk call used for replay
+     */
+    public interface BulkReplayer {
+
+        BulkResponse bulk(BulkRequest request) throws IOException;
+    }
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".spool";
+
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+
+    private final Path dir;
+
+    private final long segmentSize;
+
+    private final long maxSize;
+
+    private final int drainRate;
+
+    private final int drainBatch;
+
+    private final BulkReplayer replayer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final ScheduledExecutorService drainer;
+
+    private FileChannel active;
+
+    private Path activePath;
+
+    private long activeSize;
+
+    private long totalSize;
+
+    private long nextSequence;
+
+    /**
+     * Offset already replayed in the oldest segment, so that a paused drain resumes where it stopped
+     */
+    private Path drainingPath;
+
+    private long drainedOffset;
+
+    private volatile boolean closed;
+
+    /**
+     * Sequence number of the last spooled record
+     */
+    private final AtomicLong recordSequence = new AtomicLong();
+
+    /**
+     * Latest record sequence of each document waiting in the spool, by index and id
+     */
+    private final Map<String, Long> spooledDocs = new ConcurrentHashMap<>();
+
+    /**
+     * Record sequence up to which the records of a document are superseded by a direct write
+     */
+    private final Map<String, Long> superseded = new ConcurrentHashMap<>();
+
+    /**
+     * @param dir         spool directory
+     * @param segmentSize bytes per segment file
+     * @param maxSize     total bytes kept on disk, appends beyond it are refused
+     * @param drainRate   documents replayed per second
+     */
+    public BulkSpool(String dir, long segmentSize, long maxSize, int drainRate, RestHighLevelClient client)
+            throws IOException {
+        this(dir, segmentSize, maxSize, drainRate, request -> client.bulk(request, RequestOptions.DEFAULT));
+    }
+
+    public BulkSpool(String dir, long segmentSize, long maxSize, int drainRate, BulkReplayer replayer)
+            throws IOException {
+        this.dir = Paths.get(dir);
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        this.drainRate = Math.max(drainRate, 1);
+        this.drainBatch = Math.min(this.drainRate, 500);
+        this.replayer = replayer;
+        Files.createDirectories(this.dir);
+        for (Path segment : segments()) {
+            totalSize += Files.size(segment);
+            nextSequence = Math.max(nextSequence, sequence(segment) + 1);
+            recover(segment);
+        }
+        if (totalSize > 0) {
+            log.info("spoolRecovered:{},{}", dir, totalSize);
+        }
+        this.drainer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "opensearch-spool-drainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Whether a bulk failure means the cluster is unavailable, as opposed to a bad request
+     */
+    public static boolean isOutage(Exception e) {
+        if (e instanceof OpenSearchStatusException) {
+            RestStatus status = ((OpenSearchStatusException) e).status();
+            return status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+        }
+        return e instanceof IOException;
+    }
+
+    /**
+     * Start replaying spooled requests every interval
+     */
+    public void start(long interval, TimeUnit unit) {
+        drainer.scheduleWithFixedDelay(() -> {
+            try {
+                drain();
+            } catch (Exception e) {
+                log.error("Exception:", e);
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Append requests durably, returning false when they cannot be spooled
+     */
+    public boolean append(List<? extends DocWriteRequest<?>> requests) {
+        if (closed || requests.isEmpty()) {
+            return false;
+        }
+        List<byte[]> records = new ArrayList<>(requests.size());
+        List<Long> sequences = new ArrayList<>(requests.size());
+        long bytes = 0;
+        try {
+            for (DocWriteRequest<?> request : requests) {
+                long sequence = recordSequence.incrementAndGet();
+                byte[] record = encode(request, sequence);
+                records.add(record);
+                sequences.add(sequence);
+                bytes += record.length;
+            }
+        } catch (Exception e) {
+            log.error("spoolEncodeErr:{}", e.getMessage());
+            return false;
+        }
+        lock.lock();
+        try {
+            if (totalSize + bytes > maxSize) {
+                log.error("spoolFull:{},{},{}", dir, totalSize, requests.size());
+                return false;
+            }
+            if (active == null || (activeSize > 0 && activeSize + bytes > segmentSize)) {
+                roll();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) bytes);
+            records.forEach(buffer::put);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                active.write(buffer);
+            }
+            active.force(false);
+            activeSize += bytes;
+            totalSize += bytes;
+            for (int i = 0; i < requests.size(); i++) {
+                String doc = docKey(requests.get(i));
+                if (doc != null) {
+                    spooledDocs.merge(doc, sequences.get(i), Math::max);
+                }
+            }
+            log.warn("spoolAppend:{},{},{}", activePath.getFileName(), requests.size(), totalSize);
+            return true;
+        } catch (IOException e) {
+            log.error("spoolAppendErr:{}", e.getMessage());
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replay spooled segments oldest first, stopping at the first outage.
+     *
+     * @return number of documents replayed
+     */
+    public int drain() throws IOException {
+        int replayed = 0;
+        List<Path> sealed = sealedSegments();
+        for (Path segment : sealed) {
+            int n = replay(segment);
+            if (n < 0) {
+                return replayed;
+            }
+            replayed += n;
+        }
+        return replayed;
+    }
+
+    /**
+     * Report requests written directly to the cluster. Index and delete requests replace the whole document,
+     * so its records spooled before are not replayed anymore.
+     */
+    public void written(Collection<? extends DocWriteRequest<?>> requests) {
+        if (spooledDocs.isEmpty()) {
+            return;
+        }
+        for (DocWriteRequest<?> request : requests) {
+            if (!(request instanceof IndexRequest) && !(request instanceof DeleteRequest)) {
+                continue;
+            }
+            String doc = docKey(request);
+            if (doc != null && spooledDocs.containsKey(doc)) {
+                superseded.merge(doc, recordSequence.get(), Math::max);
+            }
+        }
+    }
+
+    public long getSize() {
+        lock.lock();
+        try {
+            return totalSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        drainer.shutdownNow();
+        lock.lock();
+        try {
+            closeActive();
+        } catch (IOException e) {
+            log.error("Exception:", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Segments ready to be replayed. The active segment is sealed when nothing older is left.
+     */
+    private List<Path> sealedSegments() throws IOException {
+        lock.lock();
+        try {
+            List<Path> segments = segments();
+            if (activePath != null) {
+                segments.remove(activePath);
+                if (segments.isEmpty() && activeSize > 0) {
+                    segments.add(activePath);
+                    closeActive();
+                }
+            }
+            return segments;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return documents replayed, or -1 when the cluster is still unavailable
+     */
+    private int replay(Path segment) throws IOException {
+        long offset = segment.equals(drainingPath) ? drainedOffset : 0;
+        long size = Files.size(segment);
+        int replayed = 0;
+        int dropped = 0;
+        boolean corrupt = false;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(segment))) {
+            DataInputStream input = new DataInputStream(in);
+            skipFully(input, offset);
+            while (offset < size) {
+                List<Record> records = new ArrayList<>(drainBatch);
+                List<DocWriteRequest<?>> batch = new ArrayList<>(drainBatch);
+                long batchEnd = offset;
+                while (records.size() < drainBatch && batchEnd < size) {
+                    byte[] payload = readRecord(input, size - batchEnd);
+                    if (payload == null) {
+                        corrupt = true;
+                        break;
+                    }
+                    Record record = decodeRecord(payload);
+                    records.add(record);
+                    if (isSuperseded(record)) {
+                        dropped++;
+                    } else {
+                        batch.add(record.request);
+                    }
+                    batchEnd += 8 + payload.length;
+                }
+                if (!batch.isEmpty()) {
+                    long start = System.nanoTime();
+                    if (!send(batch)) {
+                        drainingPath = segment;
+                        drainedOffset = offset;
+                        return -1;
+                    }
+                    replayed += batch.size();
+                    pace(batch.size(), start);
+                }
+                records.forEach(this::settle);
+                offset = batchEnd;
+                if (corrupt) {
+                    break;
+                }
+            }
+        }
+        lock.lock();
+        try {
+            if (corrupt) {
+                log.error("spoolCorruptSegment:{},{}", segment, offset);
+                Files.move(segment, segment.resolveSibling(segment.getFileName() + CORRUPT_SUFFIX));
+            } else {
+                Files.delete(segment);
+            }
+            totalSize -= size;
+            drainingPath = null;
+            drainedOffset = 0;
+        } finally {
+            lock.unlock();
+        }
+        log.info("spoolReplayed:{},{},{}", segment.getFileName(), replayed, dropped);
+        return replayed;
+    }
+
+    /**
+     * Rebuild the spooled documents and the record sequence from a segment left by a previous run
+     */
+    private void recover(Path segment) throws IOException {
+        long size = Files.size(segment);
+        long offset = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(segment))) {
+            DataInputStream input = new DataInputStream(in);
+            while (offset < size) {
+                byte[] payload = readRecord(input, size - offset);
+                if (payload == null) {
+                    return;
+                }
+                JSONObject header = header(payload);
+                long sequence = header.getLongValue("seq");
+                recordSequence.accumulateAndGet(sequence, Math::max);
+                String doc = docKey(header.getString("index"), header.getString("id"));
+                if (doc != null) {
+                    spooledDocs.merge(doc, sequence, Math::max);
+                }
+                offset += 8 + payload.length;
+            }
+        }
+    }
+
+    private boolean isSuperseded(Record record) {
+        if (record.doc == null) {
+            return false;
+        }
+        Long writtenAfter = superseded.get(record.doc);
+        return writtenAfter != null && record.sequence <= writtenAfter;
+    }
+
+    /**
+     * Forget a document once its latest spooled record is replayed or dropped
+     */
+    private void settle(Record record) {
+        if (record.doc != null && spooledDocs.remove(record.doc, record.sequence)) {
+            superseded.remove(record.doc);
+        }
+    }
+
+    private static void skipFully(InputStream input, long n) throws IOException {
+        while (n > 0) {
+            long skipped = input.skip(n);
+            if (skipped <= 0) {
+                if (input.read() < 0) {
+                    throw new EOFException("spool segment truncated");
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * Read one record, returning null when it is truncated or fails checksum verification
+     */
+    private byte[] readRecord(DataInputStream input, long remaining) throws IOException {
+        try {
+            int length = input.readInt();
+            int checksum = input.readInt();
+            if (length <= 0 || length > remaining - 8) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            input.readFully(payload);
+            return checksum(payload) == checksum ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return false when the cluster is unavailable and the batch has to be replayed later
+     */
+    private boolean send(List<DocWriteRequest<?>> batch) {
+        BulkRequest request = new BulkRequest();
+        batch.forEach(request::add);
+        BulkResponse response;
+        try {
+            response = replayer.bulk(request);
+        } catch (Exception e) {
+            if (isOutage(e)) {
+                log.warn("spoolDrainPaused:{}", e.getMessage());
+                return false;
+            }
+            log.error("spoolReplayErr:{},{}", batch.size(), e.getMessage());
+            return true;
+        }
+        for (BulkItemResponse item : response.getItems()) {
+            if (item.isFailed()) {
+                if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                    log.warn("spoolDrainRejected:{}", item.getId());
+                    return false;
+                }
+                log.error("spoolReplayErr:{},{}", item.getId(), item.getFailureMessage());
+            }
+        }
+        return true;
+    }
+
+    private void pace(int documents, long start) {
+        long expected = TimeUnit.SECONDS.toNanos(documents) / drainRate;
+        long elapsed = System.nanoTime() - start;
+        if (elapsed < expected) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(expected - elapsed);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void roll() throws IOException {
+        closeActive();
+        activePath = dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX));
+        active = FileChannel.open(activePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        activeSize = 0;
+    }
+
+    private void closeActive() throws IOException {
+        if (active != null) {
+            active.close();
+        }
+        active = null;
+        activePath = null;
+        activeSize = 0;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    private static long sequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static String docKey(DocWriteRequest<?> request) {
+        return docKey(request.index(), request.id());
+    }
+
+    private static String docKey(String index, String id) {
+        return index == null || id == null ? null : index + "/" + id;
+    }
+
+    /**
+     * Decoded record with its sequence number
+     */
+    static class Record {
+
+        final DocWriteRequest<?> request;
+
+        final long sequence;
+
+        final String doc;
+
+        Record(DocWriteRequest<?> request, long sequence) {
+            this.request = request;
+            this.sequence = sequence;
+            this.doc = docKey(request);
+        }
+    }
+
+    static byte[] encode(DocWriteRequest<?> request, long sequence) throws IOException {
+        JSONObject header = new JSONObject();
+        header.put("seq", sequence);
+        header.put("index", request.index());
+        header.put("routing", request.routing());
+        byte[] body;
+        if (request instanceof IndexRequest) {
+            IndexRequest indexRequest = (IndexRequest) request;
+            // replay must not create duplicates, so auto generated ids are fixed here
+            header.put("op", "index");
+            header.put("id", request.id() != null ? request.id() : UUID.randomUUID().toString());
+            header.put("contentType", indexRequest.getContentType().name());
+            body = BytesReference.toBytes(indexRequest.source());
+        } else if (request instanceof UpdateRequest) {
+            header.put("op", "update");
+            header.put("id", request.id());
+            header.put("retryOnConflict", ((UpdateRequest) request).retryOnConflict());
+            body = Strings.toString((UpdateRequest) request).getBytes(StandardCharsets.UTF_8);
+        } else if (request instanceof DeleteRequest) {
+            header.put("op", "delete");
+            header.put("id", request.id());
+            body = new byte[0];
+        } else {
+            throw new IOException("unsupported request: " + request.getClass().getSimpleName());
+        }
+        byte[] headerBytes = header.toJSONString().getBytes(StandardCharsets.UTF_8);
+        int length = 4 + headerBytes.length + body.length;
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        payload.putInt(headerBytes.length).put(headerBytes).put(body);
+        ByteBuffer record = ByteBuffer.allocate(8 + length);
+        record.putInt(length).putInt(checksum(payload.array())).put(payload.array());
+        return record.array();
+    }
+
+    private static JSONObject header(byte[] payload) {
+        int headerLength = ByteBuffer.wrap(payload).getInt();
+        return JSON.parseObject(new String(payload, 4, headerLength, StandardCharsets.UTF_8));
+    }
+
+    static Record decodeRecord(byte[] payload) throws IOException {
+        return new Record(decode(payload), header(payload).getLongValue("seq"));
+    }
+
+    static DocWriteRequest<?> decode(byte[] payload) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        byte[] headerBytes = new byte[buffer.getInt()];
+        buffer.get(headerBytes);
+        byte[] body = new byte[buffer.remaining()];
+        buffer.get(body);
+        JSONObject header = JSON.parseObject(new String(headerBytes, StandardCharsets.UTF_8));
+        String index = header.getString("index");
+        String id = header.getString("id");
+        String routing = header.getString("routing");
+        switch (header.getString("op")) {
+            case "index":
+                return new IndexRequest(index).id(id).routing(routing)
+                        .source(body, XContentType.valueOf(header.getString("contentType")));
+            case "update":
+                UpdateRequest update = new UpdateRequest(index, id).routing(routing);
+                try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                        DeprecationHandler.THROW_UNSUPPORTED_OPERATION, body)) {
+                    update.fromXContent(parser);
+                }
+                return update.retryOnConflict(header.getIntValue("retryOnConflict"));
+            case "delete":
+                return new DeleteRequest(index, id).routing(routing);
+            default:
+                throw new IOException("unknown spool op: " + header.getString("op"));
+        }
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util.opensearch;
+
+import io.micrometer.core.instrument.Metrics;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.opensearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.opensearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.opensearch.action.admin.indices.forcemerge.ForceMergeRequest;
+import org.opensearch.action.admin.indices.forcemerge.ForceMergeResponse;
+import org.opensearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.opensearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.opensearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.opensearch.action.support.IndicesOptions;
+import org.opensearch.client.RequestOptions;
+import org.opensearch.client.RestHighLevelClient;
+import org.opensearch.client.indices.ResizeRequest;
+import org.opensearch.client.indices.ResizeResponse;
+import org.opensearch.common.settings.Settings;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lifecycle of daily indices "base-yyyy-MM-dd": tuned template settings, force-merge and write block once
+ * the index no longer changes, shrink of blocked indices and retention.
+ */
+@Slf4j
+public class IndexLifecycleManager {
+
+    public static final String ACTIONS_METRIC = "compass.opensearch.lifecycle.actions";
+
+    /**
+     * Shrunk copies are named after their source, which becomes an alias of the copy
+     */
+    public static final String SHRUNK_SUFFIX = "-shrunk";
+
+    private static final String BLOCKS_WRITE = "index.blocks.write";
+
+    /**
+     * Order of the settings template, above the mapping templates created by the portal
+     */
+    private static final int TEMPLATE_ORDER = 10;
+
+    @Data
+    public static class Policy {
+
+        /**
+         * Base name of the daily indices
+         */
+        private String index;
+
+        /**
+         * Primary shards of new indices, 0 keeps the cluster default
+         */
+        private int shards = 0;
+
+        /**
+         * Replicas of new indices, negative keeps the cluster default
+         */
+        private int replicas = -1;
+
+        /**
+         * Refresh interval of new indices, empty keeps the cluster default
+         */
+        private String refreshInterval = "30s";
+
+        /**
+         * Days after which an index is force-merged and blocked for writes, 0 disables. Writes to a blocked
+         * index are rejected, so only enable it past the last day documents of the index may still change
+         */
+        private int readOnlyAfterDays = 0;
+
+        /**
+         * Days after which a read-only index is shrunk, 0 disables. Shrinking needs a copy of every shard
+         * on one node, otherwise it fails and is tried again on the next run
+         */
+        private int shrinkAfterDays = 0;
+
+        private int shrinkShards = 1;
+
+        /**
+         * Days an index is kept, 0 keeps it forever
+         */
+        private int retentionDays = 0;
+    }
+
+    private final RestHighLevelClient client;
+
+    private final MappingApi mappingApi = new MappingApi();
+
+    public IndexLifecycleManager(RestHighLevelClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Apply every policy, failures of one policy do not stop the others
+     */
+    public void run(List<Policy> policies, LocalDate today) {
+        for (Policy policy : policies) {
+            try {
+                run(policy, today);
+            } catch (Exception e) {
+                log.error("indexLifecycleErr:{},{}", policy.getIndex(), e.getMessage());
+            }
+        }
+    }
+
+    public void run(Policy policy, LocalDate today) throws IOException {
+        applyTemplate(policy);
+        Pattern daily = Pattern.compile(Pattern.quote(policy.getIndex()) + "-(\\d{4}-\\d{2}-\\d{2})("
+                + Pattern.quote(SHRUNK_SUFFIX) + ")?");
+        GetSettingsResponse response = client.indices().getSettings(new GetSettingsRequest()
+                .indices(IndexRouter.wildcard(policy.getIndex()))
+                .indicesOptions(IndicesOptions.lenientExpandOpen()), RequestOptions.DEFAULT);
+        // oldest first
+        Map<String, Settings> indices = new TreeMap<>();
+        response.getIndexToSettings().forEach(cursor -> indices.put(cursor.key, cursor.value));
+        for (Map.Entry<String, Settings> entry : indices.entrySet()) {
+            String index = entry.getKey();
+            Matcher matcher = daily.matcher(index);
+            if (!matcher.matches()) {
+                continue;
+            }
+            LocalDate day;
+            try {
+                day = LocalDate.parse(matcher.group(1));
+            } catch (DateTimeParseException e) {
+                continue;
+            }
+            long age = ChronoUnit.DAYS.between(day, today);
+            Settings settings = entry.getValue();
+            try {
+                if (policy.getRetentionDays() > 0 && age > policy.getRetentionDays()) {
+                    delete(index);
+                    continue;
+                }
+                boolean readOnly = settings.getAsBoolean(BLOCKS_WRITE, false);
+                if (policy.getReadOnlyAfterDays() > 0 && age >= policy.getReadOnlyAfterDays() && !readOnly) {
+                    readOnly = forceMergeAndBlock(index);
+                }
+                boolean shrunk = matcher.group(2) != null;
+                if (policy.getShrinkAfterDays() > 0 && age >= policy.getShrinkAfterDays() && readOnly && !shrunk
+                        && settings.getAsInt("index.number_of_shards", 1) > policy.getShrinkShards()) {
+                    if (indices.containsKey(index + SHRUNK_SUFFIX)) {
+                        log.warn("indexShrinkPending:{}", index);
+                        continue;
+                    }
+                    shrink(index, policy.getShrinkShards());
+                }
+            } catch (Exception e) {
+                log.error("indexLifecycleErr:{},{}", index, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Settings-only template for the daily indices of the policy
+     */
+    public void applyTemplate(Policy policy) throws IOException {
+        Settings.Builder settings = Settings.builder();
+        if (policy.getShards() > 0) {
+            settings.put("index.number_of_shards", policy.getShards());
+        }
+        if (policy.getReplicas() >= 0) {
+            settings.put("index.number_of_replicas", policy.getReplicas());
+        }
+        if (policy.getRefreshInterval() != null && !policy.getRefreshInterval().isEmpty()) {
+            settings.put("index.refresh_interval", policy.getRefreshInterval());
+        }
+        if (settings.keys().isEmpty()) {
+            return;
+        }
+        mappingApi.putSettingsTemplate(client, policy.getIndex() + "-lifecycle",
+                new String[]{IndexRouter.wildcard(policy.getIndex())}, settings.build(), TEMPLATE_ORDER);
+    }
+
+    private void delete(String index) throws IOException {
+        client.indices().delete(new DeleteIndexRequest(index), RequestOptions.DEFAULT);
+        count("delete");
+        log.info("indexDeleted:{}", index);
+    }
+
+    /**
+     * Merge to a single segment, then block writes; the block marks the index as done
+     */
+    private boolean forceMergeAndBlock(String index) throws IOException {
+        ForceMergeResponse merge = client.indices().forcemerge(new ForceMergeRequest(index).maxNumSegments(1),
+                RequestOptions.DEFAULT);
+        if (merge.getFailedShards() > 0) {
+            log.warn("indexForceMergeFailed:{},{}", index, merge.getFailedShards());
+            return false;
+        }
+        client.indices().putSettings(new UpdateSettingsRequest(index)
+                .settings(Settings.builder().put(BLOCKS_WRITE, true)), RequestOptions.DEFAULT);
+        count("readonly");
+        log.info("indexReadOnly:{}", index);
+        return true;
+    }
+
+    /**
+     * Shrink into "index-shrunk", then atomically drop the source and alias its name to the copy,
+     * so that lookups by the original name keep working
+     */
+    private void shrink(String index, int shards) throws IOException {
+        String target = index + SHRUNK_SUFFIX;
+        ResizeRequest request = new ResizeRequest(target, index);
+        request.setSettings(Settings.builder()
+                .put("index.number_of_shards", shards)
+                .putNull("index.routing.allocation.require._name")
+                .build());
+        ResizeResponse response = client.indices().shrink(request, RequestOptions.DEFAULT);
+        if (!response.isShardsAcknowledged()) {
+            // the copy is not usable yet, keep the source and start over next time
+            log.warn("indexShrinkNotReady:{}", index);
+            client.indices().delete(new DeleteIndexRequest(target), RequestOptions.DEFAULT);
+            return;
+        }
+        IndicesAliasesRequest aliases = new IndicesAliasesRequest()
+                .addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(index))
+                .addAliasAction(IndicesAliasesRequest.AliasActions.add().index(target).alias(index));
+        client.indices().updateAliases(aliases, RequestOptions.DEFAULT);
+        count("shrink");
+        log.info("indexShrunk:{},{}", index, shards);
+    }
+
+    private static void count(String action) {
+        Metrics.counter(ACTIONS_METRIC, "action", action).increment();
+    }
+}
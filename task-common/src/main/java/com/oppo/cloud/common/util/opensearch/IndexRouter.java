@@ -0,0 +1,233 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util.opensearch;
+
+import com.oppo.cloud.common.service.RedisService;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routes a lookup key (application id, job) to the concrete daily indices its documents were written to,
+ * so that lookups do not fan out over every daily index. Routes are recorded by the writers, cached in memory
+ * and backed by a redis hash per key; unknown keys fall back to the wildcard pattern.
+ * Writers record a route before writing to its index, so a route recorded in redis covers every document
+ * of its key. Other instances keep adding indices to the redis hash, so cached routes are re-read from redis
+ * once they are older than the refresh interval, and searches always re-read them.
+ */
+@Slf4j
+public class IndexRouter {
+
+    public static final String ROUTE_KEY_PREFIX = "compass:index-route:";
+
+    public static final String LOOKUP_METRIC = "compass.opensearch.index.route";
+
+    /**
+     * Search over the given indices
+     */
+    public interface Lookup<T> {
+
+        List<T> find(String... indices) throws Exception;
+    }
+
+    private final RedisService redisService;
+
+    public static final long DEFAULT_REFRESH_SECONDS = 300;
+
+    private final long ttlSeconds;
+
+    private final long refreshMillis;
+
+    private final Map<String, Route> routes;
+
+    public IndexRouter(RedisService redisService, int maxEntries, long ttlSeconds) {
+        this(redisService, maxEntries, ttlSeconds, DEFAULT_REFRESH_SECONDS);
+    }
+
+    public IndexRouter(RedisService redisService, int maxEntries, long ttlSeconds, long refreshSeconds) {
+        this.redisService = redisService;
+        this.ttlSeconds = ttlSeconds;
+        this.refreshMillis = TimeUnit.SECONDS.toMillis(refreshSeconds);
+        this.routes = Collections.synchronizedMap(new LinkedHashMap<String, Route>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Route> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * Index pattern matching every daily index of a base index
+     */
+    public static String wildcard(String baseIndex) {
+        return base(baseIndex) + "-*";
+    }
+
+    /**
+     * Record that documents of key are written to index, call it before the write
+     */
+    public void record(String baseIndex, String key, String index) {
+        record(baseIndex, Collections.singletonMap(key, index));
+    }
+
+    /**
+     * Record the indices documents of keys are written to in one redis round trip, call it before the writes
+     */
+    public void record(String baseIndex, Map<String, String> indexByKey) {
+        Map<String, String> unknown = new LinkedHashMap<>();
+        indexByKey.forEach((key, index) -> {
+            if (key == null || index == null) {
+                return;
+            }
+            String routeKey = routeKey(baseIndex, key);
+            Set<String> indices = cached(routeKey);
+            if (indices == null || !indices.contains(index)) {
+                unknown.put(routeKey, index);
+            }
+        });
+        if (unknown.isEmpty()) {
+            return;
+        }
+        // hash values go through the string serializer of the redis template
+        String now = String.valueOf(System.currentTimeMillis());
+        // the whole hash is read back, other writers may have recorded indices of these keys
+        List<Object> results = redisService.executePipelined(operations -> unknown.forEach((routeKey, index) -> {
+            operations.opsForHash().put(routeKey, index, now);
+            operations.expire(routeKey, ttlSeconds, TimeUnit.SECONDS);
+            operations.opsForHash().entries(routeKey);
+        }), Object.class);
+        if (results == null || results.size() != unknown.size() * 3) {
+            log.error("recordIndexRouteErr:{}", unknown.keySet());
+            unknown.keySet().forEach(routes::remove);
+            return;
+        }
+        int position = 2;
+        for (String routeKey : unknown.keySet()) {
+            cache(routeKey, (Map<?, ?>) results.get(position));
+            position += 3;
+        }
+    }
+
+    /**
+     * Indices holding the documents of key, or the wildcard pattern when the key is unknown
+     */
+    public String[] route(String baseIndex, String key) {
+        if (key == null) {
+            return new String[]{wildcard(baseIndex)};
+        }
+        String routeKey = routeKey(baseIndex, key);
+        Set<String> indices = cached(routeKey);
+        String result = "memory";
+        if (indices == null) {
+            try {
+                indices = load(routeKey);
+                result = "redis";
+            } catch (Exception e) {
+                log.error("loadIndexRouteErr:{},{}", routeKey, e.getMessage());
+            }
+        }
+        if (indices == null || indices.isEmpty()) {
+            Metrics.counter(LOOKUP_METRIC, "result", "miss").increment();
+            return new String[]{wildcard(baseIndex)};
+        }
+        Metrics.counter(LOOKUP_METRIC, "result", result).increment();
+        return indices.toArray(new String[0]);
+    }
+
+    /**
+     * Search the indices of key. The route is re-read from redis, a cached one may miss indices recorded
+     * by other writers since. All daily indices are searched when the key is unknown, redis is unavailable
+     * or the routed indices hold nothing.
+     */
+    public <T> List<T> find(String baseIndex, String key, Lookup<T> lookup) throws Exception {
+        if (key != null) {
+            routes.remove(routeKey(baseIndex, key));
+        }
+        String[] indices = route(baseIndex, key);
+        List<T> items = lookup.find(indices);
+        if (!items.isEmpty() || isWildcard(indices)) {
+            return items;
+        }
+        Metrics.counter(LOOKUP_METRIC, "result", "fallback").increment();
+        return lookup.find(wildcard(baseIndex));
+    }
+
+    public static boolean isWildcard(String[] indices) {
+        return indices.length == 1 && indices[0].endsWith("*");
+    }
+
+    /**
+     * Cached indices of routeKey, null when unknown or due for a refresh
+     */
+    private Set<String> cached(String routeKey) {
+        Route route = routes.get(routeKey);
+        if (route == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - route.loadedAt >= refreshMillis) {
+            routes.remove(routeKey, route);
+            return null;
+        }
+        return route.indices;
+    }
+
+    private Set<String> load(String routeKey) {
+        return cache(routeKey, redisService.hGetAll(routeKey));
+    }
+
+    private Set<String> cache(String routeKey, Map<?, ?> hash) {
+        if (hash == null || hash.isEmpty()) {
+            return null;
+        }
+        Set<String> indices = ConcurrentHashMap.newKeySet();
+        for (Object index : hash.keySet()) {
+            indices.add(String.valueOf(index));
+        }
+        routes.put(routeKey, new Route(indices, System.currentTimeMillis()));
+        return indices;
+    }
+
+    private static String routeKey(String baseIndex, String key) {
+        return ROUTE_KEY_PREFIX + base(baseIndex) + ":" + key;
+    }
+
+    /**
+     * Writers configure index prefixes ending with '-', readers the bare index name
+     */
+    private static String base(String baseIndex) {
+        return baseIndex.endsWith("-") ? baseIndex.substring(0, baseIndex.length() - 1) : baseIndex;
+    }
+
+    private static class Route {
+
+        private final Set<String> indices;
+
+        private final long loadedAt;
+
+        Route(Set<String> indices, long loadedAt) {
+            this.indices = indices;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -65,6 +65,17 @@ public class MappingApi {
         return client.indices().putTemplate(request, RequestOptions.DEFAULT);
     }
 
+    /**
+     * Create a template holding index settings only, merged over templates of lower order
+     */
+    public AcknowledgedResponse putSettingsTemplate(RestHighLevelClient client, final String template,
+                                                    String[] patterns, Settings settings, int order) throws IOException {
+        PutIndexTemplateRequest request = new PutIndexTemplateRequest(template).patterns(Arrays.asList(patterns))
+                .settings(settings)
+                .order(order);
+        return client.indices().putTemplate(request, RequestOptions.DEFAULT);
+    }
+
     /**
      * Delete template by name
      */
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util.opensearch;
+
+import com.alibaba.fastjson2.JSON;
+import org.opensearch.script.Script;
+import org.opensearch.script.ScriptType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partial document upsert merged on the server side:
+ * plain fields overwrite, union fields are merged as sets, optionally bounded, counters are added
+ * and insert fields are only written when the document is created.
+ */
+public class PartialUpsert {
+
+    static final String SCRIPT = "if (ctx._source.isEmpty()) {"
+            + " for (e in params.insert.entrySet()) { ctx._source[e.getKey()] = e.getValue(); } }"
+            + " for (e in params.doc.entrySet()) { ctx._source[e.getKey()] = e.getValue(); }"
+            + " for (e in params.union.entrySet()) {"
+            + " def current = ctx._source[e.getKey()];"
+            + " if (current == null) { current = new ArrayList(); ctx._source[e.getKey()] = current; }"
+            + " def limit = params.limit.get(e.getKey());"
+            + " for (v in e.getValue()) { if (limit != null && current.size() >= limit) { break; }"
+            + " if (!current.contains(v)) { current.add(v); } } }"
+            + " for (e in params.inc.entrySet()) {"
+            + " def current = ctx._source[e.getKey()];"
+            + " ctx._source[e.getKey()] = (current == null ? 0 : current) + e.getValue(); }";
+
+    private final Map<String, Object> doc = new LinkedHashMap<>();
+
+    private final Map<String, Object> insert = new LinkedHashMap<>();
+
+    private final Map<String, List<Object>> union = new LinkedHashMap<>();
+
+    private final Map<String, Integer> limit = new LinkedHashMap<>();
+
+    private final Map<String, Long> inc = new LinkedHashMap<>();
+
+    public PartialUpsert set(String field, Object value) {
+        if (value != null) {
+            doc.put(field, value);
+        }
+        return this;
+    }
+
+    public PartialUpsert setAll(Map<String, Object> fields) {
+        fields.forEach(this::set);
+        return this;
+    }
+
+    public PartialUpsert setOnInsert(String field, Object value) {
+        if (value != null) {
+            insert.put(field, value);
+        }
+        return this;
+    }
+
+    public PartialUpsert setAllOnInsert(Map<String, Object> fields) {
+        fields.forEach(this::setOnInsert);
+        return this;
+    }
+
+    public PartialUpsert union(String field, Collection<?> values) {
+        if (values != null) {
+            List<Object> list = union.computeIfAbsent(field, k -> new ArrayList<>());
+            for (Object value : values) {
+                if (value != null && !list.contains(value)) {
+                    list.add(value);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Union keeping at most limit values, values beyond the limit are ignored
+     */
+    public PartialUpsert union(String field, Collection<?> values, int limit) {
+        this.limit.put(field, limit);
+        return union(field, values);
+    }
+
+    /**
+     * Add delta to a numeric field, missing fields count from 0
+     */
+    public PartialUpsert increment(String field, long delta) {
+        inc.merge(field, delta, Long::sum);
+        return this;
+    }
+
+    /**
+     * Painless script applying this upsert, run with scripted_upsert so that it also builds new documents
+     */
+    public Script toScript() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("doc", normalize(doc));
+        params.put("insert", normalize(insert));
+        params.put("union", normalize(union));
+        params.put("limit", normalize(limit));
+        params.put("inc", normalize(inc));
+        return new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, SCRIPT, params);
+    }
+
+    /**
+     * Apply this upsert to a source map, the client side equivalent of the script
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> apply(Map<String, Object> source) {
+        if (source.isEmpty()) {
+            source.putAll(normalize(insert));
+        }
+        source.putAll(normalize(doc));
+        normalize(union).forEach((field, values) -> {
+            Object current = source.get(field);
+            List<Object> list = current instanceof List ? (List<Object>) current : new ArrayList<>();
+            Integer max = limit.get(field);
+            for (Object value : (List<Object>) values) {
+                if (max != null && list.size() >= max) {
+                    break;
+                }
+                if (!list.contains(value)) {
+                    list.add(value);
+                }
+            }
+            source.put(field, list);
+        });
+        inc.forEach((field, delta) -> {
+            Object current = source.get(field);
+            source.put(field, (current == null ? 0L : ((Number) current).longValue()) + delta);
+        });
+        return source;
+    }
+
+    /**
+     * Convert values into plain json maps and lists so that they can be sent as script params
+     */
+    private static Map<String, Object> normalize(Map<String, ?> map) {
+        return JSON.parseObject(JSON.toJSONString(map));
+    }
+}
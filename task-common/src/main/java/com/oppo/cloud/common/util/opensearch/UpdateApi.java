@@ -16,21 +16,37 @@
 
 package com.oppo.cloud.common.util.opensearch;
 
+import lombok.extern.slf4j.Slf4j;
+import org.opensearch.OpenSearchStatusException;
+import org.opensearch.action.DocWriteRequest;
+import org.opensearch.action.DocWriteResponse;
+import org.opensearch.action.get.GetRequest;
+import org.opensearch.action.get.GetResponse;
+import org.opensearch.action.index.IndexRequest;
 import org.opensearch.action.support.WriteRequest;
 import org.opensearch.action.update.UpdateRequest;
 import org.opensearch.action.update.UpdateResponse;
 import org.opensearch.client.RequestOptions;
 import org.opensearch.client.RestHighLevelClient;
 import org.opensearch.common.xcontent.XContentType;
+import org.opensearch.rest.RestStatus;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Update Document API
  */
+@Slf4j
 public class UpdateApi {
 
+    /**
+     * Retries of a scripted upsert or a conditional write on version conflict
+     */
+    public static final int CONFLICT_RETRIES = 3;
+
     public static UpdateResponse update(RestHighLevelClient client, final String index, final String id,
                                  final Map<String, Object> doucment) throws IOException {
         final UpdateRequest request = new UpdateRequest(index, id).doc(doucment);
@@ -52,4 +68,73 @@ public class UpdateApi {
         return client.update(request, RequestOptions.DEFAULT);
     }
 
+    /**
+     * Scripted upsert request merging fields on the server side
+     */
+    public static UpdateRequest scriptedUpsertRequest(final String index, final String id, PartialUpsert upsert) {
+        return new UpdateRequest(index, id)
+                .script(upsert.toScript())
+                .scriptedUpsert(true)
+                .upsert(Collections.emptyMap())
+                .retryOnConflict(CONFLICT_RETRIES);
+    }
+
+    /**
+     * Merge fields into a document in one round trip,
+     * falling back to optimistic concurrency when scripts are disabled on the cluster.
+     */
+    public static DocWriteResponse scriptedUpsert(RestHighLevelClient client, final String index, final String id,
+                                                  PartialUpsert upsert) throws IOException {
+        UpdateRequest request = scriptedUpsertRequest(index, id, upsert);
+        request.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+        try {
+            return client.update(request, RequestOptions.DEFAULT);
+        } catch (OpenSearchStatusException e) {
+            if (e.status() != RestStatus.BAD_REQUEST || !String.valueOf(e.getMessage()).contains("script")) {
+                throw e;
+            }
+            log.warn("scriptedUpsertErr:{},{},{}", index, id, e.getMessage());
+            return conditionalUpsert(client, index, id, upsert);
+        }
+    }
+
+    /**
+     * Read, merge and write back guarded by if_seq_no/if_primary_term, retrying on version conflict
+     */
+    public static DocWriteResponse conditionalUpsert(RestHighLevelClient client, final String index, final String id,
+                                                     PartialUpsert upsert) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            GetResponse current = get(client, index, id);
+            IndexRequest request = new IndexRequest(index).id(id);
+            if (current != null && current.isExists()) {
+                request.source(upsert.apply(current.getSourceAsMap()));
+                request.setIfSeqNo(current.getSeqNo());
+                request.setIfPrimaryTerm(current.getPrimaryTerm());
+            } else {
+                request.source(upsert.apply(new HashMap<>()));
+                request.opType(DocWriteRequest.OpType.CREATE);
+            }
+            request.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+            try {
+                return client.index(request, RequestOptions.DEFAULT);
+            } catch (OpenSearchStatusException e) {
+                if (e.status() != RestStatus.CONFLICT || attempt >= CONFLICT_RETRIES) {
+                    throw e;
+                }
+                log.info("conditionalUpsertConflict:{},{},{}", index, id, attempt);
+            }
+        }
+    }
+
+    private static GetResponse get(RestHighLevelClient client, final String index, final String id) throws IOException {
+        try {
+            return client.get(new GetRequest(index, id), RequestOptions.DEFAULT);
+        } catch (OpenSearchStatusException e) {
+            if (e.status() == RestStatus.NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util.textparser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fingerprint of a matched log block: the action and the log text with the values that differ between
+ * executors and runs (timestamps, ids, addresses, numbers) masked, so that the same error logged by
+ * many executors maps to one fingerprint.
+ */
+public class LogFingerprint {
+
+    private static final Pattern CONTAINER_ID = Pattern.compile("container_(e\\d+_)?\\d+_\\d+_\\d+_\\d+");
+
+    /**
+     * Masks applied in order, more specific patterns first
+     */
+    private static final Pattern[] MASKS = {
+            Pattern.compile("\\d{2,4}[-/]\\d{2}[-/]\\d{2}[ T]\\d{2}:\\d{2}:\\d{2}([.,]\\d+)?"),
+            CONTAINER_ID,
+            Pattern.compile("(application|appattempt|attempt|job|task)_[\\w]+"),
+            Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}(:\\d+)?"),
+            Pattern.compile("0x[0-9a-fA-F]+|\\b[0-9a-fA-F]{8,}\\b"),
+            Pattern.compile("\\d+"),
+    };
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String normalized = text;
+        for (Pattern mask : MASKS) {
+            normalized = mask.matcher(normalized).replaceAll("#");
+        }
+        return WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+    }
+
+    public static String fingerprint(String action, String text) {
+        return UUID.nameUUIDFromBytes((action + "\n" + normalize(text)).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Id of the document holding the occurrences of a fingerprint in an application log
+     */
+    public static String docId(String applicationId, String logType, String fingerprint) {
+        return UUID.nameUUIDFromBytes(String.join("|", applicationId, logType, fingerprint)
+                .getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Container id of a log path, null when the path holds none
+     */
+    public static String containerId(String logPath) {
+        if (logPath == null) {
+            return null;
+        }
+        Matcher matcher = CONTAINER_ID.matcher(logPath);
+        return matcher.find() ? matcher.group() : null;
+    }
+}
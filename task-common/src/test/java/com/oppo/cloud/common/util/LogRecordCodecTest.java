@@ -0,0 +1,135 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.oppo.cloud.common.constant.LogPathType;
+import com.oppo.cloud.common.constant.LogType;
+import com.oppo.cloud.common.constant.ProtocolType;
+import com.oppo.cloud.common.domain.job.App;
+import com.oppo.cloud.common.domain.job.LogInfo;
+import com.oppo.cloud.common.domain.job.LogPath;
+import com.oppo.cloud.common.domain.job.LogRecord;
+import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
+import com.oppo.cloud.common.domain.opensearch.TaskApp;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class LogRecordCodecTest {
+
+    private LogRecord createLogRecord(int executors) {
+        JobAnalysis jobAnalysis = new JobAnalysis();
+        jobAnalysis.setProjectName("project");
+        jobAnalysis.setFlowName("flow");
+        jobAnalysis.setTaskName("task");
+        jobAnalysis.setExecutionDate(new Date(1700000000000L));
+        jobAnalysis.setCategories(new ArrayList<>(Collections.singletonList("durationAbnormal")));
+
+        TaskApp taskApp = new TaskApp();
+        taskApp.setApplicationId("application_1700000000000_0001");
+        taskApp.setApplicationType("SPARK");
+        Map<String, TaskApp> taskAppMap = new HashMap<>();
+        taskAppMap.put(taskApp.getApplicationId(), taskApp);
+
+        List<LogPath> executorPaths = new ArrayList<>();
+        for (int i = 0; i < executors; i++) {
+            executorPaths.add(new LogPath(ProtocolType.HDFS.getName(), LogType.SPARK_EXECUTOR.getName(),
+                    LogPathType.FILE, String.format("hdfs://nameservice/logs/hadoop/bucket-logs-tfile/0001/"
+                    + "application_1700000000000_0001/host-%03d.example.com_8041", i)));
+        }
+        Map<String, List<LogPath>> logPathMap = new HashMap<>();
+        logPathMap.put(LogType.SPARK_EXECUTOR.getName(), executorPaths);
+        logPathMap.put(LogType.SPARK_EVENT.getName(), Collections.singletonList(new LogPath(
+                ProtocolType.HDFS.getName(), LogType.SPARK_EVENT.getName(), LogPathType.FILE,
+                "hdfs://nameservice/spark/eventlogs/application_1700000000000_0001")));
+        LogInfo logInfo = new LogInfo();
+        logInfo.setLogGroup("spark");
+        logInfo.setLogPathMap(logPathMap);
+        App app = new App();
+        app.setAppId(taskApp.getApplicationId());
+        app.setTryNumber(0);
+        app.setAmHost("host-000.example.com");
+        app.setLogInfoList(Collections.singletonList(logInfo));
+
+        LogRecord logRecord = new LogRecord();
+        logRecord.setId("5d0b8a42-6b7c-4f0e-9a1b-0c2d3e4f5a6b");
+        logRecord.setJobAnalysis(jobAnalysis);
+        logRecord.setTaskAppMap(taskAppMap);
+        logRecord.setApps(Collections.singletonList(app));
+        return logRecord;
+    }
+
+    @Test
+    void binaryRoundTrip() {
+        LogRecord logRecord = createLogRecord(300);
+        byte[] bytes = LogRecordCodec.toBytes(logRecord);
+        Assertions.assertTrue(LogRecordCodec.isBinary(bytes));
+
+        LogRecord decoded = LogRecordCodec.fromBytes(bytes);
+        Assertions.assertEquals(JSONObject.toJSONString(logRecord), JSONObject.toJSONString(decoded));
+
+        int jsonSize = JSONObject.toJSONString(logRecord).length();
+        Assertions.assertTrue(bytes.length * 3 < jsonSize);
+    }
+
+    @Test
+    void decodeJsonAndBinaryMessages() {
+        LogRecord logRecord = createLogRecord(3);
+        String expected = JSONObject.toJSONString(logRecord);
+
+        String json = LogRecordCodec.encode(logRecord, LogRecordCodec.FORMAT_JSON);
+        Assertions.assertEquals(expected, JSONObject.toJSONString(LogRecordCodec.decode(json)));
+
+        String binary = LogRecordCodec.encode(logRecord, LogRecordCodec.FORMAT_BINARY);
+        Assertions.assertEquals(expected, JSONObject.toJSONString(LogRecordCodec.decode(binary)));
+    }
+
+    @Test
+    void envelopeUpdatedByConsumer() {
+        LogRecord logRecord = createLogRecord(3);
+        JSONObject envelope = JSONObject.parseObject(LogRecordCodec.encode(logRecord, LogRecordCodec.FORMAT_BINARY));
+        Assertions.assertEquals(logRecord.getId(), envelope.getString("id"));
+        // same as scripts/logRecordConsumer.lua
+        envelope.put("consumeCount", envelope.getInteger("consumeCount") + 1);
+
+        LogRecord decoded = LogRecordCodec.decode(envelope.toJSONString());
+        Assertions.assertEquals(1, decoded.getConsumeCount());
+        Assertions.assertEquals(logRecord.getCreateTime(), decoded.getCreateTime());
+    }
+
+    @Test
+    void envelopeWithoutCreateTime() {
+        LogRecord logRecord = createLogRecord(1);
+        logRecord.setCreateTime(0L);
+        JSONObject envelope = JSONObject.parseObject(LogRecordCodec.encode(logRecord, LogRecordCodec.FORMAT_BINARY));
+        envelope.remove("createTime");
+        // createTime is a primitive always written in the binary record, it is kept when the envelope lacks it
+        Assertions.assertEquals(0L, LogRecordCodec.decode(envelope.toJSONString()).getCreateTime());
+
+        JSONObject json = JSONObject.parseObject(LogRecordCodec.encode(logRecord, LogRecordCodec.FORMAT_JSON));
+        json.remove("createTime");
+        LogRecord decoded = LogRecordCodec.fromBytes(LogRecordCodec.toBytes(LogRecordCodec.decode(json.toJSONString())));
+        Assertions.assertTrue(decoded.getCreateTime() > 0);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util.opensearch;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.opensearch.action.ActionListener;
+import org.opensearch.action.DocWriteRequest;
+import org.opensearch.action.bulk.BulkItemResponse;
+import org.opensearch.action.bulk.BulkRequest;
+import org.opensearch.action.bulk.BulkResponse;
+import org.opensearch.action.index.IndexRequest;
+import org.opensearch.action.index.IndexResponse;
+import org.opensearch.index.shard.ShardId;
+import org.opensearch.rest.RestStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class AsyncBulkProcessorTest {
+
+    private static IndexRequest doc(String id) {
+        return new IndexRequest("test").id(id).source(Collections.singletonMap("k", id));
+    }
+
+    private static BulkItemResponse success(int i, DocWriteRequest<?> request) {
+        return new BulkItemResponse(i, DocWriteRequest.OpType.INDEX,
+                new IndexResponse(new ShardId("test", "_na_", 0), "_doc", request.id(), 1, 1, 1, true));
+    }
+
+    private static BulkItemResponse failure(int i, DocWriteRequest<?> request, RestStatus status) {
+        return new BulkItemResponse(i, DocWriteRequest.OpType.INDEX,
+                new BulkItemResponse.Failure("test", "_doc", request.id(), new RuntimeException(status.name()), status));
+    }
+
+    @Test
+    void flushByCount() throws Exception {
+        List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        AsyncBulkProcessor processor = AsyncBulkProcessor.builder((request, listener) -> {
+            sizes.add(request.numberOfActions());
+            BulkItemResponse[] items = new BulkItemResponse[request.numberOfActions()];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = success(i, request.requests().get(i));
+            }
+            listener.onResponse(new BulkResponse(items, 1));
+        }).bulkActions(10).flushInterval(60000).build();
+
+        List<CompletableFuture<BulkItemResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            futures.add(processor.add(doc(String.valueOf(i))));
+        }
+        Assertions.assertEquals(2, sizes.size());
+        Assertions.assertFalse(futures.get(24).isDone());
+
+        Assertions.assertTrue(processor.awaitClose(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(Arrays.asList(10, 10, 5), sizes);
+        for (int i = 0; i < 25; i++) {
+            BulkItemResponse response = futures.get(i).get();
+            Assertions.assertFalse(response.isFailed());
+            Assertions.assertEquals(String.valueOf(i), response.getId());
+        }
+    }
+
+    @Test
+    void retryOnlyRejectedItems() throws Exception {
+        Set<String> rejectedOnce = ConcurrentHashMap.newKeySet();
+        AtomicInteger requests = new AtomicInteger();
+        List<String> retried = Collections.synchronizedList(new ArrayList<>());
+        AsyncBulkProcessor processor = AsyncBulkProcessor.builder((request, listener) -> {
+            if (requests.incrementAndGet() > 1) {
+                request.requests().forEach(r -> retried.add(r.id()));
+            }
+            BulkItemResponse[] items = new BulkItemResponse[request.numberOfActions()];
+            for (int i = 0; i < items.length; i++) {
+                DocWriteRequest<?> r = request.requests().get(i);
+                int n = Integer.parseInt(r.id());
+                if (n % 2 == 0 && rejectedOnce.add(r.id())) {
+                    items[i] = failure(i, r, RestStatus.TOO_MANY_REQUESTS);
+                } else if (n == 3) {
+                    items[i] = failure(i, r, RestStatus.BAD_REQUEST);
+                } else {
+                    items[i] = success(i, r);
+                }
+            }
+            listener.onResponse(new BulkResponse(items, 1));
+        }).bulkActions(6).retryBackoff(10).flushInterval(60000).build();
+
+        List<CompletableFuture<BulkItemResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(processor.add(doc(String.valueOf(i))));
+        }
+        Assertions.assertTrue(processor.awaitClose(5, TimeUnit.SECONDS));
+
+        Assertions.assertEquals(2, requests.get());
+        Assertions.assertEquals(Arrays.asList("0", "2", "4"), retried);
+        for (int i = 0; i < 6; i++) {
+            Assertions.assertEquals(i == 3, futures.get(i).get().isFailed());
+        }
+    }
+
+    @Test
+    void blockWhenBufferFull() throws Exception {
+        List<ActionListener<BulkResponse>> listeners = Collections.synchronizedList(new ArrayList<>());
+        List<BulkRequest> requests = Collections.synchronizedList(new ArrayList<>());
+        AsyncBulkProcessor processor = AsyncBulkProcessor.builder((request, listener) -> {
+            requests.add(request);
+            listeners.add(listener);
+        }).bulkActions(1).bufferSize(1).concurrentRequests(1).flushInterval(60000).build();
+
+        processor.add(doc("0"));
+        Assertions.assertEquals(1, processor.getInFlightRequests());
+
+        CompletableFuture<CompletableFuture<BulkItemResponse>> blocked =
+                CompletableFuture.supplyAsync(() -> processor.add(doc("1")));
+        Thread.sleep(200);
+        Assertions.assertFalse(blocked.isDone());
+
+        listeners.get(0).onResponse(new BulkResponse(
+                new BulkItemResponse[]{success(0, requests.get(0).requests().get(0))}, 1));
+        blocked.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(2, listeners.size());
+
+        listeners.get(1).onResponse(new BulkResponse(
+                new BulkItemResponse[]{success(0, requests.get(1).requests().get(0))}, 1));
+        Assertions.assertTrue(processor.awaitClose(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, processor.getPendingBytes());
+    }
+
+    @Test
+    void intervalFlushWaitsForAFreeSlot() throws Exception {
+        List<ActionListener<BulkResponse>> listeners = Collections.synchronizedList(new ArrayList<>());
+        List<BulkRequest> requests = Collections.synchronizedList(new ArrayList<>());
+        AsyncBulkProcessor processor = AsyncBulkProcessor.builder((request, listener) -> {
+            requests.add(request);
+            listeners.add(listener);
+        }).bulkActions(10).concurrentRequests(1).flushInterval(20).build();
+
+        CompletableFuture<BulkItemResponse> first = processor.add(doc("0"));
+        awaitRequests(requests, 1);
+        // the only request slot is taken, the interval flush skips its ticks instead of blocking the scheduler
+        CompletableFuture<BulkItemResponse> second = processor.add(doc("1"));
+        Thread.sleep(200);
+        Assertions.assertEquals(1, requests.size());
+
+        listeners.get(0).onResponse(new BulkResponse(
+                new BulkItemResponse[]{success(0, requests.get(0).requests().get(0))}, 1));
+        awaitRequests(requests, 2);
+        listeners.get(1).onResponse(new BulkResponse(
+                new BulkItemResponse[]{success(0, requests.get(1).requests().get(0))}, 1));
+        Assertions.assertFalse(first.get().isFailed());
+        Assertions.assertFalse(second.get().isFailed());
+        Assertions.assertTrue(processor.awaitClose(5, TimeUnit.SECONDS));
+    }
+
+    private static void awaitRequests(List<BulkRequest> requests, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (requests.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(count, requests.size());
+    }
+}
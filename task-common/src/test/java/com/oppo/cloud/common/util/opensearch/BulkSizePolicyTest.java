@@ -0,0 +1,104 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util.opensearch;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.opensearch.action.DocWriteRequest;
+import org.opensearch.action.index.IndexRequest;
+import org.opensearch.rest.RestStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class BulkSizePolicyTest {
+
+    private static IndexRequest doc(String id, int rawLogLength) {
+        Map<String, Object> source = new HashMap<>();
+        source.put("applicationId", id);
+        source.put("rawLog", StringUtils.repeat("x", rawLogLength));
+        return new IndexRequest("log").id(id).source(source);
+    }
+
+    @Test
+    void splitAtCeiling() {
+        BulkSizePolicy policy = new BulkSizePolicy(4096, 2048, BulkSizePolicy.OversizeAction.ISOLATE);
+        List<DocWriteRequest<?>> requests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            requests.add(doc(String.valueOf(i), 1000));
+        }
+        requests.add(doc("large", 3000));
+        requests.add(null);
+        requests.add(doc("last", 10));
+
+        List<List<Integer>> chunks = policy.split(requests);
+        int total = 0;
+        for (List<Integer> chunk : chunks) {
+            long bytes = chunk.stream().mapToLong(i -> BulkSizePolicy.sizeOf(requests.get(i))).sum();
+            if (!chunk.equals(Collections.singletonList(10))) {
+                Assertions.assertTrue(bytes <= 4096);
+            }
+            total += chunk.size();
+        }
+        Assertions.assertTrue(chunks.contains(Collections.singletonList(10)));
+        Assertions.assertEquals(12, total);
+    }
+
+    @Test
+    void truncateOversizedDocument() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try {
+            BulkSizePolicy policy = new BulkSizePolicy(1024 * 1024, 2048, BulkSizePolicy.OversizeAction.TRUNCATE);
+            IndexRequest request = doc("a", 100000);
+            Assertions.assertSame(request, policy.fit(request));
+            Assertions.assertFalse(policy.isOversized(request));
+            Map<String, Object> source = request.sourceAsMap();
+            Assertions.assertEquals("a", source.get("applicationId"));
+            Assertions.assertTrue(((String) source.get("rawLog")).endsWith("...[truncated]"));
+            Assertions.assertEquals(1.0, registry.counter(BulkSizePolicy.DOCUMENTS_METRIC, "outcome", "truncated").count());
+
+            IndexRequest small = doc("b", 10);
+            Assertions.assertSame(small, policy.fit(small));
+            Assertions.assertEquals(10, ((String) small.sourceAsMap().get("rawLog")).length());
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+
+    @Test
+    void dropOversizedDocument() {
+        BulkSizePolicy policy = new BulkSizePolicy(1024 * 1024, 2048, BulkSizePolicy.OversizeAction.DROP);
+        IndexRequest request = doc("a", 100000);
+        Assertions.assertNull(policy.fit(request));
+        Assertions.assertEquals(RestStatus.REQUEST_ENTITY_TOO_LARGE,
+                BulkSizePolicy.droppedResponse(3, request).getFailure().getStatus());
+    }
+
+    @Test
+    void defaultsKeepOversizedDocument() {
+        IndexRequest request = doc("a", 2 * 1024 * 1024);
+        Assertions.assertSame(request, BulkSizePolicy.defaults().fit(request));
+        Assertions.assertEquals(2 * 1024 * 1024, ((String) request.sourceAsMap().get("rawLog")).length());
+    }
+}
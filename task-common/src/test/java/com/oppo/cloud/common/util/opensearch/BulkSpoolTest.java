@@ -0,0 +1,301 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util.opensearch;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpHost;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opensearch.action.bulk.BulkItemResponse;
+import org.opensearch.action.bulk.BulkRequest;
+import org.opensearch.action.bulk.BulkResponse;
+import org.opensearch.action.index.IndexRequest;
+import org.opensearch.action.update.UpdateRequest;
+import org.opensearch.client.RestClient;
+import org.opensearch.client.RestHighLevelClient;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Simulates cluster outages with a local HTTP stub answering the bulk API
+ */
+class BulkSpoolTest {
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+
+    private RestHighLevelClient client;
+
+    private final AtomicBoolean up = new AtomicBoolean(false);
+
+    private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+
+    private final AtomicInteger bulkCalls = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        client = new RestHighLevelClient(RestClient.builder(
+                new HttpHost("127.0.0.1", server.getAddress().getPort(), "http")));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] response;
+        int status;
+        if (!up.get()) {
+            status = 503;
+            response = "{\"error\":{\"type\":\"cluster_block_exception\",\"reason\":\"unavailable\"},\"status\":503}"
+                    .getBytes(StandardCharsets.UTF_8);
+        } else {
+            status = 200;
+            bulkCalls.incrementAndGet();
+            String body = StreamUtils.copyToString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+            JSONArray items = new JSONArray();
+            String[] lines = body.split("\n");
+            for (int i = 0; i < lines.length; i++) {
+                JSONObject action = JSON.parseObject(lines[i]);
+                String op = action.keySet().iterator().next();
+                JSONObject meta = action.getJSONObject(op);
+                if (!"delete".equals(op)) {
+                    i++;
+                }
+                received.add(op + ":" + meta.getString("_id"));
+                JSONObject result = new JSONObject();
+                result.put("_index", meta.getString("_index"));
+                result.put("_type", "_doc");
+                result.put("_id", meta.getString("_id"));
+                result.put("_version", 1);
+                result.put("result", "created");
+                result.put("_seq_no", 0);
+                result.put("_primary_term", 1);
+                result.put("status", 201);
+                items.add(Collections.singletonMap(op, result));
+            }
+            JSONObject json = new JSONObject();
+            json.put("took", 1);
+            json.put("errors", false);
+            json.put("items", items);
+            response = json.toJSONString().getBytes(StandardCharsets.UTF_8);
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private Map<String, Map<String, Object>> docs(String... ids) {
+        Map<String, Map<String, Object>> docs = new HashMap<>();
+        for (String id : ids) {
+            Map<String, Object> doc = new HashMap<>();
+            doc.put("applicationId", id);
+            docs.put(id, doc);
+        }
+        return docs;
+    }
+
+    private List<Path> files(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.toString().endsWith(suffix)).collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void spoolDuringOutageAndReplay() throws Exception {
+        BulkSpool spool = new BulkSpool(dir.toString(), 1024 * 1024, 10 * 1024 * 1024, 1000, client);
+
+        Assertions.assertThrows(BulkSpool.SpooledException.class,
+                () -> BulkApi.bulkByIds(client, "app", docs("a", "b", "c"), spool));
+        UpdateRequest update = UpdateApi.scriptedUpsertRequest("job", "d",
+                new PartialUpsert().union("categories", Collections.singletonList("memWaste")));
+        Assertions.assertTrue(spool.append(Collections.singletonList(update)));
+        long size = spool.getSize();
+        Assertions.assertTrue(size > 0);
+
+        // still down: nothing is lost and the drainer pauses
+        Assertions.assertEquals(0, spool.drain());
+        Assertions.assertEquals(size, spool.getSize());
+        Assertions.assertTrue(received.isEmpty());
+
+        up.set(true);
+        Assertions.assertEquals(4, spool.drain());
+        Assertions.assertEquals(0, spool.getSize());
+        Assertions.assertEquals(Arrays.asList("index:a", "index:b", "index:c", "update:d"),
+                received.stream().sorted().collect(Collectors.toList()));
+        Assertions.assertTrue(files(".spool").isEmpty());
+        spool.close();
+    }
+
+    @Test
+    void processorSpoolsFailedBatches() throws Exception {
+        BulkSpool spool = new BulkSpool(dir.toString(), 1024 * 1024, 10 * 1024 * 1024, 1000, client);
+        AsyncBulkProcessor processor = AsyncBulkProcessor.builder(client).spool(spool).flushInterval(60000).build();
+
+        CompletableFuture<BulkItemResponse> future =
+                processor.add(new IndexRequest("log").source(Collections.singletonMap("rawLog", "oom")));
+        Assertions.assertTrue(processor.awaitClose(10, TimeUnit.SECONDS));
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, future::get);
+        Assertions.assertTrue(e.getCause() instanceof BulkSpool.SpooledException);
+
+        up.set(true);
+        Assertions.assertEquals(1, spool.drain());
+        Assertions.assertEquals(1, received.size());
+        spool.close();
+    }
+
+    @Test
+    void sizeCapAndRecovery() throws Exception {
+        BulkSpool spool = new BulkSpool(dir.toString(), 1024, 2048, 1000, client);
+        List<IndexRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            requests.add(new IndexRequest("app").id(String.valueOf(i))
+                    .source(Collections.singletonMap("raw", StringUtils.repeat("x", 100))));
+        }
+        Assertions.assertTrue(spool.append(requests.subList(0, 5)));
+        Assertions.assertTrue(spool.append(requests.subList(5, 10)));
+        Assertions.assertEquals(2, files(".spool").size());
+        Assertions.assertFalse(spool.append(requests));
+        long size = spool.getSize();
+        spool.close();
+
+        BulkSpool recovered = new BulkSpool(dir.toString(), 1024, 2048, 1000, client);
+        Assertions.assertEquals(size, recovered.getSize());
+        up.set(true);
+        Assertions.assertEquals(10, recovered.drain());
+        recovered.close();
+    }
+
+    @Test
+    void corruptRecordStopsSegment() throws Exception {
+        BulkSpool spool = new BulkSpool(dir.toString(), 1024 * 1024, 10 * 1024 * 1024, 1000, client);
+        spool.append(Collections.singletonList(new IndexRequest("app").id("a").source(Collections.singletonMap("k", "a"))));
+        spool.append(Collections.singletonList(new IndexRequest("app").id("b").source(Collections.singletonMap("k", "b"))));
+        spool.close();
+
+        Path segment = files(".spool").get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 3] ^= 0x7f;
+        Files.write(segment, bytes);
+
+        up.set(true);
+        BulkSpool reopened = new BulkSpool(dir.toString(), 1024 * 1024, 10 * 1024 * 1024, 1000, client);
+        Assertions.assertEquals(1, reopened.drain());
+        Assertions.assertEquals(Collections.singletonList("index:a"), received);
+        Assertions.assertEquals(1, files(".corrupt").size());
+        Assertions.assertEquals(0, reopened.getSize());
+        reopened.close();
+    }
+
+    @Test
+    void supersededRecordsAreDropped() throws Exception {
+        BulkSpool spool = new BulkSpool(dir.toString(), 1024 * 1024, 10 * 1024 * 1024, 1000, client);
+        Assertions.assertThrows(BulkSpool.SpooledException.class,
+                () -> BulkApi.bulkByIds(client, "app", docs("a", "b", "c"), spool));
+        spool.close();
+
+        // a restarted writer updates "a" directly before the spool is drained
+        BulkSpool recovered = new BulkSpool(dir.toString(), 1024 * 1024, 10 * 1024 * 1024, 1000, client);
+        up.set(true);
+        BulkApi.bulkByIds(client, "app", docs("a"), recovered);
+        Assertions.assertEquals(2, recovered.drain());
+        Assertions.assertEquals(Arrays.asList("index:a", "index:b", "index:c"), received);
+
+        // records spooled after a direct write are newer and replayed
+        received.clear();
+        up.set(false);
+        Assertions.assertThrows(BulkSpool.SpooledException.class,
+                () -> BulkApi.bulkByIds(client, "app", docs("a"), recovered));
+        up.set(true);
+        Assertions.assertEquals(1, recovered.drain());
+        Assertions.assertEquals(Collections.singletonList("index:a"), received);
+        recovered.close();
+    }
+
+    @Test
+    void drainIsRateLimited() throws Exception {
+        BulkSpool spool = new BulkSpool(dir.toString(), 1024 * 1024, 10 * 1024 * 1024, 4, client);
+        Assertions.assertThrows(BulkSpool.SpooledException.class,
+                () -> BulkApi.bulkByIds(client, "app", docs("a", "b", "c", "d", "e", "f", "g", "h"), spool));
+
+        up.set(true);
+        long start = System.currentTimeMillis();
+        Assertions.assertEquals(8, spool.drain());
+        Assertions.assertTrue(System.currentTimeMillis() - start >= 1500);
+        spool.close();
+    }
+
+    @Test
+    void splitRequestKeepsPositions() throws Exception {
+        BulkSizePolicy policy = new BulkSizePolicy(1024, 512, BulkSizePolicy.OversizeAction.DROP);
+        up.set(true);
+        List<IndexRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            requests.add(new IndexRequest("app").id(String.valueOf(i))
+                    .source(Collections.singletonMap("raw", StringUtils.repeat("x", i == 2 ? 1000 : 300))));
+        }
+        BulkRequest request = new BulkRequest();
+        requests.forEach(request::add);
+        BulkResponse response = BulkApi.bulkOrSpool(client, request, null, policy);
+
+        Assertions.assertEquals(6, response.getItems().length);
+        Assertions.assertTrue(bulkCalls.get() > 1);
+        for (int i = 0; i < 6; i++) {
+            BulkItemResponse item = response.getItems()[i];
+            Assertions.assertEquals(i, item.getItemId());
+            Assertions.assertEquals(String.valueOf(i), item.getId());
+            Assertions.assertEquals(i == 2, item.isFailed());
+        }
+        Assertions.assertEquals(5, received.size());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util.opensearch;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensearch.client.RestClient;
+import org.opensearch.client.RestHighLevelClient;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs the lifecycle against a local HTTP stub keeping the shard count and write block of each index
+ */
+class IndexLifecycleManagerTest {
+
+    private static final String BASE = "compass-task-app";
+
+    private HttpServer server;
+
+    private RestHighLevelClient client;
+
+    private final Map<String, JSONObject> indices = Collections.synchronizedMap(new TreeMap<>());
+
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+
+    private JSONObject template;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        client = new RestHighLevelClient(RestClient.builder(
+                new HttpHost("127.0.0.1", server.getAddress().getPort(), "http")));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    private void addIndex(String name, int shards, boolean readOnly) {
+        JSONObject settings = new JSONObject();
+        settings.put("number_of_shards", String.valueOf(shards));
+        if (readOnly) {
+            settings.put("blocks", JSON.parseObject("{\"write\":\"true\"}"));
+        }
+        indices.put(name, settings);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        String body = StreamUtils.copyToString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+        calls.add(method + " " + path);
+        String[] parts = path.substring(1).split("/");
+        JSONObject response = new JSONObject();
+        response.put("acknowledged", true);
+        if (path.startsWith("/_template/")) {
+            template = JSON.parseObject(body);
+        } else if ("GET".equals(method) && path.endsWith("/_settings")) {
+            response = new JSONObject();
+            for (Map.Entry<String, JSONObject> entry : indices.entrySet()) {
+                response.put(entry.getKey(), Collections.singletonMap("settings",
+                        Collections.singletonMap("index", entry.getValue())));
+            }
+        } else if (path.endsWith("/_forcemerge")) {
+            response = JSON.parseObject("{\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0}}");
+        } else if ("PUT".equals(method) && path.endsWith("/_settings")) {
+            indices.get(parts[0]).put("blocks", JSON.parseObject("{\"write\":\"true\"}"));
+        } else if (parts.length == 3 && "_shrink".equals(parts[1])) {
+            int shards = JSON.parseObject(body).getJSONObject("settings").getJSONObject("index")
+                    .getIntValue("number_of_shards");
+            addIndex(parts[2], shards, true);
+            response.put("shards_acknowledged", true);
+            response.put("index", parts[2]);
+        } else if ("/_aliases".equals(path)) {
+            for (Object action : JSON.parseObject(body).getJSONArray("actions")) {
+                JSONObject removeIndex = ((JSONObject) action).getJSONObject("remove_index");
+                if (removeIndex != null) {
+                    indices.remove(removeIndex.getJSONArray("indices").getString(0));
+                }
+            }
+        } else if ("DELETE".equals(method)) {
+            indices.remove(parts[0]);
+        }
+        byte[] bytes = response.toJSONString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private IndexLifecycleManager.Policy policy() {
+        IndexLifecycleManager.Policy policy = new IndexLifecycleManager.Policy();
+        policy.setIndex(BASE);
+        policy.setShards(3);
+        policy.setReplicas(1);
+        policy.setReadOnlyAfterDays(1);
+        policy.setShrinkAfterDays(7);
+        policy.setShrinkShards(1);
+        policy.setRetentionDays(30);
+        return policy;
+    }
+
+    @Test
+    void lifecycleByAge() throws Exception {
+        addIndex(BASE + "-2023-05-31", 3, false);
+        addIndex(BASE + "-2023-05-30", 3, false);
+        addIndex(BASE + "-2023-05-20", 3, true);
+        addIndex(BASE + "-2023-04-01", 1, true);
+        addIndex(BASE + "-backup", 3, false);
+
+        new IndexLifecycleManager(client).run(policy(), LocalDate.of(2023, 5, 31));
+
+        JSONObject templateSettings = template.getJSONObject("settings").getJSONObject("index");
+        Assertions.assertEquals("30s", templateSettings.getString("refresh_interval"));
+        Assertions.assertEquals("3", templateSettings.getString("number_of_shards"));
+        Assertions.assertEquals(Collections.singletonList(BASE + "-*"), template.getJSONArray("index_patterns").toJavaList(String.class));
+        // today: untouched
+        Assertions.assertFalse(indices.get(BASE + "-2023-05-31").containsKey("blocks"));
+        // yesterday: merged and read-only
+        Assertions.assertTrue(calls.contains("POST /" + BASE + "-2023-05-30/_forcemerge"));
+        Assertions.assertTrue(indices.get(BASE + "-2023-05-30").containsKey("blocks"));
+        // older than a week: shrunk and replaced by an alias
+        Assertions.assertFalse(indices.containsKey(BASE + "-2023-05-20"));
+        Assertions.assertEquals("1", indices.get(BASE + "-2023-05-20-shrunk").getString("number_of_shards"));
+        Assertions.assertFalse(calls.contains("POST /" + BASE + "-2023-05-20/_forcemerge"));
+        // past retention: deleted
+        Assertions.assertTrue(calls.contains("DELETE /" + BASE + "-2023-04-01"));
+        Assertions.assertFalse(indices.containsKey(BASE + "-2023-04-01"));
+        // not a daily index
+        Assertions.assertTrue(indices.containsKey(BASE + "-backup"));
+        Assertions.assertFalse(calls.contains("POST /" + BASE + "-backup/_forcemerge"));
+    }
+
+    @Test
+    void idempotent() throws Exception {
+        addIndex(BASE + "-2023-05-20", 3, false);
+        IndexLifecycleManager manager = new IndexLifecycleManager(client);
+        manager.run(Collections.singletonList(policy()), LocalDate.of(2023, 5, 31));
+        Assertions.assertEquals(Collections.singletonList(BASE + "-2023-05-20-shrunk"), new ArrayList<>(indices.keySet()));
+
+        calls.clear();
+        manager.run(Collections.singletonList(policy()), LocalDate.of(2023, 5, 31));
+        Assertions.assertEquals(2, calls.size(), calls.toString());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util.opensearch;
+
+import com.oppo.cloud.common.service.RedisService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisOperations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+
+class IndexRouterTest {
+
+    private final Map<String, Map<Object, Object>> hashes = new HashMap<>();
+
+    private RedisService redisService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisService = Mockito.mock(RedisService.class);
+        Mockito.when(redisService.hGetAll(anyString())).thenAnswer(invocation ->
+                hashes.getOrDefault(invocation.getArgument(0), Collections.emptyMap()));
+        Mockito.when(redisService.executePipelined(any(), any())).thenAnswer(invocation -> {
+            List<Object> results = new ArrayList<>();
+            RedisOperations<String, Object> operations = Mockito.mock(RedisOperations.class);
+            HashOperations<String, Object, Object> hashOperations = Mockito.mock(HashOperations.class);
+            Mockito.doReturn(hashOperations).when(operations).opsForHash();
+            Mockito.doAnswer(put -> {
+                hashes.computeIfAbsent(put.getArgument(0), k -> new HashMap<>())
+                        .put(put.getArgument(1), put.getArgument(2));
+                results.add(true);
+                return null;
+            }).when(hashOperations).put(anyString(), any(), any());
+            Mockito.when(operations.expire(anyString(), anyLong(), any())).thenAnswer(expire -> results.add(true));
+            Mockito.when(hashOperations.entries(anyString())).thenAnswer(entries -> {
+                Map<Object, Object> hash = new HashMap<>(hashes.getOrDefault(entries.getArgument(0),
+                        Collections.emptyMap()));
+                results.add(hash);
+                return hash;
+            });
+            ((Consumer<RedisOperations<String, Object>>) invocation.getArgument(0)).accept(operations);
+            return results;
+        });
+    }
+
+    @Test
+    void routeRecordedIndices() {
+        IndexRouter writer = new IndexRouter(redisService, 100, 3600);
+        IndexRouter reader = new IndexRouter(redisService, 100, 3600);
+        Assertions.assertArrayEquals(new String[]{"compass-detector-app-*"},
+                reader.route("compass-detector-app", "application_1_0001"));
+
+        writer.record("compass-detector-app-", "application_1_0001", "compass-detector-app-2023-05-01");
+        writer.record("compass-detector-app-", "application_1_0001", "compass-detector-app-2023-05-01");
+        writer.record("compass-detector-app-", "application_1_0001", "compass-detector-app-2023-05-02");
+        Mockito.verify(redisService, Mockito.times(2)).executePipelined(any(), any());
+
+        Set<String> expected = new TreeSet<>(Arrays.asList("compass-detector-app-2023-05-01", "compass-detector-app-2023-05-02"));
+        Assertions.assertEquals(expected,
+                new TreeSet<>(Arrays.asList(reader.route("compass-detector-app", "application_1_0001"))));
+        Assertions.assertArrayEquals(new String[]{"compass-detector-app-*"},
+                reader.route("compass-detector-app", "application_1_0002"));
+    }
+
+    @Test
+    void fallbackToWildcard() throws Exception {
+        IndexRouter router = new IndexRouter(redisService, 100, 3600);
+        router.record("compass-task-app-", "job", "compass-task-app-2023-05-01");
+
+        List<String> searched = new ArrayList<>();
+        List<String> items = router.find("compass-task-app", "job", indices -> {
+            searched.add(String.join(",", indices));
+            return indices[0].endsWith("*") ? Collections.singletonList("doc") : Collections.emptyList();
+        });
+        Assertions.assertEquals(Collections.singletonList("doc"), items);
+        Assertions.assertEquals(Arrays.asList("compass-task-app-2023-05-01", "compass-task-app-*"), searched);
+    }
+
+    @Test
+    void recordInOneRoundTrip() {
+        IndexRouter router = new IndexRouter(redisService, 100, 3600);
+        Map<String, String> routes = new HashMap<>();
+        routes.put("job1", "compass-task-app-2023-05-01");
+        routes.put("job2", "compass-task-app-2023-05-02");
+        router.record("compass-task-app-", routes);
+        Mockito.verify(redisService, Mockito.times(1)).executePipelined(any(), any());
+
+        Assertions.assertArrayEquals(new String[]{"compass-task-app-2023-05-02"}, router.route("compass-task-app", "job2"));
+        Mockito.verify(redisService, Mockito.never()).hGetAll(anyString());
+    }
+
+    @Test
+    void redisUnavailable() {
+        Mockito.when(redisService.hGetAll(anyString())).thenThrow(new IllegalStateException("down"));
+        Mockito.doReturn(null).when(redisService).executePipelined(any(), any());
+        IndexRouter router = new IndexRouter(redisService, 100, 3600);
+        router.record("compass-log-summary-", "job", "compass-log-summary-2023-05-01");
+        Assertions.assertArrayEquals(new String[]{"compass-log-summary-*"}, router.route("compass-log-summary", "job"));
+    }
+
+    @Test
+    void refreshExpiredRoutes() {
+        IndexRouter writer = new IndexRouter(redisService, 100, 3600);
+        IndexRouter reader = new IndexRouter(redisService, 100, 3600, 0);
+        writer.record("compass-task-app-", "job", "compass-task-app-2023-05-01");
+        Assertions.assertArrayEquals(new String[]{"compass-task-app-2023-05-01"}, reader.route("compass-task-app", "job"));
+
+        writer.record("compass-task-app-", "job", "compass-task-app-2023-05-02");
+        Assertions.assertEquals(2, reader.route("compass-task-app", "job").length);
+    }
+
+    @Test
+    void findRereadsCachedRoute() throws Exception {
+        IndexRouter writer = new IndexRouter(redisService, 100, 3600);
+        IndexRouter reader = new IndexRouter(redisService, 100, 3600);
+        writer.record("compass-task-app-", "job", "compass-task-app-2023-05-01");
+        Assertions.assertArrayEquals(new String[]{"compass-task-app-2023-05-01"}, reader.route("compass-task-app", "job"));
+        writer.record("compass-task-app-", "job", "compass-task-app-2023-05-02");
+
+        // the cached route still finds the document of 05-01, the search must not stop there
+        List<Set<String>> searched = new ArrayList<>();
+        List<String> items = reader.find("compass-task-app", "job", indices -> {
+            searched.add(new TreeSet<>(Arrays.asList(indices)));
+            List<String> docs = new ArrayList<>();
+            for (String index : indices) {
+                docs.add(index.substring(index.length() - 5));
+            }
+            return docs;
+        });
+        Assertions.assertEquals(new TreeSet<>(Arrays.asList("05-01", "05-02")), new TreeSet<>(items));
+        Assertions.assertEquals(Collections.singletonList(
+                new TreeSet<>(Arrays.asList("compass-task-app-2023-05-01", "compass-task-app-2023-05-02"))), searched);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util.opensearch;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.opensearch.script.Script;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class PartialUpsertTest {
+
+    private PartialUpsert upsert() {
+        return new PartialUpsert()
+                .setOnInsert("createTime", "2023-01-01 00:00:00")
+                .set("updateTime", "2023-01-02 00:00:00")
+                .set("taskName", null)
+                .union("categories", Arrays.asList("memWaste", "cpuWaste", "memWaste"));
+    }
+
+    @Test
+    void applyOnNewDocument() {
+        Map<String, Object> source = upsert().apply(new HashMap<>());
+        Assertions.assertEquals("2023-01-01 00:00:00", source.get("createTime"));
+        Assertions.assertEquals("2023-01-02 00:00:00", source.get("updateTime"));
+        Assertions.assertFalse(source.containsKey("taskName"));
+        Assertions.assertEquals(Arrays.asList("memWaste", "cpuWaste"), source.get("categories"));
+    }
+
+    @Test
+    void applyOnExistingDocument() {
+        Map<String, Object> source = new HashMap<>();
+        source.put("createTime", "2022-12-31 00:00:00");
+        source.put("taskName", "task");
+        source.put("categories", new ArrayList<>(Arrays.asList("dataSkew", "cpuWaste")));
+
+        upsert().apply(source);
+        Assertions.assertEquals("2022-12-31 00:00:00", source.get("createTime"));
+        Assertions.assertEquals("2023-01-02 00:00:00", source.get("updateTime"));
+        Assertions.assertEquals("task", source.get("taskName"));
+        Assertions.assertEquals(Arrays.asList("dataSkew", "cpuWaste", "memWaste"), source.get("categories"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void scriptParams() {
+        Script script = upsert().toScript();
+        Assertions.assertEquals("painless", script.getLang());
+        Map<String, Object> union = (Map<String, Object>) script.getParams().get("union");
+        Assertions.assertEquals(Arrays.asList("memWaste", "cpuWaste"), union.get("categories"));
+        Assertions.assertTrue(((Map<String, Object>) script.getParams().get("insert")).containsKey("createTime"));
+        Assertions.assertFalse(((Map<String, Object>) script.getParams().get("doc")).containsKey("createTime"));
+        Assertions.assertTrue(((List<Object>) union.get("categories")).size() == 2);
+    }
+
+    @Test
+    void boundedUnionAndCounters() {
+        Map<String, Object> source = new HashMap<>();
+        PartialUpsert first = new PartialUpsert()
+                .union("executors", Arrays.asList("e1", "e2"), 3)
+                .increment("count", 2);
+        PartialUpsert second = new PartialUpsert()
+                .union("executors", Arrays.asList("e2", "e3", "e4"), 3)
+                .increment("count", 5);
+        first.apply(source);
+        second.apply(source);
+        Assertions.assertEquals(Arrays.asList("e1", "e2", "e3"), source.get("executors"));
+        Assertions.assertEquals(7L, source.get("count"));
+        Assertions.assertEquals(3, ((Map<?, ?>) second.toScript().getParams().get("limit")).get("executors"));
+    }
+}
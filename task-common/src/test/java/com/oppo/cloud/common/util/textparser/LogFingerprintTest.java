@@ -0,0 +1,44 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.common.util.textparser;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class LogFingerprintTest {
+
+    @Test
+    void sameErrorFromDifferentExecutors() {
+        String first = "23/05/01 10:12:01 ERROR Executor: Exception in task 3.0 in stage 7.0 (TID 412)\n"
+                + "java.io.IOException: Connection to 10.0.0.12:7337 closed, block rdd_12_3 of container_e12_1682900000000_0012_01_000004";
+        String second = "23/05/01 10:15:44 ERROR Executor: Exception in task 17.1 in stage 7.0 (TID 977)\n"
+                + "java.io.IOException:   Connection to 10.0.0.31:7337 closed, block rdd_12_17 of container_e12_1682900000000_0012_01_000009";
+        Assertions.assertEquals(LogFingerprint.fingerprint("shuffleFetchFailed", first),
+                LogFingerprint.fingerprint("shuffleFetchFailed", second));
+        Assertions.assertNotEquals(LogFingerprint.fingerprint("shuffleFetchFailed", first),
+                LogFingerprint.fingerprint("otherException", first));
+        Assertions.assertNotEquals(LogFingerprint.fingerprint("otherException", first),
+                LogFingerprint.fingerprint("otherException", "java.lang.OutOfMemoryError: Java heap space"));
+    }
+
+    @Test
+    void containerId() {
+        Assertions.assertEquals("container_e12_1682900000000_0012_01_000004", LogFingerprint.containerId(
+                "hdfs://logs/user/application_1682900000000_0012/host_8041/container_e12_1682900000000_0012_01_000004"));
+        Assertions.assertNull(LogFingerprint.containerId("hdfs://spark/eventlog/application_1682900000000_0012"));
+    }
+}
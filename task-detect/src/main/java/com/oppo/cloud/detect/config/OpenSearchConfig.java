@@ -16,6 +16,9 @@
 
 package com.oppo.cloud.detect.config;
 
+import com.oppo.cloud.common.service.RedisService;
+import com.oppo.cloud.common.util.opensearch.BulkSpool;
+import com.oppo.cloud.common.util.opensearch.IndexRouter;
 import com.oppo.cloud.common.util.opensearch.OpenSearchClient;
 import org.opensearch.client.RestHighLevelClient;
 import org.springframework.beans.factory.annotation.Value;
@@ -23,12 +26,19 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 /**
  * OpenSearch Config
  */
 @Configuration
 public class OpenSearchConfig {
 
+    public final static String BULK_SPOOL = "bulkSpool";
+
+    public final static String INDEX_ROUTER = "indexRouter";
+
     @Value("${spring.opensearch.nodes}")
     private String nodes;
     @Value("${spring.opensearch.username}")
@@ -39,10 +49,46 @@ public class OpenSearchConfig {
     private String truststore;
     @Value("${spring.opensearch.truststore-password}")
     private String truststorePassword;
+    @Value("${spring.opensearch.spool.dir:spool/opensearch}")
+    private String spoolDir;
+    @Value("${spring.opensearch.spool.segment-size:64}")
+    private long spoolSegmentSize;
+    @Value("${spring.opensearch.spool.max-size:1024}")
+    private long spoolMaxSize;
+    @Value("${spring.opensearch.spool.drain-rate:500}")
+    private int spoolDrainRate;
+    @Value("${spring.opensearch.spool.drain-interval:10}")
+    private long spoolDrainInterval;
+    @Value("${spring.opensearch.route.max-entries:100000}")
+    private int routeMaxEntries;
+    @Value("${spring.opensearch.route.ttl:30}")
+    private long routeTtlDays;
+    @Value("${spring.opensearch.route.refresh:300}")
+    private long routeRefreshSeconds;
 
     @Primary
     @Bean("opensearch")
     public RestHighLevelClient restHighLevelClient() {
         return OpenSearchClient.create(nodes, username, password, truststore, truststorePassword);
     }
+
+    /**
+     * Local spool for bulk writes failing while the cluster is unavailable
+     */
+    @Bean(BULK_SPOOL)
+    public BulkSpool bulkSpool(RestHighLevelClient client) throws IOException {
+        BulkSpool spool = new BulkSpool(spoolDir, spoolSegmentSize * 1024L * 1024L, spoolMaxSize * 1024L * 1024L,
+                spoolDrainRate, client);
+        spool.start(spoolDrainInterval, TimeUnit.SECONDS);
+        return spool;
+    }
+
+    /**
+     * Routes of application ids and jobs to the daily indices holding their documents
+     */
+    @Bean(INDEX_ROUTER)
+    public IndexRouter indexRouter(RedisService redisService) {
+        return new IndexRouter(redisService, routeMaxEntries, TimeUnit.DAYS.toSeconds(routeTtlDays),
+                routeRefreshSeconds);
+    }
 }
@@ -17,10 +17,17 @@
 package com.oppo.cloud.detect.config;
 
 import com.oppo.cloud.common.config.RedisTemplateConfig;
+import com.oppo.cloud.common.constant.Constant;
+import com.oppo.cloud.detect.service.impl.MetadataCache;
 import org.springframework.context.annotation.Bean;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
 import org.springframework.stereotype.Component;
 
 /**
@@ -35,4 +42,24 @@ public class RedisConfig extends RedisTemplateConfig {
         return RedisScript.of(scriptSource, Object.class);
     }
 
+    @Bean
+    public RedisScript<Object> recoverDelayedTaskScript() {
+        Resource scriptSource = new ClassPathResource("scripts/recoverDelayedTask.lua");
+        return RedisScript.of(scriptSource, Object.class);
+    }
+
+    /**
+     * Drops the cached metadata named by the messages of the invalidate channel
+     */
+    @Bean
+    public RedisMessageListenerContainer metadataListenerContainer(RedisConnectionFactory factory,
+                                                                   MetadataCache metadataCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        container.addMessageListener((message, pattern) -> metadataCache.invalidate(
+                new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(Constant.METADATA_INVALIDATE_CHANNEL));
+        return container;
+    }
+
 }
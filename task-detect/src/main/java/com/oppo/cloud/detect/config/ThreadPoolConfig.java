@@ -31,6 +31,7 @@ public class ThreadPoolConfig {
 
     public static final String DETECT_EXECUTOR_POOL = "detectExecutorPool";
     public static final String DELAY_QUEUE_EXECUTOR_POOL = "delayQueueExecutorPool";
+    public static final String DETECTOR_EXECUTOR_POOL = "detectorExecutorPool";
 
     /**
      * Parsing task thread pool
@@ -50,6 +51,24 @@ public class ThreadPoolConfig {
         return executor;
     }
 
+    /**
+     * Detect services thread pool, the detect services of a task run concurrently
+     */
+    @Bean(name = DETECTOR_EXECUTOR_POOL)
+    public Executor detectorExecutorPool() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(16);
+        executor.setMaxPoolSize(32);
+        executor.setKeepAliveSeconds(120);
+        executor.setQueueCapacity(1000);
+        executor.setThreadNamePrefix("detector-executor-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        executor.initialize();
+        return executor;
+    }
+
     /**
      * Delayed Task Thread Pool
      */
@@ -20,7 +20,9 @@ import com.oppo.cloud.common.constant.JobCategoryEnum;
 import com.oppo.cloud.common.constant.TaskStateEnum;
 import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
 import com.oppo.cloud.common.util.DateUtil;
+import com.oppo.cloud.detect.domain.TaskHistory;
 import com.oppo.cloud.detect.domain.TaskStateHistory;
+import com.oppo.cloud.detect.service.TaskHistoryService;
 import com.oppo.cloud.detect.service.TaskInstanceService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -47,15 +49,21 @@ public class AlwaysFailed extends DetectServiceImpl {
 
     @Override
     public void detect(JobAnalysis jobAnalysis) throws Exception {
+        detect(jobAnalysis, null);
+    }
+
+    @Override
+    public void detect(JobAnalysis jobAnalysis, TaskHistory history) throws Exception {
         if (jobAnalysis.getTaskState().equals(TaskStateEnum.success.name())) {
             return;
         }
-        Date endExecutionTime = DateUtil.getOffsetDate(jobAnalysis.getExecutionDate(), -60);
-        // Query the execution status of this task in the past two months
-        List<TaskStateHistory> taskStateHistories =
-                taskInstanceService.searchTaskStateHistory(jobAnalysis.getProjectName(),
-                        jobAnalysis.getFlowName(), jobAnalysis.getTaskName(), jobAnalysis.getExecutionDate(),
-                        endExecutionTime, 60);
+        // The execution status of this task in the past two months
+        List<TaskStateHistory> taskStateHistories = history != null && history.getStateHistory() != null
+                ? history.getStateHistory()
+                : taskInstanceService.searchTaskStateHistory(jobAnalysis.getProjectName(),
+                jobAnalysis.getFlowName(), jobAnalysis.getTaskName(), jobAnalysis.getExecutionDate(),
+                DateUtil.getOffsetDate(jobAnalysis.getExecutionDate(), -TaskHistoryService.STATE_HISTORY_DAYS),
+                TaskHistoryService.STATE_HISTORY_DAYS);
         log.debug("taskName:{}, executionTime:{}, taskStateHistories:{}", jobAnalysis.getTaskName(),
                 jobAnalysis.getEndTime(), taskStateHistories);
         if (taskStateHistories == null || taskStateHistories.size() == 0) {
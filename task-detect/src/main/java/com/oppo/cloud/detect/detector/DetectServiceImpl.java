@@ -16,18 +16,22 @@
 
 package com.oppo.cloud.detect.detector;
 
-import com.alibaba.fastjson2.JSONObject;
 import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
 import com.oppo.cloud.common.domain.opensearch.SimpleUser;
 import com.oppo.cloud.common.domain.job.App;
 import com.oppo.cloud.common.domain.job.LogRecord;
 import com.oppo.cloud.common.service.RedisService;
-import com.oppo.cloud.common.util.DateUtil;
+import com.oppo.cloud.common.util.LogRecordCodec;
+import com.oppo.cloud.common.util.opensearch.PartialUpsert;
 import com.oppo.cloud.detect.domain.AbnormalTaskAppInfo;
+import com.oppo.cloud.detect.domain.DetectContext;
+import com.oppo.cloud.detect.domain.TaskHistory;
 import com.oppo.cloud.detect.service.*;
+import com.oppo.cloud.detect.service.impl.MetadataCache;
 import com.oppo.cloud.detect.util.DetectorUtil;
 import com.oppo.cloud.mapper.*;
 import com.oppo.cloud.model.*;
+import com.tdunning.math.stats.TDigest;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.logging.log4j.util.Strings;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -53,6 +57,9 @@ public abstract class DetectServiceImpl implements DetectService {
     @Autowired
     private UserInfoMapper userMapper;
 
+    @Autowired
+    private MetadataCache metadataCache;
+
     @Autowired
     private LogRecordService logRecordService;
 
@@ -74,25 +81,47 @@ public abstract class DetectServiceImpl implements DetectService {
     @Autowired
     private JobInstanceService jobInstanceService;
 
+    @Autowired
+    private BaselineService baselineService;
+
     /**
      * Parsing message transmission through a Redis queue.
      */
     @Value("${custom.redis.logRecord}")
     private String logRecordQueue;
 
+    /**
+     * LogRecord message format: json or binary
+     */
+    @Value("${custom.redis.logRecordFormat:json}")
+    private String logRecordFormat;
+
     /**
      * Task diagnosis
      */
     @Override
     public abstract void detect(JobAnalysis detectJobAnalysis) throws Exception;
 
+    /**
+     * Task diagnosis against the history snapshot, detect services reading the history override it
+     */
+    @Override
+    public void detect(JobAnalysis detectJobAnalysis, TaskHistory history) throws Exception {
+        detect(detectJobAnalysis);
+    }
+
     /**
      * Normal task processing.
      */
     @Override
     public void handleNormalJob(JobAnalysis detectJobAnalysis) throws Exception {
+        handleNormalJob(detectJobAnalysis, null);
+    }
+
+    @Override
+    public void handleNormalJob(JobAnalysis detectJobAnalysis, DetectContext context) throws Exception {
         // Update user information.
-        updateUserInfo(detectJobAnalysis);
+        updateUserInfo(detectJobAnalysis, context);
         // Query the appIds under this task.
         AbnormalTaskAppInfo abnormalTaskAppInfo = taskAppService.getAbnormalTaskAppsInfo(detectJobAnalysis, null);
         if (!"".equals(abnormalTaskAppInfo.getExceptionInfo())) {
@@ -117,8 +146,13 @@ public abstract class DetectServiceImpl implements DetectService {
      */
     @Override
     public void handleAbnormalJob(JobAnalysis detectJobAnalysis) throws Exception {
+        handleAbnormalJob(detectJobAnalysis, null);
+    }
+
+    @Override
+    public void handleAbnormalJob(JobAnalysis detectJobAnalysis, DetectContext context) throws Exception {
         // Update user information.
-        updateUserInfo(detectJobAnalysis);
+        updateUserInfo(detectJobAnalysis, context);
         sendAbnormalJobApp(detectJobAnalysis);
         // Save abnormal tasks.
         this.addOrUpdate(detectJobAnalysis);
@@ -176,44 +210,40 @@ public abstract class DetectServiceImpl implements DetectService {
      * Send LogRecord
      */
     public void sendLogRecordMsg(LogRecord logRecord) {
-        Long size = redisService.lLeftPush(logRecordQueue, JSONObject.toJSONString(logRecord));
+        Long size = redisService.lLeftPush(logRecordQueue, LogRecordCodec.encode(logRecord, logRecordFormat));
         log.info("send logRecord: key:{}, size:{}, data:{}", logRecordQueue, size, logRecord);
     }
 
     /**
-     * Save exception task data
+     * Save exception task data, merging categories and baselines into the existing document
      */
     public void addOrUpdate(JobAnalysis detectJobAnalysis) throws Exception {
-        JobAnalysis esJobAnalysis = abnormalJobService.searchJob(detectJobAnalysis);
-        if (esJobAnalysis != null) {
-            // Update operation
-            esJobAnalysis.getCategories().addAll(detectJobAnalysis.getCategories());
-            if (Strings.isNotBlank(detectJobAnalysis.getSuccessExecutionDay())) {
-                esJobAnalysis.setSuccessExecutionDay(detectJobAnalysis.getSuccessExecutionDay());
-            }
-            if (Strings.isBlank(detectJobAnalysis.getSuccessDays())) {
-                esJobAnalysis.setSuccessDays(detectJobAnalysis.getSuccessDays());
-            }
-            if (Strings.isBlank(detectJobAnalysis.getDurationBaseline())) {
-                esJobAnalysis.setDurationBaseline(detectJobAnalysis.getDurationBaseline());
-            }
-            if (Strings.isBlank(detectJobAnalysis.getEndTimeBaseline())) {
-                esJobAnalysis.setEndTimeBaseline(detectJobAnalysis.getEndTimeBaseline());
-            }
-            esJobAnalysis.setUpdateTime(new Date());
-            openSearchService.insertOrUpDate(esJobAnalysis.getIndex(), esJobAnalysis.getDocId(),
-                    esJobAnalysis.genDoc());
-        } else {
-            // Add operation
-            detectJobAnalysis.setCreateTime(new Date());
-            detectJobAnalysis.setUpdateTime(new Date());
-            String index = detectJobAnalysis.genIndex(jobIndex);
-            String docId = detectJobAnalysis.genDocId();
-            openSearchService.insertOrUpDate(index, docId, detectJobAnalysis.genDoc());
-            // Record index information and docId
-            detectJobAnalysis.setIndex(index);
-            detectJobAnalysis.setDocId(docId);
+        Date now = new Date();
+        detectJobAnalysis.setCreateTime(now);
+        detectJobAnalysis.setUpdateTime(now);
+        String index = detectJobAnalysis.genIndex(jobIndex);
+        String docId = detectJobAnalysis.genDocId();
+        Map<String, Object> doc = detectJobAnalysis.genDoc();
+        PartialUpsert upsert = new PartialUpsert()
+                .setAllOnInsert(doc)
+                .union("categories", detectJobAnalysis.getCategories())
+                .set("updateTime", doc.get("updateTime"));
+        if (Strings.isNotBlank(detectJobAnalysis.getSuccessExecutionDay())) {
+            upsert.set("successExecutionDay", detectJobAnalysis.getSuccessExecutionDay());
+        }
+        if (Strings.isNotBlank(detectJobAnalysis.getSuccessDays())) {
+            upsert.set("successDays", detectJobAnalysis.getSuccessDays());
+        }
+        if (Strings.isNotBlank(detectJobAnalysis.getDurationBaseline())) {
+            upsert.set("durationBaseline", detectJobAnalysis.getDurationBaseline());
+        }
+        if (Strings.isNotBlank(detectJobAnalysis.getEndTimeBaseline())) {
+            upsert.set("endTimeBaseline", detectJobAnalysis.getEndTimeBaseline());
         }
+        openSearchService.upsert(index, docId, upsert);
+        // Record index information and docId
+        detectJobAnalysis.setIndex(index);
+        detectJobAnalysis.setDocId(docId);
     }
 
 
@@ -221,7 +251,23 @@ public abstract class DetectServiceImpl implements DetectService {
      * Update user information of the task
      */
     public void updateUserInfo(JobAnalysis detectJobAnalysis) {
-        Task task = taskService.getTask(detectJobAnalysis.getProjectName(), detectJobAnalysis.getFlowName(),
+        updateUserInfo(detectJobAnalysis, null);
+    }
+
+    /**
+     * Update user information of the task, from the batch lookups when they hold the task
+     */
+    public void updateUserInfo(JobAnalysis detectJobAnalysis, DetectContext context) {
+        Task task = context == null ? null : context.getTask(detectJobAnalysis.getProjectName(),
+                detectJobAnalysis.getFlowName(), detectJobAnalysis.getTaskName());
+        if (task != null) {
+            detectJobAnalysis.setTaskId(task.getId());
+            detectJobAnalysis.setProjectId(task.getProjectId());
+            detectJobAnalysis.setFlowId(task.getFlowId());
+            setUser(detectJobAnalysis, context.getUser(task.getUserId()));
+            return;
+        }
+        task = taskService.getTask(detectJobAnalysis.getProjectName(), detectJobAnalysis.getFlowName(),
                 detectJobAnalysis.getTaskName());
         if (task == null) {
             log.error("get task null:{}", detectJobAnalysis);
@@ -230,30 +276,44 @@ public abstract class DetectServiceImpl implements DetectService {
         detectJobAnalysis.setTaskId(task.getId());
         detectJobAnalysis.setProjectId(task.getProjectId());
         detectJobAnalysis.setFlowId(task.getFlowId());
+        Integer userId = task.getUserId();
+        if (userId != null) {
+            setUser(detectJobAnalysis, metadataCache.getUser(userId, () -> Optional.ofNullable(queryUser(userId))));
+        }
+    }
+
+    private UserInfo queryUser(Integer userId) {
         UserInfoExample userExample = new UserInfoExample();
-        userExample.createCriteria().andUserIdEqualTo(task.getUserId());
+        userExample.createCriteria().andUserIdEqualTo(userId);
         List<UserInfo> users = userMapper.selectByExample(userExample);
-        if (users.size() > 0) {
-            UserInfo user = users.get(0);
-            SimpleUser simpleUser = new SimpleUser();
-            simpleUser.setUserId(user.getUserId());
-            simpleUser.setUsername(user.getUsername());
-            detectJobAnalysis.setUsers(Collections.singletonList(simpleUser));
-        }
+        return users.size() > 0 ? users.get(0) : null;
+    }
 
+    private static void setUser(JobAnalysis detectJobAnalysis, UserInfo user) {
+        if (user == null) {
+            return;
+        }
+        SimpleUser simpleUser = new SimpleUser();
+        simpleUser.setUserId(user.getUserId());
+        simpleUser.setUsername(user.getUsername());
+        detectJobAnalysis.setUsers(Collections.singletonList(simpleUser));
     }
 
     public double[] getEndTimeBaseline(JobAnalysis detectJobAnalysis) throws Exception {
-        Date startTime = DateUtil.getOffsetDate(detectJobAnalysis.getExecutionDate(), -30);
-        // Get data within the last month
-        List<Double> relativeEndDateHistory = taskInstanceService.searchTaskRelativeEndTime(
-                detectJobAnalysis.getProjectName(), detectJobAnalysis.getFlowName(),
-                detectJobAnalysis.getTaskName(), detectJobAnalysis.getExecutionDate(), startTime, 20);
+        return getEndTimeBaseline(detectJobAnalysis, (TaskHistory) null);
+    }
+
+    /**
+     * End time baseline from the snapshot sketch, read when the snapshot has none
+     */
+    public double[] getEndTimeBaseline(JobAnalysis detectJobAnalysis, TaskHistory history) throws Exception {
+        // Sketch of the last month
+        TDigest relativeEndDate = history != null && history.getEndTimeSketch() != null
+                ? history.getEndTimeSketch() : baselineService.getEndTimeSketch(detectJobAnalysis);
         // If the sample value is less than 10, do not perform anomaly detection
-        if (relativeEndDateHistory.size() < 10) {
+        if (relativeEndDate.size() < 10) {
             return null;
         }
-        Double[] relativeEndDate = relativeEndDateHistory.toArray(new Double[0]);
         long executionTimestamp = detectJobAnalysis.getExecutionDate().getTime() / 1000;
         double[] relativeMedian = DetectorUtil.boxplotValue(relativeEndDate);
         double relativeEndDateStart = relativeMedian[0];
@@ -264,16 +324,20 @@ public abstract class DetectServiceImpl implements DetectService {
     }
 
     public double[] getDurationBaseline(JobAnalysis detectJobAnalysis) throws Exception {
-        Date startTime = DateUtil.getOffsetDate(detectJobAnalysis.getExecutionDate(), 30);
-        // Query the historical data of the last month
-        List<Double> durationHistory = taskInstanceService.searchTaskDurationHistory(detectJobAnalysis.getProjectName(),
-                detectJobAnalysis.getFlowName(), detectJobAnalysis.getTaskName(), detectJobAnalysis.getExecutionDate(),
-                startTime, 20);
+        return getDurationBaseline(detectJobAnalysis, (TaskHistory) null);
+    }
+
+    /**
+     * Duration baseline from the snapshot sketch, read when the snapshot has none
+     */
+    public double[] getDurationBaseline(JobAnalysis detectJobAnalysis, TaskHistory history) throws Exception {
+        // Sketch of the last month
+        TDigest durationData = history != null && history.getDurationSketch() != null
+                ? history.getDurationSketch() : baselineService.getDurationSketch(detectJobAnalysis);
         // If the sample value is less than 10, do not perform anomaly detection
-        if (durationHistory.size() < 10) {
+        if (durationData.size() < 10) {
             return null;
         }
-        Double[] durationData = durationHistory.toArray(new Double[0]);
         // Box plot method
         double[] durationBeginAndEnd = DetectorUtil.boxplotValue(durationData);
         // Extreme outliers
@@ -19,6 +19,7 @@ package com.oppo.cloud.detect.detector;
 import com.oppo.cloud.common.constant.JobCategoryEnum;
 import com.oppo.cloud.common.constant.TaskStateEnum;
 import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
+import com.oppo.cloud.detect.domain.TaskHistory;
 import com.oppo.cloud.detect.service.TaskInstanceService;
 import com.oppo.cloud.detect.util.DetectorUtil;
 import lombok.extern.slf4j.Slf4j;
@@ -39,17 +40,22 @@ public class DurationAbnormal extends DetectServiceImpl {
 
     @Override
     public void detect(JobAnalysis jobAnalysis) throws Exception {
+        detect(jobAnalysis, null);
+    }
+
+    @Override
+    public void detect(JobAnalysis jobAnalysis, TaskHistory history) throws Exception {
         // Failed tasks are not subject to runtime duration detection.
         if (jobAnalysis.getTaskState().equals(TaskStateEnum.fail.name())) {
             return;
         }
-        double[] durationBeginAndEnd = getDurationBaseline(jobAnalysis);
+        double[] durationBeginAndEnd = getDurationBaseline(jobAnalysis, history);
         if (durationBeginAndEnd == null) {
             return;
         }
         // Extremely abnormal values.
         double normalDurationBegin = durationBeginAndEnd[0];
-        double normalDurationEnd = durationBeginAndEnd[4];
+        double normalDurationEnd = durationBeginAndEnd[1];
         double tailAvg = jobAnalysis.getDuration();
         String normalDurationBeginStr = DetectorUtil.transferSecond(normalDurationBegin);
         String normalDurationEndStr = DetectorUtil.transferSecond(normalDurationEnd);
@@ -22,6 +22,7 @@ import com.oppo.cloud.common.constant.TaskStateEnum;
 import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
 import com.oppo.cloud.common.domain.job.Datum;
 import com.oppo.cloud.common.util.DateUtil;
+import com.oppo.cloud.detect.domain.TaskHistory;
 import com.oppo.cloud.detect.util.DetectorUtil;
 import com.oppo.cloud.mapper.TaskDatumMapper;
 import com.oppo.cloud.model.*;
@@ -49,11 +50,16 @@ public class EndTimeAbnormal extends DetectServiceImpl {
 
     @Override
     public void detect(JobAnalysis jobAnalysis) throws Exception {
+        detect(jobAnalysis, null);
+    }
+
+    @Override
+    public void detect(JobAnalysis jobAnalysis, TaskHistory history) throws Exception {
         // Failed tasks are not subject to runtime duration detection.
         if (jobAnalysis.getTaskState().equals(TaskStateEnum.fail.name())) {
             return;
         }
-        double[] normalValue = getEndTimeBaseline(jobAnalysis);
+        double[] normalValue = getEndTimeBaseline(jobAnalysis, history);
         if (normalValue == null) {
             return;
         }
@@ -65,12 +71,16 @@ public class EndTimeAbnormal extends DetectServiceImpl {
         jobAnalysis.setEndTimeBaseline(normalEndDateEndStr);
         if (endTimeTimestamp > normalEndDateEnd || endTimeTimestamp < normalEndDateBegin) {
             jobAnalysis.getCategories().add(JobCategoryEnum.endTimeAbnormal.name());
-            genBaselineTree(jobAnalysis);
+            genBaselineTree(jobAnalysis, history);
         }
     }
 
     public void genBaselineTree(JobAnalysis detectJobAnalysis) throws Exception {
-        Datum datum = getTotalBaselineTree(detectJobAnalysis);
+        genBaselineTree(detectJobAnalysis, null);
+    }
+
+    public void genBaselineTree(JobAnalysis detectJobAnalysis, TaskHistory history) throws Exception {
+        Datum datum = getTotalBaselineTree(detectJobAnalysis, history);
         String baselineTreeStr = objectMapper.writeValueAsString(datum);
         TaskDatum taskDatum = new TaskDatum();
         taskDatum.setProjectName(detectJobAnalysis.getProjectName());
@@ -86,17 +96,18 @@ public class EndTimeAbnormal extends DetectServiceImpl {
      * Get the baseline tree of the upstream task.
      *
      * @param detectJobAnalysis
+     * @param history
      * @return
      * @throws Exception
      */
-    public Datum getTotalBaselineTree(JobAnalysis detectJobAnalysis) throws Exception {
+    public Datum getTotalBaselineTree(JobAnalysis detectJobAnalysis, TaskHistory history) throws Exception {
         Task task = taskService.getTask(detectJobAnalysis.getProjectName(), detectJobAnalysis.getFlowName(),
                 detectJobAnalysis.getTaskName());
         Integer taskId = task.getId();
         Datum datum = new Datum();
         Set<Datum.Node> nodeList = new HashSet<>();
         List<Datum.Verge> vergeList = new ArrayList<>();
-        Datum.Node node = this.getNode(detectJobAnalysis);
+        Datum.Node node = this.getNode(detectJobAnalysis, history);
         node.setId(taskId);
         nodeList.add(node);
         datum.setNodeList(nodeList);
@@ -108,10 +119,11 @@ public class EndTimeAbnormal extends DetectServiceImpl {
      * Construct a baseline node.
      *
      * @param detectJobAnalysis
+     * @param history
      * @return
      * @throws Exception
      */
-    public Datum.Node getNode(JobAnalysis detectJobAnalysis) throws Exception {
+    public Datum.Node getNode(JobAnalysis detectJobAnalysis, TaskHistory history) throws Exception {
         Datum.Node node = new Datum.Node();
         node.setFlowName(detectJobAnalysis.getFlowName());
         node.setTaskName(detectJobAnalysis.getTaskName());
@@ -130,7 +142,7 @@ public class EndTimeAbnormal extends DetectServiceImpl {
         node.setEndTimeBaseLine("-");
         node.setDurationBaseLine("-");
         if (detectJobAnalysis.getEndTime() != null) {
-            double[] normalEndTimeValue = getEndTimeBaseline(detectJobAnalysis);
+            double[] normalEndTimeValue = getEndTimeBaseline(detectJobAnalysis, history);
             if (normalEndTimeValue != null) {
                 node.setEndTimeBaseLine(
                         DateUtil.format(new Date((long) (normalEndTimeValue[1]) * 1000L), "yyyy-MM-dd HH:mm:ss"));
@@ -140,7 +152,7 @@ public class EndTimeAbnormal extends DetectServiceImpl {
             }
         }
         if (detectJobAnalysis.getDuration() != 0) {
-            double[] normalDurationValue = getDurationBaseline(detectJobAnalysis);
+            double[] normalDurationValue = getDurationBaseline(detectJobAnalysis, history);
             if (normalDurationValue != null) {
                 node.setDurationBaseLine(DetectorUtil.transferSecond(normalDurationValue[1]));
                 if (detectJobAnalysis.getDuration() > normalDurationValue[1]) {
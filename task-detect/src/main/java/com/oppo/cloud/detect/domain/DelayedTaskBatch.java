@@ -0,0 +1,51 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.domain;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Delayed tasks claimed together from the delayed queue
+ */
+@Data
+public class DelayedTaskBatch {
+
+    @Data
+    public static class Claim {
+
+        private DelayedTaskInfo task;
+
+        /**
+         * Due time in milliseconds
+         */
+        private long dueTime;
+
+        public Claim(DelayedTaskInfo task, long dueTime) {
+            this.task = task;
+            this.dueTime = dueTime;
+        }
+    }
+
+    private List<Claim> claims = new ArrayList<>();
+
+    /**
+     * Due time of the first task left in the queue, null when the queue is empty
+     */
+    private Long nextDueTime;
+}
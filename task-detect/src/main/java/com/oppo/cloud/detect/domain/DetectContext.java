@@ -0,0 +1,80 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.domain;
+
+import com.oppo.cloud.model.Task;
+import com.oppo.cloud.model.TaskInstance;
+import com.oppo.cloud.model.UserInfo;
+import lombok.Data;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lookups of the task instances of a poll batch, resolved together before detection.
+ * Keys missing from the maps were not found.
+ */
+@Data
+public class DetectContext {
+
+    /**
+     * Keys of the block listed tasks
+     */
+    private Set<String> blocklistTasks = new HashSet<>();
+
+    /**
+     * Task instances aggregated over the retries of an execution, by instance key
+     */
+    private Map<String, TaskInstance> taskSums = new HashMap<>();
+
+    /**
+     * Task metadata by task key
+     */
+    private Map<String, Task> tasks = new HashMap<>();
+
+    /**
+     * Users by user id
+     */
+    private Map<Integer, UserInfo> users = new HashMap<>();
+
+    public static String taskKey(String projectName, String flowName, String taskName) {
+        return projectName + "\u0001" + flowName + "\u0001" + taskName;
+    }
+
+    public static String instanceKey(String projectName, String flowName, String taskName, Date executionTime) {
+        return taskKey(projectName, flowName, taskName) + "\u0001"
+                + (executionTime == null ? "" : executionTime.getTime());
+    }
+
+    public boolean isBlocklistTask(String projectName, String flowName, String taskName) {
+        return blocklistTasks.contains(taskKey(projectName, flowName, taskName));
+    }
+
+    public TaskInstance getTaskSum(String projectName, String flowName, String taskName, Date executionTime) {
+        return taskSums.get(instanceKey(projectName, flowName, taskName, executionTime));
+    }
+
+    public Task getTask(String projectName, String flowName, String taskName) {
+        return tasks.get(taskKey(projectName, flowName, taskName));
+    }
+
+    public UserInfo getUser(Integer userId) {
+        return users.get(userId);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.domain;
+
+import com.alibaba.fastjson2.JSONReader;
+import lombok.Data;
+
+/**
+ * Fields of a table change message used by the detection: the table, the operation and the row, read in one
+ * pass that skips the raw canal data.
+ */
+@Data
+public class TableChange {
+
+    public static final String DELETE = "DELETE";
+
+    private String table;
+
+    /**
+     * Operation: INSERT/UPDATE/DELETE
+     */
+    private String eventType;
+
+    /**
+     * Row as json
+     */
+    private String body;
+
+    public boolean isDelete() {
+        return DELETE.equals(eventType);
+    }
+
+    /**
+     * Read a message, null when it is not a json object
+     */
+    public static TableChange parse(String message) {
+        try (JSONReader reader = JSONReader.of(message)) {
+            if (!reader.nextIfObjectStart()) {
+                return null;
+            }
+            TableChange change = new TableChange();
+            while (!reader.nextIfObjectEnd()) {
+                String name = reader.readFieldName();
+                if (name == null) {
+                    return null;
+                }
+                switch (name) {
+                    case "table":
+                        change.table = reader.readString();
+                        break;
+                    case "eventType":
+                        change.eventType = reader.readString();
+                        break;
+                    case "body":
+                        change.body = reader.readString();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            return change;
+        }
+    }
+
+    /**
+     * Read one top-level string field of a json object without binding the others, null when it is missing,
+     * not a string or the json is not an object
+     */
+    public static String readString(String json, String field) {
+        try (JSONReader reader = JSONReader.of(json)) {
+            if (!reader.nextIfObjectStart()) {
+                return null;
+            }
+            while (!reader.nextIfObjectEnd()) {
+                String name = reader.readFieldName();
+                if (name == null) {
+                    return null;
+                }
+                if (field.equals(name)) {
+                    return reader.isString() ? reader.readString() : null;
+                }
+                reader.skipValue();
+            }
+            return null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.domain;
+
+import com.tdunning.math.stats.TDigest;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * History of a task loaded once per detected execution and shared by the detect services.
+ * Parts not needed by the execution state are not loaded and left null.
+ */
+@Data
+public class TaskHistory {
+
+    /**
+     * Durations of the successful executions of the baseline window
+     */
+    private TDigest durationSketch;
+
+    /**
+     * End times relative to the execution date of the successful executions of the baseline window
+     */
+    private TDigest endTimeSketch;
+
+    /**
+     * States of the executions of the state history window, most recent first
+     */
+    private List<TaskStateHistory> stateHistory;
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.service;
+
+import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
+import com.tdunning.math.stats.TDigest;
+
+import java.util.Map;
+
+/**
+ * Duration and end time baselines of tasks, kept as daily quantile sketches.
+ */
+public interface BaselineService {
+
+    String DURATION = "duration";
+
+    String END_TIME = "endTime";
+
+    /**
+     * Add a finished execution to the baselines of its task, only successful executions are kept.
+     */
+    void record(JobAnalysis jobAnalysis);
+
+    /**
+     * Durations of the successful executions of the baseline window before the execution date.
+     */
+    TDigest getDurationSketch(JobAnalysis jobAnalysis);
+
+    /**
+     * End times relative to the execution date of the successful executions of the baseline window.
+     */
+    TDigest getEndTimeSketch(JobAnalysis jobAnalysis);
+
+    /**
+     * Both sketches from a single read, by metric: DURATION and END_TIME.
+     */
+    Map<String, TDigest> getSketches(JobAnalysis jobAnalysis);
+}
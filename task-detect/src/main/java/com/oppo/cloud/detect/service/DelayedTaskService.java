@@ -17,6 +17,7 @@
 package com.oppo.cloud.detect.service;
 
 import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
+import com.oppo.cloud.detect.domain.DelayedTaskBatch;
 import com.oppo.cloud.detect.domain.DelayedTaskInfo;
 
 import java.util.List;
@@ -39,4 +40,20 @@ public interface DelayedTaskService {
      * Get the retried tasks from the delayed queue.
      */
     List<DelayedTaskInfo> getDelayedTasks();
+
+    /**
+     * Claim at most limit tasks due by the given time, with the due time of the first task left in the queue.
+     */
+    DelayedTaskBatch claimDelayedTasks(long dueBy, int limit);
+
+    /**
+     * Drop the claim of a task that is done or queued again.
+     */
+    void release(DelayedTaskInfo delayedTaskInfo);
+
+    /**
+     * Queue again the claimed tasks whose lease expired, and the claims of the previous run of this instance
+     * when starting; returns the number of recovered tasks.
+     */
+    long recoverExpiredClaims(boolean starting);
 }
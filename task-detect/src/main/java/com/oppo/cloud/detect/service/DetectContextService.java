@@ -0,0 +1,32 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.service;
+
+import com.oppo.cloud.detect.domain.DetectContext;
+import com.oppo.cloud.model.TaskInstance;
+
+import java.util.List;
+
+/**
+ * Resolves the lookups of a batch of task instances with set-based queries.
+ */
+public interface DetectContextService {
+
+    /**
+     * Resolve block list, aggregated task instances, tasks and users of the given task instances.
+     */
+    DetectContext prepare(List<TaskInstance> taskInstances);
+}
@@ -17,6 +17,8 @@
 package com.oppo.cloud.detect.service;
 
 import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
+import com.oppo.cloud.detect.domain.DetectContext;
+import com.oppo.cloud.detect.domain.TaskHistory;
 
 /**
  * Job diagnosis service.
@@ -31,6 +33,14 @@ public interface DetectService {
      */
     void detect(JobAnalysis jobAnalysis) throws Exception;
 
+    /**
+     * Job diagnosis against the task history snapshot of the execution
+     * @param jobAnalysis
+     * @param history
+     * @throws Exception
+     */
+    void detect(JobAnalysis jobAnalysis, TaskHistory history) throws Exception;
+
     /**
      * Exceptional job task processing
      * @param jobAnalysis
@@ -44,4 +54,20 @@ public interface DetectService {
      * @throws Exception
      */
     void handleNormalJob(JobAnalysis jobAnalysis) throws Exception;
+
+    /**
+     * Exceptional job task processing, with the lookups of its poll batch
+     * @param jobAnalysis
+     * @param context
+     * @throws Exception
+     */
+    void handleAbnormalJob(JobAnalysis jobAnalysis, DetectContext context) throws Exception;
+
+    /**
+     * Normal job task processing, with the lookups of its poll batch
+     * @param jobAnalysis
+     * @param context
+     * @throws Exception
+     */
+    void handleNormalJob(JobAnalysis jobAnalysis, DetectContext context) throws Exception;
 }
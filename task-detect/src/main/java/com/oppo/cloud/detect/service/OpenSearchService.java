@@ -19,11 +19,15 @@ package com.oppo.cloud.detect.service;
 import com.oppo.cloud.common.domain.cluster.spark.SparkApp;
 import com.oppo.cloud.common.domain.cluster.yarn.YarnApp;
 import com.oppo.cloud.common.domain.opensearch.OpenSearchInfo;
+import com.oppo.cloud.common.util.opensearch.PartialUpsert;
+import org.opensearch.action.DocWriteResponse;
+import org.opensearch.action.update.UpdateRequest;
 import org.opensearch.action.update.UpdateResponse;
 import org.opensearch.search.SearchHits;
 import org.opensearch.search.builder.SearchSourceBuilder;
 import org.opensearch.search.sort.SortOrder;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -55,11 +59,36 @@ public interface OpenSearchService {
      */
     SparkApp searchSparkApp(String applicationId) throws Exception;
 
+    /**
+     * Query YarnApp data of several applications in one request, keyed by applicationId; missing ones are absent.
+     */
+    Map<String, YarnApp> searchYarnApps(Collection<String> applicationIds) throws Exception;
+
+    /**
+     * Query SparkApp data of several applications in one request, keyed by applicationId; missing ones are absent.
+     */
+    Map<String, SparkApp> searchSparkApps(Collection<String> applicationIds) throws Exception;
+
     /**
      * Insert or update.
      */
     UpdateResponse insertOrUpDate(String index, String id, Object document) throws Exception;
 
+    /**
+     * Request inserting or updating a document, to be sent with bulkInsertOrUpDate.
+     */
+    UpdateRequest insertOrUpDateRequest(String index, String id, Object document) throws Exception;
+
+    /**
+     * Insert or update several documents in one bulk request.
+     */
+    void bulkInsertOrUpDate(List<UpdateRequest> requests) throws Exception;
+
+    /**
+     * Merge fields into a document on the server side, creating it when missing.
+     */
+    DocWriteResponse upsert(String index, String id, PartialUpsert upsert) throws Exception;
+
     /**
      * Query data.
      */
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.service;
+
+import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
+import com.oppo.cloud.detect.domain.TaskHistory;
+
+
+/**
+ * Task history snapshot shared by the detect services.
+ */
+public interface TaskHistoryService {
+
+    /**
+     * Days of executions in the state history
+     */
+    int STATE_HISTORY_DAYS = 60;
+
+    /**
+     * Load the history the detect services need for the execution: the baselines of successful executions,
+     * the state history of failed ones.
+     */
+    TaskHistory load(JobAnalysis jobAnalysis);
+}
@@ -21,6 +21,7 @@ import com.oppo.cloud.model.TaskInstance;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Task execution instance interface.
@@ -45,9 +46,27 @@ public interface TaskInstanceService {
     List<Double> searchTaskRelativeEndTime(String projectName, String flowName, String taskName,
                                            Date executionTime, Date endExecutionTime, Integer sampleNum);
 
+    /**
+     * Query the execution duration of the successful executions of a period, with their execution time.
+     */
+    List<TaskStateHistory> searchTaskDurationStates(String projectName, String flowName, String taskName,
+                                                    Date executionTime, Date endExecutionTime, Integer sampleNum);
+
+    /**
+     * Query the relative end time of the successful executions of a period, with their execution time.
+     */
+    List<TaskStateHistory> searchTaskRelativeEndTimeStates(String projectName, String flowName, String taskName,
+                                                           Date executionTime, Date endExecutionTime,
+                                                           Integer sampleNum);
+
     /**
      * Query aggregated tasks for a specific execution cycle.
      */
     TaskInstance searchTaskSum(String projectName, String flowName, String taskName,
                                Date executionTime);
+
+    /**
+     * Query aggregated tasks of several execution cycles, by instance key.
+     */
+    Map<String, TaskInstance> searchTaskSums(List<TaskInstance> taskInstances);
 }
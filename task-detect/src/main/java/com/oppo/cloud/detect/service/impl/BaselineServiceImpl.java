@@ -0,0 +1,196 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.service.impl;
+
+import com.oppo.cloud.common.constant.TaskStateEnum;
+import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
+import com.oppo.cloud.common.service.RedisService;
+import com.oppo.cloud.common.util.DateUtil;
+import com.oppo.cloud.detect.domain.TaskStateHistory;
+import com.oppo.cloud.detect.service.BaselineService;
+import com.oppo.cloud.detect.service.TaskInstanceService;
+import com.oppo.cloud.detect.util.BaselineSketch;
+import com.tdunning.math.stats.TDigest;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Baselines kept in a redis hash per task, with one sketch per metric and execution day:
+ * "duration:yyyy-MM-dd" and "endTime:yyyy-MM-dd". Tasks without sketches are seeded once from the
+ * task instance history.
+ */
+@Slf4j
+@Service
+public class BaselineServiceImpl implements BaselineService {
+
+    public static final String KEY_PREFIX = "compass:detect:baseline:";
+
+    public static final String SKETCH_METRIC = "compass.detect.baseline.sketch";
+
+    /**
+     * Marks tasks seeded from the history, also when the history was empty
+     */
+    static final String SEEDED = "seeded";
+
+    @Autowired
+    private RedisService redisService;
+
+    @Autowired
+    private TaskInstanceService taskInstanceService;
+
+    /**
+     * Days of executions in the baselines
+     */
+    @Value("${custom.detectionRule.baselineDays:30}")
+    private int baselineDays;
+
+    /**
+     * Executions read from the history when seeding a task
+     */
+    @Value("${custom.detectionRule.baselineSeedLimit:2000}")
+    private int seedLimit;
+
+    @Override
+    public void record(JobAnalysis jobAnalysis) {
+        if (!TaskStateEnum.success.name().equals(jobAnalysis.getTaskState()) || jobAnalysis.getExecutionDate() == null
+                || jobAnalysis.getEndTime() == null || jobAnalysis.getDuration() == null) {
+            return;
+        }
+        String key = key(jobAnalysis);
+        String day = DateUtil.formatToDay(jobAnalysis.getExecutionDate());
+        Map<Object, Object> hash = redisService.hGetAll(key);
+        if (hash == null) {
+            hash = new HashMap<>();
+        }
+        Map<Object, Object> entries = new HashMap<>();
+        add(hash, entries, DURATION + ":" + day, jobAnalysis.getDuration());
+        add(hash, entries, END_TIME + ":" + day, relativeEndTime(jobAnalysis.getEndTime(), jobAnalysis.getExecutionDate()));
+        redisService.hMultiSet(key, entries);
+        // drop the days which left the window
+        String oldest = DateUtil.formatToDay(DateUtil.getOffsetDate(new Date(), -baselineDays));
+        Object[] expired = hash.keySet().stream()
+                .filter(field -> !SEEDED.equals(field) && day(field).compareTo(oldest) < 0)
+                .toArray();
+        if (expired.length > 0) {
+            redisService.hDel(key, expired);
+        }
+        redisService.expire(key, ttl());
+    }
+
+    @Override
+    public TDigest getDurationSketch(JobAnalysis jobAnalysis) {
+        return getSketches(jobAnalysis).get(DURATION);
+    }
+
+    @Override
+    public TDigest getEndTimeSketch(JobAnalysis jobAnalysis) {
+        return getSketches(jobAnalysis).get(END_TIME);
+    }
+
+    /**
+     * Merge the daily sketches of the baseline window, the execution day included
+     */
+    @Override
+    public Map<String, TDigest> getSketches(JobAnalysis jobAnalysis) {
+        String key = key(jobAnalysis);
+        Map<Object, Object> hash = redisService.hGetAll(key);
+        if (hash == null || !hash.containsKey(SEEDED)) {
+            hash = seed(key, jobAnalysis);
+            Metrics.counter(SKETCH_METRIC, "result", "seed").increment();
+        } else {
+            Metrics.counter(SKETCH_METRIC, "result", "hit").increment();
+        }
+        String from = DateUtil.formatToDay(DateUtil.getOffsetDate(jobAnalysis.getExecutionDate(), -baselineDays));
+        String to = DateUtil.formatToDay(jobAnalysis.getExecutionDate());
+        Map<String, TDigest> sketches = new HashMap<>();
+        for (String metric : new String[]{DURATION, END_TIME}) {
+            List<TDigest> digests = new ArrayList<>();
+            for (Map.Entry<Object, Object> entry : hash.entrySet()) {
+                String field = String.valueOf(entry.getKey());
+                if (field.compareTo(metric + ":" + from) >= 0 && field.compareTo(metric + ":" + to) <= 0) {
+                    digests.add(BaselineSketch.decode(String.valueOf(entry.getValue())));
+                }
+            }
+            sketches.put(metric, BaselineSketch.merge(digests));
+        }
+        return sketches;
+    }
+
+    /**
+     * Build the daily sketches of a task from the task instance history
+     */
+    private Map<Object, Object> seed(String key, JobAnalysis jobAnalysis) {
+        Date begin = DateUtil.getOffsetDate(jobAnalysis.getExecutionDate(), -baselineDays);
+        Map<String, TDigest> sketches = new HashMap<>();
+        for (TaskStateHistory history : taskInstanceService.searchTaskDurationStates(jobAnalysis.getProjectName(),
+                jobAnalysis.getFlowName(), jobAnalysis.getTaskName(), jobAnalysis.getExecutionDate(), begin, seedLimit)) {
+            seedValue(sketches, DURATION, history);
+        }
+        for (TaskStateHistory history : taskInstanceService.searchTaskRelativeEndTimeStates(jobAnalysis.getProjectName(),
+                jobAnalysis.getFlowName(), jobAnalysis.getTaskName(), jobAnalysis.getExecutionDate(), begin, seedLimit)) {
+            seedValue(sketches, END_TIME, history);
+        }
+        Map<Object, Object> hash = new HashMap<>();
+        sketches.forEach((field, digest) -> hash.put(field, BaselineSketch.encode(digest)));
+        hash.put(SEEDED, DateUtil.formatToDay(new Date()));
+        redisService.hMultiSet(key, hash);
+        redisService.expire(key, ttl());
+        log.info("seedBaseline:{},{}", key, sketches.size());
+        return hash;
+    }
+
+    private static void seedValue(Map<String, TDigest> sketches, String metric, TaskStateHistory history) {
+        if (history.getValue() == null || history.getExecutionTime() == null) {
+            return;
+        }
+        sketches.computeIfAbsent(metric + ":" + DateUtil.formatToDay(history.getExecutionTime()),
+                k -> BaselineSketch.create()).add(history.getValue());
+    }
+
+    private static void add(Map<Object, Object> hash, Map<Object, Object> entries, String field, double value) {
+        Object current = hash.get(field);
+        TDigest digest = current == null ? BaselineSketch.create() : BaselineSketch.decode(String.valueOf(current));
+        digest.add(value);
+        entries.put(field, BaselineSketch.encode(digest));
+    }
+
+    static double relativeEndTime(Date endTime, Date executionDate) {
+        return endTime.getTime() / 1000 - executionDate.getTime() / 1000;
+    }
+
+    private static String day(Object field) {
+        String value = String.valueOf(field);
+        return value.substring(value.indexOf(':') + 1);
+    }
+
+    private long ttl() {
+        return (baselineDays + 1) * 24 * 3600L;
+    }
+
+    private static String key(JobAnalysis jobAnalysis) {
+        return KEY_PREFIX + jobAnalysis.getProjectName() + ":" + jobAnalysis.getFlowName() + ":"
+                + jobAnalysis.getTaskName();
+    }
+}
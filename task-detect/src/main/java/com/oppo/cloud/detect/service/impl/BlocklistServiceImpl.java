@@ -37,11 +37,19 @@ public class BlocklistServiceImpl implements BlocklistService {
     @Autowired
     private BlocklistMapper blocklistMapper;
 
+    @Autowired
+    private MetadataCache metadataCache;
+
     /**
      * Check if the task to be detected is in the block list.
      */
     @Override
     public Boolean isBlocklistTask(String projectName, String flowName, String taskName) {
+        return metadataCache.isBlocklistTask(projectName, flowName, taskName,
+                () -> queryBlocklistTask(projectName, flowName, taskName));
+    }
+
+    private boolean queryBlocklistTask(String projectName, String flowName, String taskName) {
         BlocklistExample blocklistExample = new BlocklistExample();
         BlocklistExample.Criteria criteria = blocklistExample.createCriteria();
         criteria.andTaskNameEqualTo(taskName).andDeletedEqualTo(0);
@@ -21,14 +21,19 @@ import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
 import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
 import com.oppo.cloud.common.service.RedisService;
+import com.oppo.cloud.detect.domain.DelayedTaskBatch;
 import com.oppo.cloud.detect.domain.DelayedTaskInfo;
 import com.oppo.cloud.detect.service.DelayedTaskService;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -49,12 +54,47 @@ public class DelayedTaskServiceImpl implements DelayedTaskService {
     @Value("${custom.delayedTaskQueue.delayedSeconds}")
     private Integer delayedSeconds;
 
+    @Value("${custom.delayedTaskQueue.claimLimit:500}")
+    private Integer claimLimit;
+
+    /**
+     * Claims stay with their instance until leaseSeconds after the due time
+     */
+    @Value("${custom.delayedTaskQueue.leaseSeconds:600}")
+    private Integer leaseSeconds;
+
+    /**
+     * Owner of the claims, stable across restarts of the same instance
+     */
+    @Value("${custom.delayedTaskQueue.instanceId:}")
+    private String instanceId;
+
+    @Value("${server.port:0}")
+    private Integer serverPort;
+
     @Autowired
     private RedisService redisService;
 
     @Autowired
     private RedisScript<Object> delayTaskedScript;
 
+    @Autowired
+    private RedisScript<Object> recoverDelayedTaskScript;
+
+    @PostConstruct
+    void initInstanceId() {
+        if (StringUtils.isBlank(instanceId)) {
+            String host;
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                host = "localhost";
+            }
+            instanceId = host + ":" + serverPort;
+        }
+        log.info("delayedTaskInstance:{}", instanceId);
+    }
+
     /**
      * Push job to delayed queue.
      */
@@ -75,22 +115,76 @@ public class DelayedTaskServiceImpl implements DelayedTaskService {
     public void rePushDelayedQueue(DelayedTaskInfo delayedTaskInfo) {
         redisService.zSetAdd(delayQueue, JSON.toJSONString(delayedTaskInfo),
                 System.currentTimeMillis() + delayedSeconds * 1000);
+        // queued again, no longer claimed
+        release(delayedTaskInfo);
         log.info("rePushDelayQueue:{},{}", delayQueue, JSON.toJSONString(delayedTaskInfo));
     }
 
     @Override
     public List<DelayedTaskInfo> getDelayedTasks() {
-        Object delayTasks = redisService.executeScript(delayTaskedScript, Arrays.asList(delayQueue, processingKey),
-                String.valueOf(System.currentTimeMillis()));
-        if (delayTasks == null) {
+        DelayedTaskBatch batch = claimDelayedTasks(System.currentTimeMillis(), claimLimit);
+        if (batch.getClaims().isEmpty()) {
             return null;
         }
-        JSONArray data = (JSONArray) JSON.parse((String) delayTasks);
         List<DelayedTaskInfo> taskList = new ArrayList<>();
-        for (Object obj : data.toArray()) {
-            DelayedTaskInfo delayedTaskInfo = JSONObject.parseObject((String) obj, DelayedTaskInfo.class);
-            taskList.add(delayedTaskInfo);
+        for (DelayedTaskBatch.Claim claim : batch.getClaims()) {
+            taskList.add(claim.getTask());
         }
         return taskList;
     }
+
+    @Override
+    public DelayedTaskBatch claimDelayedTasks(long dueBy, int limit) {
+        Object result = redisService.executeScript(delayTaskedScript,
+                Arrays.asList(delayQueue, processingKey, leaseKey()), String.valueOf(dueBy), String.valueOf(limit),
+                instanceId, String.valueOf(leaseSeconds * 1000L));
+        DelayedTaskBatch batch = new DelayedTaskBatch();
+        if (result == null) {
+            return batch;
+        }
+        JSONObject data = JSON.parseObject((String) result);
+        // empty lua tables are encoded as objects
+        Object claimed = data.get("claimed");
+        if (claimed instanceof JSONArray) {
+            JSONArray entries = (JSONArray) claimed;
+            for (int i = 0; i + 1 < entries.size(); i += 2) {
+                DelayedTaskInfo delayedTaskInfo = JSONObject.parseObject(entries.getString(i), DelayedTaskInfo.class);
+                batch.getClaims().add(new DelayedTaskBatch.Claim(delayedTaskInfo,
+                        (long) Double.parseDouble(entries.getString(i + 1))));
+            }
+        }
+        String next = data.getString("next");
+        if (next != null) {
+            batch.setNextDueTime((long) Double.parseDouble(next));
+        }
+        return batch;
+    }
+
+    @Override
+    public void release(DelayedTaskInfo delayedTaskInfo) {
+        if (delayedTaskInfo.getKey() == null) {
+            return;
+        }
+        redisService.hDel(processingKey, delayedTaskInfo.getKey());
+        redisService.hDel(leaseKey(), delayedTaskInfo.getKey());
+    }
+
+    @Override
+    public long recoverExpiredClaims(boolean starting) {
+        Object result = redisService.executeScript(recoverDelayedTaskScript,
+                Arrays.asList(delayQueue, processingKey, leaseKey()), String.valueOf(System.currentTimeMillis()),
+                starting ? instanceId : "");
+        long recovered = result == null ? 0 : Long.parseLong(result.toString());
+        if (recovered > 0) {
+            log.info("recoverDelayedTasks:{}", recovered);
+        }
+        return recovered;
+    }
+
+    /**
+     * Hash of the claim owners and lease expiries, keyed like the processing hash
+     */
+    private String leaseKey() {
+        return processingKey + ":lease";
+    }
 }
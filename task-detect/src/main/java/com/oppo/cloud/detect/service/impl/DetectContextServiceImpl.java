@@ -0,0 +1,188 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.service.impl;
+
+import com.oppo.cloud.detect.domain.DetectContext;
+import com.oppo.cloud.detect.service.DetectContextService;
+import com.oppo.cloud.detect.service.TaskInstanceService;
+import com.oppo.cloud.mapper.BlocklistMapper;
+import com.oppo.cloud.mapper.TaskMapper;
+import com.oppo.cloud.mapper.UserInfoMapper;
+import com.oppo.cloud.model.Blocklist;
+import com.oppo.cloud.model.BlocklistExample;
+import com.oppo.cloud.model.Task;
+import com.oppo.cloud.model.TaskExample;
+import com.oppo.cloud.model.TaskInstance;
+import com.oppo.cloud.model.UserInfo;
+import com.oppo.cloud.model.UserInfoExample;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * One query per lookup type for the whole batch, the batch size is bounded by the kafka max poll records.
+ * Block list, task and user lookups are served from the metadata cache first, only misses are queried.
+ */
+@Slf4j
+@Service
+public class DetectContextServiceImpl implements DetectContextService {
+
+    @Autowired
+    private BlocklistMapper blocklistMapper;
+
+    @Autowired
+    private TaskMapper taskMapper;
+
+    @Autowired
+    private UserInfoMapper userInfoMapper;
+
+    @Autowired
+    private TaskInstanceService taskInstanceService;
+
+    @Autowired
+    private MetadataCache metadataCache;
+
+    @Override
+    public DetectContext prepare(List<TaskInstance> taskInstances) {
+        DetectContext context = new DetectContext();
+        Map<String, TaskInstance> tasks = new LinkedHashMap<>();
+        List<TaskInstance> scheduled = new ArrayList<>();
+        for (TaskInstance taskInstance : taskInstances) {
+            tasks.putIfAbsent(DetectContext.taskKey(taskInstance.getProjectName(), taskInstance.getFlowName(),
+                    taskInstance.getTaskName()), taskInstance);
+            // Manually executed retries are treated as a single execution cycle.
+            if (!"manual".equals(taskInstance.getTriggerType())) {
+                scheduled.add(taskInstance);
+            }
+        }
+        if (tasks.isEmpty()) {
+            return context;
+        }
+        resolveBlocklist(context, tasks.values());
+        if (!scheduled.isEmpty()) {
+            context.setTaskSums(taskInstanceService.searchTaskSums(scheduled));
+        }
+        resolveTasks(context, tasks.values());
+        return context;
+    }
+
+    /**
+     * Same matching as the single task lookup: blank project or flow names match any block list entry
+     */
+    private void resolveBlocklist(DetectContext context, Iterable<TaskInstance> tasks) {
+        List<TaskInstance> misses = new ArrayList<>();
+        Set<String> taskNames = new HashSet<>();
+        for (TaskInstance task : tasks) {
+            Boolean cached = metadataCache.getBlocklistIfPresent(task.getProjectName(), task.getFlowName(),
+                    task.getTaskName());
+            if (cached == null) {
+                misses.add(task);
+                taskNames.add(task.getTaskName());
+            } else if (cached) {
+                context.getBlocklistTasks().add(DetectContext.taskKey(task.getProjectName(), task.getFlowName(),
+                        task.getTaskName()));
+            }
+        }
+        if (misses.isEmpty()) {
+            return;
+        }
+        BlocklistExample blocklistExample = new BlocklistExample();
+        blocklistExample.createCriteria().andTaskNameIn(new ArrayList<>(taskNames)).andDeletedEqualTo(0);
+        List<Blocklist> blocklists = blocklistMapper.selectByExample(blocklistExample);
+        for (TaskInstance task : misses) {
+            boolean blocked = false;
+            for (Blocklist blocklist : blocklists) {
+                if (task.getTaskName().equals(blocklist.getTaskName())
+                        && (StringUtils.isBlank(task.getProjectName())
+                        || task.getProjectName().equals(blocklist.getProjectName()))
+                        && (StringUtils.isBlank(task.getFlowName())
+                        || task.getFlowName().equals(blocklist.getFlowName()))) {
+                    blocked = true;
+                    break;
+                }
+            }
+            if (blocked) {
+                context.getBlocklistTasks().add(DetectContext.taskKey(task.getProjectName(),
+                        task.getFlowName(), task.getTaskName()));
+            }
+            metadataCache.putBlocklist(task.getProjectName(), task.getFlowName(), task.getTaskName(), blocked);
+        }
+    }
+
+    private void resolveTasks(DetectContext context, Iterable<TaskInstance> tasks) {
+        TaskExample taskExample = new TaskExample();
+        List<TaskInstance> misses = new ArrayList<>();
+        Set<Integer> userIds = new HashSet<>();
+        for (TaskInstance task : tasks) {
+            Optional<Task> cached = metadataCache.getTaskIfPresent(task.getProjectName(), task.getFlowName(),
+                    task.getTaskName());
+            if (cached == null) {
+                misses.add(task);
+                taskExample.or().andTaskNameEqualTo(task.getTaskName())
+                        .andFlowNameEqualTo(task.getFlowName())
+                        .andProjectNameEqualTo(task.getProjectName());
+            } else {
+                cached.ifPresent(value -> addTask(context, value, userIds));
+            }
+        }
+        if (!misses.isEmpty()) {
+            for (Task task : taskMapper.selectByExample(taskExample)) {
+                addTask(context, task, userIds);
+            }
+            for (TaskInstance task : misses) {
+                metadataCache.putTask(task.getProjectName(), task.getFlowName(), task.getTaskName(),
+                        context.getTask(task.getProjectName(), task.getFlowName(), task.getTaskName()));
+            }
+        }
+        List<Integer> missingUsers = new ArrayList<>();
+        for (Integer userId : userIds) {
+            Optional<UserInfo> cached = metadataCache.getUserIfPresent(userId);
+            if (cached == null) {
+                missingUsers.add(userId);
+            } else {
+                cached.ifPresent(user -> context.getUsers().put(userId, user));
+            }
+        }
+        if (missingUsers.isEmpty()) {
+            return;
+        }
+        UserInfoExample userExample = new UserInfoExample();
+        userExample.createCriteria().andUserIdIn(missingUsers);
+        for (UserInfo user : userInfoMapper.selectByExample(userExample)) {
+            context.getUsers().putIfAbsent(user.getUserId(), user);
+        }
+        for (Integer userId : missingUsers) {
+            metadataCache.putUser(userId, context.getUser(userId));
+        }
+    }
+
+    private static void addTask(DetectContext context, Task task, Set<Integer> userIds) {
+        context.getTasks().putIfAbsent(DetectContext.taskKey(task.getProjectName(), task.getFlowName(),
+                task.getTaskName()), task);
+        if (task.getUserId() != null) {
+            userIds.add(task.getUserId());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.service.impl;
+
+import com.alibaba.fastjson2.JSON;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.oppo.cloud.common.domain.syncer.TableMessage;
+import com.oppo.cloud.detect.domain.DetectContext;
+import com.oppo.cloud.model.Task;
+import com.oppo.cloud.model.UserInfo;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded caches of the rarely changing metadata read for every detected task: block list matches by task key,
+ * tasks by task key and users by user id. Lookups finding nothing are cached as empty values. Entries expire
+ * after the ttl and are invalidated by change events. Hit rates are exported as "cache.gets" metrics.
+ */
+@Slf4j
+@Component
+public class MetadataCache {
+
+    public static final String BLOCKLIST = "blocklist";
+
+    public static final String TASK = "task";
+
+    public static final String USER = "user";
+
+    @Value("${custom.cache.max-size:100000}")
+    private long maxSize;
+
+    @Value("${custom.cache.ttl:600}")
+    private long ttlSeconds;
+
+    private Cache<String, Boolean> blocklist;
+
+    private Cache<String, Optional<Task>> tasks;
+
+    private Cache<Integer, Optional<UserInfo>> users;
+
+    @PostConstruct
+    public void init() {
+        blocklist = build(BLOCKLIST);
+        tasks = build(TASK);
+        users = build(USER);
+    }
+
+    private <K, V> Cache<K, V> build(String name) {
+        Cache<K, V> cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(Metrics.globalRegistry, cache, "detect." + name);
+        return cache;
+    }
+
+    public boolean isBlocklistTask(String projectName, String flowName, String taskName, Callable<Boolean> loader) {
+        return get(blocklist, DetectContext.taskKey(projectName, flowName, taskName), loader);
+    }
+
+    public Boolean getBlocklistIfPresent(String projectName, String flowName, String taskName) {
+        return blocklist.getIfPresent(DetectContext.taskKey(projectName, flowName, taskName));
+    }
+
+    public void putBlocklist(String projectName, String flowName, String taskName, boolean value) {
+        blocklist.put(DetectContext.taskKey(projectName, flowName, taskName), value);
+    }
+
+    public Task getTask(String projectName, String flowName, String taskName, Callable<Optional<Task>> loader) {
+        return get(tasks, DetectContext.taskKey(projectName, flowName, taskName), loader).orElse(null);
+    }
+
+    public Optional<Task> getTaskIfPresent(String projectName, String flowName, String taskName) {
+        return tasks.getIfPresent(DetectContext.taskKey(projectName, flowName, taskName));
+    }
+
+    public void putTask(String projectName, String flowName, String taskName, Task task) {
+        tasks.put(DetectContext.taskKey(projectName, flowName, taskName), Optional.ofNullable(task));
+    }
+
+    public UserInfo getUser(Integer userId, Callable<Optional<UserInfo>> loader) {
+        return get(users, userId, loader).orElse(null);
+    }
+
+    public Optional<UserInfo> getUserIfPresent(Integer userId) {
+        return users.getIfPresent(userId);
+    }
+
+    public void putUser(Integer userId, UserInfo user) {
+        users.put(userId, Optional.ofNullable(user));
+    }
+
+    /**
+     * Drop the cached entries named by a message of the invalidate channel: every entry of a table
+     * for a table name, the entry of the changed task or user for a TableMessage json
+     */
+    public void invalidate(String message) {
+        if (!message.startsWith("{")) {
+            invalidate(message, null);
+            return;
+        }
+        TableMessage change;
+        try {
+            change = JSON.parseObject(message, TableMessage.class);
+        } catch (Exception e) {
+            log.warn("parse metadata message failed: {}", e.getMessage());
+            return;
+        }
+        if (change == null || change.getTable() == null) {
+            return;
+        }
+        Object key = null;
+        try {
+            if (TASK.equals(change.getTable())) {
+                Task task = JSON.parseObject(change.getBody(), Task.class);
+                if (task.getProjectName() != null && task.getFlowName() != null && task.getTaskName() != null) {
+                    key = DetectContext.taskKey(task.getProjectName(), task.getFlowName(), task.getTaskName());
+                }
+            } else if (USER.equals(change.getTable())) {
+                key = JSON.parseObject(change.getBody(), UserInfo.class).getUserId();
+            }
+        } catch (Exception e) {
+            log.warn("parse metadata message failed, invalidate all: {}", e.getMessage());
+        }
+        invalidate(change.getTable(), key);
+    }
+
+    /**
+     * Drop the cached entries of a changed table, every entry when key is null
+     */
+    public void invalidate(String table, Object key) {
+        Cache<?, ?> cache;
+        switch (table) {
+            case BLOCKLIST:
+                // entries with blank project or flow names match several tasks
+                blocklist.invalidateAll();
+                return;
+            case TASK:
+                cache = tasks;
+                break;
+            case USER:
+                cache = users;
+                break;
+            default:
+                return;
+        }
+        if (key == null) {
+            cache.invalidateAll();
+        } else {
+            cache.invalidate(key);
+        }
+        log.debug("invalidateMetadata:{},{}", table, key);
+    }
+
+    private static <K, V> V get(Cache<K, V> cache, K key, Callable<V> loader) {
+        try {
+            return cache.get(key, loader);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
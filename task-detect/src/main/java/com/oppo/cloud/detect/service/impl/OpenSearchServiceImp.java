@@ -22,9 +22,16 @@ import com.oppo.cloud.common.domain.cluster.spark.SparkApp;
 import com.oppo.cloud.common.domain.cluster.yarn.YarnApp;
 import com.oppo.cloud.common.domain.opensearch.OpenSearchInfo;
 import com.oppo.cloud.common.util.DateUtil;
+import com.oppo.cloud.common.util.opensearch.BulkSpool;
+import com.oppo.cloud.common.util.opensearch.PartialUpsert;
+import com.oppo.cloud.common.util.opensearch.UpdateApi;
 import com.oppo.cloud.detect.service.OpenSearchService;
 import lombok.extern.slf4j.Slf4j;
+import org.opensearch.action.DocWriteResponse;
+import org.opensearch.action.bulk.BulkRequest;
+import org.opensearch.action.bulk.BulkResponse;
 import org.opensearch.action.search.SearchRequest;
+import org.opensearch.action.support.IndicesOptions;
 import org.opensearch.action.search.SearchResponse;
 import org.opensearch.action.support.WriteRequest;
 import org.opensearch.action.update.UpdateRequest;
@@ -45,6 +52,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -53,6 +62,13 @@ import java.util.Map;
 @Slf4j
 public class OpenSearchServiceImp implements OpenSearchService {
 
+    /**
+     * Hits fetched per application in batch lookups, an application may be stored in several daily indices
+     */
+    private static final int HITS_PER_APP = 10;
+
+    private static final int MAX_HITS = 10000;
+
     @Value("${custom.opensearch.yarn-app-index}")
     private String yarnAppIndex;
 
@@ -62,6 +78,9 @@ public class OpenSearchServiceImp implements OpenSearchService {
     @Autowired
     private RestHighLevelClient restHighLevelClient;
 
+    @Autowired
+    private BulkSpool bulkSpool;
+
 
     /**
      * Build general query conditions.
@@ -134,7 +153,9 @@ public class OpenSearchServiceImp implements OpenSearchService {
      */
     @Override
     public SearchHits find(SearchSourceBuilder builder, String... indexes) throws Exception {
-        SearchRequest searchRequest = new SearchRequest().indices(indexes).source(builder);
+        // routed lookups name concrete daily indices, which may have been removed by retention
+        SearchRequest searchRequest = new SearchRequest().indices(indexes).source(builder)
+                .indicesOptions(IndicesOptions.lenientExpandOpen());
         Long startTime = System.currentTimeMillis();
         SearchResponse searchResponse = restHighLevelClient.search(searchRequest, RequestOptions.DEFAULT);
         Long endTime = System.currentTimeMillis();
@@ -191,24 +212,114 @@ public class OpenSearchServiceImp implements OpenSearchService {
         return sparkApp;
     }
 
+    /**
+     * Query YarnApp data of several applications, the last hit of an application is kept as in searchYarnApp.
+     */
+    @Override
+    public Map<String, YarnApp> searchYarnApps(Collection<String> applicationIds) throws Exception {
+        Map<String, YarnApp> yarnApps = new HashMap<>();
+        if (applicationIds.isEmpty()) {
+            return yarnApps;
+        }
+        SearchHits searchHits = this.find(batchSearchBuilder("id.keyword", applicationIds), yarnAppIndex + "-*");
+        for (SearchHit hit : searchHits) {
+            YarnApp yarnApp = JSON.parseObject(hit.getSourceAsString(), YarnApp.class);
+            if (yarnApp != null && yarnApp.getId() != null) {
+                yarnApps.put(yarnApp.getId(), yarnApp);
+            }
+        }
+        return yarnApps;
+    }
+
+    /**
+     * Query SparkApp data of several applications, the first hit of an application is kept as in searchSparkApp.
+     */
+    @Override
+    public Map<String, SparkApp> searchSparkApps(Collection<String> applicationIds) throws Exception {
+        Map<String, SparkApp> sparkApps = new HashMap<>();
+        if (applicationIds.isEmpty()) {
+            return sparkApps;
+        }
+        SearchHits searchHits = this.find(batchSearchBuilder("appId.keyword", applicationIds), sparkAppIndex + "-*");
+        for (SearchHit hit : searchHits) {
+            SparkApp sparkApp = JSON.parseObject(hit.getSourceAsString(), SparkApp.class);
+            if (sparkApp != null && sparkApp.getAppId() != null) {
+                sparkApps.putIfAbsent(sparkApp.getAppId(), sparkApp);
+            }
+        }
+        return sparkApps;
+    }
+
+    private SearchSourceBuilder batchSearchBuilder(String field, Collection<String> applicationIds) {
+        HashMap<String, Object> termQuery = new HashMap<>();
+        termQuery.put(field, new ArrayList<>(applicationIds));
+        SearchSourceBuilder searchSourceBuilder = this.genSearchBuilder(termQuery, null, null, null);
+        searchSourceBuilder.size(Math.min(MAX_HITS, applicationIds.size() * HITS_PER_APP));
+        return searchSourceBuilder;
+    }
+
     @Override
     public UpdateResponse insertOrUpDate(String index, String id, Object document) throws Exception {
+        UpdateResponse updateResponse;
+        UpdateRequest request = insertOrUpDateRequest(index, id, document);
+        try {
+            request.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+            updateResponse = restHighLevelClient.update(request, RequestOptions.DEFAULT);
+        } catch (Exception e) {
+            spool(Collections.singletonList(request), e);
+            throw new Exception(String.format("insertOrUpDate update failed:%s", e.getMessage()));
+        }
+        return updateResponse;
+    }
+
+    @Override
+    public UpdateRequest insertOrUpDateRequest(String index, String id, Object document) throws Exception {
         String json = "";
         try {
             json = JSON.toJSONString(document);
         } catch (Exception e) {
             throw new Exception(String.format("insertOrUpDate writeValueAsString failed:%s", e.getMessage()));
         }
-        UpdateResponse updateResponse;
+        return new UpdateRequest(index, id).doc(json, XContentType.JSON).upsert(json, XContentType.JSON);
+    }
+
+    @Override
+    public void bulkInsertOrUpDate(List<UpdateRequest> requests) throws Exception {
+        if (requests.isEmpty()) {
+            return;
+        }
+        BulkRequest bulkRequest = new BulkRequest();
+        requests.forEach(bulkRequest::add);
+        bulkRequest.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+        BulkResponse bulkResponse;
         try {
-            UpdateRequest request =
-                    new UpdateRequest(index, id).doc(json, XContentType.JSON).upsert(json, XContentType.JSON);
-            request.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
-            updateResponse = restHighLevelClient.update(request, RequestOptions.DEFAULT);
+            bulkResponse = restHighLevelClient.bulk(bulkRequest, RequestOptions.DEFAULT);
         } catch (Exception e) {
-            throw new Exception(String.format("insertOrUpDate update failed:%s", e.getMessage()));
+            spool(requests, e);
+            throw new Exception(String.format("bulkInsertOrUpDate failed:%s", e.getMessage()));
+        }
+        if (bulkResponse.hasFailures()) {
+            throw new Exception(String.format("bulkInsertOrUpDate failed:%s", bulkResponse.buildFailureMessage()));
+        }
+    }
+
+    @Override
+    public DocWriteResponse upsert(String index, String id, PartialUpsert upsert) throws Exception {
+        try {
+            return UpdateApi.scriptedUpsert(restHighLevelClient, index, id, upsert);
+        } catch (Exception e) {
+            spool(Collections.singletonList(UpdateApi.scriptedUpsertRequest(index, id, upsert)), e);
+            throw new Exception(String.format("upsert failed:%s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Keep the write in the local spool when the cluster is unavailable, it is replayed after recovery.
+     */
+    private void spool(List<UpdateRequest> requests, Exception e) throws Exception {
+        if (BulkSpool.isOutage(e) && bulkSpool.append(requests)) {
+            throw new BulkSpool.SpooledException(requests.size(), e);
         }
-        return updateResponse;
     }
 
     /**
@@ -17,12 +17,14 @@
 package com.oppo.cloud.detect.service.impl;
 
 import com.oppo.cloud.common.constant.ApplicationType;
+import com.oppo.cloud.common.constant.YarnAppFinalStatus;
 import com.oppo.cloud.common.domain.cluster.spark.SparkApp;
 import com.oppo.cloud.common.domain.cluster.yarn.YarnApp;
 import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
 import com.oppo.cloud.common.domain.opensearch.TaskApp;
 import com.oppo.cloud.common.service.RedisService;
 import com.oppo.cloud.common.util.DateUtil;
+import com.oppo.cloud.common.util.opensearch.IndexRouter;
 import com.oppo.cloud.common.util.ui.TryNumberUtil;
 import com.oppo.cloud.detect.domain.AbnormalTaskAppInfo;
 import com.oppo.cloud.detect.service.OpenSearchService;
@@ -31,6 +33,7 @@ import com.oppo.cloud.mapper.TaskApplicationMapper;
 import com.oppo.cloud.model.TaskApplication;
 import com.oppo.cloud.model.TaskApplicationExample;
 import lombok.extern.slf4j.Slf4j;
+import org.opensearch.action.update.UpdateRequest;
 import org.opensearch.search.builder.SearchSourceBuilder;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -38,6 +41,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Exception task App interface class.
@@ -55,6 +59,9 @@ public class TaskAppServiceImpl implements TaskAppService {
     @Autowired
     private RedisService redisService;
 
+    @Autowired
+    private IndexRouter indexRouter;
+
     @Value("${custom.opensearch.app-index}")
     private String appIndex;
 
@@ -84,23 +91,35 @@ public class TaskAppServiceImpl implements TaskAppService {
         List<TaskApplication> taskApplicationList = getTaskApplications(jobAnalysis.getProjectName(),
                 jobAnalysis.getFlowName(), jobAnalysis.getTaskName(), jobAnalysis.getExecutionDate());
 
+        List<TaskApplication> pending = new ArrayList<>();
         for (TaskApplication taskApplication : taskApplicationList) {
             taskApplication.setRetryTimes(TryNumberUtil.updateTryNumber(taskApplication.getRetryTimes(), schedulerType));
+            if (handledApps != null && handledApps.contains(taskApplication.getApplicationId())) {
+                // This appId has already been processed.
+                needed.put(taskApplication.getRetryTimes(), true);
+                continue;
+            }
+            if (needed.containsKey(taskApplication.getRetryTimes())) {
+                needed.put(taskApplication.getRetryTimes(), true);
+            } else {
+                // Compatible with manually executed tasks, all retries are treated as the first retry of a different cycle.
+                taskApplication.setRetryTimes(0);
+                needed.put(0, true);
+            }
+            pending.add(taskApplication);
+        }
+
+        // Look up the yarn apps of all retries at once, then the spark apps among them.
+        Map<String, YarnApp> yarnApps = searchYarnApps(applicationIds(pending));
+        Map<String, SparkApp> sparkApps = searchSparkApps(yarnApps.values().stream()
+                .filter(yarnApp -> ApplicationType.SPARK.getValue().equals(yarnApp.getApplicationType()))
+                .map(YarnApp::getId)
+                .collect(Collectors.toList()));
+
+        for (TaskApplication taskApplication : pending) {
             try {
-                if (handledApps != null && handledApps.contains(taskApplication.getApplicationId())) {
-                    // This appId has already been processed.
-                    needed.put(taskApplication.getRetryTimes(), true);
-                    continue;
-                }
-                if (needed.containsKey(taskApplication.getRetryTimes())) {
-                    needed.put(taskApplication.getRetryTimes(), true);
-                } else {
-                    // Compatible with manually executed tasks, all retries are treated as the first retry of a different cycle.
-                    taskApplication.setRetryTimes(0);
-                    needed.put(0, true);
-                }
                 // Construct a TaskApp (including related log paths) based on the appId.
-                TaskApp taskApp = this.buildAbnormalTaskApp(taskApplication);
+                TaskApp taskApp = this.buildAbnormalTaskApp(taskApplication, yarnApps, sparkApps);
                 // Update the metadata information to the taskApp.
                 taskApp.setTaskId(jobAnalysis.getTaskId());
                 taskApp.setFlowId(jobAnalysis.getFlowId());
@@ -144,8 +163,11 @@ public class TaskAppServiceImpl implements TaskAppService {
             res.put(i, temp);
         }
         // Query all appIds.
+        List<String> applicationIds = applicationIds(taskApplicationList);
+        Map<String, YarnApp> yarnApps = searchYarnApps(applicationIds);
+        Map<String, SparkApp> sparkApps = searchSparkApps(applicationIds);
         for (TaskApplication taskApplication : taskApplicationList) {
-            TaskApp taskApp = this.tryBuildAbnormalTaskApp(taskApplication);
+            TaskApp taskApp = this.tryBuildAbnormalTaskApp(taskApplication, yarnApps, sparkApps);
             List<TaskApp> temp;
             if (res.containsKey(taskApplication.getRetryTimes())) {
                 temp = res.get(taskApplication.getRetryTimes());
@@ -178,11 +200,18 @@ public class TaskAppServiceImpl implements TaskAppService {
 
     @Override
     public void insertTaskApps(List<TaskApp> taskAppList) throws Exception {
+        List<UpdateRequest> requests = new ArrayList<>();
+        Map<String, String> routes = new HashMap<>();
         for (TaskApp taskApp : taskAppList) {
             String index = taskApp.genIndex(appIndex);
-            log.info("insertTaskApp {},{},{}", index, taskApp.getApplicationId(), taskApp.genDoc());
-            openSearchService.insertOrUpDate(index, taskApp.genDocId(), taskApp.genDoc());
+            Map<String, Object> doc = taskApp.genDoc();
+            log.info("insertTaskApp {},{},{}", index, taskApp.getApplicationId(), doc);
+            requests.add(openSearchService.insertOrUpDateRequest(index, taskApp.genDocId(), doc));
+            routes.put(JobAnalysis.genDocId(taskApp.getProjectName(), taskApp.getFlowName(),
+                    taskApp.getTaskName(), taskApp.getExecutionDate()), index);
         }
+        indexRouter.record(appIndex, routes);
+        openSearchService.bulkInsertOrUpDate(requests);
     }
 
     @Override
@@ -194,22 +223,39 @@ public class TaskAppServiceImpl implements TaskAppService {
         termCondition.put("executionDate", DateUtil.timestampToUTCDate(jobAnalysis.getExecutionDate().getTime()));
         SearchSourceBuilder searchSourceBuilder =
                 openSearchService.genSearchBuilder(termCondition, null, null, null);
-        return openSearchService.find(TaskApp.class, searchSourceBuilder, appIndex + "-*");
+        String jobKey = JobAnalysis.genDocId(jobAnalysis.getProjectName(), jobAnalysis.getFlowName(),
+                jobAnalysis.getTaskName(), jobAnalysis.getExecutionDate());
+        return indexRouter.find(appIndex, jobKey,
+                indices -> openSearchService.find(TaskApp.class, searchSourceBuilder, indices));
     }
 
     /**
-     * Construct an AbnormalTaskApp based on the basic appId information. If there is an exception, exit directly and throw an exception.
+     * Construct an AbnormalTaskApp based on the basic appId information and the prefetched yarn and spark apps.
+     * If there is an exception, exit directly and throw an exception.
      */
-    public TaskApp buildAbnormalTaskApp(TaskApplication taskApplication) throws Exception {
+    public TaskApp buildAbnormalTaskApp(TaskApplication taskApplication, Map<String, YarnApp> yarnApps,
+                                        Map<String, SparkApp> sparkApps) throws Exception {
         TaskApp taskApp = new TaskApp();
         BeanUtils.copyProperties(taskApplication, taskApp);
         taskApp.setExecutionDate(taskApplication.getExecuteTime());
 
-        YarnApp yarnApp = openSearchService.searchYarnApp(taskApplication.getApplicationId());
+        String applicationId = taskApplication.getApplicationId();
+        YarnApp yarnApp = yarnApps.get(applicationId);
+        if (yarnApp == null) {
+            throw new Exception(String.format("can not find this appId from yarnApp, appId:%s", applicationId));
+        }
+        if (!isFinal(yarnApp.getFinalStatus())) {
+            throw new Exception(String.format("yarnApp state:%s, finalStatus:%s, appId:%s", yarnApp.getState(),
+                    yarnApp.getFinalStatus(), applicationId));
+        }
 
         SparkApp sparkApp = null;
         if (ApplicationType.SPARK.getValue().equals(yarnApp.getApplicationType())) {
-            sparkApp = openSearchService.searchSparkApp(taskApplication.getApplicationId());
+            sparkApp = sparkApps.get(applicationId);
+            if (sparkApp == null) {
+                throw new Exception(String.format("can not find this appId from sparkAppIndex, appId:%s",
+                        applicationId));
+            }
         }
 
         taskApp.updateTaskApp(yarnApp, sparkApp, redisService, sparkCompressionCodec);
@@ -218,13 +264,14 @@ public class TaskAppServiceImpl implements TaskAppService {
     }
 
 
-    public TaskApp tryBuildAbnormalTaskApp(TaskApplication taskApplication) {
+    public TaskApp tryBuildAbnormalTaskApp(TaskApplication taskApplication, Map<String, YarnApp> yarnApps,
+                                           Map<String, SparkApp> sparkApps) {
         TaskApp taskApp = new TaskApp();
         BeanUtils.copyProperties(taskApplication, taskApp);
         taskApp.setExecutionDate(taskApplication.getExecuteTime());
         taskApp.setRetryTimes(taskApplication.getRetryTimes());
-        try {
-            YarnApp yarnApp = openSearchService.searchYarnApp(taskApplication.getApplicationId());
+        YarnApp yarnApp = yarnApps.get(taskApplication.getApplicationId());
+        if (yarnApp != null && isFinal(yarnApp.getFinalStatus())) {
             taskApp.setStartTime(new Date(yarnApp.getStartedTime()));
             taskApp.setFinishTime(new Date(yarnApp.getFinishedTime()));
             taskApp.setElapsedTime((double) yarnApp.getElapsedTime());
@@ -240,16 +287,48 @@ public class TaskAppServiceImpl implements TaskAppService {
             if (amHost.length != 0) {
                 taskApp.setAmHost(amHost[0]);
             }
+        } else {
+            log.error("try complete yarn info failed, appId:{}", taskApplication.getApplicationId());
+        }
+        SparkApp sparkApp = sparkApps.get(taskApplication.getApplicationId());
+        if (sparkApp != null) {
+            taskApp.setEventLogPath(sparkApp.getEventLogDirectory() + "/" + taskApplication.getApplicationId());
+        } else {
+            log.error("try complete spark info failed, appId:{}", taskApplication.getApplicationId());
+        }
+        return taskApp;
+    }
+
+    private static List<String> applicationIds(List<TaskApplication> taskApplications) {
+        return taskApplications.stream().map(TaskApplication::getApplicationId).distinct()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Failed lookups leave the apps missing, each of them is then reported as not found.
+     */
+    private Map<String, YarnApp> searchYarnApps(List<String> applicationIds) {
+        try {
+            return openSearchService.searchYarnApps(applicationIds);
         } catch (Exception e) {
-            log.error("try complete yarn info failed, msg:", e);
+            log.error("searchYarnAppsErr:{},{}", applicationIds, e.getMessage());
+            return Collections.emptyMap();
         }
+    }
+
+    private Map<String, SparkApp> searchSparkApps(List<String> applicationIds) {
         try {
-            SparkApp sparkApp = openSearchService.searchSparkApp(taskApplication.getApplicationId());
-            taskApp.setEventLogPath(sparkApp.getEventLogDirectory() + "/" + taskApplication.getApplicationId());
+            return openSearchService.searchSparkApps(applicationIds);
         } catch (Exception e) {
-            log.error("try complete spark info failed, msg:", e);
+            log.error("searchSparkAppsErr:{},{}", applicationIds, e.getMessage());
+            return Collections.emptyMap();
         }
-        return taskApp;
+    }
+
+    private static boolean isFinal(String finalStatus) {
+        return YarnAppFinalStatus.SUCCEEDED.toString().equals(finalStatus)
+                || YarnAppFinalStatus.FAILED.toString().equals(finalStatus)
+                || YarnAppFinalStatus.KILLED.toString().equals(finalStatus);
     }
 
 
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.service.impl;
+
+import com.oppo.cloud.common.constant.TaskStateEnum;
+import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
+import com.oppo.cloud.common.util.DateUtil;
+import com.oppo.cloud.detect.domain.TaskHistory;
+import com.oppo.cloud.detect.service.BaselineService;
+import com.oppo.cloud.detect.service.TaskHistoryService;
+import com.oppo.cloud.detect.service.TaskInstanceService;
+import com.tdunning.math.stats.TDigest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+
+/**
+ * One baseline read for both sketches, one state history query.
+ */
+@Service
+public class TaskHistoryServiceImpl implements TaskHistoryService {
+
+    @Autowired
+    private BaselineService baselineService;
+
+    @Autowired
+    private TaskInstanceService taskInstanceService;
+
+    @Override
+    public TaskHistory load(JobAnalysis jobAnalysis) {
+        TaskHistory history = new TaskHistory();
+        if (TaskStateEnum.fail.name().equals(jobAnalysis.getTaskState())) {
+            history.setStateHistory(taskInstanceService.searchTaskStateHistory(jobAnalysis.getProjectName(),
+                    jobAnalysis.getFlowName(), jobAnalysis.getTaskName(), jobAnalysis.getExecutionDate(),
+                    DateUtil.getOffsetDate(jobAnalysis.getExecutionDate(), -STATE_HISTORY_DAYS), STATE_HISTORY_DAYS));
+        } else {
+            Map<String, TDigest> sketches = baselineService.getSketches(jobAnalysis);
+            history.setDurationSketch(sketches.get(BaselineService.DURATION));
+            history.setEndTimeSketch(sketches.get(BaselineService.END_TIME));
+        }
+        return history;
+    }
+}
@@ -19,6 +19,7 @@ package com.oppo.cloud.detect.service.impl;
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
 import com.oppo.cloud.common.constant.TaskStateEnum;
+import com.oppo.cloud.detect.domain.DetectContext;
 import com.oppo.cloud.detect.domain.TaskStateHistory;
 import com.oppo.cloud.detect.mapper.TaskInstanceExtendMapper;
 import com.oppo.cloud.detect.service.TaskInstanceService;
@@ -30,7 +31,11 @@ import org.springframework.stereotype.Service;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Task execution instance interface.
@@ -109,6 +114,43 @@ public class TaskInstanceServiceImpl implements TaskInstanceService {
         return result;
     }
 
+    /**
+     * Query the execution duration of the successful executions of a period, with their execution time.
+     */
+    @Override
+    public List<TaskStateHistory> searchTaskDurationStates(String projectName, String flowName, String taskName,
+                                                           Date executionTime, Date endExecutionTime,
+                                                           Integer sampleNum) {
+        PageHelper.startPage(1, sampleNum, false);
+        return taskInstanceExtendMapper.searchTaskDuration(
+                successExample(projectName, flowName, taskName, executionTime, endExecutionTime));
+    }
+
+    /**
+     * Query the relative end time of the successful executions of a period, with their execution time.
+     */
+    @Override
+    public List<TaskStateHistory> searchTaskRelativeEndTimeStates(String projectName, String flowName,
+                                                                  String taskName, Date executionTime,
+                                                                  Date endExecutionTime, Integer sampleNum) {
+        PageHelper.startPage(1, sampleNum, false);
+        return taskInstanceExtendMapper.searchTaskRelativeEndTime(
+                successExample(projectName, flowName, taskName, executionTime, endExecutionTime));
+    }
+
+    private TaskInstanceExample successExample(String projectName, String flowName, String taskName,
+                                               Date executionTime, Date endExecutionTime) {
+        TaskInstanceExample taskInstanceExample = new TaskInstanceExample();
+        taskInstanceExample.createCriteria()
+                .andProjectNameEqualTo(projectName)
+                .andFlowNameEqualTo(flowName)
+                .andTaskNameEqualTo(taskName)
+                .andTaskStateEqualTo(TaskStateEnum.success.name())
+                .andExecutionTimeLessThan(executionTime)
+                .andExecutionTimeGreaterThan(endExecutionTime);
+        return taskInstanceExample;
+    }
+
     /**
      * Query specific execution cycles of tasks.
      */
@@ -121,6 +163,44 @@ public class TaskInstanceServiceImpl implements TaskInstanceService {
                 .andTaskNameEqualTo(taskName)
                 .andExecutionTimeEqualTo(executionTime);
         List<TaskInstance> taskInstances = taskInstanceExtendMapper.selectByExample(taskInstanceExample);
+        return sum(taskInstances);
+    }
+
+    /**
+     * Query the aggregated tasks of several execution cycles in one query, by instance key.
+     */
+    @Override
+    public Map<String, TaskInstance> searchTaskSums(List<TaskInstance> taskInstances) {
+        Map<String, TaskInstance> result = new HashMap<>();
+        if (taskInstances.isEmpty()) {
+            return result;
+        }
+        TaskInstanceExample taskInstanceExample = new TaskInstanceExample();
+        taskInstanceExample.setOrderByClause("retry_times asc");
+        Set<String> keys = new HashSet<>();
+        for (TaskInstance taskInstance : taskInstances) {
+            if (keys.add(DetectContext.instanceKey(taskInstance.getProjectName(), taskInstance.getFlowName(),
+                    taskInstance.getTaskName(), taskInstance.getExecutionTime()))) {
+                taskInstanceExample.or().andProjectNameEqualTo(taskInstance.getProjectName())
+                        .andFlowNameEqualTo(taskInstance.getFlowName())
+                        .andTaskNameEqualTo(taskInstance.getTaskName())
+                        .andExecutionTimeEqualTo(taskInstance.getExecutionTime());
+            }
+        }
+        Map<String, List<TaskInstance>> retries = new HashMap<>();
+        for (TaskInstance taskInstance : taskInstanceExtendMapper.selectByExample(taskInstanceExample)) {
+            retries.computeIfAbsent(DetectContext.instanceKey(taskInstance.getProjectName(),
+                    taskInstance.getFlowName(), taskInstance.getTaskName(), taskInstance.getExecutionTime()),
+                    k -> new ArrayList<>()).add(taskInstance);
+        }
+        retries.forEach((key, value) -> result.put(key, sum(value)));
+        return result;
+    }
+
+    /**
+     * The last retry, started at the start time of the first one.
+     */
+    private static TaskInstance sum(List<TaskInstance> taskInstances) {
         if (taskInstances.size() != 0) {
             Date startTime = taskInstances.get(0).getStartTime();
             TaskInstance taskInstance = taskInstances.get(taskInstances.size() - 1);
@@ -24,6 +24,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.Optional;
 
 @Service
 public class TaskServiceImpl implements TaskService {
@@ -31,8 +32,16 @@ public class TaskServiceImpl implements TaskService {
     @Autowired
     private TaskMapper taskMapper;
 
+    @Autowired
+    private MetadataCache metadataCache;
+
     @Override
     public Task getTask(String projectName, String flowName, String taskName) {
+        return metadataCache.getTask(projectName, flowName, taskName,
+                () -> Optional.ofNullable(queryTask(projectName, flowName, taskName)));
+    }
+
+    private Task queryTask(String projectName, String flowName, String taskName) {
         TaskExample taskExample = new TaskExample();
         taskExample.createCriteria().andTaskNameEqualTo(taskName)
                 .andFlowNameEqualTo(flowName)
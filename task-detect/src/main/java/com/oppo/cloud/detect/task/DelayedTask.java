@@ -16,16 +16,18 @@
 
 package com.oppo.cloud.detect.task;
 
-import com.alibaba.fastjson2.JSONObject;
 import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
 import com.oppo.cloud.common.domain.opensearch.TaskApp;
 import com.oppo.cloud.common.domain.job.App;
 import com.oppo.cloud.common.domain.job.LogRecord;
 import com.oppo.cloud.common.service.RedisService;
+import com.oppo.cloud.common.util.LogRecordCodec;
 import com.oppo.cloud.detect.config.ThreadPoolConfig;
 import com.oppo.cloud.detect.domain.AbnormalTaskAppInfo;
+import com.oppo.cloud.detect.domain.DelayedTaskBatch;
 import com.oppo.cloud.detect.domain.DelayedTaskInfo;
 import com.oppo.cloud.detect.service.*;
+import com.oppo.cloud.detect.util.TimerWheel;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -50,18 +52,39 @@ public class DelayedTask implements CommandLineRunner {
     @Value("${custom.redis.logRecord}")
     private String logRecordQueue;
 
+    /**
+     * LogRecord message format: json or binary
+     */
+    @Value("${custom.redis.logRecordFormat:json}")
+    private String logRecordFormat;
+
     @Value("${custom.redis.delayedQueue}")
     private String delayedQueue;
 
-    @Value("${custom.redis.processing}")
-    private String processingKey;
-
     @Value("${custom.delayedTaskQueue.delayedSeconds}")
     private Integer delaySeconds;
 
     @Value("${custom.delayedTaskQueue.tryTimes}")
     private Integer tryTimes;
 
+    /**
+     * Tasks due within the window are claimed ahead and kept in memory
+     */
+    @Value("${custom.delayedTaskQueue.windowSeconds:60}")
+    private Integer windowSeconds;
+
+    @Value("${custom.delayedTaskQueue.tickMillis:100}")
+    private Long tickMillis;
+
+    @Value("${custom.delayedTaskQueue.claimLimit:500}")
+    private Integer claimLimit;
+
+    @Value("${custom.delayedTaskQueue.maxPending:100000}")
+    private Integer maxPending;
+
+    @Value("${custom.delayedTaskQueue.leaseSeconds:600}")
+    private Integer leaseSeconds;
+
     @Resource(name = ThreadPoolConfig.DELAY_QUEUE_EXECUTOR_POOL)
     private Executor delayQueueExecutorPool;
 
@@ -86,41 +109,73 @@ public class DelayedTask implements CommandLineRunner {
 
     @PostConstruct
     void init() {
-        // Resume tasks interrupted by restart.
-        Map<Object, Object> processingMap = null;
+        // Resume tasks interrupted by restart and tasks of instances whose lease expired, claims still held by
+        // live instances stay with them. Tasks claimed ahead of their due time run right away.
         try {
-            processingMap = redisService.hGetAll(processingKey);
+            delayedTaskService.recoverExpiredClaims(true);
         } catch (Exception e) {
-            log.error("get processing key err:", e);
-        }
-        if (processingMap != null) {
-            log.info("initProcessingTaskSize:{}", processingMap.size());
-            processingMap.forEach((k, v) -> {
-                log.info("initProcessingTaskData,k:{},v:{}", k, v);
-                redisService.zSetAdd(delayedQueue, v, System.currentTimeMillis());
-                redisService.hDel(processingKey, k);
-            });
+            log.error("recover processing tasks err:", e);
         }
     }
 
+    /**
+     * Claimed tasks wait in a local timer wheel until due; the queue is polled once per delay at most, or when
+     * its first task enters the window, instead of continuously.
+     */
     @Override
     public void run(String... args) throws Exception {
+        long pollMillis = delaySeconds * 1000L;
+        // A window of at least one delay claims the tasks pushed since the last poll before they are due.
+        long windowMillis = Math.max(windowSeconds * 1000L, pollMillis);
+        TimerWheel<DelayedTaskInfo> wheel = new TimerWheel<>(tickMillis, System.currentTimeMillis());
+        long nextPoll = 0;
+        long nextRecovery = System.currentTimeMillis() + leaseSeconds * 1000L;
         while (true) {
+            long now = System.currentTimeMillis();
             try {
-                List<DelayedTaskInfo> delayedTaskInfoList = delayedTaskService.getDelayedTasks();
-                if (delayedTaskInfoList == null) {
-                    Thread.sleep(delaySeconds * 1000);
-                    continue;
+                if (now >= nextRecovery) {
+                    // claims of instances that stopped without releasing them
+                    nextRecovery = now + leaseSeconds * 1000L;
+                    delayedTaskService.recoverExpiredClaims(false);
+                }
+                if (now >= nextPoll && wheel.size() < maxPending) {
+                    int limit = Math.min(claimLimit, maxPending - wheel.size());
+                    DelayedTaskBatch batch = delayedTaskService.claimDelayedTasks(now + windowMillis, limit);
+                    for (DelayedTaskBatch.Claim claim : batch.getClaims()) {
+                        if (!wheel.add(claim.getTask(), claim.getDueTime())) {
+                            dispatch(claim.getTask());
+                        }
+                    }
+                    if (batch.getClaims().size() >= limit) {
+                        // more tasks are due within the window
+                        nextPoll = now;
+                    } else {
+                        nextPoll = now + pollMillis;
+                        if (batch.getNextDueTime() != null) {
+                            nextPoll = Math.min(nextPoll, batch.getNextDueTime() - windowMillis);
+                        }
+                    }
                 }
-                for (DelayedTaskInfo delayedTaskInfo : delayedTaskInfoList) {
-                    delayQueueExecutorPool.execute(() -> handleDelayTask(delayedTaskInfo));
+                for (DelayedTaskInfo delayedTaskInfo : wheel.advance(now)) {
+                    dispatch(delayedTaskInfo);
                 }
             } catch (Exception e) {
                 log.error("Exception:", e);
+                nextPoll = now + pollMillis;
+            }
+            long pollAt = wheel.size() < maxPending ? nextPoll : Long.MAX_VALUE;
+            long sleepMillis = Math.min(Math.min(wheel.nextWakeupMillis(), pollAt) - System.currentTimeMillis(),
+                    pollMillis);
+            if (sleepMillis > 0) {
+                Thread.sleep(sleepMillis);
             }
         }
     }
 
+    private void dispatch(DelayedTaskInfo delayedTaskInfo) {
+        delayQueueExecutorPool.execute(() -> handleDelayTask(delayedTaskInfo));
+    }
+
     public void handleDelayTask(DelayedTaskInfo delayedTaskInfo) {
         log.info("delayProcessTask:{}", delayedTaskInfo);
         try {
@@ -146,7 +201,7 @@ public class DelayedTask implements CommandLineRunner {
             } catch (Exception e) {
                 log.error("saveAllAbnormalTaskApp failed ", e);
             }
-            redisService.hDel(processingKey, delayedTaskInfo.getKey());
+            delayedTaskService.release(delayedTaskInfo);
             log.error("delay task retry failed:{}", delayedTaskInfo);
             return;
         }
@@ -180,9 +235,8 @@ public class DelayedTask implements CommandLineRunner {
             return;
         }
         // Send a message for log analysis
-        String logRecordJson = JSONObject.toJSONString(logRecord);
-        Long size = redisService.lLeftPush(logRecordQueue, logRecordJson);
-        log.info("pushLogRecord: key:{}, size:{}, data:{}", logRecordQueue, size, logRecordJson);
+        Long size = redisService.lLeftPush(logRecordQueue, LogRecordCodec.encode(logRecord, logRecordFormat));
+        log.info("pushLogRecord: key:{}, size:{}, data:{}", logRecordQueue, size, logRecord);
     }
 
     /**
@@ -192,7 +246,7 @@ public class DelayedTask implements CommandLineRunner {
         // If the retry count is greater than the specified limit, give up retrying.
         if (delayedTaskInfo.getProcessRetries() >= tryTimes) {
             log.warn("discard retry task:{}", delayedTaskInfo);
-            redisService.hDel(processingKey, delayedTaskInfo.getKey());
+            delayedTaskService.release(delayedTaskInfo);
             return;
         }
 
@@ -234,9 +288,8 @@ public class DelayedTask implements CommandLineRunner {
         if (logRecord.getApps().size() == 0) {
             return;
         }
-        String logRecordJson = JSONObject.toJSONString(logRecord);
-        Long size = redisService.lLeftPush(logRecordQueue, logRecordJson);
-        log.info("pushLogRecord: key:{}, size:{}, data:{}", logRecordQueue, size, logRecordJson);
+        Long size = redisService.lLeftPush(logRecordQueue, LogRecordCodec.encode(logRecord, logRecordFormat));
+        log.info("pushLogRecord: key:{}, size:{}, data:{}", logRecordQueue, size, logRecord);
     }
 
     /**
@@ -245,7 +298,7 @@ public class DelayedTask implements CommandLineRunner {
     public void handleTryTask(AbnormalTaskAppInfo abnormalTaskAppInfo, DelayedTaskInfo delayedTaskInfo) {
         if ("".equals(abnormalTaskAppInfo.getExceptionInfo())) {
             delayedTaskInfo.setHandledApps(delayedTaskInfo.getHandledApps() + abnormalTaskAppInfo.getHandleApps());
-            redisService.hDel(processingKey, delayedTaskInfo.getKey());
+            delayedTaskService.release(delayedTaskInfo);
             log.info("retry delay task success:{}", delayedTaskInfo);
         } else {
             delayedTaskInfo.setExceptionInfo(abnormalTaskAppInfo.getExceptionInfo());
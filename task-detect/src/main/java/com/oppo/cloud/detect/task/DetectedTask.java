@@ -19,11 +19,16 @@ package com.oppo.cloud.detect.task;
 import com.alibaba.fastjson2.JSON;
 import com.oppo.cloud.common.constant.TaskStateEnum;
 import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
-import com.oppo.cloud.common.domain.syncer.TableMessage;
 import com.oppo.cloud.common.util.ui.TryNumberUtil;
 import com.oppo.cloud.detect.config.ThreadPoolConfig;
+import com.oppo.cloud.detect.domain.DetectContext;
+import com.oppo.cloud.detect.domain.TableChange;
+import com.oppo.cloud.detect.domain.TaskHistory;
+import com.oppo.cloud.detect.service.BaselineService;
 import com.oppo.cloud.detect.service.BlocklistService;
+import com.oppo.cloud.detect.service.DetectContextService;
 import com.oppo.cloud.detect.service.DetectService;
+import com.oppo.cloud.detect.service.TaskHistoryService;
 import com.oppo.cloud.detect.service.TaskInstanceService;
 import com.oppo.cloud.model.TaskInstance;
 import lombok.extern.slf4j.Slf4j;
@@ -37,8 +42,18 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 /**
  * Detected Task Service
@@ -47,6 +62,9 @@ import java.util.concurrent.Executor;
 @Slf4j
 public class DetectedTask {
 
+    private static final Set<String> FINAL_STATES = new HashSet<>(Arrays.asList(TaskStateEnum.success.name(),
+            TaskStateEnum.fail.name()));
+
     @Value("${custom.schedulerType}")
     private String schedulerType;
     @Resource
@@ -55,55 +73,138 @@ public class DetectedTask {
     @Resource(name = ThreadPoolConfig.DETECT_EXECUTOR_POOL)
     private Executor detectExecutorPool;
 
+    @Resource(name = ThreadPoolConfig.DETECTOR_EXECUTOR_POOL)
+    private Executor detectorExecutorPool;
+
+    /**
+     * Deadline of the detect services of a task
+     */
+    @Value("${custom.detectionRule.detectTimeoutMillis:30000}")
+    private long detectTimeoutMillis;
+
+    @Autowired
+    private TaskHistoryService taskHistoryService;
+
     @Autowired
     private TaskInstanceService taskInstanceService;
 
     @Autowired
     private BlocklistService blocklistService;
 
+    @Autowired
+    private BaselineService baselineService;
+
+    @Autowired
+    private DetectContextService detectContextService;
+
+    /**
+     * Handlers of the table changes by table name, changes of other tables are dropped
+     */
+    private final Map<String, BiConsumer<TableChange, List<TaskInstance>>> changeHandlers = new HashMap<>();
+
+    public DetectedTask() {
+        changeHandlers.put("task_instance", this::handleTaskInstance);
+    }
+
     @KafkaListener(topics = "${custom.kafka.consumer.topic-name}", groupId = "${custom.kafka.consumer.group-id}", autoStartup = "${custom.kafka.consumer.auto.start}")
     public void consumerTask(@Payload List<String> tableChangeMessages, Acknowledgment ack) {
+        List<TaskInstance> finishedTasks = new ArrayList<>();
         for (String message : tableChangeMessages) {
-            // Filter non-final state task data
-            if (preFilter(message)) {
-                log.info("message:{}", message);
-                TableMessage tableMessage;
-                try {
-                    tableMessage = JSON.parseObject(message, TableMessage.class);
-                } catch (Exception e) {
-                    log.error("parse kafka message failed, error msg:{}, kafka message:{}", e.getMessage(), message);
-                    continue;
-                }
-                TaskInstance taskInstance;
-                try {
-                    taskInstance = JSON.parseObject(tableMessage.getBody(), TaskInstance.class);
-                } catch (Exception e) {
-                    log.error("parse taskInstance message failed, error msg:{}, kafka message:{}", e.getMessage(),
-                            tableMessage.getBody());
-                    continue;
-                }
-                if (judgeTaskFinished(taskInstance)) {
-                    detectExecutorPool.execute(() -> detectTask(taskInstance));
-                }
+            if (!mentionsFinalState(message)) {
+                continue;
+            }
+            TableChange change;
+            try {
+                change = TableChange.parse(message);
+            } catch (Exception e) {
+                log.error("parse kafka message failed, error msg:{}, kafka message:{}", e.getMessage(), message);
+                continue;
+            }
+            if (change == null || change.getTable() == null) {
+                continue;
+            }
+            BiConsumer<TableChange, List<TaskInstance>> handler = changeHandlers.get(change.getTable());
+            if (handler != null) {
+                handler.accept(change, finishedTasks);
             }
         }
+        DetectContext context = prepareContext(finishedTasks);
+        for (TaskInstance taskInstance : finishedTasks) {
+            detectExecutorPool.execute(() -> detectTask(taskInstance, context));
+        }
         ack.acknowledge();
     }
 
     /**
-     * Check if it is the final state
+     * Resolve the lookups of the batch together, tasks fall back to their own lookups when this fails.
      */
-    public boolean preFilter(String message) {
-        // Only detect non-deletion operations in the task_instance table.
-        if (message.contains("\"table\":\"task_instance\"") && !message.contains("\"eventType\":\"DELETE\"")) {
-            if (message.contains("\\\"taskState\\\":\\\"success\\\"")
-                    || message.contains("\\\"taskState\\\":\\\"fail\\\"")) {
+    public DetectContext prepareContext(List<TaskInstance> taskInstances) {
+        List<TaskInstance> valid = new ArrayList<>();
+        for (TaskInstance taskInstance : taskInstances) {
+            if (taskInstance.getProjectName() != null && taskInstance.getFlowName() != null
+                    && taskInstance.getTaskName() != null) {
+                valid.add(taskInstance);
+            }
+        }
+        if (valid.isEmpty()) {
+            return null;
+        }
+        try {
+            return detectContextService.prepare(valid);
+        } catch (Exception e) {
+            log.error("prepare detect context failed: ", e);
+            return null;
+        }
+    }
+
+    /**
+     * Screen run before parsing: a finished instance names its final state somewhere in the message,
+     * most messages are of running instances and are dropped without tokenizing them
+     */
+    public static boolean mentionsFinalState(String message) {
+        for (String state : FINAL_STATES) {
+            if (message.contains(state)) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * Collect the finished instances of non-deletion changes of the task_instance table
+     */
+    private void handleTaskInstance(TableChange change, List<TaskInstance> finishedTasks) {
+        if (change.isDelete() || change.getBody() == null) {
+            return;
+        }
+        // most changes are of running instances, skip them before binding the whole row
+        if (!FINAL_STATES.contains(TableChange.readString(change.getBody(), "taskState"))) {
+            return;
+        }
+        TaskInstance taskInstance;
+        try {
+            taskInstance = JSON.parseObject(change.getBody(), TaskInstance.class);
+        } catch (Exception e) {
+            log.error("parse taskInstance message failed, error msg:{}, kafka message:{}", e.getMessage(),
+                    change.getBody());
+            return;
+        }
+        // Filter non-final state task data
+        if (preFilter(taskInstance)) {
+            log.info("message:{}", change.getBody());
+            if (judgeTaskFinished(taskInstance)) {
+                finishedTasks.add(taskInstance);
+            }
+        }
+    }
+
+    /**
+     * Check if it is the final state
+     */
+    public boolean preFilter(TaskInstance taskInstance) {
+        return FINAL_STATES.contains(taskInstance.getTaskState());
+    }
+
     /**
      * Determine whether the task has already ended.
      */
@@ -128,17 +229,94 @@ public class DetectedTask {
     }
 
 
+    /**
+     * Run the detect services concurrently against one history snapshot and merge their results in order.
+     * Services not done by the deadline are cancelled and their results dropped.
+     */
+    public void detect(JobAnalysis jobAnalysis) {
+        TaskHistory history = null;
+        try {
+            history = taskHistoryService.load(jobAnalysis);
+        } catch (Exception e) {
+            // the detect services read what they need themselves
+            log.error("load task history failed: ", e);
+        }
+        TaskHistory snapshot = history;
+        // FutureTask rather than CompletableFuture: cancelling it interrupts the detect service still running
+        List<FutureTask<JobAnalysis>> futures = new ArrayList<>();
+        for (DetectService detectService : abnormalDetects) {
+            JobAnalysis result = new JobAnalysis();
+            BeanUtils.copyProperties(jobAnalysis, result);
+            result.setCategories(new ArrayList<>());
+            FutureTask<JobAnalysis> future = new FutureTask<>(() -> {
+                detectService.detect(result, snapshot);
+                return result;
+            });
+            futures.add(future);
+            detectorExecutorPool.execute(future);
+        }
+        long deadline = System.currentTimeMillis() + detectTimeoutMillis;
+        for (int i = 0; i < futures.size(); i++) {
+            FutureTask<JobAnalysis> future = futures.get(i);
+            try {
+                merge(jobAnalysis, future.get(Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                // a service ignoring the interrupt only writes its own copy, which is never merged
+                future.cancel(true);
+                log.warn("detect task timeout: {}, {}", abnormalDetects.get(i).getClass().getSimpleName(),
+                        jobAnalysis.getTaskName());
+            } catch (InterruptedException e) {
+                futures.forEach(f -> f.cancel(true));
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                log.error("detect task failed: ", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Merge the categories and the fields set by a detect service
+     */
+    private static void merge(JobAnalysis jobAnalysis, JobAnalysis result) {
+        jobAnalysis.getCategories().addAll(result.getCategories());
+        if (result.getDurationBaseline() != null) {
+            jobAnalysis.setDurationBaseline(result.getDurationBaseline());
+        }
+        if (result.getEndTimeBaseline() != null) {
+            jobAnalysis.setEndTimeBaseline(result.getEndTimeBaseline());
+        }
+        if (result.getSuccessExecutionDay() != null) {
+            jobAnalysis.setSuccessExecutionDay(result.getSuccessExecutionDay());
+        }
+        if (result.getSuccessDays() != null) {
+            jobAnalysis.setSuccessDays(result.getSuccessDays());
+        }
+    }
+
     /**
      * Diagnose each task.
      */
     public void detectTask(TaskInstance taskInstance) {
+        detectTask(taskInstance, null);
+    }
+
+    /**
+     * Diagnose each task, with the lookups of its poll batch when present.
+     */
+    public void detectTask(TaskInstance taskInstance, DetectContext context) {
         if (taskInstance.getProjectName() == null || taskInstance.getFlowName() == null) {
             log.warn("instance projectName or flowName is null:{}", taskInstance);
             return;
         }
         // Filter out whitelisted tasks.
-        if (blocklistService.isBlocklistTask(taskInstance.getProjectName(), taskInstance.getFlowName(),
-                taskInstance.getTaskName())) {
+        boolean blocklist = context != null
+                ? context.isBlocklistTask(taskInstance.getProjectName(), taskInstance.getFlowName(),
+                taskInstance.getTaskName())
+                : blocklistService.isBlocklistTask(taskInstance.getProjectName(), taskInstance.getFlowName(),
+                taskInstance.getTaskName());
+        if (blocklist) {
             log.info("find blocklist task, taskInstance:{}", taskInstance);
             return;
         }
@@ -151,8 +329,12 @@ public class DetectedTask {
             taskInstanceSum = taskInstance;
         } else {
             // Update the start/end time of the task.
-            taskInstanceSum = taskInstanceService.searchTaskSum(taskInstance.getProjectName(),
+            taskInstanceSum = context == null ? null : context.getTaskSum(taskInstance.getProjectName(),
                     taskInstance.getFlowName(), taskInstance.getTaskName(), taskInstance.getExecutionTime());
+            if (taskInstanceSum == null) {
+                taskInstanceSum = taskInstanceService.searchTaskSum(taskInstance.getProjectName(),
+                        taskInstance.getFlowName(), taskInstance.getTaskName(), taskInstance.getExecutionTime());
+            }
         }
         try {
             BeanUtils.copyProperties(taskInstanceSum, jobAnalysis);
@@ -168,21 +350,22 @@ public class DetectedTask {
         jobAnalysis.setRetryTimes(TryNumberUtil.updateTryNumber(jobAnalysis.getRetryTimes(),schedulerType));
 
         // Exception task detection.
-        for (DetectService detectService : abnormalDetects) {
-            try {
-                detectService.detect(jobAnalysis);
-            } catch (Exception e) {
-                log.error("detect task failed: ", e);
-            }
+        detect(jobAnalysis);
+
+        // Add the execution to the baselines of the following ones.
+        try {
+            baselineService.record(jobAnalysis);
+        } catch (Exception e) {
+            log.error("record baseline failed: ", e);
         }
 
         try {
             if (jobAnalysis.getCategories().size() == 0) {
                 // Normal job task processing.
-                abnormalDetects.get(0).handleNormalJob(jobAnalysis);
+                abnormalDetects.get(0).handleNormalJob(jobAnalysis, context);
             } else {
                 // Exception job task processing.
-                abnormalDetects.get(0).handleAbnormalJob(jobAnalysis);
+                abnormalDetects.get(0).handleAbnormalJob(jobAnalysis, context);
             }
         } catch (Exception e) {
             log.error("handle job failed: ", e);
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.detect.util;
+
+import com.tdunning.math.stats.MergingDigest;
+import com.tdunning.math.stats.TDigest;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Collection;
+
+/**
+ * Mergeable quantile sketch (t-digest) of the baseline samples of a task, kept per day.
+ */
+public class BaselineSketch {
+
+    /**
+     * Up to about 2 * compression centroids, samples are kept exactly below that
+     */
+    public static final double COMPRESSION = 100;
+
+    public static TDigest create() {
+        return new MergingDigest(COMPRESSION);
+    }
+
+    /**
+     * Merge daily sketches, the inputs are left unchanged
+     */
+    public static TDigest merge(Collection<TDigest> digests) {
+        TDigest merged = create();
+        for (TDigest digest : digests) {
+            merged.add(digest);
+        }
+        return merged;
+    }
+
+    /**
+     * Compact encoding with float centroids, a few hundred bytes at most
+     */
+    public static String encode(TDigest digest) {
+        digest.compress();
+        ByteBuffer buffer = ByteBuffer.allocate(digest.smallByteSize());
+        digest.asSmallBytes(buffer);
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    public static TDigest decode(String value) {
+        return MergingDigest.fromBytes(ByteBuffer.wrap(Base64.getDecoder().decode(value)));
+    }
+}
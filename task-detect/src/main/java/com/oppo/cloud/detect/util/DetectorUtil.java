@@ -16,6 +16,7 @@
 
 package com.oppo.cloud.detect.util;
 
+import com.tdunning.math.stats.TDigest;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 
@@ -58,6 +59,25 @@ public class DetectorUtil {
         return res;
     }
 
+    /**
+     * Box plot algorithm on the quartiles of a quantile sketch, same ranges as the sample version.
+     */
+    public static double[] boxplotValue(TDigest digest) {
+        double[] res = new double[5];
+        double q1 = digest.quantile(0.25);
+        double q2 = digest.quantile(0.5);
+        double q3 = digest.quantile(0.75);
+        double iQR = q3 - q1;
+        res[0] = q1 - 3 * iQR;
+        // If it is less than zero, take the minimum value
+        res[0] = res[0] > 0 ? res[0] : digest.getMin();
+        res[1] = q1 - 1.5 * iQR;
+        res[2] = q2;
+        res[3] = q3 + 1.5 * iQR;
+        res[4] = q3 + 3 * iQR;
+        return res;
+    }
+
     /**
      * Get the lower quartile, median, and upper quartile of a set of data.
      */
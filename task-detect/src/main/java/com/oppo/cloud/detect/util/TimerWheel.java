@@ -0,0 +1,166 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timer wheel. Level i has 64 slots of 64^i ticks each and holds the entries due in
+ * [64^i, 64^(i+1)) ticks; when the lower levels wrap around, the matching slot of the level above is cascaded down.
+ * Adding and expiring are O(1) per entry whatever the number of pending entries. Levels are added on demand.
+ * Not thread safe.
+ */
+public class TimerWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private static class Entry<T> {
+
+        private final T item;
+
+        private final long dueTick;
+
+        private Entry(T item, long dueTick) {
+            this.item = item;
+            this.dueTick = dueTick;
+        }
+    }
+
+    private final long tickMillis;
+
+    private final List<ArrayDeque<Entry<T>>[]> levels = new ArrayList<>();
+
+    /**
+     * Last processed tick
+     */
+    private long currentTick;
+
+    private int size;
+
+    public TimerWheel(long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add an item due at the given time, returns false when it is already due and was not added
+     */
+    public boolean add(T item, long dueMillis) {
+        // rounded up, items never expire early
+        long dueTick = Math.floorDiv(dueMillis + tickMillis - 1, tickMillis);
+        if (dueTick <= currentTick) {
+            return false;
+        }
+        place(new Entry<>(item, dueTick));
+        size++;
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void place(Entry<T> entry) {
+        long delta = entry.dueTick - currentTick;
+        int level = 0;
+        while (level < 9 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        while (levels.size() <= level) {
+            levels.add(new ArrayDeque[SLOTS]);
+        }
+        ArrayDeque<Entry<T>>[] slots = levels.get(level);
+        int index = (int) ((entry.dueTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        if (slots[index] == null) {
+            slots[index] = new ArrayDeque<>();
+        }
+        slots[index].add(entry);
+    }
+
+    /**
+     * Advance to the given time and return the items due by then
+     */
+    public List<T> advance(long nowMillis) {
+        List<T> expired = new ArrayList<>();
+        long nowTick = Math.floorDiv(nowMillis, tickMillis);
+        if (size == 0) {
+            currentTick = Math.max(currentTick, nowTick);
+            return expired;
+        }
+        while (currentTick < nowTick && size > 0) {
+            currentTick++;
+            cascade();
+            ArrayDeque<Entry<T>> slot = levels.get(0)[(int) (currentTick & SLOT_MASK)];
+            while (slot != null && !slot.isEmpty()) {
+                expired.add(slot.poll().item);
+                size--;
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick);
+        return expired;
+    }
+
+    /**
+     * Move the entries of the higher level slots starting at the current tick one level down, highest first
+     */
+    private void cascade() {
+        int top = 0;
+        for (int level = 1; level < levels.size(); level++) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                break;
+            }
+            top = level;
+        }
+        for (int level = top; level >= 1; level--) {
+            ArrayDeque<Entry<T>>[] slots = levels.get(level);
+            int index = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            ArrayDeque<Entry<T>> slot = slots[index];
+            if (slot == null || slot.isEmpty()) {
+                continue;
+            }
+            slots[index] = null;
+            for (Entry<T> entry : slot) {
+                // entries due now go to the current level 0 slot, which is expired right after
+                place(entry);
+            }
+        }
+    }
+
+    /**
+     * Earliest time at which advancing can return items: the next non-empty level 0 slot, otherwise the next
+     * cascade of level 1. Long.MAX_VALUE when empty
+     */
+    public long nextWakeupMillis() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        ArrayDeque<Entry<T>>[] slots = levels.get(0);
+        for (long tick = currentTick + 1; tick <= currentTick + SLOTS; tick++) {
+            ArrayDeque<Entry<T>> slot = slots[(int) (tick & SLOT_MASK)];
+            if (slot != null && !slot.isEmpty()) {
+                return tick * tickMillis;
+            }
+        }
+        return ((currentTick >>> SLOT_BITS) + 1 << SLOT_BITS) * tickMillis;
+    }
+}
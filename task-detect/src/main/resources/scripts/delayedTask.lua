@@ -1,16 +1,28 @@
 redis.replicate_commands()
 local delayQueue= KEYS[1]
 local processingKey= KEYS[2]
-local tasks = redis.call('ZRANGEBYSCORE', delayQueue, '0', ARGV[1])
-if next(tasks) ~= nil then
-    for _, task in ipairs(tasks) do
-        local msg = cjson.decode(task)
-        if msg.key ~= nil then
-            redis.call("HSET", processingKey, msg.key, task)
-        end
-        redis.call('ZREM', delayQueue, task)
+local leaseKey= KEYS[3]
+-- claim at most ARGV[2] tasks due by ARGV[1], the processing hash records the claimed tasks and the lease hash
+-- their owner ARGV[3] with the lease expiry, ARGV[4] milliseconds after the due time
+local entries = redis.call('ZRANGEBYSCORE', delayQueue, '0', ARGV[1], 'WITHSCORES', 'LIMIT', '0', ARGV[2])
+local claimed = {}
+for i = 1, #entries, 2 do
+    local task = entries[i]
+    local msg = cjson.decode(task)
+    if msg.key ~= nil then
+        redis.call("HSET", processingKey, msg.key, task)
+        redis.call("HSET", leaseKey, msg.key, ARGV[3] .. '|' .. string.format('%d', tonumber(entries[i + 1]) + tonumber(ARGV[4])))
     end
-    return cjson.encode(tasks)
+    redis.call('ZREM', delayQueue, task)
+    table.insert(claimed, task)
+    table.insert(claimed, entries[i + 1])
 end
-return nil
-
+local result = {}
+if next(claimed) ~= nil then
+    result.claimed = claimed
+end
+local first = redis.call('ZRANGE', delayQueue, '0', '0', 'WITHSCORES')
+if next(first) ~= nil then
+    result.next = first[2]
+end
+return cjson.encode(result)
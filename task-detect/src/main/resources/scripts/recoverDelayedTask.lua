@@ -0,0 +1,27 @@
+redis.replicate_commands()
+local delayQueue= KEYS[1]
+local processingKey= KEYS[2]
+local leaseKey= KEYS[3]
+-- queue again the processing tasks whose lease expired by ARGV[1], has no lease, or belongs to ARGV[2]
+-- (the previous run of a restarted instance, empty otherwise)
+local now = tonumber(ARGV[1])
+local entries = redis.call('HGETALL', processingKey)
+local recovered = 0
+for i = 1, #entries, 2 do
+    local key = entries[i]
+    local lease = redis.call('HGET', leaseKey, key)
+    local expired = true
+    local sep = lease and string.find(lease, '|', 1, true)
+    if sep then
+        local owner = string.sub(lease, 1, sep - 1)
+        local expiry = tonumber(string.sub(lease, sep + 1))
+        expired = (ARGV[2] ~= '' and owner == ARGV[2]) or expiry == nil or expiry < now
+    end
+    if expired then
+        redis.call('ZADD', delayQueue, now, entries[i + 1])
+        redis.call('HDEL', processingKey, key)
+        redis.call('HDEL', leaseKey, key)
+        recovered = recovered + 1
+    end
+end
+return tostring(recovered)
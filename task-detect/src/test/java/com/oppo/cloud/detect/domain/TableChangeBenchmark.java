@@ -0,0 +1,182 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.detect.domain;
+
+import com.alibaba.fastjson2.JSON;
+import com.oppo.cloud.common.domain.syncer.TableMessage;
+import com.oppo.cloud.detect.task.DetectedTask;
+import com.oppo.cloud.model.Task;
+import com.oppo.cloud.model.TaskInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtering cost of a batch of canal messages in DetectedTask: the former String.contains pre-filter followed by
+ * two full parses, against the final state screen, TableChange.parse and the taskState field check.
+ * Run main() from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableChangeBenchmark {
+
+    private static final Set<String> FINAL_STATES = new HashSet<>(Arrays.asList("success", "fail"));
+
+    private static final String[] RUNNING_STATES = {"submit", "running", "running", "running"};
+
+    private List<String> messages;
+
+    /**
+     * A batch of the shape seen at peak: mostly running instances, some finished ones, deletions and
+     * changes of other tables
+     */
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        messages = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int kind = random.nextInt(100);
+            if (kind < 70) {
+                messages.add(taskInstance(i, "UPDATE", RUNNING_STATES[random.nextInt(RUNNING_STATES.length)]));
+            } else if (kind < 85) {
+                messages.add(taskInstance(i, "UPDATE", random.nextBoolean() ? "success" : "fail"));
+            } else if (kind < 90) {
+                messages.add(taskInstance(i, "DELETE", "success"));
+            } else {
+                messages.add(task(i));
+            }
+        }
+    }
+
+    private static Map<String, Object> rawData(int id) {
+        Map<String, Object> raw = new LinkedHashMap<>();
+        raw.put("id", String.valueOf(id));
+        raw.put("name", "task_" + id);
+        raw.put("task_type", "SHELL");
+        raw.put("process_instance_id", String.valueOf(id / 10));
+        raw.put("state", "7");
+        raw.put("submit_time", "2023-05-01 00:00:01");
+        raw.put("start_time", "2023-05-01 00:00:02");
+        raw.put("end_time", "2023-05-01 00:10:02");
+        raw.put("host", "10.0.0.1:1234");
+        raw.put("execute_path", "/tmp/dolphinscheduler/exec/process/1/2/" + id);
+        raw.put("log_path", "/opt/dolphinscheduler/logs/20230501/" + id + ".log");
+        raw.put("retry_times", "0");
+        raw.put("max_retry_times", "3");
+        raw.put("task_params", "{\"rawScript\":\"spark-submit --class Main app.jar\",\"resourceList\":[]}");
+        raw.put("worker_group", "default");
+        raw.put("environment_code", "-1");
+        raw.put("executor_id", "1");
+        raw.put("first_submit_time", "2023-05-01 00:00:01");
+        raw.put("delay_time", "0");
+        return raw;
+    }
+
+    private static String taskInstance(int id, String eventType, String taskState) {
+        TaskInstance instance = new TaskInstance();
+        instance.setId(id);
+        instance.setProjectName("project");
+        instance.setFlowName("flow_" + id / 10);
+        instance.setTaskName("task_" + id);
+        instance.setTaskState(taskState);
+        instance.setTaskType("SHELL");
+        instance.setTriggerType("schedule");
+        instance.setRetryTimes(0);
+        instance.setMaxRetryTimes(3);
+        instance.setWorkerGroup("default");
+        instance.setExecutionTime(new Date(1682870400000L));
+        instance.setStartTime(new Date(1682870402000L));
+        instance.setEndTime(new Date(1682871002000L));
+        return JSON.toJSONString(new TableMessage(JSON.toJSONString(rawData(id)), JSON.toJSONString(instance),
+                eventType, "task_instance"));
+    }
+
+    private static String task(int id) {
+        Task task = new Task();
+        task.setId(id);
+        task.setProjectName("project");
+        task.setFlowName("flow_" + id / 10);
+        task.setTaskName("task_" + id);
+        task.setTaskType("SHELL");
+        return JSON.toJSONString(new TableMessage(JSON.toJSONString(rawData(id)), JSON.toJSONString(task),
+                "UPDATE", "task"));
+    }
+
+    /**
+     * Former path: substring checks on the raw message, then the message and its body parsed in full
+     */
+    @Benchmark
+    public void containsAndDoubleParse(Blackhole blackhole) {
+        for (String message : messages) {
+            if (message.contains("\"table\":\"task_instance\"") && !message.contains("\"eventType\":\"DELETE\"")
+                    && (message.contains("\\\"taskState\\\":\\\"success\\\"")
+                    || message.contains("\\\"taskState\\\":\\\"fail\\\""))) {
+                TableMessage tableMessage = JSON.parseObject(message, TableMessage.class);
+                blackhole.consume(JSON.parseObject(tableMessage.getBody(), TaskInstance.class));
+            }
+        }
+    }
+
+    /**
+     * Current path: one pass over the messages naming a final state, the row bound only for finished instances
+     */
+    @Benchmark
+    public void tableChange(Blackhole blackhole) {
+        for (String message : messages) {
+            if (!DetectedTask.mentionsFinalState(message)) {
+                continue;
+            }
+            TableChange change = TableChange.parse(message);
+            if (change == null || !"task_instance".equals(change.getTable()) || change.isDelete()) {
+                continue;
+            }
+            if (FINAL_STATES.contains(TableChange.readString(change.getBody(), "taskState"))) {
+                blackhole.consume(JSON.parseObject(change.getBody(), TaskInstance.class));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TableChangeBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.domain;
+
+import com.alibaba.fastjson2.JSON;
+import com.oppo.cloud.common.domain.syncer.TableMessage;
+import com.oppo.cloud.model.TaskInstance;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+class TableChangeTest {
+
+    private static String message(String eventType, String table, String taskState) {
+        TaskInstance instance = new TaskInstance();
+        instance.setProjectName("project");
+        instance.setFlowName("flow");
+        instance.setTaskName("task");
+        instance.setTaskState(taskState);
+        instance.setExecutionTime(new Date(1682870400000L));
+        Map<String, Object> raw = new HashMap<>();
+        raw.put("id", "12");
+        raw.put("name", "task");
+        raw.put("state", "7");
+        raw.put("log_path", "/var/log/{\"quoted\":\"taskState\"}");
+        return JSON.toJSONString(new TableMessage(JSON.toJSONString(raw), JSON.toJSONString(instance), eventType,
+                table));
+    }
+
+    @Test
+    void parse() {
+        TableChange change = TableChange.parse(message("UPDATE", "task_instance", "success"));
+        Assertions.assertEquals("task_instance", change.getTable());
+        Assertions.assertEquals("UPDATE", change.getEventType());
+        Assertions.assertFalse(change.isDelete());
+        TaskInstance instance = JSON.parseObject(change.getBody(), TaskInstance.class);
+        Assertions.assertEquals("success", instance.getTaskState());
+        Assertions.assertEquals(1682870400000L, instance.getExecutionTime().getTime());
+
+        Assertions.assertTrue(TableChange.parse(message("DELETE", "task_instance", "fail")).isDelete());
+        Assertions.assertEquals("user", TableChange.parse("{\"rawData\":null,\"table\":\"user\"}").getTable());
+        Assertions.assertNull(TableChange.parse("[\"task_instance\"]"));
+    }
+
+    @Test
+    void readString() {
+        TableChange change = TableChange.parse(message("UPDATE", "task_instance", "fail"));
+        Assertions.assertEquals("fail", TableChange.readString(change.getBody(), "taskState"));
+        Assertions.assertEquals("project", TableChange.readString(change.getBody(), "projectName"));
+        Assertions.assertNull(TableChange.readString(change.getBody(), "missing"));
+        Assertions.assertNull(TableChange.readString("{\"taskState\":{\"nested\":\"success\"}}", "taskState"));
+        Assertions.assertNull(TableChange.readString("not json", "taskState"));
+    }
+}
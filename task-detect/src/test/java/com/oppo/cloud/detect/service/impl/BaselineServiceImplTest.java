@@ -0,0 +1,160 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.detect.service.impl;
+
+import com.oppo.cloud.common.constant.TaskStateEnum;
+import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
+import com.oppo.cloud.common.service.RedisService;
+import com.oppo.cloud.common.util.DateUtil;
+import com.oppo.cloud.detect.domain.TaskStateHistory;
+import com.oppo.cloud.detect.service.BaselineService;
+import com.oppo.cloud.detect.service.TaskInstanceService;
+import com.oppo.cloud.detect.util.DetectorUtil;
+import com.tdunning.math.stats.TDigest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+
+@SpringBootTest(classes = BaselineServiceImpl.class)
+class BaselineServiceImplTest {
+
+    private static final long HOUR = 3600 * 1000L;
+
+    @MockBean
+    RedisService redisService;
+
+    @MockBean
+    TaskInstanceService taskInstanceService;
+
+    @Autowired
+    BaselineService baselineService;
+
+    private final Map<String, Map<Object, Object>> hashes = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        Mockito.when(redisService.hGetAll(anyString())).thenAnswer(invocation ->
+                new HashMap<>(hashes.getOrDefault(invocation.getArgument(0), Collections.emptyMap())));
+        Mockito.when(redisService.hMultiSet(anyString(), any())).thenAnswer(invocation -> {
+            hashes.computeIfAbsent(invocation.getArgument(0), k -> new HashMap<>())
+                    .putAll(invocation.getArgument(1));
+            return true;
+        });
+        Mockito.when(redisService.hDel(anyString(), any())).thenAnswer(invocation -> {
+            Map<Object, Object> hash = hashes.get((String) invocation.getArgument(0));
+            Object[] fields = Arrays.copyOfRange(invocation.getArguments(), 1, invocation.getArguments().length);
+            for (Object field : fields) {
+                hash.remove(field);
+            }
+            return (long) fields.length;
+        });
+        Mockito.when(redisService.expire(anyString(), anyLong())).thenReturn(true);
+    }
+
+    private JobAnalysis execution(Date executionDate, double duration) {
+        JobAnalysis jobAnalysis = new JobAnalysis();
+        jobAnalysis.setProjectName("project");
+        jobAnalysis.setFlowName("flow");
+        jobAnalysis.setTaskName("task");
+        jobAnalysis.setTaskState(TaskStateEnum.success.name());
+        jobAnalysis.setExecutionDate(executionDate);
+        jobAnalysis.setDuration(duration);
+        jobAnalysis.setEndTime(new Date(executionDate.getTime() + (long) (duration * 1000)));
+        return jobAnalysis;
+    }
+
+    /**
+     * Rank error of the quartiles of a month of hourly executions merged from daily sketches
+     */
+    @Test
+    void quantileErrorBound() throws Exception {
+        Date now = new Date();
+        Random random = new Random(7);
+        List<Double> durations = new ArrayList<>();
+        for (int hour = 29 * 24; hour > 0; hour--) {
+            double duration = Math.round(Math.exp(6 + random.nextGaussian() * 0.3));
+            durations.add(duration);
+            baselineService.record(execution(new Date(now.getTime() - hour * HOUR), duration));
+        }
+        hashes.values().forEach(hash -> hash.put(BaselineServiceImpl.SEEDED, DateUtil.formatToDay(now)));
+
+        TDigest sketch = baselineService.getDurationSketch(execution(now, 0));
+        Assertions.assertEquals(durations.size(), sketch.size());
+        Double[] samples = durations.toArray(new Double[0]);
+        Arrays.sort(samples);
+        for (double q : new double[]{0.25, 0.5, 0.75}) {
+            double estimate = sketch.quantile(q);
+            long rank = durations.stream().filter(value -> value <= estimate).count();
+            Assertions.assertEquals(q, (double) rank / samples.length, 0.01, "quantile " + q);
+        }
+        double[] exact = DetectorUtil.boxplotValue(samples.clone());
+        double[] estimate = DetectorUtil.boxplotValue(sketch);
+        // bounds derived from the quartiles, within 2% of the median
+        for (int i = 0; i < exact.length; i++) {
+            Assertions.assertEquals(exact[i], estimate[i], exact[2] * 0.02, "boxplot " + i);
+        }
+        // end times relative to the execution date equal the durations here
+        Assertions.assertEquals(sketch.quantile(0.5),
+                baselineService.getEndTimeSketch(execution(now, 0)).quantile(0.5), 1);
+    }
+
+    /**
+     * Small samples are kept exactly, and the history is read only once per task
+     */
+    @Test
+    void seedFromHistory() throws Exception {
+        Date now = new Date();
+        List<TaskStateHistory> history = new ArrayList<>();
+        Double[] samples = new Double[20];
+        for (int day = 1; day <= samples.length; day++) {
+            TaskStateHistory state = new TaskStateHistory();
+            state.setExecutionTime(DateUtil.getOffsetDate(now, -day));
+            state.setValue(100.0 + day * day);
+            samples[day - 1] = state.getValue();
+            history.add(state);
+        }
+        Mockito.when(taskInstanceService.searchTaskDurationStates(anyString(), anyString(), anyString(), any(), any(),
+                any())).thenReturn(history);
+        Mockito.when(taskInstanceService.searchTaskRelativeEndTimeStates(anyString(), anyString(), anyString(), any(),
+                any(), any())).thenReturn(Collections.emptyList());
+
+        TDigest sketch = baselineService.getDurationSketch(execution(now, 0));
+        double[] exact = DetectorUtil.boxplotValue(samples);
+        double[] estimate = DetectorUtil.boxplotValue(sketch);
+        Assertions.assertArrayEquals(exact, estimate, 1e-3);
+        Assertions.assertEquals(0, baselineService.getEndTimeSketch(execution(now, 0)).size());
+        Mockito.verify(taskInstanceService, Mockito.times(1)).searchTaskDurationStates(anyString(), anyString(),
+                anyString(), any(), any(), any());
+    }
+}
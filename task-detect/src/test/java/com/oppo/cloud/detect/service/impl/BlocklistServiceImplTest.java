@@ -30,7 +30,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 
-@SpringBootTest(classes = BlocklistServiceImpl.class)
+@SpringBootTest(classes = {BlocklistServiceImpl.class, MetadataCache.class})
 class BlocklistServiceImplTest {
 
     @MockBean(name = "blocklistMapper")
@@ -45,5 +45,8 @@ class BlocklistServiceImplTest {
         Mockito.when(blocklistMapper.selectByExample(Mockito.any())).thenReturn(res);
         boolean result = blocklistService.isBlocklistTask("project", "flow", "task");
         Assertions.assertFalse(result);
+        // negative lookups are cached too
+        Assertions.assertFalse(blocklistService.isBlocklistTask("project", "flow", "task"));
+        Mockito.verify(blocklistMapper, Mockito.times(1)).selectByExample(Mockito.any());
     }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.detect.service.impl;
+
+import com.alibaba.fastjson2.JSON;
+import com.oppo.cloud.common.domain.syncer.TableMessage;
+import com.oppo.cloud.detect.domain.DetectContext;
+import com.oppo.cloud.detect.service.DetectContextService;
+import com.oppo.cloud.detect.service.TaskInstanceService;
+import com.oppo.cloud.mapper.BlocklistMapper;
+import com.oppo.cloud.mapper.TaskMapper;
+import com.oppo.cloud.mapper.UserInfoMapper;
+import com.oppo.cloud.model.Blocklist;
+import com.oppo.cloud.model.Task;
+import com.oppo.cloud.model.TaskInstance;
+import com.oppo.cloud.model.UserInfo;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+@SpringBootTest(classes = {DetectContextServiceImpl.class, MetadataCache.class})
+class DetectContextServiceImplTest {
+
+    @MockBean
+    BlocklistMapper blocklistMapper;
+
+    @MockBean
+    TaskMapper taskMapper;
+
+    @MockBean
+    UserInfoMapper userInfoMapper;
+
+    @MockBean
+    TaskInstanceService taskInstanceService;
+
+    @Autowired
+    DetectContextService detectContextService;
+
+    @Autowired
+    MetadataCache metadataCache;
+
+    @BeforeEach
+    void clearCache() {
+        metadataCache.invalidate(MetadataCache.BLOCKLIST, null);
+        metadataCache.invalidate(MetadataCache.TASK, null);
+        metadataCache.invalidate(MetadataCache.USER, null);
+    }
+
+    private static TaskInstance instance(String flowName, String taskName, String triggerType) {
+        TaskInstance taskInstance = new TaskInstance();
+        taskInstance.setProjectName("project");
+        taskInstance.setFlowName(flowName);
+        taskInstance.setTaskName(taskName);
+        taskInstance.setExecutionTime(new Date(1682870400000L));
+        taskInstance.setTriggerType(triggerType);
+        return taskInstance;
+    }
+
+    @Test
+    void prepareWithOneQueryPerLookup() {
+        List<TaskInstance> batch = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            batch.add(instance("flow", "task" + i, i == 0 ? "manual" : "schedule"));
+        }
+        batch.add(instance("other", "task1", "schedule"));
+
+        Blocklist blocklist = new Blocklist();
+        blocklist.setProjectName("project");
+        blocklist.setFlowName("flow");
+        blocklist.setTaskName("task1");
+        Mockito.when(blocklistMapper.selectByExample(Mockito.any())).thenReturn(Collections.singletonList(blocklist));
+        Task task = new Task();
+        task.setProjectName("project");
+        task.setFlowName("flow");
+        task.setTaskName("task2");
+        task.setId(2);
+        task.setUserId(7);
+        Mockito.when(taskMapper.selectByExample(Mockito.any())).thenReturn(Collections.singletonList(task));
+        UserInfo user = new UserInfo();
+        user.setUserId(7);
+        user.setUsername("user");
+        Mockito.when(userInfoMapper.selectByExample(Mockito.any())).thenReturn(Collections.singletonList(user));
+        Mockito.when(taskInstanceService.searchTaskSums(Mockito.any())).thenReturn(Collections.emptyMap());
+
+        DetectContext context = detectContextService.prepare(batch);
+
+        Assertions.assertTrue(context.isBlocklistTask("project", "flow", "task1"));
+        Assertions.assertFalse(context.isBlocklistTask("project", "other", "task1"));
+        Assertions.assertEquals(2, context.getTask("project", "flow", "task2").getId());
+        Assertions.assertNull(context.getTask("project", "flow", "task3"));
+        Assertions.assertEquals("user", context.getUser(7).getUsername());
+        Mockito.verify(blocklistMapper, Mockito.times(1)).selectByExample(Mockito.any());
+        Mockito.verify(taskMapper, Mockito.times(1)).selectByExample(Mockito.any());
+        Mockito.verify(userInfoMapper, Mockito.times(1)).selectByExample(Mockito.any());
+        // manual executions are not aggregated over retries
+        Mockito.verify(taskInstanceService).searchTaskSums(Mockito.argThat(list -> list.size() == 50));
+    }
+
+    @Test
+    void cachedLookupsAndInvalidation() {
+        List<TaskInstance> batch = Arrays.asList(instance("flow", "task1", "schedule"),
+                instance("flow", "task2", "schedule"));
+        Mockito.when(blocklistMapper.selectByExample(Mockito.any())).thenReturn(Collections.emptyList());
+        Task task = new Task();
+        task.setProjectName("project");
+        task.setFlowName("flow");
+        task.setTaskName("task2");
+        task.setId(2);
+        task.setUserId(7);
+        Mockito.when(taskMapper.selectByExample(Mockito.any())).thenReturn(Collections.singletonList(task));
+        Mockito.when(userInfoMapper.selectByExample(Mockito.any())).thenReturn(Collections.emptyList());
+        Mockito.when(taskInstanceService.searchTaskSums(Mockito.any())).thenReturn(Collections.emptyMap());
+
+        detectContextService.prepare(batch);
+        DetectContext context = detectContextService.prepare(batch);
+
+        // found and missing lookups are both served from the cache
+        Assertions.assertEquals(2, context.getTask("project", "flow", "task2").getId());
+        Assertions.assertNull(context.getTask("project", "flow", "task1"));
+        Assertions.assertNull(context.getUser(7));
+        Assertions.assertFalse(context.isBlocklistTask("project", "flow", "task1"));
+        Mockito.verify(blocklistMapper, Mockito.times(1)).selectByExample(Mockito.any());
+        Mockito.verify(taskMapper, Mockito.times(1)).selectByExample(Mockito.any());
+        Mockito.verify(userInfoMapper, Mockito.times(1)).selectByExample(Mockito.any());
+
+        // messages published by the syncer and the portal on the invalidate channel
+        Task changed = new Task();
+        changed.setProjectName("project");
+        changed.setFlowName("flow");
+        changed.setTaskName("task1");
+        metadataCache.invalidate(JSON.toJSONString(new TableMessage(JSON.toJSONString(changed), "UPDATE",
+                MetadataCache.TASK)));
+        metadataCache.invalidate(MetadataCache.BLOCKLIST);
+        detectContextService.prepare(batch);
+        Mockito.verify(blocklistMapper, Mockito.times(2)).selectByExample(Mockito.any());
+        Mockito.verify(taskMapper, Mockito.times(2)).selectByExample(Mockito.any());
+        Mockito.verify(userInfoMapper, Mockito.times(1)).selectByExample(Mockito.any());
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.detect.service.impl;
+
+import com.oppo.cloud.common.constant.Constant;
+import com.oppo.cloud.common.domain.cluster.spark.SparkApp;
+import com.oppo.cloud.common.domain.cluster.yarn.YarnApp;
+import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
+import com.oppo.cloud.common.domain.opensearch.TaskApp;
+import com.oppo.cloud.common.service.RedisService;
+import com.oppo.cloud.common.util.opensearch.IndexRouter;
+import com.oppo.cloud.detect.domain.AbnormalTaskAppInfo;
+import com.oppo.cloud.detect.service.OpenSearchService;
+import com.oppo.cloud.detect.service.TaskAppService;
+import com.oppo.cloud.mapper.TaskApplicationMapper;
+import com.oppo.cloud.model.TaskApplication;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.opensearch.action.update.UpdateRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+@SpringBootTest(classes = TaskAppServiceImpl.class, properties = "spark.io.compression.codec=")
+class TaskAppServiceImplTest {
+
+    private static final Date EXECUTION_DATE = new Date(1682942400000L);
+
+    @MockBean
+    TaskApplicationMapper taskApplicationMapper;
+
+    @MockBean
+    OpenSearchService openSearchService;
+
+    @MockBean
+    RedisService redisService;
+
+    @MockBean
+    IndexRouter indexRouter;
+
+    @Autowired
+    TaskAppService taskAppService;
+
+    @BeforeEach
+    void setUp() {
+        Mockito.when(redisService.hasKey(Mockito.anyString())).thenReturn(true);
+        Mockito.when(redisService.get(Mockito.anyString())).thenAnswer(invocation ->
+                Constant.RM_JHS_MAP.equals(invocation.getArgument(0)) ? "{\"10.0.0.1\":\"10.0.0.2\"}" : "hdfs://logs");
+    }
+
+    private static TaskApplication taskApplication(String applicationId, int retryTimes) {
+        TaskApplication taskApplication = new TaskApplication();
+        taskApplication.setProjectName("project");
+        taskApplication.setFlowName("flow");
+        taskApplication.setTaskName("task");
+        taskApplication.setExecuteTime(EXECUTION_DATE);
+        taskApplication.setApplicationId(applicationId);
+        taskApplication.setRetryTimes(retryTimes);
+        return taskApplication;
+    }
+
+    private static YarnApp yarnApp(String applicationId, String applicationType, String finalStatus) {
+        YarnApp yarnApp = new YarnApp();
+        yarnApp.setId(applicationId);
+        yarnApp.setApplicationType(applicationType);
+        yarnApp.setFinalStatus(finalStatus);
+        yarnApp.setState("FINISHED");
+        yarnApp.setUser("user");
+        yarnApp.setIp("10.0.0.1");
+        yarnApp.setAmHostHttpAddress("host:8042");
+        return yarnApp;
+    }
+
+    private static SparkApp sparkApp(String applicationId) {
+        SparkApp sparkApp = new SparkApp();
+        sparkApp.setAppId(applicationId);
+        sparkApp.setEventLogDirectory("hdfs://spark-logs");
+        return sparkApp;
+    }
+
+    private static JobAnalysis job(int retryTimes) {
+        JobAnalysis jobAnalysis = new JobAnalysis();
+        jobAnalysis.setProjectName("project");
+        jobAnalysis.setFlowName("flow");
+        jobAnalysis.setTaskName("task");
+        jobAnalysis.setExecutionDate(EXECUTION_DATE);
+        jobAnalysis.setRetryTimes(retryTimes);
+        return jobAnalysis;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> ids(ArgumentCaptor<Collection> captor) {
+        return new TreeSet<String>(captor.getValue());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void lookupAllRetriesAtOnce() throws Exception {
+        Mockito.when(taskApplicationMapper.selectByExample(Mockito.any())).thenReturn(Arrays.asList(
+                taskApplication("application_1_0001", 0),
+                taskApplication("application_1_0002", 1),
+                taskApplication("application_1_0003", 2),
+                taskApplication("application_1_0004", 3)));
+        Map<String, YarnApp> yarnApps = new HashMap<>();
+        yarnApps.put("application_1_0001", yarnApp("application_1_0001", "SPARK", "FAILED"));
+        yarnApps.put("application_1_0002", yarnApp("application_1_0002", "SPARK", "SUCCEEDED"));
+        yarnApps.put("application_1_0003", yarnApp("application_1_0003", "SPARK", "UNDEFINED"));
+        Mockito.when(openSearchService.searchYarnApps(Mockito.any())).thenReturn(yarnApps);
+        Mockito.when(openSearchService.searchSparkApps(Mockito.any())).thenReturn(Collections.singletonMap(
+                "application_1_0001", sparkApp("application_1_0001")));
+
+        AbnormalTaskAppInfo info = taskAppService.getAbnormalTaskAppsInfo(job(3), null);
+
+        Assertions.assertEquals(1, info.getTaskAppList().size());
+        Assertions.assertEquals("application_1_0001", info.getTaskAppList().get(0).getApplicationId());
+        Assertions.assertEquals("application_1_0001;", info.getHandleApps());
+        Assertions.assertTrue(info.getExceptionInfo().contains("from sparkAppIndex, appId:application_1_0002"));
+        Assertions.assertTrue(info.getExceptionInfo().contains("finalStatus:UNDEFINED, appId:application_1_0003"));
+        Assertions.assertTrue(info.getExceptionInfo().contains("from yarnApp, appId:application_1_0004"));
+
+        ArgumentCaptor<Collection> yarnIds = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(openSearchService, Mockito.times(1)).searchYarnApps(yarnIds.capture());
+        Assertions.assertEquals(new TreeSet<>(Arrays.asList("application_1_0001", "application_1_0002",
+                "application_1_0003", "application_1_0004")), ids(yarnIds));
+        ArgumentCaptor<Collection> sparkIds = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(openSearchService, Mockito.times(1)).searchSparkApps(sparkIds.capture());
+        Assertions.assertEquals(new TreeSet<>(Arrays.asList("application_1_0001", "application_1_0002",
+                "application_1_0003")), ids(sparkIds));
+        Mockito.verify(openSearchService, Mockito.never()).searchYarnApp(Mockito.any());
+        Mockito.verify(openSearchService, Mockito.never()).searchSparkApp(Mockito.any());
+    }
+
+    @Test
+    void skipHandledApps() throws Exception {
+        Mockito.when(taskApplicationMapper.selectByExample(Mockito.any())).thenReturn(Collections.singletonList(
+                taskApplication("application_1_0001", 0)));
+
+        AbnormalTaskAppInfo info = taskAppService.getAbnormalTaskAppsInfo(job(0), "application_1_0001;");
+
+        Assertions.assertTrue(info.getTaskAppList().isEmpty());
+        Assertions.assertEquals("", info.getExceptionInfo());
+        Mockito.verify(openSearchService, Mockito.never()).searchSparkApp(Mockito.any());
+        Mockito.verify(openSearchService).searchYarnApps(Mockito.argThat(Collection::isEmpty));
+    }
+
+    @Test
+    void insertInOneBulkRequest() throws Exception {
+        Mockito.when(openSearchService.insertOrUpDateRequest(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> new UpdateRequest((String) invocation.getArgument(0),
+                        (String) invocation.getArgument(1)));
+        TaskApp first = new TaskApp();
+        first.setApplicationId("application_1_0001");
+        first.setExecutionDate(EXECUTION_DATE);
+        TaskApp second = new TaskApp();
+        second.setApplicationId("application_1_0002");
+        second.setExecutionDate(EXECUTION_DATE);
+
+        taskAppService.insertTaskApps(Arrays.asList(first, second));
+
+        ArgumentCaptor<List<UpdateRequest>> requests = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(openSearchService, Mockito.times(1)).bulkInsertOrUpDate(requests.capture());
+        Assertions.assertEquals(2, requests.getValue().size());
+        Assertions.assertEquals("compass-task-app-2023-05-01", requests.getValue().get(0).index());
+        Mockito.verify(openSearchService, Mockito.never()).insertOrUpDate(Mockito.any(), Mockito.any(), Mockito.any());
+        Mockito.verify(indexRouter, Mockito.times(2)).record(Mockito.eq("compass-task-app"), Mockito.any(),
+                Mockito.eq("compass-task-app-2023-05-01"));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.service.impl;
+
+import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
+import com.oppo.cloud.detect.domain.TaskHistory;
+import com.oppo.cloud.detect.domain.TaskStateHistory;
+import com.oppo.cloud.detect.service.BaselineService;
+import com.oppo.cloud.detect.service.TaskHistoryService;
+import com.oppo.cloud.detect.service.TaskInstanceService;
+import com.oppo.cloud.detect.util.BaselineSketch;
+import com.tdunning.math.stats.TDigest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+@SpringBootTest(classes = TaskHistoryServiceImpl.class)
+class TaskHistoryServiceImplTest {
+
+    @MockBean
+    BaselineService baselineService;
+
+    @MockBean
+    TaskInstanceService taskInstanceService;
+
+    @Autowired
+    TaskHistoryService taskHistoryService;
+
+    private static JobAnalysis job(String taskState) {
+        JobAnalysis jobAnalysis = new JobAnalysis();
+        jobAnalysis.setProjectName("project");
+        jobAnalysis.setFlowName("flow");
+        jobAnalysis.setTaskName("task");
+        jobAnalysis.setTaskState(taskState);
+        jobAnalysis.setExecutionDate(new Date(1682870400000L));
+        return jobAnalysis;
+    }
+
+    @Test
+    void loadBaselinesOfSuccessfulExecutions() {
+        Map<String, TDigest> sketches = new HashMap<>();
+        sketches.put(BaselineService.DURATION, BaselineSketch.create());
+        sketches.put(BaselineService.END_TIME, BaselineSketch.create());
+        Mockito.when(baselineService.getSketches(Mockito.any())).thenReturn(sketches);
+        TaskHistory history = taskHistoryService.load(job("success"));
+        Assertions.assertNotNull(history.getDurationSketch());
+        Assertions.assertNotNull(history.getEndTimeSketch());
+        Assertions.assertNull(history.getStateHistory());
+        Mockito.verify(baselineService, Mockito.times(1)).getSketches(Mockito.any());
+        Mockito.verifyNoInteractions(taskInstanceService);
+    }
+
+    @Test
+    void loadStatesOfFailedExecutions() {
+        Mockito.when(taskInstanceService.searchTaskStateHistory(Mockito.any(), Mockito.any(), Mockito.any(),
+                Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(Collections.singletonList(new TaskStateHistory()));
+        TaskHistory history = taskHistoryService.load(job("fail"));
+        Assertions.assertEquals(1, history.getStateHistory().size());
+        Assertions.assertNull(history.getDurationSketch());
+        Mockito.verify(taskInstanceService).searchTaskStateHistory(Mockito.eq("project"), Mockito.eq("flow"),
+                Mockito.eq("task"), Mockito.any(), Mockito.any(), Mockito.eq(TaskHistoryService.STATE_HISTORY_DAYS));
+        Mockito.verifyNoInteractions(baselineService);
+    }
+}
@@ -16,9 +16,11 @@
 
 package com.oppo.cloud.detect.service.impl;
 
+import com.oppo.cloud.detect.domain.DetectContext;
 import com.oppo.cloud.detect.domain.TaskStateHistory;
 import com.oppo.cloud.detect.mapper.TaskInstanceExtendMapper;
 import com.oppo.cloud.detect.service.TaskInstanceService;
+import com.oppo.cloud.model.TaskInstance;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -27,8 +29,10 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 
 @SpringBootTest(classes = TaskInstanceServiceImpl.class)
@@ -77,4 +81,27 @@ class TaskInstanceServiceImplTest {
                 taskInstanceService.searchTaskRelativeEndTime("project", "flow", "task", new Date(), new Date(), 2);
         Assertions.assertNotNull(res);
     }
+
+    @Test
+    void searchTaskSums() {
+        Date executionTime = new Date(1682870400000L);
+        List<TaskInstance> retries = new ArrayList<>();
+        for (int retry = 0; retry < 3; retry++) {
+            TaskInstance taskInstance = new TaskInstance();
+            taskInstance.setProjectName("project");
+            taskInstance.setFlowName("flow");
+            taskInstance.setTaskName("task");
+            taskInstance.setExecutionTime(executionTime);
+            taskInstance.setRetryTimes(retry);
+            taskInstance.setStartTime(new Date(executionTime.getTime() + retry * 1000L));
+            retries.add(taskInstance);
+        }
+        Mockito.when(taskInstanceExtendMapper.selectByExample(Mockito.any())).thenReturn(retries);
+        Map<String, TaskInstance> res = taskInstanceService.searchTaskSums(
+                Arrays.asList(retries.get(2), retries.get(2)));
+        TaskInstance sum = res.get(DetectContext.instanceKey("project", "flow", "task", executionTime));
+        Assertions.assertEquals(2, sum.getRetryTimes());
+        Assertions.assertEquals(executionTime, sum.getStartTime());
+        Mockito.verify(taskInstanceExtendMapper, Mockito.times(1)).selectByExample(Mockito.any());
+    }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.task;
+
+import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
+import com.oppo.cloud.detect.domain.TaskHistory;
+import com.oppo.cloud.detect.service.DetectService;
+import com.oppo.cloud.detect.service.TaskHistoryService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+class DetectedTaskTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private final TaskHistory history = new TaskHistory();
+
+    private final List<TaskHistory> seen = new ArrayList<>();
+
+    private DetectedTask detectedTask;
+
+    private TaskHistoryService taskHistoryService;
+
+    @BeforeEach
+    void setUp() {
+        detectedTask = new DetectedTask();
+        taskHistoryService = Mockito.mock(TaskHistoryService.class);
+        Mockito.when(taskHistoryService.load(Mockito.any())).thenReturn(history);
+        ReflectionTestUtils.setField(detectedTask, "taskHistoryService", taskHistoryService);
+        ReflectionTestUtils.setField(detectedTask, "detectorExecutorPool", executor);
+        ReflectionTestUtils.setField(detectedTask, "detectTimeoutMillis", 500L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private DetectService detector(String category, long sleepMillis, boolean fail) throws Exception {
+        DetectService detectService = Mockito.mock(DetectService.class);
+        Mockito.doAnswer(invocation -> {
+            synchronized (seen) {
+                seen.add(invocation.getArgument(1));
+            }
+            Thread.sleep(sleepMillis);
+            if (fail) {
+                throw new IllegalStateException("detect failed");
+            }
+            JobAnalysis jobAnalysis = invocation.getArgument(0);
+            jobAnalysis.getCategories().add(category);
+            jobAnalysis.setDurationBaseline(category);
+            return null;
+        }).when(detectService).detect(Mockito.any(), Mockito.any());
+        return detectService;
+    }
+
+    @Test
+    void mergeInOrderWithinDeadline() throws Exception {
+        ReflectionTestUtils.setField(detectedTask, "abnormalDetects", Arrays.asList(
+                detector("executionFailed", 100, false),
+                detector("failing", 0, true),
+                detector("slow", 5000, false),
+                detector("durationLong", 0, false)));
+        JobAnalysis jobAnalysis = new JobAnalysis();
+        jobAnalysis.setTaskName("task");
+        jobAnalysis.setCategories(new ArrayList<>());
+
+        long start = System.currentTimeMillis();
+        detectedTask.detect(jobAnalysis);
+
+        Assertions.assertTrue(System.currentTimeMillis() - start < 3000);
+        Assertions.assertEquals(Arrays.asList("executionFailed", "durationLong"), jobAnalysis.getCategories());
+        Assertions.assertEquals("durationLong", jobAnalysis.getDurationBaseline());
+        // one snapshot shared by every detect service
+        Mockito.verify(taskHistoryService, Mockito.times(1)).load(Mockito.any());
+        Assertions.assertEquals(4, seen.size());
+        seen.forEach(value -> Assertions.assertSame(history, value));
+    }
+
+    @Test
+    void interruptTimedOutDetectors() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        DetectService slow = Mockito.mock(DetectService.class);
+        Mockito.doAnswer(invocation -> {
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return null;
+        }).when(slow).detect(Mockito.any(), Mockito.any());
+        ReflectionTestUtils.setField(detectedTask, "abnormalDetects", Collections.singletonList(slow));
+        JobAnalysis jobAnalysis = new JobAnalysis();
+        jobAnalysis.setCategories(new ArrayList<>());
+
+        detectedTask.detect(jobAnalysis);
+
+        Assertions.assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+        Assertions.assertTrue(jobAnalysis.getCategories().isEmpty());
+    }
+
+    @Test
+    void screenMessagesWithoutFinalState() {
+        Assertions.assertTrue(DetectedTask.mentionsFinalState(
+                "{\"body\":\"{\\\"taskState\\\":\\\"success\\\"}\",\"table\":\"task_instance\"}"));
+        Assertions.assertTrue(DetectedTask.mentionsFinalState("{\"body\":\"{\\\"taskState\\\": \\\"fail\\\"}\"}"));
+        Assertions.assertFalse(DetectedTask.mentionsFinalState(
+                "{\"body\":\"{\\\"taskState\\\":\\\"running\\\"}\",\"table\":\"task_instance\"}"));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.detect.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+class TimerWheelTest {
+
+    @Test
+    void expireInDueOrder() {
+        long start = 1_000_000L;
+        TimerWheel<Long> wheel = new TimerWheel<>(100, start);
+        Assertions.assertFalse(wheel.add(0L, start));
+        Random random = new Random(7);
+        List<Long> dues = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            // from one tick to about five days ahead, across several levels
+            long due = start + 100 + (long) (Math.pow(random.nextDouble(), 4) * 5 * 24 * 3600 * 1000L);
+            dues.add(due);
+            Assertions.assertTrue(wheel.add(due, due));
+        }
+        Assertions.assertEquals(20000, wheel.size());
+
+        long now = start;
+        int expired = 0;
+        while (wheel.size() > 0) {
+            long wakeup = wheel.nextWakeupMillis();
+            Assertions.assertTrue(wakeup > now);
+            now = wakeup + random.nextInt(1000);
+            for (long due : wheel.advance(now)) {
+                // never early, never later than the tick after the wakeup
+                Assertions.assertTrue(due <= now, due + " > " + now);
+                Assertions.assertTrue(due > now - 1100, due + " expired late at " + now);
+                expired++;
+            }
+        }
+        Assertions.assertEquals(dues.size(), expired);
+        Assertions.assertEquals(Long.MAX_VALUE, wheel.nextWakeupMillis());
+    }
+
+    @Test
+    void advanceWithoutWakeups() {
+        TimerWheel<String> wheel = new TimerWheel<>(100, 0);
+        wheel.add("a", 250);
+        wheel.add("b", 70_000);
+        wheel.add("c", 10_000_000);
+        Assertions.assertEquals(Collections.emptyList(), wheel.advance(199));
+        Assertions.assertEquals(Arrays.asList("a"), wheel.advance(69_999));
+        Assertions.assertEquals(Arrays.asList("b", "c"), wheel.advance(20_000_000));
+        // nothing pending: jumps to the current time
+        Assertions.assertEquals(Collections.emptyList(), wheel.advance(90_000_000));
+        Assertions.assertFalse(wheel.add("d", 89_999_950));
+        Assertions.assertTrue(wheel.add("d", 90_000_050));
+        Assertions.assertEquals(Collections.emptyList(), wheel.advance(90_000_099));
+        Assertions.assertEquals(Arrays.asList("d"), wheel.advance(90_000_100));
+    }
+}
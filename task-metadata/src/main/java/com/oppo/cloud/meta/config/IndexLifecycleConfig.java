@@ -0,0 +1,36 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.meta.config;
+
+import com.oppo.cloud.common.util.opensearch.IndexLifecycleManager;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lifecycle policies of the daily opensearch indices
+ */
+@Configuration
+@ConfigurationProperties(prefix = "spring.opensearch.lifecycle")
+@Data
+public class IndexLifecycleConfig {
+
+    private List<IndexLifecycleManager.Policy> policies = new ArrayList<>();
+}
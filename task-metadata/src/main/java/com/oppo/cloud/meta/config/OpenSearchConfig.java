@@ -16,6 +16,8 @@
 
 package com.oppo.cloud.meta.config;
 
+import com.oppo.cloud.common.util.opensearch.BulkSizePolicy;
+import com.oppo.cloud.common.util.opensearch.BulkSpool;
 import com.oppo.cloud.common.util.opensearch.OpenSearchClient;
 import lombok.extern.slf4j.Slf4j;
 
@@ -25,6 +27,9 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 /**
  * OpenSearch Config
  */
@@ -32,6 +37,10 @@ import org.springframework.context.annotation.Primary;
 @Slf4j
 public class OpenSearchConfig {
 
+    public final static String BULK_SPOOL = "bulkSpool";
+
+    public final static String BULK_SIZE_POLICY = "bulkSizePolicy";
+
     @Value("${spring.opensearch.nodes}")
     private String nodes;
     @Value("${spring.opensearch.username}")
@@ -42,6 +51,22 @@ public class OpenSearchConfig {
     private String truststore;
     @Value("${spring.opensearch.truststore-password}")
     private String truststorePassword;
+    @Value("${spring.opensearch.spool.dir:spool/opensearch}")
+    private String spoolDir;
+    @Value("${spring.opensearch.spool.segment-size:64}")
+    private long spoolSegmentSize;
+    @Value("${spring.opensearch.spool.max-size:1024}")
+    private long spoolMaxSize;
+    @Value("${spring.opensearch.spool.drain-rate:500}")
+    private int spoolDrainRate;
+    @Value("${spring.opensearch.spool.drain-interval:10}")
+    private long spoolDrainInterval;
+    @Value("${spring.opensearch.bulk.max-request-size:10}")
+    private int maxRequestSizeMb;
+    @Value("${spring.opensearch.bulk.max-document-size:1024}")
+    private int maxDocumentSizeKb;
+    @Value("${spring.opensearch.bulk.oversize-action:isolate}")
+    private String oversizeAction;
 
     @Primary
     @Bean("opensearch")
@@ -49,4 +74,24 @@ public class OpenSearchConfig {
         return OpenSearchClient.create(nodes, username, password, truststore, truststorePassword);
     }
 
+    /**
+     * Local spool for bulk writes failing while the cluster is unavailable
+     */
+    @Bean(BULK_SPOOL)
+    public BulkSpool bulkSpool(RestHighLevelClient client) throws IOException {
+        BulkSpool spool = new BulkSpool(spoolDir, spoolSegmentSize * 1024L * 1024L, spoolMaxSize * 1024L * 1024L,
+                spoolDrainRate, client);
+        spool.start(spoolDrainInterval, TimeUnit.SECONDS);
+        return spool;
+    }
+
+    /**
+     * Size limits of bulk requests, passed to BulkApi
+     */
+    @Bean(BULK_SIZE_POLICY)
+    public BulkSizePolicy bulkSizePolicy() {
+        return new BulkSizePolicy(maxRequestSizeMb * 1024L * 1024L, maxDocumentSizeKb * 1024L,
+                BulkSizePolicy.OversizeAction.valueOf(oversizeAction.toUpperCase()));
+    }
+
 }
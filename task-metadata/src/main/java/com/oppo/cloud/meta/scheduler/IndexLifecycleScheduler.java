@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.meta.scheduler;
+
+import com.oppo.cloud.common.service.RedisService;
+import com.oppo.cloud.common.util.opensearch.IndexLifecycleManager;
+import com.oppo.cloud.meta.config.IndexLifecycleConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.opensearch.client.RestHighLevelClient;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * Templates, merging, shrinking and retention of the daily opensearch indices
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(prefix = "scheduler.indexLifecycle", name = "enable", havingValue = "true")
+public class IndexLifecycleScheduler {
+
+    /**
+     * index lifecycle redis distributed lock
+     */
+    private static final String LOCK_KEY = "compass:metadata:index-lifecycle";
+
+    /**
+     * Force merges may take a while, hold the lock long enough for a whole run
+     */
+    private static final long LOCK_TIMEOUT = 3600L;
+
+    @Resource
+    private RedisService redisService;
+
+    @Resource
+    private RedisScript<Object> releaseLockScript;
+
+    @Resource(name = "opensearch")
+    private RestHighLevelClient client;
+
+    @Resource
+    private IndexLifecycleConfig indexLifecycleConfig;
+
+    @Scheduled(cron = "${scheduler.indexLifecycle.cron}")
+    private void run() {
+        try {
+            lifecycle();
+        } catch (Exception e) {
+            log.error("Exception:", e);
+        }
+    }
+
+    private void lifecycle() {
+        String lockValue = UUID.randomUUID().toString();
+        // Only one instance of the application can run the lifecycle at the same time.
+        Boolean acquire = redisService.acquireLock(LOCK_KEY, lockValue, LOCK_TIMEOUT);
+        if (!acquire) {
+            log.info("can not get the lock: {}", LOCK_KEY);
+            return;
+        }
+        try {
+            log.info("lockKey: {}, lockValue: {}", LOCK_KEY, lockValue);
+            new IndexLifecycleManager(client).run(indexLifecycleConfig.getPolicies(), LocalDate.now());
+        } catch (Exception e) {
+            log.error("Exception: ", e);
+        } finally {
+            Object result = redisService.executeScript(releaseLockScript, Collections.singletonList(LOCK_KEY), lockValue);
+            log.info("release {}, result: {}", LOCK_KEY, result);
+        }
+    }
+}
@@ -26,6 +26,8 @@ import com.oppo.cloud.common.domain.cluster.yarn.Attempt;
 import com.oppo.cloud.common.service.RedisService;
 import com.oppo.cloud.common.util.DateUtil;
 import com.oppo.cloud.common.util.opensearch.BulkApi;
+import com.oppo.cloud.common.util.opensearch.BulkSizePolicy;
+import com.oppo.cloud.common.util.opensearch.BulkSpool;
 import com.oppo.cloud.meta.config.HadoopConfig;
 import com.oppo.cloud.meta.service.IClusterConfigService;
 import com.oppo.cloud.meta.service.ITaskSyncerMetaService;
@@ -82,6 +84,12 @@ public class SparkMetaServiceImpl implements ITaskSyncerMetaService {
     @Resource
     private RestHighLevelClient client;
 
+    @Resource
+    private BulkSpool bulkSpool;
+
+    @Resource
+    private BulkSizePolicy bulkSizePolicy;
+
     private final Pattern hdfsPattern = Pattern.compile(".*?(?<hdfs>hdfs://.*)</li>.*", Pattern.DOTALL);
 
     private static final String SPARK_HOME_URL = "http://%s/";
@@ -157,7 +165,11 @@ public class SparkMetaServiceImpl implements ITaskSyncerMetaService {
 
         BulkResponse response;
         try {
-            response = BulkApi.bulkByIds(client, sparkAppPrefix + DateUtil.getDay(0), sparkAppMap);
+            response = BulkApi.bulkByIds(client, sparkAppPrefix + DateUtil.getDay(0), sparkAppMap, bulkSpool,
+                    bulkSizePolicy);
+        } catch (BulkSpool.SpooledException e) {
+            log.warn("bulkSparkAppsErr:{}", e.getMessage());
+            return;
         } catch (Exception e) {
             log.error("bulkSparkAppsErr:", e);
             return;
@@ -23,6 +23,8 @@ import com.oppo.cloud.common.domain.cluster.yarn.YarnApp;
 import com.oppo.cloud.common.domain.cluster.yarn.YarnResponse;
 import com.oppo.cloud.common.util.DateUtil;
 import com.oppo.cloud.common.util.opensearch.BulkApi;
+import com.oppo.cloud.common.util.opensearch.BulkSizePolicy;
+import com.oppo.cloud.common.util.opensearch.BulkSpool;
 import com.oppo.cloud.meta.config.HadoopConfig;
 import com.oppo.cloud.meta.service.IClusterConfigService;
 import com.oppo.cloud.meta.service.ITaskSyncerMetaService;
@@ -74,6 +76,12 @@ public class YarnMetaServiceImpl implements ITaskSyncerMetaService {
 
     @Resource
     private RestHighLevelClient client;
+
+    @Resource
+    private BulkSpool bulkSpool;
+
+    @Resource
+    private BulkSizePolicy bulkSizePolicy;
     /**
      * Specifying a Start Time Timestamp
      */
@@ -134,7 +142,11 @@ public class YarnMetaServiceImpl implements ITaskSyncerMetaService {
         }
         BulkResponse response;
         try {
-            response = BulkApi.bulkByIds(client, yarnAppPrefix + DateUtil.getDay(0), yarnAppMap);
+            response = BulkApi.bulkByIds(client, yarnAppPrefix + DateUtil.getDay(0), yarnAppMap, bulkSpool,
+                    bulkSizePolicy);
+        } catch (BulkSpool.SpooledException e) {
+            log.warn("bulkYarnAppsErr:{}", e.getMessage());
+            return;
         } catch (IOException e) {
             log.error("bulkYarnAppsErr:{}", e.getMessage());
             return;
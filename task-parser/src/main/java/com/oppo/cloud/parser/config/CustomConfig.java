@@ -51,6 +51,12 @@ public class CustomConfig {
     @Value("${spring.opensearch.task-app-prefix}")
     private String taskAppPrefix;
 
+    /**
+     * seconds to wait for a log record's bulk writes before updating its categories
+     */
+    @Value("${spring.opensearch.bulk.await-timeout:60}")
+    private long bulkAwaitTimeout;
+
     @Value("${custom.redisConsumer.enable}")
     private Boolean enableRedisConsumer;
 
@@ -68,6 +74,36 @@ public class CustomConfig {
     @Value("${custom.redisConsumer.processingHash}")
     private String processingHash;
 
+    /**
+     * heap budget(MB) shared by all admitted logRecords, 0 means half of the max heap
+     */
+    @Value("${custom.redisConsumer.admission.memoryBudget:0}")
+    private Long admissionMemoryBudget;
+
+    /**
+     * estimated heap bytes needed per byte of log
+     */
+    @Value("${custom.redisConsumer.admission.memoryFactor:1.0}")
+    private Double admissionMemoryFactor;
+
+    /**
+     * logRecords whose estimated cost(MB) exceeds the threshold are routed to the large lane
+     */
+    @Value("${custom.redisConsumer.admission.largeRecordThreshold:4096}")
+    private Long largeRecordThreshold;
+
+    /**
+     * max concurrent logRecords in the large lane
+     */
+    @Value("${custom.redisConsumer.admission.largeLaneConcurrency:1}")
+    private Integer largeLaneConcurrency;
+
+    /**
+     * expire time(seconds) of cached hdfs file lengths
+     */
+    @Value("${custom.redisConsumer.admission.fileStatusCacheTtl:600}")
+    private Long fileStatusCacheTtl;
+
 
     private List<String> jvmType;
 
@@ -16,14 +16,23 @@
 
 package com.oppo.cloud.parser.config;
 
+import com.oppo.cloud.common.service.RedisService;
+import com.oppo.cloud.common.util.opensearch.AsyncBulkProcessor;
+import com.oppo.cloud.common.util.opensearch.BulkSizePolicy;
+import com.oppo.cloud.common.util.opensearch.BulkSpool;
+import com.oppo.cloud.common.util.opensearch.IndexRouter;
 import com.oppo.cloud.common.util.opensearch.OpenSearchClient;
 import lombok.extern.slf4j.Slf4j;
 import org.opensearch.client.RestHighLevelClient;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 /**
  * OpenSearch Config
  */
@@ -41,14 +50,102 @@ public class OpenSearchConfig {
     private String truststore;
     @Value("${spring.opensearch.truststore-password}")
     private String truststorePassword;
-
+    @Value("${spring.opensearch.spool.dir:spool/opensearch}")
+    private String spoolDir;
+    @Value("${spring.opensearch.spool.segment-size:64}")
+    private long spoolSegmentSize;
+    @Value("${spring.opensearch.spool.max-size:1024}")
+    private long spoolMaxSize;
+    @Value("${spring.opensearch.spool.drain-rate:500}")
+    private int spoolDrainRate;
+    @Value("${spring.opensearch.spool.drain-interval:10}")
+    private long spoolDrainInterval;
+    @Value("${spring.opensearch.bulk.actions:1000}")
+    private int bulkActions;
+    @Value("${spring.opensearch.bulk.size:5}")
+    private int bulkSizeMb;
+    @Value("${spring.opensearch.bulk.buffer-size:50}")
+    private int bufferSizeMb;
+    @Value("${spring.opensearch.bulk.flush-interval:1000}")
+    private long flushInterval;
+    @Value("${spring.opensearch.bulk.concurrent-requests:2}")
+    private int concurrentRequests;
+    @Value("${spring.opensearch.bulk.max-retries:3}")
+    private int maxRetries;
+    @Value("${spring.opensearch.bulk.retry-backoff:200}")
+    private long retryBackoff;
+    @Value("${spring.opensearch.bulk.max-request-size:10}")
+    private int maxRequestSizeMb;
+    @Value("${spring.opensearch.bulk.max-document-size:1024}")
+    private int maxDocumentSizeKb;
+    @Value("${spring.opensearch.bulk.oversize-action:isolate}")
+    private String oversizeAction;
+    @Value("${spring.opensearch.route.max-entries:100000}")
+    private int routeMaxEntries;
+    @Value("${spring.opensearch.route.ttl:30}")
+    private long routeTtlDays;
+    @Value("${spring.opensearch.route.refresh:300}")
+    private long routeRefreshSeconds;
 
     public final static String SEARCH_CLIENT = "searchClient";
 
+    public final static String BULK_PROCESSOR = "bulkProcessor";
+
+    public final static String BULK_SPOOL = "bulkSpool";
+
+    public final static String BULK_SIZE_POLICY = "bulkSizePolicy";
+
+    public final static String INDEX_ROUTER = "indexRouter";
+
     @Primary
     @Bean(SEARCH_CLIENT)
     public RestHighLevelClient restHighLevelClient() {
         return OpenSearchClient.create(nodes, username, password, truststore, truststorePassword);
     }
 
+    /**
+     * Size limits of bulk requests, synchronous bulk calls pass it to BulkApi
+     */
+    @Bean(BULK_SIZE_POLICY)
+    public BulkSizePolicy bulkSizePolicy() {
+        return new BulkSizePolicy(maxRequestSizeMb * 1024L * 1024L, maxDocumentSizeKb * 1024L,
+                BulkSizePolicy.OversizeAction.valueOf(oversizeAction.toUpperCase()));
+    }
+
+    @Bean(BULK_PROCESSOR)
+    public AsyncBulkProcessor bulkProcessor(@Qualifier(SEARCH_CLIENT) RestHighLevelClient client,
+                                            @Qualifier(BULK_SPOOL) BulkSpool spool,
+                                            @Qualifier(BULK_SIZE_POLICY) BulkSizePolicy sizePolicy) {
+        return AsyncBulkProcessor.builder(client)
+                .bulkActions(bulkActions)
+                .bulkSize(bulkSizeMb * 1024L * 1024L)
+                .bufferSize(bufferSizeMb * 1024L * 1024L)
+                .flushInterval(flushInterval)
+                .concurrentRequests(concurrentRequests)
+                .maxRetries(maxRetries)
+                .retryBackoff(retryBackoff)
+                .spool(spool)
+                .sizePolicy(sizePolicy)
+                .build();
+    }
+
+    /**
+     * Local spool for bulk writes failing while the cluster is unavailable
+     */
+    @Bean(BULK_SPOOL)
+    public BulkSpool bulkSpool(@Qualifier(SEARCH_CLIENT) RestHighLevelClient client) throws IOException {
+        BulkSpool spool = new BulkSpool(spoolDir, spoolSegmentSize * 1024L * 1024L, spoolMaxSize * 1024L * 1024L,
+                spoolDrainRate, client);
+        spool.start(spoolDrainInterval, TimeUnit.SECONDS);
+        return spool;
+    }
+
+    /**
+     * Routes of application ids and jobs to the daily indices holding their documents
+     */
+    @Bean(INDEX_ROUTER)
+    public IndexRouter indexRouter(RedisService redisService) {
+        return new IndexRouter(redisService, routeMaxEntries, TimeUnit.DAYS.toSeconds(routeTtlDays),
+                routeRefreshSeconds);
+    }
 }
@@ -40,6 +40,10 @@ public class ThreadPoolConfig {
 
     public static final String REDIS_CONSUMER_THREAD_POOL = "redisConsumerThreadPool";
 
+    public static final String LARGE_RECORD_THREAD_POOL = "largeRecordThreadPool";
+
+    public static final String ADMISSION_THREAD_POOL = "admissionThreadPool";
+
     @Resource
     private CustomConfig config;
 
@@ -118,4 +122,34 @@ public class ThreadPoolConfig {
         executor.initialize();
         return executor;
     }
+
+    @Bean(name = LARGE_RECORD_THREAD_POOL)
+    public Executor largeRecordThreadPool() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(config.getLargeLaneConcurrency());
+        executor.setMaxPoolSize(config.getLargeLaneConcurrency());
+        executor.setKeepAliveSeconds(120);
+        executor.setQueueCapacity(10000);
+        executor.setThreadNamePrefix("large-record-thread-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean(name = ADMISSION_THREAD_POOL)
+    public Executor admissionThreadPool() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(config.getMaxThreadPoolSize());
+        executor.setMaxPoolSize(config.getMaxThreadPoolSize());
+        executor.setKeepAliveSeconds(120);
+        executor.setQueueCapacity(10000);
+        executor.setThreadNamePrefix("admission-thread-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        executor.initialize();
+        return executor;
+    }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.parser.service.consumer;
+
+import com.oppo.cloud.parser.config.CustomConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admit logRecords against the node memory and cpu budget.
+ * Cpu budget is the number of slots of each lane, memory budget is shared by both lanes
+ * and granted in arrival order so large records are not starved by small ones.
+ */
+@Slf4j
+@Component
+public class AdmissionController {
+
+    private static final long MB = 1024L * 1024L;
+
+    public enum Lane {
+        NORMAL,
+        LARGE
+    }
+
+    /**
+     * memory budget(bytes)
+     */
+    private final long memoryBudget;
+
+    /**
+     * threshold(bytes) of the large lane
+     */
+    private final long largeRecordThreshold;
+
+    private final Semaphore normalSlots;
+
+    private final Semaphore largeSlots;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition memoryReleased = lock.newCondition();
+
+    private final Deque<Object> memoryWaiters = new ArrayDeque<>();
+
+    private long usedMemory;
+
+    public AdmissionController(CustomConfig config) {
+        long budget = config.getAdmissionMemoryBudget() * MB;
+        this.memoryBudget = budget > 0 ? budget : Runtime.getRuntime().maxMemory() / 2;
+        this.largeRecordThreshold = config.getLargeRecordThreshold() * MB;
+        this.normalSlots = new Semaphore(config.getMaxThreadPoolSize());
+        this.largeSlots = new Semaphore(config.getLargeLaneConcurrency());
+        log.info("admission memoryBudget:{}MB, largeRecordThreshold:{}MB, normalSlots:{}, largeSlots:{}",
+                memoryBudget / MB, config.getLargeRecordThreshold(), config.getMaxThreadPoolSize(),
+                config.getLargeLaneConcurrency());
+    }
+
+    public Lane route(long cost) {
+        return cost >= largeRecordThreshold ? Lane.LARGE : Lane.NORMAL;
+    }
+
+    /**
+     * Block until a slot of the lane is free
+     */
+    public void acquireSlot(Lane lane) throws InterruptedException {
+        slots(lane).acquire();
+    }
+
+    /**
+     * Block until the memory budget can hold the cost, a cost above the whole budget is admitted alone.
+     *
+     * @return granted bytes, which must be passed back to release
+     */
+    public long acquireMemory(long cost) throws InterruptedException {
+        long granted = Math.min(Math.max(cost, 0), memoryBudget);
+        Object waiter = new Object();
+        lock.lock();
+        try {
+            memoryWaiters.addLast(waiter);
+            try {
+                while (memoryWaiters.peekFirst() != waiter || usedMemory + granted > memoryBudget) {
+                    memoryReleased.await();
+                }
+                usedMemory += granted;
+                return granted;
+            } finally {
+                memoryWaiters.remove(waiter);
+                memoryReleased.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(Lane lane, long granted) {
+        lock.lock();
+        try {
+            usedMemory -= granted;
+            memoryReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        slots(lane).release();
+    }
+
+    public long getUsedMemory() {
+        lock.lock();
+        try {
+            return usedMemory;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Semaphore slots(Lane lane) {
+        return lane == Lane.LARGE ? largeSlots : normalSlots;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.parser.service.consumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Queue of estimated logRecords per lane, each lane waits for its own slots on its own thread,
+ * so that normal logRecords never wait behind a large one.
+ * Intake permits bound the logRecords taken from redis and not yet running in the normal lane,
+ * a large logRecord gives its permit back once queued in its lane.
+ */
+@Slf4j
+public class AdmissionDispatcher {
+
+    private final AdmissionController admissionController;
+
+    private final Map<AdmissionController.Lane, Executor> executors = new EnumMap<>(AdmissionController.Lane.class);
+
+    private final Map<AdmissionController.Lane, BlockingQueue<Runnable>> queues =
+            new EnumMap<>(AdmissionController.Lane.class);
+
+    private final Semaphore intake;
+
+    private final List<Thread> dispatchers = new ArrayList<>();
+
+    public AdmissionDispatcher(AdmissionController admissionController, Executor normalExecutor,
+                               Executor largeExecutor, int intakeLimit, int largeQueueCapacity) {
+        this.admissionController = admissionController;
+        this.intake = new Semaphore(intakeLimit);
+        executors.put(AdmissionController.Lane.NORMAL, normalExecutor);
+        executors.put(AdmissionController.Lane.LARGE, largeExecutor);
+        queues.put(AdmissionController.Lane.NORMAL, new LinkedBlockingQueue<>());
+        queues.put(AdmissionController.Lane.LARGE, new LinkedBlockingQueue<>(largeQueueCapacity));
+    }
+
+    public synchronized void start() {
+        for (AdmissionController.Lane lane : AdmissionController.Lane.values()) {
+            Thread dispatcher = new Thread(() -> dispatch(lane), "admission-" + lane.name().toLowerCase());
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+            dispatchers.add(dispatcher);
+        }
+    }
+
+    public synchronized void stop() {
+        dispatchers.forEach(Thread::interrupt);
+        dispatchers.clear();
+    }
+
+    /**
+     * Block until another logRecord may be taken from redis
+     */
+    public void acquireIntake() throws InterruptedException {
+        intake.acquire();
+    }
+
+    /**
+     * Give back the intake permit of a logRecord that was not queued
+     */
+    public void releaseIntake() {
+        intake.release();
+    }
+
+    /**
+     * Queue the task of a logRecord on its lane, false when the large lane is full:
+     * the caller keeps its intake permit and gives the logRecord back
+     */
+    public boolean offer(AdmissionController.Lane lane, Runnable task) {
+        if (!queues.get(lane).offer(task)) {
+            return false;
+        }
+        if (lane == AdmissionController.Lane.LARGE) {
+            intake.release();
+        }
+        return true;
+    }
+
+    /**
+     * Queue the task of a logRecord on its lane, blocking while the lane is full
+     */
+    public void put(AdmissionController.Lane lane, Runnable task) throws InterruptedException {
+        queues.get(lane).put(task);
+        if (lane == AdmissionController.Lane.LARGE) {
+            intake.release();
+        }
+    }
+
+    public int queued(AdmissionController.Lane lane) {
+        return queues.get(lane).size();
+    }
+
+    private void dispatch(AdmissionController.Lane lane) {
+        BlockingQueue<Runnable> queue = queues.get(lane);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Runnable task = queue.take();
+                admissionController.acquireSlot(lane);
+                if (lane == AdmissionController.Lane.NORMAL) {
+                    intake.release();
+                }
+                try {
+                    executors.get(lane).execute(task);
+                } catch (Exception e) {
+                    log.error("failed to dispatch logRecord, lane:{}, err:{}", lane, e.getMessage());
+                    admissionController.release(lane, 0);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
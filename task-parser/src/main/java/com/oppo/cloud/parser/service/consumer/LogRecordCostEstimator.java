@@ -0,0 +1,170 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.parser.service.consumer;
+
+import com.oppo.cloud.common.constant.ProtocolType;
+import com.oppo.cloud.common.domain.cluster.hadoop.NameNodeConf;
+import com.oppo.cloud.common.domain.job.App;
+import com.oppo.cloud.common.domain.job.LogInfo;
+import com.oppo.cloud.common.domain.job.LogPath;
+import com.oppo.cloud.common.domain.job.LogRecord;
+import com.oppo.cloud.parser.config.CustomConfig;
+import com.oppo.cloud.parser.config.HadoopConfig;
+import com.oppo.cloud.parser.utils.HDFSUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.fs.FileSystem;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimate the heap cost of a logRecord from the hdfs lengths of its logs
+ */
+@Slf4j
+@Component
+public class LogRecordCostEstimator {
+
+    private static final int MAX_CACHE_SIZE = 100000;
+
+    @Resource
+    private CustomConfig config;
+
+    @Resource(name = HadoopConfig.NAME_NODE_MAP)
+    private Map<String, NameNodeConf> nameNodeMap;
+
+    /**
+     * cached length: <logPathType:logPath, length>
+     */
+    private final Map<String, CachedLength> lengthCache = new ConcurrentHashMap<>();
+
+    private final Map<NameNodeConf, FileSystem> fileSystems = new HashMap<>();
+
+    /**
+     * Estimated heap bytes needed to parse all logs of the logRecord
+     */
+    public long estimate(LogRecord logRecord) {
+        if (logRecord.getApps() == null) {
+            return 0;
+        }
+        long bytes = 0;
+        for (App app : logRecord.getApps()) {
+            if (app.getLogInfoList() == null) {
+                continue;
+            }
+            for (LogInfo logInfo : app.getLogInfoList()) {
+                if (logInfo.getLogPathMap() == null) {
+                    continue;
+                }
+                for (List<LogPath> logPaths : logInfo.getLogPathMap().values()) {
+                    for (LogPath logPath : logPaths) {
+                        bytes += getLength(logPath);
+                    }
+                }
+            }
+        }
+        return (long) (bytes * config.getAdmissionMemoryFactor());
+    }
+
+    private long getLength(LogPath logPath) {
+        if (!ProtocolType.HDFS.getName().equals(logPath.getProtocol()) || StringUtils.isBlank(logPath.getLogPath())
+                || logPath.getLogPathType() == null) {
+            return 0;
+        }
+        String key = logPath.getLogPathType() + ":" + logPath.getLogPath();
+        long now = System.currentTimeMillis();
+        CachedLength cached = lengthCache.get(key);
+        if (cached != null && cached.expireTime > now) {
+            return cached.length;
+        }
+        long length = 0;
+        NameNodeConf nameNode = HDFSUtil.getNameNode(nameNodeMap, logPath.getLogPath());
+        if (nameNode != null) {
+            FileSystem fs = null;
+            try {
+                fs = getFileSystem(nameNode);
+                length = HDFSUtil.getLength(fs, logPath.getLogPath(), logPath.getLogPathType());
+            } catch (FileNotFoundException e) {
+                // missing logs are cached as zero too, the parser reports them
+                log.warn("getLength failed, path:{}, err:{}", logPath.getLogPath(), e.getMessage());
+            } catch (Exception e) {
+                log.warn("getLength failed, path:{}, err:{}", logPath.getLogPath(), e.getMessage());
+                closeFileSystem(nameNode, fs);
+            }
+        }
+        if (lengthCache.size() >= MAX_CACHE_SIZE) {
+            lengthCache.values().removeIf(v -> v.expireTime <= now);
+            if (lengthCache.size() >= MAX_CACHE_SIZE) {
+                lengthCache.clear();
+            }
+        }
+        lengthCache.put(key, new CachedLength(length, now + config.getFileStatusCacheTtl() * 1000));
+        return length;
+    }
+
+    /**
+     * One FileSystem per NameNode for the length lookups, the cached FileSystems of HDFSUtil are disabled
+     */
+    private synchronized FileSystem getFileSystem(NameNodeConf nameNode) throws Exception {
+        FileSystem fs = fileSystems.get(nameNode);
+        if (fs == null) {
+            fs = HDFSUtil.getFileSystem(nameNode);
+            fileSystems.put(nameNode, fs);
+        }
+        return fs;
+    }
+
+    /**
+     * Drop a FileSystem which failed, the next lookup opens a new one
+     */
+    private synchronized void closeFileSystem(NameNodeConf nameNode, FileSystem fs) {
+        if (fs == null || !fileSystems.remove(nameNode, fs)) {
+            return;
+        }
+        try {
+            fs.close();
+        } catch (IOException e) {
+            log.warn("failed to close FileSystem: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        for (Map.Entry<NameNodeConf, FileSystem> entry : new HashMap<>(fileSystems).entrySet()) {
+            closeFileSystem(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static class CachedLength {
+
+        private final long length;
+
+        private final long expireTime;
+
+        CachedLength(long length, long expireTime) {
+            this.length = length;
+            this.expireTime = expireTime;
+        }
+    }
+}
@@ -16,10 +16,10 @@
 
 package com.oppo.cloud.parser.service.consumer;
 
-import com.alibaba.fastjson2.JSONObject;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.oppo.cloud.common.domain.job.LogRecord;
 import com.oppo.cloud.common.service.RedisService;
+import com.oppo.cloud.common.util.LogRecordCodec;
 import com.oppo.cloud.parser.config.CustomConfig;
 import com.oppo.cloud.parser.config.ThreadPoolConfig;
 import com.oppo.cloud.parser.service.job.JobManager;
@@ -31,11 +31,12 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.script.RedisScript;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Semaphore;
 
 /**
  * consume redis list data
@@ -45,6 +46,8 @@ import java.util.concurrent.Semaphore;
 @ConditionalOnProperty(prefix = "custom.redisConsumer", name = "enable", havingValue = "true")
 public class RedisConsumer implements CommandLineRunner {
 
+    private static final long REQUEUE_BACKOFF_MS = 1000;
+
     @Resource
     private CustomConfig config;
 
@@ -63,6 +66,20 @@ public class RedisConsumer implements CommandLineRunner {
     @Resource(name = ThreadPoolConfig.REDIS_CONSUMER_THREAD_POOL)
     private Executor redisConsumerExecutorPool;
 
+    @Resource(name = ThreadPoolConfig.LARGE_RECORD_THREAD_POOL)
+    private Executor largeRecordExecutorPool;
+
+    @Resource
+    private LogRecordCostEstimator costEstimator;
+
+    @Resource
+    private AdmissionController admissionController;
+
+    @Resource(name = ThreadPoolConfig.ADMISSION_THREAD_POOL)
+    private Executor admissionExecutorPool;
+
+    private volatile AdmissionDispatcher dispatcher;
+
     @PostConstruct
     void init() {
         // Reload interrupted task
@@ -74,43 +91,104 @@ public class RedisConsumer implements CommandLineRunner {
         }
         if (processingMap != null) {
             log.info("initProcessingJobSize:{}", processingMap.size());
-            processingMap.forEach((k, v) -> {
-                log.info("initProcessingJobData,id:{},pushLogRecord:{}", k, v);
-                redisService.lRightPush(config.getLogRecordList(), v);
-                redisService.hDel(config.getProcessingHash(), k);
-            });
+            if (processingMap.isEmpty()) {
+                return;
+            }
+            processingMap.forEach((k, v) -> log.info("initProcessingJobData,id:{},pushLogRecord:{}", k, v));
+            // the records stay in the processing hash when they could not be re-queued
+            if (redisService.lRightPushAll(config.getLogRecordList(), processingMap.values()) == null) {
+                log.error("failed to re-queue {} interrupted records", processingMap.size());
+                return;
+            }
+            redisService.hDel(config.getProcessingHash(), processingMap.keySet().toArray());
         }
     }
 
     @Override
     public void run(String... args) throws Exception {
-        log.info("maxThreadPoolSize:{}", config.getMaxThreadPoolSize());
-        Semaphore semaphore = new Semaphore(config.getMaxThreadPoolSize());
+        log.info("maxThreadPoolSize:{}, largeLaneConcurrency:{}", config.getMaxThreadPoolSize(),
+                config.getLargeLaneConcurrency());
+        dispatcher = new AdmissionDispatcher(admissionController, redisConsumerExecutorPool, largeRecordExecutorPool,
+                config.getMaxThreadPoolSize(), config.getLargeLaneConcurrency());
+        dispatcher.start();
         while (true) {
+            boolean handedOff = false;
             try {
+                dispatcher.acquireIntake();
                 String msg = (String) redisService.executeScript(logRecordConsumerScript,
                         Arrays.asList(config.getLogRecordList(), config.getProcessingHash()));
                 if (msg == null) {
+                    dispatcher.releaseIntake();
+                    handedOff = true;
                     Thread.sleep(5000);
                     continue;
                 }
                 log.info("consumeLogRecord:{}", msg);
-                semaphore.acquire();
-                LogRecord logRecord = JSONObject.parseObject(msg, LogRecord.class);
-                redisConsumerExecutorPool.execute(() -> consume(logRecord, semaphore));
+                LogRecord logRecord = LogRecordCodec.decode(msg);
+                // hdfs lengths are looked up off the consumer loop, a slow estimate does not hold the next records
+                admissionExecutorPool.execute(() -> admit(msg, logRecord));
+                handedOff = true;
             } catch (Exception e) {
                 log.error("Exception:", e);
+            } finally {
+                if (!handedOff) {
+                    dispatcher.releaseIntake();
+                }
             }
         }
     }
 
-    private void consume(LogRecord logRecord, Semaphore semaphore) {
+    @PreDestroy
+    void stop() {
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+    }
+
+    /**
+     * Estimate the cost of a logRecord and queue it on its lane. A large logRecord finding its lane full is given
+     * back to the list, so that it is taken later or by another parser without holding the normal lane
+     */
+    private void admit(String msg, LogRecord logRecord) {
+        AdmissionController.Lane lane = AdmissionController.Lane.NORMAL;
+        long cost = 0;
+        try {
+            cost = costEstimator.estimate(logRecord);
+            lane = admissionController.route(cost);
+            long admittedCost = cost;
+            AdmissionController.Lane admittedLane = lane;
+            Runnable task = () -> consume(logRecord, admittedLane, admittedCost);
+            if (dispatcher.offer(lane, task)) {
+                log.info("admitLogRecord:{}, lane:{}, cost:{}", logRecord.getId(), lane, cost);
+                return;
+            }
+            if (redisService.lRightPushAll(config.getLogRecordList(), Collections.singletonList(msg)) == null) {
+                // keep it rather than leaving it in the processing hash until the next start
+                dispatcher.put(lane, task);
+                log.info("admitLogRecord:{}, lane:{}, cost:{}", logRecord.getId(), lane, cost);
+                return;
+            }
+            redisService.hDel(config.getProcessingHash(), logRecord.getId());
+            log.info("requeueLogRecord:{}, lane:{}, cost:{}", logRecord.getId(), lane, cost);
+            // the permit is held a while, so that a list of large logRecords is not popped in a loop
+            Thread.sleep(REQUEUE_BACKOFF_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("failed to admit logRecord:{}, lane:{}, cost:{}", logRecord.getId(), lane, cost, e);
+        }
+        dispatcher.releaseIntake();
+    }
+
+    private void consume(LogRecord logRecord, AdmissionController.Lane lane, long cost) {
+        long granted = 0;
         try {
+            granted = admissionController.acquireMemory(cost);
             jobManager.run(logRecord);
         } catch (Exception e) {
             log.error("Exception:", e);
-        }finally {
-            semaphore.release();
+        } finally {
+            admissionController.release(lane, granted);
             long size = redisService.hDel(config.getProcessingHash(), logRecord.getId());
             if (size == 0) {
                 log.error("delete redis cache err:{}", logRecord);
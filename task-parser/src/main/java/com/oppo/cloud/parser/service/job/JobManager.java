@@ -108,26 +108,30 @@ public class JobManager {
 
         long start = System.currentTimeMillis();
 
-        List<CompletableFuture<TaskResult>> futures = createFutures(tasks, jobExecutorPool);
+        try {
+            List<CompletableFuture<TaskResult>> futures = createFutures(tasks, jobExecutorPool);
 
-        List<TaskResult> taskResults = new ArrayList<>();
+            List<TaskResult> taskResults = new ArrayList<>();
 
-        for (Future<TaskResult> result : futures) {
-            TaskResult taskResult;
-            try {
-                taskResult = result.get();
-                if (taskResult != null) {
-                    taskResults.add(taskResult);
+            for (Future<TaskResult> result : futures) {
+                TaskResult taskResult;
+                try {
+                    taskResult = result.get();
+                    if (taskResult != null) {
+                        taskResults.add(taskResult);
+                    }
+                } catch (Exception e) {
+                    log.error("Exception:", e);
                 }
+            }
+
+            try {
+                OpenSearchWriter.getInstance().saveTaskResults(logRecord, taskResults);
             } catch (Exception e) {
                 log.error("Exception:", e);
             }
-        }
-
-        try {
-            OpenSearchWriter.getInstance().saveTaskResults(logRecord, taskResults);
-        } catch (Exception e) {
-            log.error("Exception:", e);
+        } finally {
+            OpenSearchWriter.getInstance().discardPendingWrites(logRecord.getId());
         }
 
         long end = System.currentTimeMillis();
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.parser.service.job.oneclick;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.oppo.cloud.common.constant.ProgressState;
+import com.oppo.cloud.common.domain.oneclick.OneClickProgress;
+import com.oppo.cloud.common.service.RedisService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesce one click progress per appId and logType, the redis key is written at most once per flush interval
+ * except on state transitions, which are written immediately.
+ */
+@Slf4j
+@Component
+public class ProgressCoalescer {
+
+    /**
+     * finished keys are evicted after this time(ms)
+     */
+    private static final long EXPIRE_TIME = 10 * 60 * 1000L;
+
+    private static final long STATS_INTERVAL = 60 * 1000L;
+
+    @Value("${custom.oneClick.progressFlushInterval:500}")
+    private long flushInterval;
+
+    @Resource
+    private RedisService redisService;
+
+    /**
+     * progress slot: <appId:logType, slot>
+     */
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+    private final AtomicLong received = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private long lastStatsTime = System.currentTimeMillis();
+
+    public void submit(OneClickProgress oneClickProgress) {
+        received.incrementAndGet();
+        String key = String.format("%s:%s", oneClickProgress.getAppId(), oneClickProgress.getLogType().getName());
+        Slot slot = slots.computeIfAbsent(key, k -> new Slot());
+        synchronized (slot) {
+            slot.pending = merge(slot.pending, oneClickProgress);
+            long now = System.currentTimeMillis();
+            if (slot.pending.getProgressInfo().getState() != slot.writtenState
+                    || now - slot.lastWriteTime >= flushInterval) {
+                write(key, slot, now);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${custom.oneClick.progressFlushInterval:500}")
+    public void flush() {
+        long now = System.currentTimeMillis();
+        slots.forEach((key, slot) -> {
+            synchronized (slot) {
+                if (slot.pending != null) {
+                    write(key, slot, now);
+                } else if (slot.writtenState != ProgressState.PROCESSING && now - slot.lastWriteTime > EXPIRE_TIME) {
+                    slots.remove(key);
+                }
+            }
+        });
+        if (now - lastStatsTime >= STATS_INTERVAL) {
+            lastStatsTime = now;
+            log.info("progress updates received:{}, redis writes:{}", received.get(), written.get());
+        }
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Concurrent updates of the same key merge into one state: the latest state wins,
+     * and the progress of the same count never goes backwards.
+     */
+    private OneClickProgress merge(OneClickProgress prev, OneClickProgress next) {
+        if (prev == null) {
+            return next;
+        }
+        if (prev.getProgressInfo().getState() == ProgressState.PROCESSING
+                && next.getProgressInfo().getState() == ProgressState.PROCESSING
+                && Objects.equals(prev.getProgressInfo().getCount(), next.getProgressInfo().getCount())
+                && prev.getProgressInfo().getProgress() != null && next.getProgressInfo().getProgress() != null
+                && prev.getProgressInfo().getProgress() > next.getProgressInfo().getProgress()) {
+            return prev;
+        }
+        return next;
+    }
+
+    private void write(String key, Slot slot, long now) {
+        try {
+            write(key, JSONObject.toJSONString(slot.pending));
+            written.incrementAndGet();
+        } catch (Exception e) {
+            log.error("Exception:", e);
+        }
+        slot.writtenState = slot.pending.getProgressInfo().getState();
+        slot.lastWriteTime = now;
+        slot.pending = null;
+    }
+
+    protected void write(String key, String value) {
+        redisService.set(key, value);
+    }
+
+    private static class Slot {
+
+        private OneClickProgress pending;
+
+        private ProgressState writtenState;
+
+        private long lastWriteTime;
+    }
+}
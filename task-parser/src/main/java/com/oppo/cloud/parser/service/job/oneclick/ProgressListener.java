@@ -16,9 +16,7 @@
 
 package com.oppo.cloud.parser.service.job.oneclick;
 
-import com.alibaba.fastjson2.JSONObject;
 import com.oppo.cloud.common.domain.oneclick.OneClickProgress;
-import com.oppo.cloud.common.service.RedisService;
 import com.oppo.cloud.common.util.spring.SpringBeanUtil;
 import lombok.extern.slf4j.Slf4j;
 
@@ -28,21 +26,16 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class ProgressListener implements IProgressListener {
 
-    private final RedisService redisService;
+    private final ProgressCoalescer progressCoalescer;
 
     public ProgressListener() {
 
-        redisService = (RedisService) SpringBeanUtil.getBean(RedisService.class);
+        progressCoalescer = (ProgressCoalescer) SpringBeanUtil.getBean(ProgressCoalescer.class);
     }
 
     @Override
     public void update(OneClickProgress oneClickProgress) {
-        log.info("progressListener:{},{}", oneClickProgress.getLogType(), oneClickProgress);
-        String key = String.format("%s:%s", oneClickProgress.getAppId(), oneClickProgress.getLogType().getName());
-        try {
-            redisService.set(key, JSONObject.toJSONString(oneClickProgress));
-        } catch (Exception e) {
-            log.error("Exception:", e);
-        }
+        log.debug("progressListener:{},{}", oneClickProgress.getLogType(), oneClickProgress);
+        progressCoalescer.submit(oneClickProgress);
     }
 }
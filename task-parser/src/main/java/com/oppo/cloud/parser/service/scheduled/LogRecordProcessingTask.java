@@ -16,10 +16,10 @@
 
 package com.oppo.cloud.parser.service.scheduled;
 
-import com.alibaba.fastjson2.JSONObject;
 import com.oppo.cloud.common.constant.Constant;
 import com.oppo.cloud.common.domain.job.LogRecord;
 import com.oppo.cloud.common.service.RedisService;
+import com.oppo.cloud.common.util.LogRecordCodec;
 import com.oppo.cloud.parser.config.CustomConfig;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -69,7 +69,7 @@ public class LogRecordProcessingTask {
         }
         log.info("processingJob size:{}", size);
         map.forEach((key, val) -> {
-            LogRecord logRecord = JSONObject.parseObject((String) val, LogRecord.class);
+            LogRecord logRecord = LogRecordCodec.decode((String) val);
             long spendTime = System.currentTimeMillis() - logRecord.getCreateTime();
             long limitTimesMs = limitTime * Constant.HOUR_MS;
             if (spendTime > limitTimesMs && logRecord.getConsumeCount() > limitCount) {
@@ -18,7 +18,6 @@ package com.oppo.cloud.parser.service.writer;
 
 import com.alibaba.fastjson2.JSON;
 import com.oppo.cloud.common.domain.LogMessage;
-import com.oppo.cloud.common.domain.opensearch.OpenSearchInfo;
 import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
 import com.oppo.cloud.common.domain.opensearch.LogSummary;
 import com.oppo.cloud.common.domain.opensearch.TaskApp;
@@ -27,9 +26,14 @@ import com.oppo.cloud.common.domain.gc.ExecutorPeakMemory;
 import com.oppo.cloud.common.domain.gc.GCReport;
 import com.oppo.cloud.common.domain.job.LogRecord;
 import com.oppo.cloud.common.util.DateUtil;
+import com.oppo.cloud.common.util.opensearch.AsyncBulkProcessor;
 import com.oppo.cloud.common.util.opensearch.BulkApi;
+import com.oppo.cloud.common.util.opensearch.BulkSpool;
+import com.oppo.cloud.common.util.opensearch.IndexRouter;
+import com.oppo.cloud.common.util.opensearch.PartialUpsert;
 import com.oppo.cloud.common.util.opensearch.UpdateApi;
 import com.oppo.cloud.common.util.spring.SpringBeanUtil;
+import com.oppo.cloud.common.util.textparser.LogFingerprint;
 import com.oppo.cloud.common.util.textparser.ParserAction;
 import com.oppo.cloud.common.util.textparser.ParserActionUtil;
 import com.oppo.cloud.common.util.textparser.ParserResult;
@@ -41,18 +45,19 @@ import com.oppo.cloud.parser.domain.job.TaskResult;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.opensearch.action.bulk.BulkItemResponse;
-import org.opensearch.action.bulk.BulkResponse;
-import org.opensearch.action.search.SearchRequest;
-import org.opensearch.action.search.SearchResponse;
+import org.opensearch.action.support.WriteRequest;
+import org.opensearch.action.update.UpdateRequest;
 import org.opensearch.action.update.UpdateResponse;
 import org.opensearch.client.RequestOptions;
 import org.opensearch.client.RestHighLevelClient;
-import org.opensearch.index.query.BoolQueryBuilder;
-import org.opensearch.index.query.QueryBuilders;
-import org.opensearch.search.SearchHit;
-import org.opensearch.search.builder.SearchSourceBuilder;
+import org.opensearch.common.xcontent.XContentType;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * OpenSearch writer
@@ -60,6 +65,11 @@ import java.util.*;
 @Slf4j
 public class OpenSearchWriter implements IParserResultWriter {
 
+    /**
+     * Executors and log paths kept per log summary fingerprint
+     */
+    private static final int SAMPLE_SIZE = 5;
+
     public RestHighLevelClient client;
 
     public String logSummaryPrefix;
@@ -74,14 +84,31 @@ public class OpenSearchWriter implements IParserResultWriter {
 
     public KafkaConfig kafkaConfig;
 
+    public AsyncBulkProcessor bulkProcessor;
+
+    public IndexRouter indexRouter;
+
+    public BulkSpool bulkSpool;
+
+    private final long bulkAwaitTimeout;
+
+    /**
+     * Log summary writes not yet confirmed, keyed by log record id
+     */
+    private final Map<String, List<CompletableFuture<BulkItemResponse>>> pendingWrites = new ConcurrentHashMap<>();
+
     private OpenSearchWriter() {
         client = (RestHighLevelClient) SpringBeanUtil.getBean(OpenSearchConfig.SEARCH_CLIENT);
+        bulkProcessor = (AsyncBulkProcessor) SpringBeanUtil.getBean(OpenSearchConfig.BULK_PROCESSOR);
+        indexRouter = (IndexRouter) SpringBeanUtil.getBean(OpenSearchConfig.INDEX_ROUTER);
+        bulkSpool = (BulkSpool) SpringBeanUtil.getBean(OpenSearchConfig.BULK_SPOOL);
         CustomConfig yml = (CustomConfig) SpringBeanUtil.getBean(CustomConfig.class);
         logSummaryPrefix = yml.getLogSummaryPrefix();
         detectorPrefix = yml.getDetectorPrefix();
         gcPrefix = yml.getGcPrefix();
         jobPrefix = yml.getJobPrefix();
         taskAppPrefix = yml.getTaskAppPrefix();
+        bulkAwaitTimeout = yml.getBulkAwaitTimeout();
         kafkaConfig = (KafkaConfig) SpringBeanUtil.getBean(KafkaConfig.class);
     }
 
@@ -90,17 +117,20 @@ public class OpenSearchWriter implements IParserResultWriter {
     }
 
     /**
-     * Write matching results to OpenSearch
+     * Write matching results to OpenSearch, one document per application and fingerprint of the matched
+     * block holding the occurrence count and a sample of the executors and log paths it was found in
      */
     @Override
     public void write(String logType, String logPath, ParserParam param, ParserAction parserAction) {
         if (parserAction.getParserResults() == null) {
             return;
         }
-        String index = logSummaryPrefix + DateUtil.formatToDay(param.getLogRecord().getJobAnalysis().getExecutionDate());
+        JobAnalysis jobAnalysis = param.getLogRecord().getJobAnalysis();
+        String index = logSummaryPrefix + DateUtil.formatToDay(jobAnalysis.getExecutionDate());
 
-        List<String> logMessages = new ArrayList<>();
-        List<Map<String, Object>> docs = new ArrayList<>();
+        // first occurrence and count of each fingerprint in this log
+        Map<String, Map<String, Object>> docs = new LinkedHashMap<>();
+        Map<String, Long> counts = new HashMap<>();
         for (ParserResult parserResult : parserAction.getParserResults()) {
             Map<String, Object> logSummary;
             try {
@@ -109,34 +139,59 @@ public class OpenSearchWriter implements IParserResultWriter {
                 log.error("logSummaryGetDoc:{},{}", logPath, e);
                 continue;
             }
-            docs.add(logSummary);
-            if (parserAction.getAction().toUpperCase().contains("OTHER")) {
-                logMessages.add(JSON.toJSONString(new LogMessage((String) logSummary.get("docId"), index, logType, (String) logSummary.get("rawLog"))));
-            }
+            String fingerprint = LogFingerprint.fingerprint(parserAction.getAction(), (String) logSummary.get("rawLog"));
+            docs.putIfAbsent(fingerprint, logSummary);
+            counts.merge(fingerprint, 1L, Long::sum);
+        }
+        if (docs.isEmpty()) {
+            return;
         }
 
-        if (docs.size() > 0) {
-            BulkResponse response;
-            try {
-                response = BulkApi.bulk(client, index, docs);
-            } catch (Exception e) {
-                log.error("writeLogSummaryErr:{},{}", logPath, e);
-                return;
-            }
-            BulkItemResponse[] responses = response.getItems();
-
-            for (BulkItemResponse r : responses) {
-                if (r.isFailed()) {
-                    log.info("writeLogSummaryErr:{},{}", logPath, r.getFailure().getCause());
-                }
+        indexRouter.record(logSummaryPrefix, JobAnalysis.genDocId(jobAnalysis.getProjectName(),
+                jobAnalysis.getFlowName(), jobAnalysis.getTaskName(), jobAnalysis.getExecutionDate()), index);
+        List<String> logMessages = new ArrayList<>();
+        List<CompletableFuture<BulkItemResponse>> futures = new ArrayList<>();
+        String executor = LogFingerprint.containerId(logPath);
+        String owner = logOwner(param);
+        for (Map.Entry<String, Map<String, Object>> entry : docs.entrySet()) {
+            Map<String, Object> doc = entry.getValue();
+            String id = LogFingerprint.docId(owner, logType, entry.getKey());
+            doc.remove("docId");
+            doc.put("fingerprint", entry.getKey());
+            PartialUpsert upsert = new PartialUpsert()
+                    .setAllOnInsert(doc)
+                    .increment("count", counts.get(entry.getKey()))
+                    .union("executors", Collections.singletonList(executor), SAMPLE_SIZE)
+                    .union("logPaths", Collections.singletonList(logPath), SAMPLE_SIZE);
+            futures.add(bulkProcessor.add(UpdateApi.scriptedUpsertRequest(index, id, upsert)));
+            if (parserAction.getAction().toUpperCase().contains("OTHER")) {
+                logMessages.add(JSON.toJSONString(new LogMessage(id, index, logType, (String) doc.get("rawLog"))));
             }
-            log.info("writeLogSummaryCount:{},{},{},{}", logType, logPath, parserAction.getAction(), docs.size());
         }
+        logFailures(futures, "writeLogSummaryErr", logPath);
+        pendingWrites.computeIfAbsent(param.getLogRecord().getId(),
+                k -> Collections.synchronizedList(new ArrayList<>())).addAll(futures);
+        log.info("writeLogSummaryCount:{},{},{},{},{}", logType, logPath, parserAction.getAction(),
+                parserAction.getParserResults().size(), docs.size());
 
         sendOtherErrorLogToGPT(logMessages);
 
     }
 
+    /**
+     * Key of the log owner in log summary ids: the application, or the task run for scheduler logs
+     * which have no application
+     */
+    private static String logOwner(ParserParam param) {
+        if (StringUtils.isNotBlank(param.getApp().getAppId())) {
+            return param.getApp().getAppId();
+        }
+        JobAnalysis jobAnalysis = param.getLogRecord().getJobAnalysis();
+        return String.join("|", jobAnalysis.getProjectName(), jobAnalysis.getFlowName(), jobAnalysis.getTaskName(),
+                String.valueOf(jobAnalysis.getExecutionDate() == null ? null : jobAnalysis.getExecutionDate().getTime()),
+                String.valueOf(param.getApp().getTryNumber()));
+    }
+
     /**
      * Send other error log to GPT
      */
@@ -194,105 +249,72 @@ public class OpenSearchWriter implements IParserResultWriter {
 
     public void saveDetectorStorage(DetectorStorage detectionStorage) {
         String index = detectorPrefix + DateUtil.formatToDay(detectionStorage.getExecutionTime());
-        UpdateApi api = new UpdateApi();
+        String json = JSON.toJSONString(detectionStorage);
+        UpdateRequest request = new UpdateRequest(index, detectionStorage.getApplicationId())
+                .doc(json, XContentType.JSON).upsert(json, XContentType.JSON);
+        indexRouter.record(detectorPrefix, detectionStorage.getApplicationId(), index);
         try {
-            UpdateResponse resp = api.upsertJson(client, index, detectionStorage.getApplicationId(), JSON.toJSONString(detectionStorage));
+            UpdateResponse resp;
+            try {
+                request.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+                resp = client.update(request, RequestOptions.DEFAULT);
+            } catch (Exception e) {
+                spool(Collections.singletonList(request), e);
+                throw e;
+            }
             log.info("saveDetectorStorage:{},{}", detectionStorage.getApplicationId(), resp);
+        } catch (BulkSpool.SpooledException e) {
+            log.warn("saveDetectorStorageSpooled:{},{}", detectionStorage.getApplicationId(), e.getMessage());
         } catch (Exception e) {
             log.info("saveDetectorStorageErr:{},{}", detectionStorage.getApplicationId(), e);
         }
     }
 
     /**
-     * Update job categories information
+     * Update job categories information, merging categories on the server side
      */
     public void updateJob(JobAnalysis jobAnalysis, Map<String, Boolean> categoryMap) throws Exception {
         if (jobAnalysis == null || jobAnalysis.getTaskName() == null) {
             return;
         }
-        UpdateApi api = new UpdateApi();
         String index = jobPrefix + DateUtil.formatToDay(jobAnalysis.getExecutionDate());
-        BoolQueryBuilder boolQueryBuilder = new BoolQueryBuilder();
-        boolQueryBuilder.filter(QueryBuilders.termQuery("projectName.keyword", jobAnalysis.getProjectName()));
-        boolQueryBuilder.filter(QueryBuilders.termQuery("flowName.keyword", jobAnalysis.getFlowName()));
-        boolQueryBuilder.filter(QueryBuilders.termQuery("taskName.keyword", jobAnalysis.getTaskName()));
-        boolQueryBuilder.filter(QueryBuilders.termQuery("executionDate",
-                DateUtil.timestampToUTCDate(jobAnalysis.getExecutionDate().getTime())));
-
-        JobAnalysis jobAnalysisResult = search(JobAnalysis.class, index, boolQueryBuilder);
-
-        String id;
-        List<String> existedCategories = null;
-        if (jobAnalysisResult == null || jobAnalysisResult.getDocId() == null) {
-            id = UUID.randomUUID().toString();
-            jobAnalysis.setCreateTime(new Date());
-            jobAnalysis.setUpdateTime(new Date());
-        } else {
-            id = jobAnalysisResult.getDocId();
-            if (jobAnalysisResult.getCategories() != null && jobAnalysisResult.getCategories().size() > 0) {
-                existedCategories = jobAnalysisResult.getCategories();
-            }
-            jobAnalysis.setDocId(id);
-        }
-
-        if (existedCategories == null) {
-            existedCategories = new ArrayList<>(categoryMap.keySet());
-        } else {
-            updateCategories(existedCategories, categoryMap);
-        }
-        jobAnalysis.setCategories(existedCategories);
-        String data = JSON.toJSONString(jobAnalysis.genDoc());
-        log.debug("updateJob:{},{}", id, data);
-        api.upsertJson(client, index, id, data);
-
-    }
-
-    private void updateCategories(List<String> list, Map<String, Boolean> categoryMap) {
-        list.forEach(categoryMap::remove);
-        if (categoryMap.size() > 0) {
-            categoryMap.forEach((k, v) -> list.add(k));
-        }
+        String id = jobAnalysis.genDocId();
+        jobAnalysis.setCreateTime(new Date());
+        jobAnalysis.setUpdateTime(new Date());
+        Map<String, Object> doc = jobAnalysis.genDoc();
+        doc.remove("categories");
+        PartialUpsert upsert = new PartialUpsert()
+                .setOnInsert("createTime", doc.remove("createTime"))
+                .setAll(doc)
+                .union("categories", categoryMap.keySet());
+        log.debug("updateJob:{},{}", id, doc);
+        upsert(index, id, upsert);
     }
 
     /**
-     * Update task-app categories information
+     * Update task-app categories information, merging categories on the server side
      */
     public void updateTaskApp(TaskApp taskApp, Map<String, Boolean> categoryMap) throws Exception {
         String index = taskAppPrefix + DateUtil.formatToDay(taskApp.getExecutionDate());
-        BoolQueryBuilder boolQueryBuilder = new BoolQueryBuilder();
-        boolQueryBuilder.filter(QueryBuilders.termQuery("applicationId.keyword", taskApp.getApplicationId()));
-
-        TaskApp taskAppResult = search(TaskApp.class, index, boolQueryBuilder);
-
-        String id;
-        List<String> existedCategories = null;
-        if (taskAppResult == null || taskAppResult.getDocId() == null) {
-            id = UUID.randomUUID().toString();
-            taskApp.setCreateTime(new Date());
-
-        } else {
-            id = taskAppResult.getDocId();
-            if (taskAppResult.getCategories() != null && taskAppResult.getCategories().size() > 0) {
-                existedCategories = taskAppResult.getCategories();
-            }
-        }
-
-        if (existedCategories == null) {
-            existedCategories = new ArrayList<>(categoryMap.keySet());
-        } else {
-            updateCategories(existedCategories, categoryMap);
-        }
-
-        if (existedCategories.size() > 0) {
+        String id = taskApp.genDocId();
+        if (categoryMap.size() > 0) {
             taskApp.setDiagnoseResult("abnormal");
         }
+        taskApp.setCreateTime(new Date());
         taskApp.setUpdateTime(new Date());
-        taskApp.setCategories(existedCategories);
-        UpdateApi api = new UpdateApi();
-        String data = JSON.toJSONString(taskApp.genDoc());
-        log.debug("updateTaskApp:{},{}", id, data);
-        api.upsertJson(client, index, id, data);
-
+        Map<String, Object> doc = taskApp.genDoc();
+        doc.remove("categories");
+        PartialUpsert upsert = new PartialUpsert()
+                .setOnInsert("createTime", doc.remove("createTime"));
+        if (categoryMap.isEmpty()) {
+            // keep the diagnose result of categories found earlier
+            upsert.setOnInsert("diagnoseResult", doc.remove("diagnoseResult"));
+        }
+        upsert.setAll(doc).union("categories", categoryMap.keySet());
+        log.debug("updateTaskApp:{},{}", id, doc);
+        indexRouter.record(taskAppPrefix, JobAnalysis.genDocId(taskApp.getProjectName(), taskApp.getFlowName(),
+                taskApp.getTaskName(), taskApp.getExecutionDate()), index);
+        upsert(index, id, upsert);
     }
 
     public void saveGCReports(List<GCReport> gcReports, Date executionTime, String appId) {
@@ -303,20 +325,7 @@ public class OpenSearchWriter implements IParserResultWriter {
         }
         String index = gcPrefix + DateUtil.formatToDay(executionTime);
 
-        BulkResponse response;
-        try {
-            response = BulkApi.bulkJson(client, index, gcReportDocs);
-        } catch (Exception e) {
-            log.error("saveGCReportsErr:{},{}", appId, e);
-            return;
-        }
-        BulkItemResponse[] responses = response.getItems();
-
-        for (BulkItemResponse r : responses) {
-            if (r.isFailed()) {
-                log.info("saveGCReportsErr:{},{}", appId, r.getFailure().getCause());
-            }
-        }
+        logFailures(BulkApi.bulkJson(bulkProcessor, index, gcReportDocs), "saveGCReportsErr", appId);
 
         // save executor peak memory
         List<ExecutorPeakMemory> executorPeakList = new ArrayList<>();
@@ -332,51 +341,73 @@ public class OpenSearchWriter implements IParserResultWriter {
 
         gcReportPeakDocs.add(JSON.toJSONString(m));
 
-        BulkResponse gcPeakMemResponse;
+        logFailures(BulkApi.bulkJson(bulkProcessor, index, gcReportPeakDocs), "saveGCReportsErr", appId);
+        log.info("saveGCReports:{}", appId);
+
+    }
+
+    private void upsert(String index, String id, PartialUpsert upsert) throws Exception {
         try {
-            gcPeakMemResponse = BulkApi.bulkJson(client, index, gcReportPeakDocs);
+            UpdateApi.scriptedUpsert(client, index, id, upsert);
         } catch (Exception e) {
-            log.error("saveGCReportsErr:{},{}", appId, e);
-            return;
+            spool(Collections.singletonList(UpdateApi.scriptedUpsertRequest(index, id, upsert)), e);
+            throw e;
         }
-        BulkItemResponse[] gcPeakMemResponses = gcPeakMemResponse.getItems();
+    }
 
-        for (BulkItemResponse r : gcPeakMemResponses) {
-            if (r.isFailed()) {
-                log.info("saveGCReportsErr:{},{}", appId, r.getFailure().getCause());
-            }
+    /**
+     * Keep the write in the local spool when the cluster is unavailable, it is replayed after recovery.
+     */
+    private void spool(List<UpdateRequest> requests, Exception e) throws Exception {
+        if (BulkSpool.isOutage(e) && bulkSpool.append(requests)) {
+            throw new BulkSpool.SpooledException(requests.size(), e);
         }
-        log.info("saveGCReports:{}", appId);
-
     }
 
-    private <T extends OpenSearchInfo> T search(Class<T> itemType, String index, BoolQueryBuilder boolQueryBuilder) throws Exception {
-        SearchRequest searchRequest = new SearchRequest();
-        searchRequest.indices(index);
-        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-        searchSourceBuilder.query(boolQueryBuilder);
-        searchRequest.source(searchSourceBuilder);
-        log.info("es index:{}, search condition:{}", searchRequest.indices(), searchSourceBuilder.toString());
-
-        SearchResponse searchResponse = null;
-        try {
-            searchResponse = client.search(searchRequest, RequestOptions.DEFAULT);
-        } catch (Exception e) {
-            log.warn("Exception:{}", e.getMessage());
+    private void logFailures(List<CompletableFuture<BulkItemResponse>> futures, String tag, String key) {
+        for (CompletableFuture<BulkItemResponse> future : futures) {
+            future.whenComplete((r, e) -> {
+                if (e != null) {
+                    log.info("{}:{},{}", tag, key, e.getMessage());
+                } else if (r.isFailed()) {
+                    log.info("{}:{},{}", tag, key, r.getFailure().getCause());
+                }
+            });
         }
+    }
 
-        T t = null;
-        if (searchResponse != null) {
-            for (SearchHit hit : searchResponse.getHits()) {
-                t = JSON.parseObject(hit.getSourceAsString(), itemType);
-                t.setDocId(hit.getId());
-            }
+    /**
+     * Wait for the log summaries of a log record to be acknowledged
+     */
+    private void awaitPendingWrites(String logRecordId) {
+        List<CompletableFuture<BulkItemResponse>> futures = pendingWrites.remove(logRecordId);
+        if (futures == null || futures.isEmpty()) {
+            return;
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(bulkAwaitTimeout, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            // failed documents are counted below
+        } catch (TimeoutException e) {
+            log.warn("awaitPendingWritesTimeout:{},{}", logRecordId, futures.size());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
         }
+        long failed = futures.stream().filter(f -> f.isCompletedExceptionally() || f.join().isFailed()).count();
+        log.info("awaitPendingWrites:{},{},{}", logRecordId, futures.size(), failed);
+    }
 
-        return t;
+    /**
+     * Forget the log summary writes of a finished log record, whether or not they were awaited
+     */
+    public void discardPendingWrites(String logRecordId) {
+        pendingWrites.remove(logRecordId);
     }
 
     public void saveTaskResults(LogRecord logRecord, List<TaskResult> taskResults) throws Exception {
+        awaitPendingWrites(logRecord.getId());
 
         Map<String, Boolean> jobCategoryMap = new HashMap<>();
         Map<String, List<String>> appCategoryMap = new HashMap<>();
@@ -416,12 +447,13 @@ public class OpenSearchWriter implements IParserResultWriter {
             categories.forEach(data -> appCategories.put(data, true));
             // update task-app categories
             log.info("updateTaskApp:{},{}", logRecord.getId(), appCategories);
-            if (!appCategories.isEmpty()) {
-                OpenSearchWriter.getInstance().updateTaskApp(taskApp, appCategories);
+            if (appCategories.isEmpty() && !logRecord.getIsOneClick()) {
                 continue;
             }
-            if (logRecord.getIsOneClick()) {
+            try {
                 OpenSearchWriter.getInstance().updateTaskApp(taskApp, appCategories);
+            } catch (BulkSpool.SpooledException e) {
+                log.warn("updateTaskAppSpooled:{},{}", item.getKey(), e.getMessage());
             }
         }
     }
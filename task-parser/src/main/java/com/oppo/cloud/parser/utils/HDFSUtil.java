@@ -17,6 +17,7 @@
 package com.oppo.cloud.parser.utils;
 
 import com.oppo.cloud.common.constant.Constant;
+import com.oppo.cloud.common.constant.LogPathType;
 import com.oppo.cloud.common.domain.cluster.hadoop.NameNodeConf;
 import com.oppo.cloud.parser.domain.reader.ReaderObject;
 import lombok.extern.slf4j.Slf4j;
@@ -51,7 +52,10 @@ public class HDFSUtil {
         return null;
     }
 
-     private static FileSystem getFileSystem(NameNodeConf nameNodeConf) throws Exception {
+    /**
+     * New FileSystem of the NameNode, closed by the caller
+     */
+    public static FileSystem getFileSystem(NameNodeConf nameNodeConf) throws Exception {
         Configuration conf = new Configuration(false);
         conf.setBoolean("fs.hdfs.impl.disable.cache", true);
 
@@ -172,4 +176,39 @@ public class HDFSUtil {
         return result;
     }
 
+    /**
+     * Total length(bytes) of the files addressed by the path, resolved in the same way as HDFSReader
+     */
+    public static long getLength(NameNodeConf nameNodeConf, String path, LogPathType logPathType) throws Exception {
+        FileSystem fs = HDFSUtil.getFileSystem(nameNodeConf);
+        try {
+            return getLength(fs, path, logPathType);
+        } finally {
+            fs.close();
+        }
+    }
+
+    /**
+     * Total length(bytes) of the files addressed by the path, on a FileSystem kept open by the caller
+     */
+    public static long getLength(FileSystem fs, String path, LogPathType logPathType) throws Exception {
+        switch (logPathType) {
+            case FILE:
+                return fs.getFileStatus(new Path(path)).getLen();
+            case DIRECTORY:
+                return fs.getContentSummary(new Path(path)).getLength();
+            case PATTERN:
+                FileStatus[] fileStatuses = fs.globStatus(new Path(path));
+                long length = 0;
+                if (fileStatuses != null) {
+                    for (FileStatus fileStatus : fileStatuses) {
+                        length += fileStatus.getLen();
+                    }
+                }
+                return length;
+            default:
+                return 0;
+        }
+    }
+
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.parser.service.consumer;
+
+import com.oppo.cloud.parser.config.CustomConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class AdmissionControllerTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    private AdmissionController create() {
+        CustomConfig config = new CustomConfig();
+        config.setAdmissionMemoryBudget(100L);
+        config.setLargeRecordThreshold(60L);
+        config.setMaxThreadPoolSize(4);
+        config.setLargeLaneConcurrency(1);
+        return new AdmissionController(config);
+    }
+
+    @Test
+    void route() {
+        AdmissionController controller = create();
+        Assertions.assertEquals(AdmissionController.Lane.NORMAL, controller.route(10 * MB));
+        Assertions.assertEquals(AdmissionController.Lane.LARGE, controller.route(60 * MB));
+    }
+
+    @Test
+    void oversizedRecordIsAdmittedAlone() throws Exception {
+        AdmissionController controller = create();
+        long small = controller.acquireMemory(30 * MB);
+
+        AtomicLong granted = new AtomicLong(-1);
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread large = new Thread(() -> {
+            try {
+                granted.set(controller.acquireMemory(500 * MB));
+                admitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        large.start();
+        Assertions.assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+
+        controller.release(AdmissionController.Lane.NORMAL, small);
+        Assertions.assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(100 * MB, granted.get());
+        Assertions.assertEquals(100 * MB, controller.getUsedMemory());
+    }
+
+    @Test
+    void memoryIsGrantedInArrivalOrder() throws Exception {
+        AdmissionController controller = create();
+        long first = controller.acquireMemory(50 * MB);
+
+        CountDownLatch largeAdmitted = new CountDownLatch(1);
+        Thread large = new Thread(() -> {
+            try {
+                controller.acquireMemory(80 * MB);
+                largeAdmitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        large.start();
+        Assertions.assertFalse(largeAdmitted.await(200, TimeUnit.MILLISECONDS));
+
+        // a small record fits the budget but must queue behind the large one
+        CountDownLatch smallAdmitted = new CountDownLatch(1);
+        Thread small = new Thread(() -> {
+            try {
+                controller.acquireMemory(10 * MB);
+                smallAdmitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        small.start();
+        Assertions.assertFalse(smallAdmitted.await(200, TimeUnit.MILLISECONDS));
+
+        controller.release(AdmissionController.Lane.NORMAL, first);
+        Assertions.assertTrue(largeAdmitted.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(smallAdmitted.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(90 * MB, controller.getUsedMemory());
+    }
+}
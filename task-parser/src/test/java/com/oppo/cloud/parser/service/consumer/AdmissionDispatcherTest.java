@@ -0,0 +1,101 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.parser.service.consumer;
+
+import com.oppo.cloud.parser.config.CustomConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+class AdmissionDispatcherTest {
+
+    private AdmissionController createController() {
+        CustomConfig config = new CustomConfig();
+        config.setAdmissionMemoryBudget(100L);
+        config.setLargeRecordThreshold(60L);
+        config.setMaxThreadPoolSize(2);
+        config.setLargeLaneConcurrency(1);
+        return new AdmissionController(config);
+    }
+
+    @Test
+    void normalRecordsDoNotWaitForTheLargeLane() throws Exception {
+        AdmissionController controller = createController();
+        ExecutorService normal = Executors.newFixedThreadPool(2);
+        ExecutorService large = Executors.newFixedThreadPool(1);
+        AdmissionDispatcher dispatcher = new AdmissionDispatcher(controller, normal, large, 2, 1);
+        dispatcher.start();
+        try {
+            CountDownLatch blockLarge = new CountDownLatch(1);
+            CountDownLatch largeRunning = new CountDownLatch(1);
+            dispatcher.acquireIntake();
+            Assertions.assertTrue(dispatcher.offer(AdmissionController.Lane.LARGE, () -> {
+                largeRunning.countDown();
+                try {
+                    blockLarge.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    controller.release(AdmissionController.Lane.LARGE, 0);
+                }
+            }));
+            Assertions.assertTrue(largeRunning.await(5, TimeUnit.SECONDS));
+            // one large record waits for the slot, one is queued and the next one is given back
+            dispatcher.acquireIntake();
+            Assertions.assertTrue(dispatcher.offer(AdmissionController.Lane.LARGE, () ->
+                    controller.release(AdmissionController.Lane.LARGE, 0)));
+            awaitQueued(dispatcher, 0);
+            dispatcher.acquireIntake();
+            Assertions.assertTrue(dispatcher.offer(AdmissionController.Lane.LARGE, () ->
+                    controller.release(AdmissionController.Lane.LARGE, 0)));
+            dispatcher.acquireIntake();
+            Assertions.assertFalse(dispatcher.offer(AdmissionController.Lane.LARGE, () -> {
+            }));
+            dispatcher.releaseIntake();
+
+            CountDownLatch normalDone = new CountDownLatch(10);
+            for (int i = 0; i < 10; i++) {
+                dispatcher.acquireIntake();
+                Assertions.assertTrue(dispatcher.offer(AdmissionController.Lane.NORMAL, () -> {
+                    controller.release(AdmissionController.Lane.NORMAL, 0);
+                    normalDone.countDown();
+                }));
+            }
+            Assertions.assertTrue(normalDone.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, dispatcher.queued(AdmissionController.Lane.LARGE));
+
+            blockLarge.countDown();
+            awaitQueued(dispatcher, 0);
+        } finally {
+            dispatcher.stop();
+            normal.shutdownNow();
+            large.shutdownNow();
+        }
+    }
+
+    private static void awaitQueued(AdmissionDispatcher dispatcher, int queued) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.queued(AdmissionController.Lane.LARGE) != queued && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(queued, dispatcher.queued(AdmissionController.Lane.LARGE));
+    }
+}
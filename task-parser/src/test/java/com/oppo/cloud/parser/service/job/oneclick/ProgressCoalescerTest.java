@@ -0,0 +1,109 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.parser.service.job.oneclick;
+
+import com.alibaba.fastjson2.JSON;
+import com.oppo.cloud.common.constant.LogType;
+import com.oppo.cloud.common.constant.ProgressState;
+import com.oppo.cloud.common.domain.oneclick.OneClickProgress;
+import com.oppo.cloud.common.domain.oneclick.ProgressInfo;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+class ProgressCoalescerTest {
+
+    private static final String KEY = "application_1_0001:" + LogType.SPARK_EXECUTOR.getName();
+
+    private final Map<String, String> redis = new ConcurrentHashMap<>();
+
+    private ProgressCoalescer create(long flushInterval) {
+        ProgressCoalescer coalescer = new ProgressCoalescer() {
+            @Override
+            protected void write(String key, String value) {
+                redis.put(key, value);
+            }
+        };
+        ReflectionTestUtils.setField(coalescer, "flushInterval", flushInterval);
+        return coalescer;
+    }
+
+    private OneClickProgress progress(ProgressState state, int progress, int count) {
+        OneClickProgress oneClickProgress = new OneClickProgress();
+        oneClickProgress.setAppId("application_1_0001");
+        oneClickProgress.setLogType(LogType.SPARK_EXECUTOR);
+        ProgressInfo progressInfo = new ProgressInfo();
+        progressInfo.setState(state);
+        progressInfo.setProgress(progress);
+        progressInfo.setCount(count);
+        oneClickProgress.setProgressInfo(progressInfo);
+        return oneClickProgress;
+    }
+
+    private ProgressInfo current() {
+        return JSON.parseObject(redis.get(KEY), OneClickProgress.class).getProgressInfo();
+    }
+
+    @Test
+    void coalesceUpdates() {
+        ProgressCoalescer coalescer = create(60000);
+        int count = 10000;
+        coalescer.submit(progress(ProgressState.PROCESSING, 0, count));
+        for (int i = 1; i < count; i++) {
+            coalescer.submit(progress(ProgressState.PROCESSING, i, count));
+        }
+        Assertions.assertEquals(0, current().getProgress());
+
+        coalescer.flush();
+        Assertions.assertEquals(count - 1, current().getProgress());
+
+        coalescer.submit(progress(ProgressState.SUCCEED, 0, 0));
+        Assertions.assertEquals(ProgressState.SUCCEED, current().getState());
+
+        Assertions.assertEquals(count + 1, coalescer.getReceived());
+        Assertions.assertEquals(3, coalescer.getWritten());
+    }
+
+    @Test
+    void mergeConcurrentUpdates() throws Exception {
+        ProgressCoalescer coalescer = create(60000);
+        coalescer.submit(progress(ProgressState.PROCESSING, 0, 100));
+        CountDownLatch latch = new CountDownLatch(4);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t;
+            Thread thread = new Thread(() -> {
+                for (int i = offset; i < 100; i += 4) {
+                    coalescer.submit(progress(ProgressState.PROCESSING, i, 100));
+                }
+                latch.countDown();
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        latch.await();
+        coalescer.flush();
+        Assertions.assertEquals(ProgressState.PROCESSING, current().getState());
+        Assertions.assertEquals(99, current().getProgress());
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.oppo.cloud.portal.config;
 
+import com.oppo.cloud.common.service.RedisService;
+import com.oppo.cloud.common.util.opensearch.IndexRouter;
 import com.oppo.cloud.common.util.opensearch.OpenSearchClient;
 import org.opensearch.client.RestHighLevelClient;
 import org.springframework.beans.factory.annotation.Value;
@@ -23,12 +25,16 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * OpenSearch Config
  */
 @Configuration
 public class OpenSearchConfig {
 
+    public final static String INDEX_ROUTER = "indexRouter";
+
     @Value("${spring.opensearch.nodes}")
     private String nodes;
     @Value("${spring.opensearch.username}")
@@ -41,9 +47,25 @@ public class OpenSearchConfig {
     @Value("${spring.opensearch.truststore-password}")
     private String truststorePassword;
 
+    @Value("${spring.opensearch.route.max-entries:100000}")
+    private int routeMaxEntries;
+    @Value("${spring.opensearch.route.ttl:30}")
+    private long routeTtlDays;
+    @Value("${spring.opensearch.route.refresh:300}")
+    private long routeRefreshSeconds;
+
     @Primary
     @Bean("opensearch")
     public RestHighLevelClient restHighLevelClient() {
         return OpenSearchClient.create(nodes, username, password, truststore, truststorePassword);
     }
+
+    /**
+     * Routes of application ids and jobs to the daily indices holding their documents
+     */
+    @Bean(INDEX_ROUTER)
+    public IndexRouter indexRouter(RedisService redisService) {
+        return new IndexRouter(redisService, routeMaxEntries, TimeUnit.DAYS.toSeconds(routeTtlDays),
+                routeRefreshSeconds);
+    }
 }
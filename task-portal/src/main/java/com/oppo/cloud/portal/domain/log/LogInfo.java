@@ -53,6 +53,9 @@ public class LogInfo {
     @ApiModelProperty(value = "action")
     private String action;
 
+    @ApiModelProperty(value = "occurrences")
+    private Long count;
+
     public static LogInfo genLogInfo(LogSummary logSum, TaskDiagnosisAdvice diagnoseAdvice) throws Exception {
         LogInfo logInfo = new LogInfo();
         Map<String, String> vars = logSum.getGroupData();
@@ -16,6 +16,8 @@
 
 package com.oppo.cloud.portal.service.impl;
 
+import com.oppo.cloud.common.constant.Constant;
+import com.oppo.cloud.common.service.RedisService;
 import com.oppo.cloud.mapper.BlocklistMapper;
 import com.oppo.cloud.model.Blocklist;
 import com.oppo.cloud.model.BlocklistExample;
@@ -46,6 +48,9 @@ public class BlocklistServiceImpl implements BlocklistService {
     @Autowired
     private BlocklistExtendMapper blocklistMapper;
 
+    @Autowired
+    private RedisService redisService;
+
     /**
      * Search blocklist
      */
@@ -84,6 +89,7 @@ public class BlocklistServiceImpl implements BlocklistService {
             blocklist.setUpdateTime(new Date());
             blocklistMapper.updateByPrimaryKey(blocklist);
         }
+        notifyChange();
     }
 
     /**
@@ -138,7 +144,14 @@ public class BlocklistServiceImpl implements BlocklistService {
                 blocklistMapper.updateByPrimaryKey(data);
             });
         }
+        notifyChange();
+    }
 
+    /**
+     * Let the services caching the blocklist reload it
+     */
+    private void notifyChange() {
+        redisService.publish(Constant.METADATA_INVALIDATE_CHANNEL, "blocklist");
     }
 
 }
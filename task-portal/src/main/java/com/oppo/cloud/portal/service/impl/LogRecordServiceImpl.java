@@ -16,7 +16,6 @@
 
 package com.oppo.cloud.portal.service.impl;
 
-import com.alibaba.fastjson2.JSONObject;
 import com.oppo.cloud.common.constant.*;
 import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
 import com.oppo.cloud.common.domain.opensearch.TaskApp;
@@ -26,6 +25,7 @@ import com.oppo.cloud.common.domain.job.LogPath;
 import com.oppo.cloud.common.domain.job.LogRecord;
 import com.oppo.cloud.common.service.RedisService;
 import com.oppo.cloud.common.util.LogPathUtil;
+import com.oppo.cloud.common.util.LogRecordCodec;
 import com.oppo.cloud.portal.domain.app.AppDiagnosisMetadata;
 import com.oppo.cloud.portal.service.LogRecordService;
 import lombok.extern.slf4j.Slf4j;
@@ -42,6 +42,12 @@ public class LogRecordServiceImpl implements LogRecordService {
     @Value("${custom.redis.logRecordKey}")
     private String logRecordKey;
 
+    /**
+     * LogRecord message format: json or binary
+     */
+    @Value("${custom.redis.logRecordFormat:json}")
+    private String logRecordFormat;
+
     @Autowired
     private RedisService redisService;
 
@@ -80,7 +86,7 @@ public class LogRecordServiceImpl implements LogRecordService {
         logRecord.setTaskAppMap(taskAppMap);
         logRecord.setApps(Collections.singletonList(app));
 
-        String logRecordJson = JSONObject.toJSONString(logRecord);
+        String logRecordJson = LogRecordCodec.encode(logRecord, logRecordFormat);
         Long size = redisService.lLeftPush(logRecordKey, logRecordJson);
         log.info("reportLogRecord:{},size:{},logRecord:{}", logRecordKey, size, logRecordJson);
     }
@@ -17,8 +17,11 @@
 package com.oppo.cloud.portal.service.impl;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oppo.cloud.common.domain.opensearch.JobAnalysis;
 import com.oppo.cloud.common.domain.opensearch.LogSummary;
 import com.oppo.cloud.common.domain.opensearch.TaskApp;
+import com.oppo.cloud.common.util.opensearch.IndexRouter;
+import com.oppo.cloud.common.util.textparser.LogFingerprint;
 import com.oppo.cloud.mapper.TaskDiagnosisAdviceMapper;
 import com.oppo.cloud.model.TaskDiagnosisAdvice;
 import com.oppo.cloud.model.TaskDiagnosisAdviceExample;
@@ -40,6 +43,8 @@ import java.util.*;
 @Slf4j
 public class LogServiceImpl implements LogService {
 
+    private static final int LOG_DETECT_SIZE = 200;
+
     @Value(value = "${custom.opensearch.logIndex.name}")
     private String logSumIndex;
 
@@ -49,6 +54,9 @@ public class LogServiceImpl implements LogService {
     @Autowired
     private OpenSearchService openSearchService;
 
+    @Autowired
+    private IndexRouter indexRouter;
+
     @Autowired
     private TaskDiagnosisAdviceMapper diagnoseAdviceMapper;
 
@@ -88,32 +96,40 @@ public class LogServiceImpl implements LogService {
         // todo:add: sort.put("logTimestamp", SortOrder.ASC);
         sort.put("logTimestamp", SortOrder.ASC);
         SearchSourceBuilder searchSourceBuilder = openSearchService.genSearchBuilder(termQuery, null, sort, null);
-        searchSourceBuilder.size(1000);
+        // one document per application and fingerprint, a few per retry
+        searchSourceBuilder.size(LOG_DETECT_SIZE);
         List<LogSummary> logSumList;
         try {
-            logSumList = openSearchService.find(LogSummary.class, searchSourceBuilder, logSumIndex + "-*");
+            String jobKey = JobAnalysis.genDocId(jobDetailRequest.getProjectName(), jobDetailRequest.getFlowName(),
+                    jobDetailRequest.getTaskName(), jobDetailRequest.getExecutionDate());
+            logSumList = indexRouter.find(logSumIndex, jobKey,
+                    indices -> openSearchService.find(LogSummary.class, searchSourceBuilder, indices));
         } catch (Exception e) {
             log.error("openSearchService.find failed:{}", e.getMessage());
             return null;
         }
-        Set<Integer> logSet = new HashSet<>();
+        // merge the retries of the job, summaries written before fingerprints hold one occurrence each
+        Map<String, LogInfo> logInfos = new LinkedHashMap<>();
         for (LogSummary logSum : logSumList) {
-            int logKey = (logSum.getAction() + logSum.getRawLog()).hashCode();
-            if (logSet.contains(logKey)) {
+            String logKey = logSum.getFingerprint() != null ? logSum.getFingerprint()
+                    : LogFingerprint.fingerprint(logSum.getAction(), logSum.getRawLog());
+            long count = logSum.getCount() != null ? logSum.getCount() : 1L;
+            LogInfo logInfo = logInfos.get(logKey);
+            if (logInfo != null) {
+                logInfo.setCount(logInfo.getCount() + count);
                 continue;
-            } else {
-                logSet.add(logKey);
             }
             TaskDiagnosisAdvice diagnoseAdvice = actionMatch.get(logSum.getAction());
-            LogInfo logInfo;
             try {
                 logInfo = LogInfo.genLogInfo(logSum, diagnoseAdvice);
             } catch (Exception e) {
                 log.error("genLogInfo from logSum failed, msg:{}", e.getMessage());
                 continue;
             }
-            res.add(logInfo);
+            logInfo.setCount(count);
+            logInfos.put(logKey, logInfo);
         }
+        res.addAll(logInfos.values());
         return res;
     }
 }
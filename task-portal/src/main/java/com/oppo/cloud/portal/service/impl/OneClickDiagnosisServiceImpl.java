@@ -17,7 +17,6 @@
 package com.oppo.cloud.portal.service.impl;
 
 import com.alibaba.fastjson2.JSON;
-import com.alibaba.fastjson2.JSONObject;
 import com.oppo.cloud.common.constant.*;
 import com.oppo.cloud.common.domain.cluster.spark.SparkApp;
 import com.oppo.cloud.common.domain.cluster.yarn.YarnApp;
@@ -29,6 +28,7 @@ import com.oppo.cloud.common.domain.job.App;
 import com.oppo.cloud.common.domain.job.LogRecord;
 import com.oppo.cloud.common.domain.oneclick.OneClickProgress;
 import com.oppo.cloud.common.service.RedisService;
+import com.oppo.cloud.common.util.LogRecordCodec;
 import com.oppo.cloud.mapper.TaskApplicationMapper;
 import com.oppo.cloud.mapper.TaskMapper;
 import com.oppo.cloud.mapper.UserInfoMapper;
@@ -59,6 +59,12 @@ public class OneClickDiagnosisServiceImpl implements OneClickDiagnosisService {
     @Value("${custom.redis.logRecordKey}")
     private String logRecordKey;
 
+    /**
+     * LogRecord message format: json or binary
+     */
+    @Value("${custom.redis.logRecordFormat:json}")
+    private String logRecordFormat;
+
     @Value(value = "${custom.opensearch.yarnIndex.name}")
     private String yarnAppIndex;
 
@@ -293,7 +299,7 @@ public class OneClickDiagnosisServiceImpl implements OneClickDiagnosisService {
 
         logRecord.setIsOneClick(true);
         logRecord.setId(UUID.randomUUID().toString());
-        String logRecordJson = JSONObject.toJSONString(logRecord);
+        String logRecordJson = LogRecordCodec.encode(logRecord, logRecordFormat);
         Long size = redisService.lRightPush(logRecordKey, logRecordJson);
         log.info("send key:{},size:{},logRecord:{}", logRecordKey, size, logRecordJson);
 
@@ -411,10 +417,12 @@ public class OneClickDiagnosisServiceImpl implements OneClickDiagnosisService {
 
     private void clearProgressStateCache(TaskApp taskApp) {
         List<LogType> logTypeList = registerLogTypeList(taskApp);
+        List<String> keys = new ArrayList<>();
         for (LogType logType : logTypeList) {
-            // delete all progress state cache
-            redisService.del(String.format("%s:%s", taskApp.getApplicationId(), logType.getName()));
+            keys.add(String.format("%s:%s", taskApp.getApplicationId(), logType.getName()));
         }
+        // delete all progress state cache
+        redisService.del(keys);
     }
 
 }
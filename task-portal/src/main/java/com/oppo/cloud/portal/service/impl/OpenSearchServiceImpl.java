@@ -23,6 +23,7 @@ import com.oppo.cloud.portal.domain.task.IndicatorData;
 import com.oppo.cloud.portal.service.OpenSearchService;
 import lombok.extern.slf4j.Slf4j;
 import org.opensearch.action.search.SearchRequest;
+import org.opensearch.action.support.IndicesOptions;
 import org.opensearch.action.search.SearchResponse;
 import org.opensearch.action.support.WriteRequest;
 import org.opensearch.action.update.UpdateRequest;
@@ -66,7 +67,9 @@ public class OpenSearchServiceImpl implements OpenSearchService {
      */
     @Override
     public SearchHits find(SearchSourceBuilder builder, String... indexes) throws Exception {
-        SearchRequest searchRequest = new SearchRequest().indices(indexes).source(builder);
+        // routed lookups name concrete daily indices, which may have been removed by retention
+        SearchRequest searchRequest = new SearchRequest().indices(indexes).source(builder)
+                .indicesOptions(IndicesOptions.lenientExpandOpen());
         Long startTime = System.currentTimeMillis();
         SearchResponse searchResponse = restHighLevelClient.search(searchRequest, RequestOptions.DEFAULT);
         Long endTime = System.currentTimeMillis();
@@ -25,6 +25,7 @@ import com.oppo.cloud.common.domain.eventlog.DetectorStorage;
 import com.oppo.cloud.common.domain.eventlog.MemWasteAbnormal;
 import com.oppo.cloud.common.domain.gc.GCReport;
 import com.oppo.cloud.common.service.RedisService;
+import com.oppo.cloud.common.util.opensearch.IndexRouter;
 import com.oppo.cloud.portal.common.CommonCode;
 import com.oppo.cloud.portal.domain.diagnose.DiagnoseReport;
 import com.oppo.cloud.portal.domain.diagnose.GCReportResp;
@@ -90,6 +91,9 @@ public class TaskAppServiceImpl implements TaskAppService {
     @Autowired
     private RedisService redisService;
 
+    @Autowired
+    private IndexRouter indexRouter;
+
 
     /**
      * Search application list
@@ -123,10 +127,7 @@ public class TaskAppServiceImpl implements TaskAppService {
         List<Item> runTimeAnalyze = diagnoseReport.getRunTimeAnalyze();
         List<Item> resourceAnalyze = diagnoseReport.getResourcesAnalyze();
         DetectorStorage detectorStorage;
-        Map<String, Object> termQuery = new HashMap<>();
-        termQuery.put("applicationId.keyword", applicationId);
-        List<DetectorStorage> detectorStorageList =
-                openSearchService.find(DetectorStorage.class, termQuery, detectIndex + "-*");
+        List<DetectorStorage> detectorStorageList = findDetectorStorage(applicationId);
         if (detectorStorageList.size() == 0) {
             detectorStorage = new DetectorStorage();
             detectorStorage.setApplicationId(applicationId);
@@ -218,10 +219,7 @@ public class TaskAppServiceImpl implements TaskAppService {
         if (redisService.hasKey(taskAppTempKey)) {
             detectorStorage = JSONObject.parseObject((String) redisService.get(taskAppTempKey), DetectorStorage.class);
         } else {
-            Map<String, Object> termQuery = new HashMap<>();
-            termQuery.put("applicationId.keyword", applicationId);
-            List<DetectorStorage> detectorStorageList =
-                    openSearchService.find(DetectorStorage.class, termQuery, detectIndex + "-*");
+            List<DetectorStorage> detectorStorageList = findDetectorStorage(applicationId);
             if (detectorStorageList.size() == 0) {
                 detectorStorage = new DetectorStorage();
                 detectorStorage.setApplicationId(applicationId);
@@ -270,10 +268,7 @@ public class TaskAppServiceImpl implements TaskAppService {
         if (redisService.hasKey(taskAppTempKey)) {
             detectorStorage = JSONObject.parseObject((String) redisService.get(taskAppTempKey), DetectorStorage.class);
         } else {
-            Map<String, Object> termQuery = new HashMap<>();
-            termQuery.put("applicationId.keyword", applicationId);
-            List<DetectorStorage> detectorStorageList =
-                    openSearchService.find(DetectorStorage.class, termQuery, detectIndex + "-*");
+            List<DetectorStorage> detectorStorageList = findDetectorStorage(applicationId);
             if (detectorStorageList.size() == 0) {
                 detectorStorage = new DetectorStorage();
                 detectorStorage.setApplicationId(applicationId);
@@ -327,10 +322,7 @@ public class TaskAppServiceImpl implements TaskAppService {
         if (redisService.hasKey(taskAppTempKey)) {
             detectorStorage = JSONObject.parseObject((String) redisService.get(taskAppTempKey), DetectorStorage.class);
         } else {
-            Map<String, Object> termQuery = new HashMap<>();
-            termQuery.put("applicationId.keyword", applicationId);
-            List<DetectorStorage> detectorStorageList =
-                    openSearchService.find(DetectorStorage.class, termQuery, detectIndex + "-*");
+            List<DetectorStorage> detectorStorageList = findDetectorStorage(applicationId);
             if (detectorStorageList.size() == 0) {
                 detectorStorage = new DetectorStorage();
                 detectorStorage.setApplicationId(applicationId);
@@ -419,10 +411,7 @@ public class TaskAppServiceImpl implements TaskAppService {
     public List<Item> generatePartOfReport(String applicationId, Set<String> category) throws Exception {
         List<Item> res = new ArrayList<>();
         DetectorStorage detectorStorage;
-        Map<String, Object> termQuery = new HashMap<>();
-        termQuery.put("applicationId.keyword", applicationId);
-        List<DetectorStorage> detectorStorageList =
-                openSearchService.find(DetectorStorage.class, termQuery, detectIndex + "-*");
+        List<DetectorStorage> detectorStorageList = findDetectorStorage(applicationId);
         if (detectorStorageList.size() == 0) {
             detectorStorage = new DetectorStorage();
             detectorStorage.setApplicationId(applicationId);
@@ -498,10 +487,7 @@ public class TaskAppServiceImpl implements TaskAppService {
         if (redisService.hasKey(taskAppTempKey)) {
             detectorStorage = JSONObject.parseObject((String) redisService.get(taskAppTempKey), DetectorStorage.class);
         } else {
-            Map<String, Object> termQuery = new HashMap<>();
-            termQuery.put("applicationId.keyword", applicationId);
-            List<DetectorStorage> detectorStorageList =
-                    openSearchService.find(DetectorStorage.class, termQuery, detectIndex + "-*");
+            List<DetectorStorage> detectorStorageList = findDetectorStorage(applicationId);
             if (detectorStorageList.size() > 0) {
                 detectorStorage = detectorStorageList.get(0);
             }
@@ -525,4 +511,13 @@ public class TaskAppServiceImpl implements TaskAppService {
         return gcReportResp;
     }
 
+    /**
+     * Find the detector storage of an application in the daily indices it was written to
+     */
+    private List<DetectorStorage> findDetectorStorage(String applicationId) throws Exception {
+        Map<String, Object> termQuery = new HashMap<>();
+        termQuery.put("applicationId.keyword", applicationId);
+        return indexRouter.find(detectIndex, applicationId,
+                indices -> openSearchService.find(DetectorStorage.class, termQuery, indices));
+    }
 }
@@ -16,6 +16,7 @@
 
 package com.oppo.cloud.syncer.config;
 
+import com.oppo.cloud.syncer.consumer.LaneDispatcher;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.RangeAssignor;
 import org.apache.kafka.clients.consumer.RoundRobinAssignor;
@@ -70,6 +71,16 @@ public class KafkaConfig {
      */
     @Value("${spring.kafka.consumer.max-poll-interval-ms}")
     private String maxPollIntervalMs;
+    /**
+     * Maximum messages of a poll, applied as one batch
+     */
+    @Value("${spring.kafka.consumer.max-poll-records:500}")
+    private String maxPollRecords;
+    /**
+     * Interval of idle events when no messages arrive, in milliseconds
+     */
+    @Value("${spring.kafka.consumer.idle-event-interval:1000}")
+    private Long idleEventInterval;
 
     /**
      * Create consumer
@@ -90,6 +101,7 @@ public class KafkaConfig {
         config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
         config.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, enableAutoCommit);
         config.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, maxPollIntervalMs);
+        config.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
         config.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, RoundRobinAssignor.class.getName());
 
         return config;
@@ -99,11 +111,18 @@ public class KafkaConfig {
      * Concurrent consumption configure
      */
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory(ConsumerFactory<String, String> consumerFactory) {
+    public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory(ConsumerFactory<String, String> consumerFactory,
+                                                                                                 LaneDispatcher laneDispatcher) {
         ConcurrentKafkaListenerContainerFactory<String, String> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory());
+        // Messages of a poll are handled as one batch
+        factory.setBatchListener(true);
+        // Idle events retry the deferred messages when no new messages arrive
+        factory.getContainerProperties().setIdleEventInterval(idleEventInterval);
         factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
+        // Processed offsets of revoked partitions are committed once their lanes are drained
+        factory.getContainerProperties().setConsumerRebalanceListener(laneDispatcher);
         return factory;
     }
 
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.syncer.consumer;
+
+import com.oppo.cloud.syncer.domain.Mapping;
+import com.oppo.cloud.syncer.domain.RawTable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Messages of a poll grouped by target table and operation. The messages of a target table keep their order:
+ * a change of operation closes the pending group of the table before a new one is started.
+ */
+public class ChangeBatch {
+
+    static final List<String> TYPES = Collections.unmodifiableList(Arrays.asList("INSERT", "UPDATE", "DELETE"));
+
+    /**
+     * Messages of one target table and operation, in order
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Group {
+
+        private Mapping mapping;
+
+        private String type;
+
+        private List<RawTable> rawTables;
+    }
+
+    private final List<Group> closed = new ArrayList<>();
+
+    /**
+     * Pending group by target table
+     */
+    private final Map<String, Group> pending = new LinkedHashMap<>();
+
+    /**
+     * Add a message for a mapping, other operations than INSERT, UPDATE and DELETE are ignored
+     */
+    public void add(RawTable rawTable, Mapping mapping) {
+        if (!TYPES.contains(rawTable.getType())) {
+            return;
+        }
+        Group group = pending.get(mapping.getTargetTable());
+        if (group != null && group.getMapping() == mapping && group.getType().equals(rawTable.getType())) {
+            group.getRawTables().add(rawTable);
+            return;
+        }
+        if (group != null) {
+            closed.add(group);
+        }
+        List<RawTable> rawTables = new ArrayList<>();
+        rawTables.add(rawTable);
+        pending.put(mapping.getTargetTable(), new Group(mapping, rawTable.getType(), rawTables));
+    }
+
+    /**
+     * Groups to apply in order
+     */
+    public List<Group> getGroups() {
+        List<Group> groups = new ArrayList<>(closed);
+        groups.addAll(pending.values());
+        return groups;
+    }
+}
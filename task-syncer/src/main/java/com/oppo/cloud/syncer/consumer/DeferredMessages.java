@@ -0,0 +1,178 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.syncer.consumer;
+
+import com.oppo.cloud.syncer.domain.Mapping;
+import com.oppo.cloud.syncer.domain.RawTable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Messages whose columnDep queries returned nothing, usually because the rows have not been replicated yet.
+ * Instead of blocking the consumer, they are put aside and handed back to the consumer after a delay, up to a
+ * number of attempts. Later messages depending on the same queries wait behind them, so that the changes of a
+ * row keep their order.
+ */
+@Component
+public class DeferredMessages {
+
+    @Data
+    @AllArgsConstructor
+    public static class Deferred {
+
+        private RawTable rawTable;
+
+        private Mapping mapping;
+
+        /**
+         * Cache keys of the columnDep queries of the message
+         */
+        private Set<String> keys;
+
+        private int attempts;
+
+        private long dueTime;
+    }
+
+    @Value("${custom.columnDep.retry.attempts:3}")
+    private int maxAttempts;
+
+    @Value("${custom.columnDep.retry.delay-ms:1000}")
+    private long delayMs;
+
+    private final List<Deferred> pending = new ArrayList<>();
+
+    /**
+     * Messages handed back and being retried
+     */
+    private final List<Deferred> retrying = new ArrayList<>();
+
+    public DeferredMessages() {
+    }
+
+    public DeferredMessages(int maxAttempts, long delayMs) {
+        this.maxAttempts = maxAttempts;
+        this.delayMs = delayMs;
+    }
+
+    /**
+     * Put a message aside, false once it has used up its attempts and must be handled as it is
+     */
+    public synchronized boolean defer(RawTable rawTable, Mapping mapping, Set<String> keys) {
+        int attempts = 1;
+        Iterator<Deferred> iterator = retrying.iterator();
+        while (iterator.hasNext()) {
+            Deferred deferred = iterator.next();
+            if (deferred.getRawTable() == rawTable && deferred.getMapping() == mapping) {
+                attempts = deferred.getAttempts() + 1;
+                iterator.remove();
+                break;
+            }
+        }
+        if (attempts > maxAttempts) {
+            return false;
+        }
+        pending.add(new Deferred(rawTable, mapping, keys, attempts, System.currentTimeMillis() + delayMs));
+        return true;
+    }
+
+    /**
+     * Whether a message put aside earlier depends on one of the queries
+     */
+    public synchronized boolean isBlocked(Collection<String> keys) {
+        for (Deferred deferred : pending) {
+            for (String key : keys) {
+                if (deferred.getKeys().contains(key)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Messages due for a retry, in the order they were put aside
+     */
+    public synchronized List<Deferred> pollDue(long now) {
+        List<Deferred> due = new ArrayList<>();
+        Iterator<Deferred> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            Deferred deferred = iterator.next();
+            if (deferred.getDueTime() > now) {
+                // later messages were deferred after this one
+                break;
+            }
+            iterator.remove();
+            retrying.add(deferred);
+            due.add(deferred);
+        }
+        return due;
+    }
+
+    /**
+     * Forget the attempts of the retried messages once they have been handled
+     */
+    public synchronized void settle() {
+        retrying.clear();
+    }
+
+    /**
+     * Forget the attempts of some retried messages once they have been handled, when messages are retried
+     * concurrently
+     */
+    public synchronized void settle(Collection<Deferred> handled) {
+        retrying.removeIf(deferred -> handled.stream().anyMatch(h -> h == deferred));
+    }
+
+    /**
+     * Whether a message is put aside or being retried
+     */
+    public synchronized boolean isDeferred(RawTable rawTable) {
+        for (Deferred deferred : pending) {
+            if (deferred.getRawTable() == rawTable) {
+                return true;
+            }
+        }
+        for (Deferred deferred : retrying) {
+            if (deferred.getRawTable() == rawTable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drop the messages put aside or being retried that match, e.g. the messages of partitions moved to another
+     * consumer, which replays them from the committed offsets
+     */
+    public synchronized void discard(Predicate<RawTable> filter) {
+        pending.removeIf(deferred -> filter.test(deferred.getRawTable()));
+        retrying.removeIf(deferred -> filter.test(deferred.getRawTable()));
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+}
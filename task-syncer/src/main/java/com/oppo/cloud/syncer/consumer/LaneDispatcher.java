@@ -0,0 +1,166 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.syncer.consumer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ordered worker lanes: work for the same key always runs on the same single-threaded lane, in submission
+ * order, while different keys run in parallel. Tracks the offsets of the records being processed and commits
+ * them when partitions are revoked.
+ */
+@Slf4j
+@Component
+public class LaneDispatcher implements ConsumerAwareRebalanceListener {
+
+    @Value("${custom.consumer.lanes:4}")
+    private int lanes;
+
+    private final OffsetTracker offsetTracker = new OffsetTracker();
+
+    private List<ExecutorService> executors;
+
+    /**
+     * Called with the partitions revoked or lost, once the lanes are drained
+     */
+    private final List<java.util.function.Consumer<Collection<TopicPartition>>> revokeListeners =
+            new CopyOnWriteArrayList<>();
+
+    public LaneDispatcher() {
+    }
+
+    public LaneDispatcher(int lanes) {
+        this.lanes = lanes;
+        init();
+    }
+
+    @PostConstruct
+    public void init() {
+        executors = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, lanes); i++) {
+            String name = "syncer-lane-" + i;
+            executors.add(Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, name)));
+        }
+    }
+
+    public int lanes() {
+        return executors.size();
+    }
+
+    /**
+     * Lane of a key
+     */
+    public int lane(String key) {
+        return Math.floorMod(key.hashCode(), executors.size());
+    }
+
+    public void submit(int lane, Runnable work) {
+        executors.get(lane).execute(() -> {
+            try {
+                work.run();
+            } catch (Exception e) {
+                log.error("lane {} failed: {}", lane, e.getMessage(), e);
+            }
+        });
+    }
+
+    public void addRevokeListener(java.util.function.Consumer<Collection<TopicPartition>> listener) {
+        revokeListeners.add(listener);
+    }
+
+    public OffsetTracker getOffsetTracker() {
+        return offsetTracker;
+    }
+
+    /**
+     * Wait for the work submitted so far
+     */
+    public void drain() throws InterruptedException {
+        List<Future<?>> futures = new ArrayList<>();
+        for (ExecutorService executor : executors) {
+            futures.add(executor.submit(() -> {
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                log.error("lane drain: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Commit the processed offsets of the partitions before they move to another consumer
+     */
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        try {
+            drain();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.committable(partitions);
+        if (!offsets.isEmpty()) {
+            try {
+                consumer.commitSync(offsets);
+            } catch (Exception e) {
+                log.error("failed to commit revoked partitions {}: {}", partitions, e.getMessage());
+            }
+        }
+        revoked(partitions);
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        revoked(partitions);
+    }
+
+    private void revoked(Collection<TopicPartition> partitions) {
+        offsetTracker.remove(partitions);
+        for (java.util.function.Consumer<Collection<TopicPartition>> listener : revokeListeners) {
+            listener.accept(partitions);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        for (ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+        for (ExecutorService executor : executors) {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -21,21 +21,33 @@ import com.google.common.base.CaseFormat;
 import com.oppo.cloud.syncer.config.DataSourceConfig;
 import com.oppo.cloud.syncer.domain.Mapping;
 import com.oppo.cloud.syncer.domain.RawTable;
+import com.oppo.cloud.syncer.producer.MessageProducer;
 import com.oppo.cloud.syncer.service.ActionService;
 import com.oppo.cloud.syncer.service.impl.DummyService;
+import com.oppo.cloud.syncer.util.DataUtil;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.collections.map.MultiValueMap;
 import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.support.KafkaHeaders;
-import org.springframework.messaging.handler.annotation.Header;
-import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * 消费者
@@ -53,32 +65,379 @@ public class MessageConsumer {
     @Autowired
     private Map<String, ActionService> serviceMap;
 
-    private MultiValueMap tableMapping;
+    @Autowired
+    private DeferredMessages deferredMessages;
+
+    @Autowired
+    private LaneDispatcher laneDispatcher;
+
+    @Autowired
+    private MessageProducer messageProducer;
+
+    /**
+     * Records beyond which the assigned partitions are paused until the lanes catch up
+     */
+    @Value("${custom.consumer.max-in-flight:5000}")
+    private int maxInFlight;
+
+    /**
+     * Attempts of a batch of changes before its rows are applied one by one
+     */
+    @Value("${custom.consumer.retry.max-attempts:5}")
+    private int retryMaxAttempts;
+
+    @Value("${custom.consumer.retry.backoff-ms:1000}")
+    private long retryBackoffMs;
+
+    @Value("${custom.consumer.retry.max-backoff-ms:30000}")
+    private long retryMaxBackoffMs;
 
     /**
-     * Receive and handle sql data
+     * Topic of the rows failing on their own, only logged when empty
+     */
+    @Value("${custom.consumer.dead-letter-topic:}")
+    private String deadLetterTopic;
+
+    private volatile Map<String, List<Mapping>> tableMapping;
+
+    /**
+     * Kafka record of each row being processed, by identity of its message
+     */
+    private final Map<RawTable, OffsetTracker.Record> trackedRows = new IdentityHashMap<>();
+
+    /**
+     * Messages of a lane in a poll, applied in batches by target table and operation
+     */
+    private static class LaneBatch {
+
+        private final ChangeBatch batch = new ChangeBatch();
+
+        private final List<RawTable> rawTables = new ArrayList<>();
+
+        private final List<DeferredMessages.Deferred> deferred = new ArrayList<>();
+    }
+
+    @PostConstruct
+    public void init() {
+        laneDispatcher.addRevokeListener(this::discardRevoked);
+    }
+
+    /**
+     * Forget the rows of partitions moved to another consumer, including the rows put aside: their records were
+     * not committed, so the new owner replays them and this consumer must not apply them later
+     */
+    private void discardRevoked(Collection<TopicPartition> partitions) {
+        Set<RawTable> revoked = Collections.newSetFromMap(new IdentityHashMap<>());
+        synchronized (trackedRows) {
+            trackedRows.entrySet().removeIf(entry -> {
+                if (partitions.contains(entry.getValue().getPartition())) {
+                    revoked.add(entry.getKey());
+                    return true;
+                }
+                return false;
+            });
+        }
+        if (!revoked.isEmpty()) {
+            deferredMessages.discard(revoked::contains);
+            log.info("discarded {} rows of revoked partitions {}", revoked.size(), partitions);
+        }
+    }
+
+    /**
+     * Receive and handle the sql data of a poll: the rows are split by table and primary key onto ordered lanes,
+     * so that the changes of a row keep their order while unrelated rows are applied in parallel. Offsets are
+     * committed up to the lowest record not fully processed.
      */
     @KafkaListener(topics = "${spring.kafka.topics}", containerFactory = "kafkaListenerContainerFactory")
-    public void receive(@Payload String message,
-                        @Header(KafkaHeaders.RECEIVED_PARTITION_ID) int partition,
-                        @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
-                        Consumer consumer) {
+    public void receive(List<ConsumerRecord<String, String>> records, Consumer<?, ?> consumer) {
+        OffsetTracker offsetTracker = laneDispatcher.getOffsetTracker();
+        LaneBatch[] batches = new LaneBatch[laneDispatcher.lanes()];
+        // messages put aside before the new ones
+        addDeferred(batches);
+        for (ConsumerRecord<String, String> record : records) {
+            log.debug(String.format("From partition %d: %s", record.partition(), record.value()));
+
+            List<RawTable> rows = new ArrayList<>();
+            List<Mapping> rowMappings = new ArrayList<>();
+            try {
+                // Parsing table data
+                RawTable rawTable = JSON.parseObject(record.value(), RawTable.class);
+                List<Mapping> mappings = rawTable == null ? null : this.getTableMapping(rawTable.getTable());
+                if (mappings != null && ChangeBatch.TYPES.contains(rawTable.getType())) {
+                    for (Mapping mapping : mappings) {
+                        for (RawTable row : splitRows(rawTable)) {
+                            rows.add(row);
+                            rowMappings.add(mapping);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                // a malformed message is skipped, the other messages of the poll are still applied
+                log.error("failed to parse message, partition: {}, offset: {}, err: {}", record.partition(),
+                        record.offset(), e.getMessage());
+                rows.clear();
+                rowMappings.clear();
+            }
+            OffsetTracker.Record tracked = offsetTracker.register(
+                    new TopicPartition(record.topic(), record.partition()), record.offset(), rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                synchronized (trackedRows) {
+                    trackedRows.put(rows.get(i), tracked);
+                }
+                laneBatch(batches, rows.get(i), rowMappings.get(i)).batch.add(rows.get(i), rowMappings.get(i));
+            }
+        }
+        submit(batches);
+
+        commit(consumer);
+        throttle(consumer);
+    }
+
+    /**
+     * Retry the messages put aside and commit the processed offsets when no new messages arrive,
+     * on the consumer thread
+     */
+    @EventListener
+    public void onIdle(ListenerContainerIdleEvent event) {
+        onIdle(event.getConsumer());
+    }
+
+    private void onIdle(Consumer<?, ?> consumer) {
+        LaneBatch[] batches = new LaneBatch[laneDispatcher.lanes()];
+        addDeferred(batches);
+        submit(batches);
+        commit(consumer);
+        throttle(consumer);
+    }
+
+    /**
+     * Pause the assigned partitions while too many records are in flight and resume them once the lanes caught up:
+     * the consumer keeps polling, so the consumer thread never waits for the lanes past the poll interval, and the
+     * idle events keep handing the deferred messages to the lanes meanwhile
+     */
+    private void throttle(Consumer<?, ?> consumer) {
+        int inFlight = laneDispatcher.getOffsetTracker().inFlight();
+        if (inFlight >= maxInFlight) {
+            if (!consumer.paused().containsAll(consumer.assignment())) {
+                log.info("pausing partitions {}, {} records in flight", consumer.assignment(), inFlight);
+                consumer.pause(consumer.assignment());
+            }
+        } else if (!consumer.paused().isEmpty()) {
+            log.info("resuming partitions {}, {} records in flight", consumer.paused(), inFlight);
+            consumer.resume(consumer.paused());
+        }
+    }
+
+    private void commit(Consumer<?, ?> consumer) {
+        Map<TopicPartition, OffsetAndMetadata> offsets =
+                laneDispatcher.getOffsetTracker().committable(consumer.assignment());
+        if (!offsets.isEmpty()) {
+            consumer.commitAsync(offsets, (committed, e) -> {
+                if (e != null) {
+                    log.error("failed to commit offsets {}: {}", committed, e.getMessage());
+                }
+            });
+        }
+    }
 
-        log.debug(String.format("From partition %d: %s", partition, message));
+    private void addDeferred(LaneBatch[] batches) {
+        for (DeferredMessages.Deferred deferred : deferredMessages.pollDue(System.currentTimeMillis())) {
+            LaneBatch laneBatch = laneBatch(batches, deferred.getRawTable(), deferred.getMapping());
+            laneBatch.batch.add(deferred.getRawTable(), deferred.getMapping());
+            laneBatch.deferred.add(deferred);
+        }
+    }
+
+    private LaneBatch laneBatch(LaneBatch[] batches, RawTable row, Mapping mapping) {
+        int lane = laneDispatcher.lane(laneKey(row, mapping));
+        if (batches[lane] == null) {
+            batches[lane] = new LaneBatch();
+        }
+        batches[lane].rawTables.add(row);
+        return batches[lane];
+    }
 
-        // Parsing table data
-        RawTable rawTable = JSON.parseObject(message, RawTable.class);
+    private void submit(LaneBatch[] batches) {
+        for (int lane = 0; lane < batches.length; lane++) {
+            LaneBatch laneBatch = batches[lane];
+            if (laneBatch != null) {
+                laneDispatcher.submit(lane, () -> consume(laneBatch));
+            }
+        }
+    }
+
+    /**
+     * Apply the groups of a lane in order. A group failing after its retries is applied row by row, the rows
+     * still failing are dead-lettered, so that one bad row never holds back the offsets of its partition.
+     * Only an interruption leaves the remaining rows with their records open, to be consumed again after
+     * a restart or a rebalance
+     */
+    private void consume(LaneBatch laneBatch) {
+        Set<RawTable> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<ChangeBatch.Group> groups = laneBatch.batch.getGroups();
+        for (int i = 0; i < groups.size() && failed.isEmpty(); i++) {
+            ChangeBatch.Group group = groups.get(i);
+            try {
+                if (!retry(() -> this.consumeBatch(group), retryMaxAttempts, retryBackoffMs, retryMaxBackoffMs)) {
+                    log.error("failed to consume {} {} messages of {}, applying them row by row", group.getType(),
+                            group.getRawTables().size(), group.getMapping().getTargetTable());
+                    consumeRows(group).forEach(rawTable -> deadLetter(rawTable, group.getMapping()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (int j = i; j < groups.size(); j++) {
+                    failed.addAll(groups.get(j).getRawTables());
+                }
+                log.warn("interrupted while consuming {} messages of {}, {} rows are left unprocessed",
+                        group.getType(), group.getMapping().getTargetTable(), failed.size());
+            }
+        }
+        deferredMessages.settle(laneBatch.deferred);
+        for (RawTable rawTable : laneBatch.rawTables) {
+            // rows put aside keep their record open until they are handled
+            if (deferredMessages.isDeferred(rawTable)) {
+                continue;
+            }
+            OffsetTracker.Record tracked;
+            synchronized (trackedRows) {
+                tracked = trackedRows.remove(rawTable);
+            }
+            if (tracked != null && !failed.contains(rawTable)) {
+                tracked.complete();
+            }
+        }
+    }
 
-        List<Mapping> mappings = this.getTableMapping(rawTable.getTable());
-        if (mappings == null || mappings.isEmpty()) {
-            consumer.commitAsync();
-            return;
+    /**
+     * Apply the rows of a group one at a time, the rows which failed are returned
+     */
+    List<RawTable> consumeRows(ChangeBatch.Group group) {
+        List<RawTable> failed = new ArrayList<>();
+        for (RawTable rawTable : group.getRawTables()) {
+            try {
+                consumeMessage(rawTable, group.getMapping());
+            } catch (Exception e) {
+                log.error("failed to consume {} message of {}: {}", rawTable.getType(),
+                        group.getMapping().getTargetTable(), e.getMessage());
+                failed.add(rawTable);
+            }
         }
-        for (Mapping mapping : mappings) {
-            this.consumeMessage(rawTable, mapping);
+        return failed;
+    }
+
+    /**
+     * Send a row which cannot be applied to the dead letter topic, or log it when there is none or it is
+     * unavailable, the row is then considered processed
+     */
+    private void deadLetter(RawTable rawTable, Mapping mapping) {
+        String message = JSON.toJSONString(rawTable);
+        if (StringUtils.hasText(deadLetterTopic)) {
+            try {
+                messageProducer.sendMessageSync(deadLetterTopic, message);
+                log.error("sent {} message of {} to {}", rawTable.getType(), mapping.getTargetTable(),
+                        deadLetterTopic);
+                return;
+            } catch (Exception e) {
+                log.error("failed to send message to {}: {}", deadLetterTopic, e.getMessage());
+            }
         }
+        log.error("dropped {} message of {}: {}", rawTable.getType(), mapping.getTargetTable(), message);
+    }
 
-        consumer.commitAsync();
+    /**
+     * Run an action until it succeeds, at most maxAttempts times with a backoff doubling up to maxBackoffMs,
+     * false when the last attempt failed
+     */
+    static boolean retry(Runnable action, int maxAttempts, long backoffMs, long maxBackoffMs)
+            throws InterruptedException {
+        long backoff = backoffMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                action.run();
+                return true;
+            } catch (Exception e) {
+                if (attempt >= maxAttempts) {
+                    log.error("failed to consume messages after {} attempts: {}", attempt, e.getMessage(), e);
+                    return false;
+                }
+                log.warn("failed to consume messages, attempt {} retried in {}ms: {}", attempt, backoff,
+                        e.getMessage());
+            }
+            Thread.sleep(backoff);
+            backoff = Math.min(backoff * 2, maxBackoffMs);
+        }
+    }
+
+    /**
+     * Lane key of a row: target table and primary key, the changes of a row stay on one lane
+     */
+    static String laneKey(RawTable row, Mapping mapping) {
+        StringBuilder key = new StringBuilder(mapping.getTargetTable());
+        if (row.getPkNames() != null && !DataUtil.isEmpty(row.getData())) {
+            for (String pkName : row.getPkNames()) {
+                key.append('|').append(row.getData().get(0).get(pkName));
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * One message per row of a message, each processed and tracked on its own
+     */
+    static List<RawTable> splitRows(RawTable rawTable) {
+        List<RawTable> rows = new ArrayList<>();
+        if (DataUtil.isEmpty(rawTable.getData())) {
+            rows.add(copy(rawTable));
+            return rows;
+        }
+        for (int i = 0; i < rawTable.getData().size(); i++) {
+            RawTable row = copy(rawTable);
+            row.setData(Collections.singletonList(rawTable.getData().get(i)));
+            if (rawTable.getOld() != null && rawTable.getOld().size() > i) {
+                row.setOld(Collections.singletonList(rawTable.getOld().get(i)));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static RawTable copy(RawTable rawTable) {
+        RawTable copy = new RawTable();
+        copy.setData(rawTable.getData());
+        copy.setDatabase(rawTable.getDatabase());
+        copy.setEs(rawTable.getEs());
+        copy.setId(rawTable.getId());
+        copy.setIsDdl(rawTable.getIsDdl());
+        copy.setMysqlType(rawTable.getMysqlType());
+        copy.setOld(rawTable.getOld());
+        copy.setPkNames(rawTable.getPkNames());
+        copy.setSql(rawTable.getSql());
+        copy.setSqlType(rawTable.getSqlType());
+        copy.setTable(rawTable.getTable());
+        copy.setTs(rawTable.getTs());
+        copy.setType(rawTable.getType());
+        return copy;
+    }
+
+    /**
+     * Consuming the messages of one target table and operation
+     */
+    public void consumeBatch(ChangeBatch.Group group) {
+        ActionService service = serviceMap.getOrDefault(serviceKey(group.getMapping().getTargetTable()),
+                new DummyService());
+        switch (group.getType()) {
+            case "INSERT":
+                service.insertBatch(group.getRawTables(), group.getMapping());
+                break;
+            case "UPDATE":
+                service.updateBatch(group.getRawTables(), group.getMapping());
+                break;
+            case "DELETE":
+                service.deleteBatch(group.getRawTables(), group.getMapping());
+                break;
+            default: // ignore ...
+                break;
+        }
     }
 
     /**
@@ -127,22 +486,24 @@ public class MessageConsumer {
     /**
      * Get table mapping rules
      */
-    public synchronized List<Mapping> getTableMapping(String table) {
-        if (this.tableMapping == null) {
-            initTableMapping();
+    public List<Mapping> getTableMapping(String table) {
+        Map<String, List<Mapping>> mappings = this.tableMapping;
+        if (mappings == null) {
+            mappings = initTableMapping();
         }
-        return (List<Mapping>) this.tableMapping.get(table);
+        return mappings.get(table);
     }
 
     /**
-     * Initialization table mapping rules
+     * Initialization table mapping rules, read-only once built
      */
-    public void initTableMapping() {
-        // this.tableMapping = new HashMap<>();
-        this.tableMapping = new MultiValueMap();
+    public Map<String, List<Mapping>> initTableMapping() {
+        Map<String, List<Mapping>> mappings = new HashMap<>();
         for (Mapping mapping : this.dataSourceConfig.getMappings()) {
-            this.tableMapping.put(mapping.getTable(), mapping);
+            mappings.computeIfAbsent(mapping.getTable(), k -> new ArrayList<>()).add(mapping);
         }
+        this.tableMapping = mappings;
+        return mappings;
     }
 
     /**
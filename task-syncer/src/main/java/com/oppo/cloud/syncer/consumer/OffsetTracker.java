@@ -0,0 +1,154 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.syncer.consumer;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Offsets of the records being processed, by partition. Records complete in any order, the committable offset
+ * of a partition is its lowest offset not completed yet, so that a restart never skips a record.
+ */
+public class OffsetTracker {
+
+    /**
+     * A record made of parts processed separately, complete once every part is
+     */
+    public class Record {
+
+        private final TopicPartition partition;
+
+        private final long offset;
+
+        private int parts;
+
+        private Record(TopicPartition partition, long offset, int parts) {
+            this.partition = partition;
+            this.offset = offset;
+            this.parts = parts;
+        }
+
+        public TopicPartition getPartition() {
+            return partition;
+        }
+
+        public void complete() {
+            synchronized (OffsetTracker.this) {
+                if (parts > 0 && --parts == 0) {
+                    done(partition, offset);
+                }
+            }
+        }
+    }
+
+    private static class Offsets {
+
+        private final TreeSet<Long> incomplete = new TreeSet<>();
+
+        /**
+         * Offset after the last registered record
+         */
+        private long next = -1;
+
+        private long committed = -1;
+
+        private long committable() {
+            return incomplete.isEmpty() ? next : incomplete.first();
+        }
+    }
+
+    private final Map<TopicPartition, Offsets> partitions = new HashMap<>();
+
+    private int inFlight;
+
+    /**
+     * Track a record, records of a partition are registered in offset order
+     */
+    public synchronized Record register(TopicPartition partition, long offset, int parts) {
+        Offsets offsets = partitions.computeIfAbsent(partition, p -> new Offsets());
+        offsets.next = Math.max(offsets.next, offset + 1);
+        Record record = new Record(partition, offset, parts);
+        if (parts > 0) {
+            offsets.incomplete.add(offset);
+            inFlight++;
+        }
+        return record;
+    }
+
+    private void done(TopicPartition partition, long offset) {
+        Offsets offsets = partitions.get(partition);
+        if (offsets != null && offsets.incomplete.remove(offset)) {
+            inFlight--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Offsets to commit for the partitions which advanced since the last call
+     */
+    public synchronized Map<TopicPartition, OffsetAndMetadata> committable(Collection<TopicPartition> assigned) {
+        Map<TopicPartition, OffsetAndMetadata> commits = new HashMap<>();
+        for (TopicPartition partition : assigned) {
+            Offsets offsets = partitions.get(partition);
+            if (offsets == null) {
+                continue;
+            }
+            long offset = offsets.committable();
+            if (offset > offsets.committed) {
+                commits.put(partition, new OffsetAndMetadata(offset));
+                offsets.committed = offset;
+            }
+        }
+        return commits;
+    }
+
+    /**
+     * Stop tracking partitions no longer assigned, their records are redelivered from the committed offsets
+     */
+    public synchronized void remove(Collection<TopicPartition> revoked) {
+        for (TopicPartition partition : revoked) {
+            Offsets offsets = partitions.remove(partition);
+            if (offsets != null) {
+                inFlight -= offsets.incomplete.size();
+            }
+        }
+        notifyAll();
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Wait until fewer than max records are in flight, false after the timeout
+     */
+    public synchronized boolean awaitBelow(int max, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (inFlight >= max) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                return false;
+            }
+            wait(wait);
+        }
+        return true;
+    }
+}
@@ -19,6 +19,8 @@ package com.oppo.cloud.syncer.dao;
 import com.oppo.cloud.mapper.FlowMapper;
 import com.oppo.cloud.model.Flow;
 
+import java.util.List;
+
 /**
  * Flow Extended Mapper
  */
@@ -28,6 +30,12 @@ public interface FlowExtendMapper extends FlowMapper {
      * Save data
      */
     int save(Flow record);
+
+    /**
+     * Save data in one statement, skipping existing rows
+     */
+    int saveBatch(List<Flow> records);
+
     /**
      * Save selective data
      */
@@ -19,6 +19,8 @@ package com.oppo.cloud.syncer.dao;
 import com.oppo.cloud.mapper.ProjectMapper;
 import com.oppo.cloud.model.Project;
 
+import java.util.List;
+
 /**
  * Project Extended Mapper
  */
@@ -28,6 +30,12 @@ public interface ProjectExtendMapper extends ProjectMapper {
      * Save data
      */
     int save(Project record);
+
+    /**
+     * Save data in one statement, skipping existing rows
+     */
+    int saveBatch(List<Project> records);
+
     /**
      * Save selective data
      */
@@ -19,6 +19,8 @@ package com.oppo.cloud.syncer.dao;
 import com.oppo.cloud.mapper.TaskMapper;
 import com.oppo.cloud.model.Task;
 
+import java.util.List;
+
 /**
  * Task Extended Mapper
  */
@@ -28,6 +30,12 @@ public interface TaskExtendMapper extends TaskMapper {
      * Save data
      */
     int save(Task record);
+
+    /**
+     * Save data in one statement, skipping existing rows
+     */
+    int saveBatch(List<Task> records);
+
     /**
      * Save selective data
      */
@@ -19,6 +19,8 @@ package com.oppo.cloud.syncer.dao;
 import com.oppo.cloud.mapper.TaskInstanceMapper;
 import com.oppo.cloud.model.TaskInstance;
 
+import java.util.List;
+
 /**
  * Task Instance Extended Mapper
  */
@@ -28,6 +30,12 @@ public interface TaskInstanceExtendMapper extends TaskInstanceMapper {
      * Save data
      */
     int save(TaskInstance record);
+
+    /**
+     * Save data in one statement, skipping existing rows
+     */
+    int saveBatch(List<TaskInstance> records);
+
     /**
      * Save selective data
      */
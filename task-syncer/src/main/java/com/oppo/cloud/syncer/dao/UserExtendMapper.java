@@ -19,6 +19,8 @@ package com.oppo.cloud.syncer.dao;
 import com.oppo.cloud.mapper.UserInfoMapper;
 import com.oppo.cloud.model.UserInfo;
 
+import java.util.List;
+
 /**
  * User Extend Mapper
  */
@@ -28,6 +30,12 @@ public interface UserExtendMapper extends UserInfoMapper {
      * Save data
      */
     int save(UserInfo record);
+
+    /**
+     * Save data in one statement, skipping existing rows
+     */
+    int saveBatch(List<UserInfo> records);
+
     /**
      * Save selective data
      */
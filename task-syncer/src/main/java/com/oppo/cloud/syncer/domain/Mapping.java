@@ -59,4 +59,9 @@ public class Mapping {
      * Source field value to target field value mapping
      */
     private Map<String, String> constantColumn;
+    /**
+     * Source key columns the initialization pages on, "id" by default.
+     * A single numeric key is split into ranges copied in parallel
+     */
+    private List<String> initKeys;
 }
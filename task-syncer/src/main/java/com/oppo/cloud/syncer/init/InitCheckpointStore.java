@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.syncer.init;
+
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Progress of the initial copy, one checkpoint per key range of a target table
+ */
+@Component
+public class InitCheckpointStore {
+
+    @Data
+    public static class Checkpoint {
+
+        private String targetTable;
+
+        private int rangeNo;
+
+        /**
+         * Exclusive lower bound of a numeric key range, null for none
+         */
+        private Long rangeStart;
+
+        /**
+         * Inclusive upper bound of a numeric key range, null for none
+         */
+        private Long rangeEnd;
+
+        /**
+         * Key of the last copied row, JSON array
+         */
+        private String lastKey;
+
+        private boolean done;
+    }
+
+    /**
+     * Pseudo target table of the row held by the instance running the copy, its last_key is the owner
+     */
+    private static final String LOCK_TABLE = "__lock__";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public InitCheckpointStore(@Qualifier("diagnoseJdbcTemplate") JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public List<Checkpoint> load(String targetTable) {
+        return jdbcTemplate.query("SELECT target_table, range_no, range_start, range_end, last_key, done "
+                + "FROM task_syncer_checkpoint WHERE target_table = ? ORDER BY range_no", (rs, i) -> {
+                    Checkpoint checkpoint = new Checkpoint();
+                    checkpoint.setTargetTable(rs.getString("target_table"));
+                    checkpoint.setRangeNo(rs.getInt("range_no"));
+                    checkpoint.setRangeStart(rs.getObject("range_start") == null ? null : rs.getLong("range_start"));
+                    checkpoint.setRangeEnd(rs.getObject("range_end") == null ? null : rs.getLong("range_end"));
+                    checkpoint.setLastKey(rs.getString("last_key"));
+                    checkpoint.setDone(rs.getInt("done") == 1);
+                    return checkpoint;
+                }, targetTable);
+    }
+
+    /**
+     * Drop the checkpoints of a previous initialization
+     */
+    public void clear() {
+        jdbcTemplate.update("DELETE FROM task_syncer_checkpoint WHERE target_table <> ?", LOCK_TABLE);
+    }
+
+    /**
+     * Take or renew the copy lock, false when another instance holds it and renewed it within the lease
+     */
+    public boolean lock(String owner, long leaseMillis) {
+        Date now = new Date();
+        try {
+            jdbcTemplate.update("INSERT INTO task_syncer_checkpoint (target_table, range_no, last_key, done, "
+                    + "update_time) VALUES (?, 0, ?, 0, ?)", LOCK_TABLE, owner, now);
+            return true;
+        } catch (DuplicateKeyException e) {
+            // taken below when it is ours or expired
+        }
+        return jdbcTemplate.update("UPDATE task_syncer_checkpoint SET last_key = ?, update_time = ? "
+                        + "WHERE target_table = ? AND range_no = 0 "
+                        + "AND (last_key = ? OR update_time IS NULL OR update_time < ?)",
+                owner, now, LOCK_TABLE, owner, new Date(now.getTime() - leaseMillis)) == 1;
+    }
+
+    public void unlock(String owner) {
+        jdbcTemplate.update("DELETE FROM task_syncer_checkpoint WHERE target_table = ? AND range_no = 0 "
+                + "AND last_key = ?", LOCK_TABLE, owner);
+    }
+
+    public void create(Checkpoint checkpoint) {
+        jdbcTemplate.update("INSERT INTO task_syncer_checkpoint (target_table, range_no, range_start, range_end, "
+                        + "last_key, done, update_time) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                checkpoint.getTargetTable(), checkpoint.getRangeNo(), checkpoint.getRangeStart(),
+                checkpoint.getRangeEnd(), checkpoint.getLastKey(), checkpoint.isDone() ? 1 : 0, new Date());
+    }
+
+    public void update(Checkpoint checkpoint) {
+        jdbcTemplate.update("UPDATE task_syncer_checkpoint SET last_key = ?, done = ?, update_time = ? "
+                        + "WHERE target_table = ? AND range_no = ?",
+                checkpoint.getLastKey(), checkpoint.isDone() ? 1 : 0, new Date(), checkpoint.getTargetTable(),
+                checkpoint.getRangeNo());
+    }
+}
@@ -20,29 +20,33 @@ import com.oppo.cloud.mapper.*;
 import com.oppo.cloud.model.*;
 import com.oppo.cloud.syncer.config.DataSourceConfig;
 import com.oppo.cloud.syncer.dao.*;
-import com.oppo.cloud.syncer.domain.ColumnDep;
 import com.oppo.cloud.syncer.domain.Mapping;
-import com.oppo.cloud.syncer.service.impl.TaskInstanceService;
+import com.oppo.cloud.syncer.service.impl.ColumnDepResolver;
 import com.oppo.cloud.syncer.util.DataUtil;
-import com.oppo.cloud.syncer.util.StringUtil;
+import com.oppo.cloud.syncer.util.databuild.DataBuilder;
 import com.oppo.cloud.syncer.util.databuild.FlowBuilder;
 import com.oppo.cloud.syncer.util.databuild.ProjectBuilder;
 import com.oppo.cloud.syncer.util.databuild.TaskBuilder;
+import com.oppo.cloud.syncer.util.databuild.TaskInstanceBuilder;
 import com.oppo.cloud.syncer.util.databuild.UserBuilder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
-import org.springframework.context.annotation.ComponentScan;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Initialize service
@@ -70,8 +74,10 @@ public class InitService implements CommandLineRunner {
     private TaskSyncerInitMapper taskSyncerInitMapper;
 
     @Autowired
-    @Qualifier("diagnoseJdbcTemplate")
-    private JdbcTemplate jdbcTemplate;
+    private InitCheckpointStore checkpointStore;
+
+    @Autowired
+    private ColumnDepResolver columnDepResolver;
 
     @Autowired
     @Qualifier("sourceJdbcTemplate")
@@ -80,182 +86,163 @@ public class InitService implements CommandLineRunner {
     @Resource
     private DataSourceConfig dataSourceConfig;
 
+    @Value("${custom.init.page-size:1000}")
+    private int pageSize;
+
+    @Value("${custom.init.workers:4}")
+    private int workers;
+
+    @Value("${custom.init.lock-lease-seconds:300}")
+    private long lockLeaseSeconds;
+
     /**
      * Table data mapping rules
      */
     private Map<String, Mapping> tableMapping;
 
 
+    /**
+     * is_init is 0 while the tables are copied and 1 once done; an interrupted copy resumes from its checkpoints
+     * on the next start. The instance copying holds a lock row renewed within its lease, so that another instance
+     * started meanwhile does not resume the same checkpoints
+     */
     @Override
     public void run(String... args) {
+        String owner = UUID.randomUUID().toString();
         List<TaskSyncerInit> taskSyncerInits = taskSyncerInitMapper.selectByExample(new TaskSyncerInitExample());
         if (taskSyncerInits != null && taskSyncerInits.size() > 0) {
-            log.info("task-syncer has initialized ...");
-            return;
-        }
-
-        // There may be concurrency issues and abnormal exit.
-        try {
-            TaskSyncerInit taskSyncerInit = new TaskSyncerInit();
-            taskSyncerInit.setIsInit(1);
-            taskSyncerInitMapper.insert(taskSyncerInit);
-        } catch (Exception e) {
-            log.error(e.getMessage());
-            return;
-        }
-
-        Mapping mapping = null;
-        // target table = user
-        mapping = this.getTableMapping("user");
-        if (mapping == null) {
-            log.error("can not find `user` table mapping");
-        } else {
-            //  save user table data
-            initTable(mapping, (Map<String, String> data) -> {
-                UserInfo user = (UserInfo) DataUtil.parseInstance(data, UserBuilder.class);
-                try {
-                    userMapper.save(user);
-                } catch (Exception e) {
-                    log.error(e.getMessage());
-                }
-            });
-        }
-        // target table = project
-        mapping = this.getTableMapping("project");
-        if (mapping == null) {
-            log.error("can not find `project` table mapping");
+            if (isInitialized()) {
+                log.info("task-syncer has initialized ...");
+                return;
+            }
+            if (!checkpointStore.lock(owner, lockLeaseMillis())) {
+                log.info("task-syncer is being initialized by another instance ...");
+                return;
+            }
+            // it may have been completed by the previous holder of the lock
+            if (isInitialized()) {
+                checkpointStore.unlock(owner);
+                log.info("task-syncer has initialized ...");
+                return;
+            }
+            log.info("task-syncer resumes the interrupted initialization ...");
         } else {
-            // save project table data
-            initTable(mapping, (Map<String, String> data) -> {
-                Project project = (Project) DataUtil.parseInstance(data, ProjectBuilder.class);
-                try {
-                    projectMapper.save(project);
-                } catch (Exception e) {
-                    log.error(e.getMessage());
+            // There may be concurrency issues and abnormal exit.
+            try {
+                TaskSyncerInit taskSyncerInit = new TaskSyncerInit();
+                taskSyncerInit.setIsInit(0);
+                taskSyncerInitMapper.insert(taskSyncerInit);
+                if (!checkpointStore.lock(owner, lockLeaseMillis())) {
+                    log.info("task-syncer is being initialized by another instance ...");
+                    return;
                 }
-            });
+                checkpointStore.clear();
+            } catch (Exception e) {
+                log.error(e.getMessage());
+                return;
+            }
         }
 
-        // target table = flow
-        mapping = this.getTableMapping("flow");
-        if (mapping == null) {
-            log.error("can not find `flow` table mapping");
-        } else {
-            // Save flow data table
-            initTable(mapping, (Map<String, String> data) -> {
-                Flow flow = (Flow) DataUtil.parseInstance(data, FlowBuilder.class);
-                try {
-                    flowMapper.save(flow);
-                } catch (Exception e) {
-                    log.error(e.getMessage());
+        ScheduledExecutorService lockRenewal = Executors.newSingleThreadScheduledExecutor();
+        long renewMillis = lockLeaseMillis() / 3;
+        lockRenewal.scheduleWithFixedDelay(() -> {
+            try {
+                if (!checkpointStore.lock(owner, lockLeaseMillis())) {
+                    log.error("task-syncer initialization lock was taken by another instance");
                 }
-            });
+            } catch (Exception e) {
+                log.error("failed to renew the initialization lock: {}", e.getMessage());
+            }
+        }, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+        try {
+            copyTables();
+        } finally {
+            lockRenewal.shutdownNow();
+            checkpointStore.unlock(owner);
         }
+    }
 
-        // target table = task
-        mapping = this.getTableMapping("task");
-        if (mapping == null) {
-            log.error("can not find `task` table mapping");
-        } else {
-            // save task table data
-            initTable(mapping, (Map<String, String> data) -> {
-                Task task = (Task) DataUtil.parseInstance(data, TaskBuilder.class);
-                try {
-                    taskMapper.save(task);
-                } catch (Exception e) {
-                    log.error(e.getMessage());
-                }
-            });
+    private void copyTables() {
+        TableCopier copier = new TableCopier(sourceJdbcTemplate, checkpointStore, columnDepResolver, pageSize,
+                workers);
+        boolean complete = initTable(copier, "user", datas -> save(datas, DataUtil.getBuilder(UserBuilder.class),
+                userMapper::saveBatch, userMapper::save));
+        complete &= initTable(copier, "project", datas -> save(datas, DataUtil.getBuilder(ProjectBuilder.class),
+                projectMapper::saveBatch, projectMapper::save));
+        complete &= initTable(copier, "flow", datas -> save(datas, DataUtil.getBuilder(FlowBuilder.class),
+                flowMapper::saveBatch, flowMapper::save));
+        complete &= initTable(copier, "task", datas -> save(datas, DataUtil.getBuilder(TaskBuilder.class),
+                taskMapper::saveBatch, taskMapper::save));
+        complete &= initTable(copier, "task_instance", datas -> save(datas,
+                DataUtil.getBuilder(TaskInstanceBuilder.class), taskInstanceMapper::saveBatch,
+                taskInstanceMapper::save));
+        if (!complete) {
+            log.error("task-syncer initialization is incomplete, it resumes on the next start");
+            return;
         }
 
+        TaskSyncerInit taskSyncerInit = new TaskSyncerInit();
+        taskSyncerInit.setIsInit(1);
+        TaskSyncerInitExample example = new TaskSyncerInitExample();
+        example.createCriteria().andIsInitEqualTo(0);
+        taskSyncerInitMapper.updateByExampleSelective(taskSyncerInit, example);
+        log.info("task-syncer has initialized ...");
     }
 
-    /**
-     * Initialize user table
-     */
-    public void initTable(Mapping mapping, DataStore dataStore) {
-        int page = 1;
-        int pageSize = 100;
-
-        ColumnDep columnDep = mapping.getColumnDep();
-
-        while (true) {
-            String query = buildQuery(mapping.getTable(), page, pageSize);
-            List<Map<String, Object>> queryDatas = sourceJdbcTemplate.queryForList(query);
-            if (queryDatas.size() == 0) {
-                break;
-            }
-
-            List<Map<String, String>> datas = this.convertMap(queryDatas);
-
-            datas = DataUtil.mapData(datas, mapping.getColumnMapping());
-
-            // value mapping
-            DataUtil.mapColumnValue(datas, mapping.getColumnValueMapping());
-
-            // Add constant column
-            DataUtil.constantColumnValue(datas, mapping.getConstantColumn());
-
-            for (Map<String, String> data : datas) {
-                if (columnDep != null) {
-                    for (String depQuery : columnDep.getQueries()) {
-                        depQuery = StringUtil.replaceParams(depQuery, data);
-                        Map<String, Object> result = null;
-                        try {
-                            result = sourceJdbcTemplate.queryForMap(depQuery);
-                        } catch (Exception e) {
-                            log.error("failed to execute dep query: {},{}", depQuery, e.getMessage());
-                        }
-                        if (result == null) {
-                            continue;
-                        }
-                        for (String key : result.keySet()) {
-                            Object v = result.get(key);
-                            if (v == null) {
-                                continue;
-                            }
-                            if (v instanceof LocalDateTime) {
-                                v = DataUtil.formatDateObject(v);
-                            }
-                            data.put(key, v.toString());
-                        }
-                    }
-                }
-                // Save data
-                dataStore.call(data);
-            }
-
-            page += 1;
-        }
+    private boolean isInitialized() {
+        return taskSyncerInitMapper.selectByExample(new TaskSyncerInitExample()).stream()
+                .anyMatch(init -> Integer.valueOf(1).equals(init.getIsInit()));
     }
 
-    public List<Map<String, String>> convertMap(List<Map<String, Object>> queryDatas) {
-        List<Map<String, String>> datas = new ArrayList<>();
-
-        for (Map<String, Object> queryData : queryDatas) {
-            Map<String, String> data = new HashMap<>();
-            for (String key : queryData.keySet()) {
-                Object v = queryData.get(key);
-                if (v == null) {
-                    data.put(key, null);
-                } else {
-                    if (v instanceof LocalDateTime) {
-                        v = DataUtil.formatDateObject(v);
-                    }
-                    data.put(key, v.toString());
-                }
-            }
+    private long lockLeaseMillis() {
+        return TimeUnit.SECONDS.toMillis(lockLeaseSeconds);
+    }
 
-            datas.add(data);
+    /**
+     * Copy the source table of a target table, false when it has not been copied completely
+     */
+    public boolean initTable(TableCopier copier, String targetTable, DataStore dataStore) {
+        Mapping mapping = this.getTableMapping(targetTable);
+        if (mapping == null) {
+            log.error("can not find `{}` table mapping", targetTable);
+            return true;
+        }
+        try {
+            copier.copy(mapping, dataStore);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("failed to init table {}: {}", targetTable, e.getMessage());
         }
-        return datas;
+        return false;
     }
 
     /**
-     * Build query sql
+     * Save a page with one multi-row insert, row by row when it fails so that one bad row does not lose the page
      */
-    public String buildQuery(String table, Integer page, Integer pageSize) {
-        return String.format("SELECT * FROM %s LIMIT %d,%d", table, (page - 1) * pageSize, pageSize);
+    private <T> void save(List<Map<String, String>> datas, DataBuilder<T> builder,
+                          Function<List<T>, Integer> saveBatch, Function<T, Integer> save) {
+        List<T> records = new ArrayList<>();
+        for (Map<String, String> data : datas) {
+            records.add(builder.run(data));
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            saveBatch.apply(records);
+            return;
+        } catch (Exception e) {
+            log.error("failed to save batch, saving row by row: {}", e.getMessage());
+        }
+        for (T record : records) {
+            try {
+                save.apply(record);
+            } catch (Exception e) {
+                log.error(e.getMessage());
+            }
+        }
     }
 
     /**
@@ -289,10 +276,10 @@ public class InitService implements CommandLineRunner {
     }
 
     /**
-     * Data storage interface
+     * Data storage interface, called with a page of rows
      */
     interface DataStore {
 
-        void call(Map<String, String> data);
+        void call(List<Map<String, String>> datas);
     }
 }
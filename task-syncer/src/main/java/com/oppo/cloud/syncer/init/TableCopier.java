@@ -0,0 +1,307 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.syncer.init;
+
+import com.alibaba.fastjson2.JSON;
+import com.oppo.cloud.syncer.domain.ColumnDep;
+import com.oppo.cloud.syncer.domain.Mapping;
+import com.oppo.cloud.syncer.service.impl.ColumnDepResolver;
+import com.oppo.cloud.syncer.util.DataUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigInteger;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Copies a source table page by page in key order. A table with a single integer key is split into ranges
+ * copied in parallel; the last key of each range is checkpointed after every page so that an interrupted copy
+ * resumes where it stopped.
+ */
+@Slf4j
+public class TableCopier {
+
+    private static final String DEFAULT_KEY = "id";
+
+    private final JdbcTemplate sourceJdbcTemplate;
+
+    private final InitCheckpointStore checkpointStore;
+
+    private final ColumnDepResolver columnDepResolver;
+
+    private final int pageSize;
+
+    private final int workers;
+
+    private volatile Boolean limitClause;
+
+    public TableCopier(JdbcTemplate sourceJdbcTemplate, InitCheckpointStore checkpointStore,
+                       ColumnDepResolver columnDepResolver, int pageSize, int workers) {
+        this.sourceJdbcTemplate = sourceJdbcTemplate;
+        this.checkpointStore = checkpointStore;
+        this.columnDepResolver = columnDepResolver;
+        this.pageSize = pageSize;
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Copy the not yet copied rows of the source table of the mapping
+     */
+    public void copy(Mapping mapping, InitService.DataStore dataStore) throws InterruptedException {
+        List<String> keys = keys(mapping);
+        List<InitCheckpointStore.Checkpoint> checkpoints = checkpointStore.load(mapping.getTargetTable());
+        if (checkpoints.isEmpty()) {
+            checkpoints = split(mapping, keys);
+            for (InitCheckpointStore.Checkpoint checkpoint : checkpoints) {
+                checkpointStore.create(checkpoint);
+            }
+        }
+        List<InitCheckpointStore.Checkpoint> pending = new ArrayList<>();
+        for (InitCheckpointStore.Checkpoint checkpoint : checkpoints) {
+            if (!checkpoint.isDone()) {
+                pending.add(checkpoint);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        log.info("init table: {}, ranges: {}", mapping.getTargetTable(), pending.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(workers, pending.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (InitCheckpointStore.Checkpoint checkpoint : pending) {
+                futures.add(executor.submit(() -> copyRange(mapping, keys, checkpoint, dataStore)));
+            }
+            RuntimeException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failure = new IllegalStateException("failed to copy " + mapping.getTable(), e.getCause());
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Key ranges of the table: "workers" ranges between the minimum and maximum of a single integer key,
+     * the whole table otherwise
+     */
+    List<InitCheckpointStore.Checkpoint> split(Mapping mapping, List<String> keys) {
+        List<InitCheckpointStore.Checkpoint> checkpoints = new ArrayList<>();
+        Long min = null;
+        Long max = null;
+        if (keys.size() == 1 && workers > 1) {
+            Map<String, Object> bounds = sourceJdbcTemplate.queryForMap(String.format(
+                    "SELECT MIN(%s) AS min_key, MAX(%s) AS max_key FROM %s", keys.get(0), keys.get(0),
+                    mapping.getTable()));
+            min = integer(bounds.get("min_key"));
+            max = integer(bounds.get("max_key"));
+        }
+        if (min == null || max == null || max - min < workers) {
+            checkpoints.add(checkpoint(mapping, 0, null, null));
+            return checkpoints;
+        }
+        long step = (max - min) / workers + 1;
+        for (int i = 0; i < workers; i++) {
+            // open ends: rows outside of [min, max] written since are copied as well
+            Long start = i == 0 ? null : min + i * step - 1;
+            Long end = i == workers - 1 ? null : min + (i + 1) * step - 1;
+            checkpoints.add(checkpoint(mapping, i, start, end));
+        }
+        return checkpoints;
+    }
+
+    private void copyRange(Mapping mapping, List<String> keys, InitCheckpointStore.Checkpoint checkpoint,
+                           InitService.DataStore dataStore) {
+        List<Object> lastKey = checkpoint.getLastKey() == null ? null
+                : JSON.parseArray(checkpoint.getLastKey(), Object.class);
+        while (true) {
+            List<Object> args = new ArrayList<>();
+            String query = buildQuery(mapping.getTable(), keys, checkpoint, lastKey, args);
+            List<Map<String, Object>> queryDatas = sourceJdbcTemplate.queryForList(query, args.toArray());
+            if (!queryDatas.isEmpty()) {
+                dataStore.call(mapRows(mapping, queryDatas));
+                Map<String, Object> last = queryDatas.get(queryDatas.size() - 1);
+                lastKey = new ArrayList<>();
+                for (String key : keys) {
+                    Object v = last.get(key);
+                    lastKey.add(v instanceof Number || v instanceof String ? v : String.valueOf(v));
+                }
+                checkpoint.setLastKey(JSON.toJSONString(lastKey));
+            }
+            checkpoint.setDone(queryDatas.size() < pageSize);
+            checkpointStore.update(checkpoint);
+            if (checkpoint.isDone()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Page query after the last copied key, within the range of the checkpoint
+     */
+    String buildQuery(String table, List<String> keys, InitCheckpointStore.Checkpoint checkpoint,
+                      List<Object> lastKey, List<Object> args) {
+        List<String> conditions = new ArrayList<>();
+        if (lastKey != null) {
+            // (a > ?) OR (a = ? AND b > ?) OR ...
+            List<String> alternatives = new ArrayList<>();
+            for (int i = 0; i < keys.size(); i++) {
+                List<String> terms = new ArrayList<>();
+                for (int j = 0; j < i; j++) {
+                    terms.add(keys.get(j) + " = ?");
+                    args.add(lastKey.get(j));
+                }
+                terms.add(keys.get(i) + " > ?");
+                args.add(lastKey.get(i));
+                alternatives.add("(" + String.join(" AND ", terms) + ")");
+            }
+            conditions.add("(" + String.join(" OR ", alternatives) + ")");
+        } else if (checkpoint.getRangeStart() != null) {
+            conditions.add(keys.get(0) + " > ?");
+            args.add(checkpoint.getRangeStart());
+        }
+        if (checkpoint.getRangeEnd() != null) {
+            conditions.add(keys.get(0) + " <= ?");
+            args.add(checkpoint.getRangeEnd());
+        }
+        StringBuilder query = new StringBuilder("SELECT * FROM ").append(table);
+        if (!conditions.isEmpty()) {
+            query.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+        query.append(" ORDER BY ").append(String.join(", ", keys));
+        if (useLimitClause()) {
+            query.append(" LIMIT ").append(pageSize);
+        } else {
+            query.append(" FETCH FIRST ").append(pageSize).append(" ROWS ONLY");
+        }
+        return query.toString();
+    }
+
+    /**
+     * Map the source rows to target columns, resolving the columns depending on other tables
+     */
+    private List<Map<String, String>> mapRows(Mapping mapping, List<Map<String, Object>> queryDatas) {
+        List<Map<String, String>> datas = DataUtil.mapData(convertMap(queryDatas), mapping.getColumnMapping());
+
+        // value mapping
+        DataUtil.mapColumnValue(datas, mapping.getColumnValueMapping());
+
+        // Add constant column
+        DataUtil.constantColumnValue(datas, mapping.getConstantColumn());
+
+        ColumnDep columnDep = mapping.getColumnDep();
+        if (columnDep == null) {
+            return datas;
+        }
+        for (String query : columnDep.getQueries()) {
+            columnDepResolver.prefetch(sourceJdbcTemplate, query, datas);
+        }
+        for (Map<String, String> data : datas) {
+            for (String query : columnDep.getQueries()) {
+                Map<String, Object> result = columnDepResolver.resolve(sourceJdbcTemplate, query, data);
+                if (result == null) {
+                    continue;
+                }
+                for (String key : result.keySet()) {
+                    Object v = result.get(key);
+                    if (v == null) {
+                        continue;
+                    }
+                    if (v instanceof LocalDateTime) {
+                        v = DataUtil.formatDateObject(v);
+                    }
+                    data.put(key, v.toString());
+                }
+            }
+        }
+        return datas;
+    }
+
+    public static List<Map<String, String>> convertMap(List<Map<String, Object>> queryDatas) {
+        List<Map<String, String>> datas = new ArrayList<>();
+
+        for (Map<String, Object> queryData : queryDatas) {
+            Map<String, String> data = new HashMap<>();
+            for (String key : queryData.keySet()) {
+                Object v = queryData.get(key);
+                if (v == null) {
+                    data.put(key, null);
+                } else {
+                    if (v instanceof LocalDateTime) {
+                        v = DataUtil.formatDateObject(v);
+                    }
+                    data.put(key, v.toString());
+                }
+            }
+
+            datas.add(data);
+        }
+        return datas;
+    }
+
+    private static List<String> keys(Mapping mapping) {
+        if (mapping.getInitKeys() == null || mapping.getInitKeys().isEmpty()) {
+            return Collections.singletonList(DEFAULT_KEY);
+        }
+        return mapping.getInitKeys();
+    }
+
+    private static InitCheckpointStore.Checkpoint checkpoint(Mapping mapping, int rangeNo, Long start, Long end) {
+        InitCheckpointStore.Checkpoint checkpoint = new InitCheckpointStore.Checkpoint();
+        checkpoint.setTargetTable(mapping.getTargetTable());
+        checkpoint.setRangeNo(rangeNo);
+        checkpoint.setRangeStart(start);
+        checkpoint.setRangeEnd(end);
+        return checkpoint;
+    }
+
+    private static Long integer(Object v) {
+        if (v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof BigInteger) {
+            return ((Number) v).longValue();
+        }
+        return null;
+    }
+
+    /**
+     * MySQL pages with "LIMIT", other databases with the standard "FETCH FIRST"
+     */
+    private boolean useLimitClause() {
+        if (limitClause == null) {
+            String product = sourceJdbcTemplate.execute(
+                    (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+            limitClause = product != null && (product.toLowerCase().contains("mysql")
+                    || product.toLowerCase().contains("mariadb"));
+        }
+        return limitClause;
+    }
+}
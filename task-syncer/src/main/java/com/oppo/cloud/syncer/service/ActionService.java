@@ -19,6 +19,8 @@ package com.oppo.cloud.syncer.service;
 import com.oppo.cloud.syncer.domain.Mapping;
 import com.oppo.cloud.syncer.domain.RawTable;
 
+import java.util.List;
+
 /**
  * Data table operation synchronization service
  */
@@ -36,4 +38,25 @@ public interface ActionService {
      * update operation
      */
     void update(RawTable rawTable, Mapping mapping);
+
+    /**
+     * Batched insert of several messages in their order, one message at a time unless overridden
+     */
+    default void insertBatch(List<RawTable> rawTables, Mapping mapping) {
+        rawTables.forEach(rawTable -> insert(rawTable, mapping));
+    }
+
+    /**
+     * Batched delete of several messages in their order, one message at a time unless overridden
+     */
+    default void deleteBatch(List<RawTable> rawTables, Mapping mapping) {
+        rawTables.forEach(rawTable -> delete(rawTable, mapping));
+    }
+
+    /**
+     * Batched update of several messages in their order, one message at a time unless overridden
+     */
+    default void updateBatch(List<RawTable> rawTables, Mapping mapping) {
+        rawTables.forEach(rawTable -> update(rawTable, mapping));
+    }
 }
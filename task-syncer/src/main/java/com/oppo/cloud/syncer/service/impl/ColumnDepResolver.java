@@ -0,0 +1,197 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.syncer.service.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.oppo.cloud.syncer.util.StringUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves the columnDep queries of the mappings. Results are cached by query, empty results for a shorter time
+ * since the rows may not have been replicated yet. Queries filtering on a single parameter are resolved for many
+ * rows at once with "IN (...)".
+ */
+@Slf4j
+@Component
+public class ColumnDepResolver {
+
+    /**
+     * "select ... from ... where column = ${param} [limit 1]"
+     */
+    private static final Pattern SINGLE_KEY_QUERY = Pattern.compile(
+            "^\\s*select\\s+(?<select>.+?)\\s+from\\s+(?<from>.+)\\s+where\\s+(?<key>[\\w.`]+)\\s*=\\s*"
+                    + "\\$\\{(?<param>\\w+)}\\s*(?<limit>limit\\s+1)?\\s*;?\\s*$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    static final String KEY_ALIAS = "column_dep_key__";
+
+    /**
+     * Values per "IN (...)" query
+     */
+    private static final int BATCH_SIZE = 500;
+
+    @Value("${custom.columnDep.cache.ttl:600}")
+    private long ttl;
+
+    /**
+     * Milliseconds, shorter than the retry delay of deferred messages so that retries query again
+     */
+    @Value("${custom.columnDep.cache.negative-ttl-ms:500}")
+    private long negativeTtlMs;
+
+    @Value("${custom.columnDep.cache.max-size:100000}")
+    private long maxSize;
+
+    private Cache<String, Map<String, Object>> results;
+
+    private Cache<String, Boolean> emptyResults;
+
+    public ColumnDepResolver() {
+    }
+
+    /**
+     * Resolver outside of the application context, ttl in seconds
+     */
+    public ColumnDepResolver(long ttl, long negativeTtlMs, long maxSize) {
+        this.ttl = ttl;
+        this.negativeTtlMs = negativeTtlMs;
+        this.maxSize = maxSize;
+        init();
+    }
+
+    @PostConstruct
+    public void init() {
+        results = CacheBuilder.newBuilder().expireAfterWrite(ttl, TimeUnit.SECONDS).maximumSize(maxSize).build();
+        emptyResults = CacheBuilder.newBuilder().expireAfterWrite(negativeTtlMs, TimeUnit.MILLISECONDS)
+                .maximumSize(maxSize).build();
+    }
+
+    /**
+     * Cache keys of the queries of the rows
+     */
+    public Set<String> keys(List<String> queries, List<Map<String, String>> rows) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (Map<String, String> row : rows) {
+            for (String query : queries) {
+                keys.add(StringUtil.replaceParams(query, row));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Result of the query for a row, null when it returns nothing or fails
+     */
+    public Map<String, Object> resolve(JdbcTemplate jdbcTemplate, String query, Map<String, String> row) {
+        String sql = StringUtil.replaceParams(query, row);
+        Map<String, Object> result = results.getIfPresent(sql);
+        if (result != null) {
+            return result;
+        }
+        if (emptyResults.getIfPresent(sql) != null) {
+            return null;
+        }
+        try {
+            result = jdbcTemplate.queryForMap(sql);
+        } catch (EmptyResultDataAccessException e) {
+            emptyResults.put(sql, true);
+            return null;
+        } catch (Exception e) {
+            log.warn("queryForMap: {}, {}", sql, e.getMessage());
+            return null;
+        }
+        results.put(sql, result);
+        return result;
+    }
+
+    /**
+     * Resolve the query for the rows not cached yet with "IN (...)" queries, when the query filters on a single
+     * parameter; other queries are resolved row by row on use
+     */
+    public void prefetch(JdbcTemplate jdbcTemplate, String query, List<Map<String, String>> rows) {
+        Matcher matcher = SINGLE_KEY_QUERY.matcher(query);
+        if (!matcher.matches() || query.indexOf("${") != query.lastIndexOf("${")
+                || matcher.group("select").trim().toLowerCase().startsWith("distinct")) {
+            return;
+        }
+        String param = matcher.group("param");
+        Map<String, String> sqlByValue = new HashMap<>();
+        for (Map<String, String> row : rows) {
+            String value = row.get(param);
+            if (value == null) {
+                continue;
+            }
+            String sql = StringUtil.replaceParams(query, row);
+            if (results.getIfPresent(sql) == null && emptyResults.getIfPresent(sql) == null) {
+                sqlByValue.put(value, sql);
+            }
+        }
+        for (List<String> values : Lists.partition(new ArrayList<>(sqlByValue.keySet()), BATCH_SIZE)) {
+            String sql = String.format("select %s as %s, %s from %s where %s in (%s)", matcher.group("key"),
+                    KEY_ALIAS, matcher.group("select"), matcher.group("from"), matcher.group("key"),
+                    values.stream().map(v -> "?").collect(Collectors.joining(", ")));
+            List<Map<String, Object>> found;
+            try {
+                found = jdbcTemplate.queryForList(sql, values.toArray());
+            } catch (Exception e) {
+                log.warn("queryForList: {}, {}", sql, e.getMessage());
+                continue;
+            }
+            Map<String, Map<String, Object>> byValue = new HashMap<>();
+            Set<String> ambiguous = new HashSet<>();
+            for (Map<String, Object> result : found) {
+                Object key = result.remove(KEY_ALIAS);
+                if (key == null) {
+                    continue;
+                }
+                if (byValue.putIfAbsent(key.toString(), result) != null) {
+                    ambiguous.add(key.toString());
+                }
+            }
+            if (matcher.group("limit") == null) {
+                // without "limit 1" several rows are an error, left to the lookup row by row
+                byValue.keySet().removeAll(ambiguous);
+            }
+            for (String value : values) {
+                Map<String, Object> result = byValue.get(value);
+                if (result != null) {
+                    results.put(sqlByValue.get(value), result);
+                } else if (!ambiguous.contains(value)) {
+                    emptyResults.put(sqlByValue.get(value), true);
+                }
+            }
+        }
+    }
+}
@@ -16,18 +16,27 @@
 
 package com.oppo.cloud.syncer.service.impl;
 
+import com.alibaba.fastjson2.JSON;
+import com.oppo.cloud.common.constant.Constant;
+import com.oppo.cloud.common.domain.syncer.TableMessage;
+import com.oppo.cloud.common.service.RedisService;
+import com.oppo.cloud.syncer.consumer.DeferredMessages;
 import com.oppo.cloud.syncer.domain.ColumnDep;
 import com.oppo.cloud.syncer.domain.Mapping;
 import com.oppo.cloud.syncer.domain.RawTable;
+import com.oppo.cloud.syncer.producer.MessageProducer;
 import com.oppo.cloud.syncer.util.DataUtil;
 import com.oppo.cloud.syncer.util.StringUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
 
 /**
  * public abstract service
@@ -35,6 +44,18 @@ import java.util.concurrent.TimeUnit;
 @Slf4j
 abstract public class CommonService {
 
+    @Autowired
+    private MessageProducer messageProducer;
+
+    @Autowired
+    private ColumnDepResolver columnDepResolver;
+
+    @Autowired
+    private DeferredMessages deferredMessages;
+
+    @Autowired
+    private RedisService redisService;
+
     /**
      * Data storage: insert, update
      */
@@ -44,9 +65,51 @@ abstract public class CommonService {
      * Data mapping
      */
     public void dataMapping(JdbcTemplate jdbcTemplate, RawTable rawTable, Mapping mapping, String action) {
-        if (DataUtil.isEmpty(rawTable.getData())) {
+        for (Map<String, String> data : mapRows(jdbcTemplate, rawTable, mapping)) {
+            dataSave(data, mapping, action);
+        }
+    }
+
+    /**
+     * Map the rows of several messages in their order, for batched saving
+     */
+    public List<Map<String, String>> mapRows(JdbcTemplate jdbcTemplate, List<RawTable> rawTables, Mapping mapping) {
+        prefetch(jdbcTemplate, rawTables, mapping);
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (RawTable rawTable : rawTables) {
+            rows.addAll(mapRows(jdbcTemplate, rawTable, mapping));
+        }
+        return rows;
+    }
+
+    /**
+     * Resolve the columnDep queries of the rows of several messages with batched queries
+     */
+    private void prefetch(JdbcTemplate jdbcTemplate, List<RawTable> rawTables, Mapping mapping) {
+        ColumnDep columnDep = mapping.getColumnDep();
+        if (columnDep == null || rawTables.size() < 2) {
             return;
         }
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (RawTable rawTable : rawTables) {
+            if (!DataUtil.isEmpty(rawTable.getData())) {
+                rows.addAll(DataUtil.mapData(rawTable.getData(), mapping.getColumnMapping()));
+            }
+        }
+        DataUtil.mapColumnValue(rows, mapping.getColumnValueMapping());
+        DataUtil.constantColumnValue(rows, mapping.getConstantColumn());
+        for (String query : columnDep.getQueries()) {
+            columnDepResolver.prefetch(jdbcTemplate, query, rows);
+        }
+    }
+
+    /**
+     * Map the rows of a message to target columns, resolving the columns depending on other tables
+     */
+    public List<Map<String, String>> mapRows(JdbcTemplate jdbcTemplate, RawTable rawTable, Mapping mapping) {
+        if (DataUtil.isEmpty(rawTable.getData())) {
+            return Collections.emptyList();
+        }
 
         Map<String, String> columnMapping = mapping.getColumnMapping();
         List<Map<String, String>> datas = DataUtil.mapData(rawTable.getData(), columnMapping);
@@ -58,48 +121,80 @@ abstract public class CommonService {
         DataUtil.constantColumnValue(datas, mapping.getConstantColumn());
 
         ColumnDep columnDep = mapping.getColumnDep();
+        if (columnDep == null) {
+            log.info("table: " + mapping.getTargetTable() + "; columnDep is null ");
+            return datas;
+        }
 
+        // wait behind earlier messages of the same rows
+        Set<String> keys = columnDepResolver.keys(columnDep.getQueries(), datas);
+        if (deferredMessages.isBlocked(keys) && deferredMessages.defer(rawTable, mapping, keys)) {
+            log.info("table: {}, deferred behind pending messages, id: {}", mapping.getTargetTable(), rawTable.getId());
+            return Collections.emptyList();
+        }
+
+        boolean missing = false;
         for (Map<String, String> data : datas) {
-            if (columnDep != null) {
-                for (String query : columnDep.getQueries()) {
-                    query = StringUtil.replaceParams(query, data);
-                    Map<String, Object> result = null;
-                    // possible delay
-                    for (int i = 0; i < 3; i++) {
-                        try {
-                            result = jdbcTemplate.queryForMap(query);
-                            break;
-                        } catch (Exception e) {
-                            log.warn("table: {},queryForMap: {},", mapping.getTargetTable(), query, e);
-                            try {
-                                TimeUnit.MILLISECONDS.sleep(300);
-                            } catch (Exception ee) {
-
-                            }
-                        }
-                    }
-                    if (result == null) {
-                        log.warn("query: {}, result is null!", query);
+            for (String query : columnDep.getQueries()) {
+                Map<String, Object> result = columnDepResolver.resolve(jdbcTemplate, query, data);
+                if (result == null) {
+                    log.warn("query: {}, result is null!", StringUtil.replaceParams(query, data));
+                    missing = true;
+                    continue;
+                }
+                for (String key : result.keySet()) {
+                    Object v = result.get(key);
+                    if (v == null) {
                         continue;
                     }
-                    log.info("table: {},query:{}, result: {}", mapping.getTargetTable(), query, result);
-                    for (String key : result.keySet()) {
-                        Object v = result.get(key);
-                        if (v == null) {
-                            continue;
-                        }
-                        if (v instanceof LocalDateTime) {
-                            v = DataUtil.formatDateObject(v);
-                        }
-                        data.put(key, v.toString());
+                    if (v instanceof LocalDateTime) {
+                        v = DataUtil.formatDateObject(v);
                     }
+                    data.put(key, v.toString());
                 }
-            } else {
-                log.info("table: " + mapping.getTargetTable() + "; columnDep is null ");
             }
             log.info("dataMapping table:{}, data: {}", mapping.getTargetTable(), data.toString());
+        }
+        // possible replication delay: retried later instead of blocking the consumer
+        if (missing && deferredMessages.defer(rawTable, mapping, keys)) {
+            log.info("table: {}, deferred, id: {}", mapping.getTargetTable(), rawTable.getId());
+            return Collections.emptyList();
+        }
+        return datas;
+    }
 
-            dataSave(data, mapping, action);
+    /**
+     * Write saved data back to the kafka topic of the mapping, if any, for the services subscribing to changes
+     */
+    public void writeBack(Map<String, String> data, Object instance, Mapping mapping, String action) {
+        if (DataUtil.isEmpty(mapping.getWriteKafkaTopic())) {
+            return;
+        }
+        try {
+            String message = JSON.toJSONString(new TableMessage(
+                    JSON.toJSONString(data),
+                    JSON.toJSONString(instance),
+                    action,
+                    mapping.getTargetTable()));
+            messageProducer.sendMessageSync(mapping.getWriteKafkaTopic(), message);
+        } catch (Exception ex) {
+            log.error("failed to send " + action + " data to kafka, err: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Publish a saved row on the metadata channel, for the services caching rows of its table
+     */
+    public void notifyChange(Object instance, Mapping mapping, String action) {
+        try {
+            String message = JSON.toJSONString(new TableMessage(
+                    JSON.toJSONString(instance),
+                    action,
+                    mapping.getTargetTable()));
+            redisService.publish(Constant.METADATA_INVALIDATE_CHANNEL, message);
+        } catch (Exception ex) {
+            log.error("failed to publish " + action + " data of " + mapping.getTargetTable() + ", err: "
+                    + ex.getMessage());
         }
     }
 }
@@ -16,25 +16,29 @@
 
 package com.oppo.cloud.syncer.service.impl;
 
-import com.alibaba.fastjson2.JSON;
-import com.oppo.cloud.common.domain.syncer.TableMessage;
 import com.oppo.cloud.model.TaskInstance;
 import com.oppo.cloud.syncer.dao.TaskInstanceExtendMapper;
 import com.oppo.cloud.syncer.domain.Mapping;
 import com.oppo.cloud.syncer.domain.RawTable;
-import com.oppo.cloud.syncer.producer.MessageProducer;
 import com.oppo.cloud.syncer.service.ActionService;
 import com.oppo.cloud.syncer.util.DataUtil;
 import com.oppo.cloud.syncer.util.databuild.TaskInstanceBuilder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Task or job instance execution record synchronization
@@ -43,6 +47,76 @@ import java.util.Map;
 @Service
 public class TaskInstanceService extends CommonService implements ActionService {
 
+    /**
+     * Columns written by batches, as in the mapper statements
+     */
+    private static final Map<String, Function<TaskInstance, Object>> COLUMNS = new LinkedHashMap<>();
+
+    static {
+        COLUMNS.put("id", TaskInstance::getId);
+        COLUMNS.put("project_name", TaskInstance::getProjectName);
+        COLUMNS.put("flow_name", TaskInstance::getFlowName);
+        COLUMNS.put("task_name", TaskInstance::getTaskName);
+        COLUMNS.put("start_time", TaskInstance::getStartTime);
+        COLUMNS.put("end_time", TaskInstance::getEndTime);
+        COLUMNS.put("execution_time", TaskInstance::getExecutionTime);
+        COLUMNS.put("task_state", TaskInstance::getTaskState);
+        COLUMNS.put("task_type", TaskInstance::getTaskType);
+        COLUMNS.put("retry_times", TaskInstance::getRetryTimes);
+        COLUMNS.put("max_retry_times", TaskInstance::getMaxRetryTimes);
+        COLUMNS.put("worker_group", TaskInstance::getWorkerGroup);
+        COLUMNS.put("trigger_type", TaskInstance::getTriggerType);
+        COLUMNS.put("create_time", TaskInstance::getCreateTime);
+        COLUMNS.put("update_time", TaskInstance::getUpdateTime);
+    }
+
+    /**
+     * Unique key of task_instance, a replayed insert updates the row with the same key
+     */
+    static final String UNIQUE_KEY = "project_name, flow_name, task_name, execution_time, retry_times";
+
+    /**
+     * Insert, or update the row with the same project, flow, task, execution time and retry when replayed:
+     * "ON DUPLICATE KEY UPDATE" on MySQL, "ON CONFLICT" on PostgreSQL
+     */
+    static String upsertSql(boolean mysql) {
+        String insert = String.format("INSERT INTO task_instance (%s) VALUES (%s)",
+                String.join(", ", COLUMNS.keySet()),
+                COLUMNS.keySet().stream().map(column -> "?").collect(Collectors.joining(", ")));
+        String updates = COLUMNS.keySet().stream()
+                .filter(column -> !"id".equals(column) && !"create_time".equals(column))
+                .map(column -> String.format(mysql ? "%s = VALUES(%s)" : "%s = EXCLUDED.%s", column, column))
+                .collect(Collectors.joining(", "));
+        return mysql ? String.format("%s ON DUPLICATE KEY UPDATE %s", insert, updates)
+                : String.format("%s ON CONFLICT (%s) DO UPDATE SET %s", insert, UNIQUE_KEY, updates);
+    }
+
+    /**
+     * Selective update by primary key, null values keep the current column
+     */
+    static final String UPDATE_BY_ID_SQL = String.format("UPDATE task_instance SET %s WHERE id = ?",
+            selectiveSet("id"));
+
+    /**
+     * Selective update by flow, task and execution time, as updateByCompositePrimaryKeySelective
+     */
+    static final String UPDATE_BY_COMPOSITE_KEY_SQL = String.format(
+            "UPDATE task_instance SET %s WHERE flow_name = ? AND task_name = ? AND execution_time = ?",
+            selectiveSet("id", "task_type"));
+
+    private static String selectiveSet(String... excluded) {
+        List<String> skip = Arrays.asList(excluded);
+        return COLUMNS.keySet().stream().filter(column -> !skip.contains(column))
+                .map(column -> String.format("%s = COALESCE(?, %s)", column, column))
+                .collect(Collectors.joining(", "));
+    }
+
+    private static Object[] values(TaskInstance instance, String... excluded) {
+        List<String> skip = Arrays.asList(excluded);
+        return COLUMNS.entrySet().stream().filter(column -> !skip.contains(column.getKey()))
+                .map(column -> column.getValue().apply(instance)).toArray();
+    }
+
     @Autowired
     private TaskInstanceExtendMapper taskInstanceMapper;
 
@@ -50,8 +124,7 @@ public class TaskInstanceService extends CommonService implements ActionService
     @Qualifier("diagnoseJdbcTemplate")
     private JdbcTemplate jdbcTemplate;
 
-    @Autowired
-    private MessageProducer messageProducer;
+    private volatile String upsertSql;
 
     /**
      * insert operation
@@ -76,6 +149,89 @@ public class TaskInstanceService extends CommonService implements ActionService
         dataMapping(jdbcTemplate, rawTable, mapping, "UPDATE");
     }
 
+    /**
+     * Batched insert: one JDBC batch upsert for the rows of all messages
+     */
+    @Override
+    public void insertBatch(List<RawTable> rawTables, Mapping mapping) {
+        List<Map<String, String>> rows = mapRows(jdbcTemplate, rawTables, mapping);
+        List<TaskInstance> instances = new ArrayList<>();
+        List<Object[]> args = new ArrayList<>();
+        for (Map<String, String> data : rows) {
+            TaskInstance instance = (TaskInstance) DataUtil.parseInstance(data, TaskInstanceBuilder.class);
+            if (instance.getCreateTime() == null) {
+                instance.setCreateTime(new Date());
+            }
+            instances.add(instance);
+            args.add(values(instance));
+        }
+        if (args.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(upsertSql(), args);
+        log.info("insertBatch task_instance: {}", args.size());
+        for (int i = 0; i < rows.size(); i++) {
+            writeBack(rows.get(i), instances.get(i), mapping, "INSERT");
+        }
+    }
+
+    /**
+     * Batched update: JDBC batch updates in message order, by id or by flow, task and execution time.
+     * Consecutive rows with the same kind of key share a batch, a change of kind flushes the pending one.
+     */
+    @Override
+    public void updateBatch(List<RawTable> rawTables, Mapping mapping) {
+        List<Map<String, String>> rows = mapRows(jdbcTemplate, rawTables, mapping);
+        List<TaskInstance> instances = new ArrayList<>();
+        String sql = null;
+        List<Object[]> args = new ArrayList<>();
+        for (Map<String, String> data : rows) {
+            TaskInstance instance = (TaskInstance) DataUtil.parseInstance(data, TaskInstanceBuilder.class);
+            if (instance.getUpdateTime() == null) {
+                instance.setUpdateTime(new Date());
+            }
+            instances.add(instance);
+            String next = instance.getId() != null ? UPDATE_BY_ID_SQL : UPDATE_BY_COMPOSITE_KEY_SQL;
+            if (sql != null && !sql.equals(next)) {
+                jdbcTemplate.batchUpdate(sql, args);
+                args = new ArrayList<>();
+            }
+            sql = next;
+            if (instance.getId() != null) {
+                args.add(append(values(instance, "id"), instance.getId()));
+            } else {
+                args.add(append(values(instance, "id", "task_type"), instance.getFlowName(),
+                        instance.getTaskName(), instance.getExecutionTime()));
+            }
+        }
+        if (!args.isEmpty()) {
+            jdbcTemplate.batchUpdate(sql, args);
+        }
+        log.info("updateBatch task_instance: {}", rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            writeBack(rows.get(i), instances.get(i), mapping, "UPDATE");
+        }
+    }
+
+    private static Object[] append(Object[] values, Object... keys) {
+        Object[] args = new Object[values.length + keys.length];
+        System.arraycopy(values, 0, args, 0, values.length);
+        System.arraycopy(keys, 0, args, values.length, keys.length);
+        return args;
+    }
+
+    /**
+     * Upsert statement of the diagnose database
+     */
+    private String upsertSql() {
+        if (upsertSql == null) {
+            String product = jdbcTemplate.execute(
+                    (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+            upsertSql = upsertSql(product == null || !product.toLowerCase().contains("postgresql"));
+        }
+        return upsertSql;
+    }
+
     /**
      * Data save operation
      */
@@ -106,17 +262,6 @@ public class TaskInstanceService extends CommonService implements ActionService
         }
 
         // Write data back to kafka subscription
-        if (!DataUtil.isEmpty(mapping.getWriteKafkaTopic())) {
-            try {
-                String message = JSON.toJSONString(new TableMessage(
-                        JSON.toJSONString(data),
-                        JSON.toJSONString(instance),
-                        action,
-                        mapping.getTargetTable()));
-                messageProducer.sendMessageSync(mapping.getWriteKafkaTopic(), message);
-            } catch (Exception ex) {
-                log.error("failed to send insert data to kafka, err: " + ex.getMessage());
-            }
-        }
+        writeBack(data, instance, mapping, action);
     }
 }
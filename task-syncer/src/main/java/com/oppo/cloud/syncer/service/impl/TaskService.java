@@ -93,6 +93,7 @@ public class TaskService extends CommonService implements ActionService {
                 taskMapper.updateByTask(instance);
             }
         }
+        notifyChange(instance, mapping, action);
     }
 
     public Task getTask(Task task) {
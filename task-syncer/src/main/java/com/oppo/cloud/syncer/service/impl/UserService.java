@@ -79,6 +79,7 @@ public class UserService extends CommonService implements ActionService {
         } else if (action.equals("UPDATE")) {
             userMapper.updateByExampleSelective(instance, buildUserExample(data));
         }
+        notifyChange(instance, mapping, action);
     }
     /**
      * Build update query conditions
@@ -20,10 +20,14 @@ import com.oppo.cloud.syncer.domain.ValueMapping;
 import com.oppo.cloud.syncer.util.databuild.*;
 import lombok.extern.slf4j.Slf4j;
 
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Data conversion tool
@@ -33,12 +37,28 @@ public class DataUtil {
 
     public static final String DATETIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
 
+    private static final DateTimeFormatter DATETIME_FORMATTER = DateTimeFormatter.ofPattern(DATETIME_FORMAT);
+
+    /**
+     * Builders are stateless, one instance per class serves every row
+     */
+    private static final Map<Class<?>, DataBuilder<?>> BUILDERS = new ConcurrentHashMap<>();
+
     /**
      * Generate map into corresponding objects based on data instances
      */
     public static Object parseInstance(Map<String, String> data, Class clazz) {
-        DataFactory<DataBuilder> dataFactory = new GenericFactory<>();
-        return dataFactory.getBuilder(clazz).run(data);
+        return getBuilder(clazz).run(data);
+    }
+
+    /**
+     * Shared builder instance of a class
+     */
+    public static <U> DataBuilder<U> getBuilder(Class<? extends DataBuilder<U>> clazz) {
+        return (DataBuilder<U>) BUILDERS.computeIfAbsent(clazz, c -> {
+            DataFactory<DataBuilder> dataFactory = new GenericFactory<>();
+            return dataFactory.getBuilder((Class<? extends DataBuilder>) c);
+        });
     }
 
     /**
@@ -62,13 +82,19 @@ public class DataUtil {
     }
 
     /**
-     * date conversion
+     * date conversion, text after the seconds (e.g. fractions) is ignored
      */
     public static Date parseDate(String s) {
         if (s == null || s.isEmpty()) {
             return null;
         }
 
+        try {
+            LocalDateTime dateTime = LocalDateTime.from(DATETIME_FORMATTER.parse(s, new ParsePosition(0)));
+            return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+        } catch (DateTimeParseException e) {
+            // lenient parsing of unusual values, e.g. without leading zeros
+        }
         SimpleDateFormat simpleDateFormat = new SimpleDateFormat(DATETIME_FORMAT);
         try {
             return simpleDateFormat.parse(s);
@@ -163,14 +189,8 @@ public class DataUtil {
      */
     public static String mapValue(String value, List<ValueMapping> valueMappings) {
         for (ValueMapping valueMapping : valueMappings) {
-            Map<String, String> m = new HashMap<>();
-            for (String v : valueMapping.getOriginValue()) {
-                m.put(v, valueMapping.getTargetValue());
-            }
-
-            String targetValue = m.get(value);
-            if (targetValue != null) {
-                return targetValue;
+            if (valueMapping.getTargetValue() != null && valueMapping.getOriginValue().contains(value)) {
+                return valueMapping.getTargetValue();
             }
         }
         return value;
@@ -193,7 +213,7 @@ public class DataUtil {
     }
 
     public static Object formatDateObject(Object obj) {
-        return ((LocalDateTime) obj).format(DateTimeFormatter.ofPattern(DATETIME_FORMAT));
+        return ((LocalDateTime) obj).format(DATETIME_FORMATTER);
 
     }
 }
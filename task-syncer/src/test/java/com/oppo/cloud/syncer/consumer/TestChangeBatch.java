@@ -0,0 +1,71 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.syncer.consumer;
+
+import com.oppo.cloud.syncer.domain.Mapping;
+import com.oppo.cloud.syncer.domain.RawTable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TestChangeBatch {
+
+    private static Mapping mapping(String targetTable) {
+        Mapping mapping = new Mapping();
+        mapping.setTable("task_instance");
+        mapping.setTargetTable(targetTable);
+        return mapping;
+    }
+
+    private static RawTable rawTable(String type, long id) {
+        RawTable rawTable = new RawTable();
+        rawTable.setTable("task_instance");
+        rawTable.setType(type);
+        rawTable.setId(id);
+        return rawTable;
+    }
+
+    private static String describe(ChangeBatch.Group group) {
+        return group.getMapping().getTargetTable() + ":" + group.getType() + ":"
+                + group.getRawTables().stream().map(rawTable -> String.valueOf(rawTable.getId()))
+                .collect(Collectors.joining(","));
+    }
+
+    @Test
+    public void testGroupByTableAndType() {
+        Mapping task = mapping("task");
+        Mapping taskInstance = mapping("task_instance");
+        ChangeBatch batch = new ChangeBatch();
+        for (RawTable rawTable : Arrays.asList(rawTable("INSERT", 1), rawTable("INSERT", 2), rawTable("UPDATE", 3),
+                rawTable("UPDATE", 4), rawTable("ALTER", 5), rawTable("INSERT", 6))) {
+            batch.add(rawTable, task);
+            batch.add(rawTable, taskInstance);
+        }
+
+        List<String> groups = batch.getGroups().stream().map(TestChangeBatch::describe).collect(Collectors.toList());
+        // operations of a table are applied in message order
+        Assertions.assertEquals(Arrays.asList(
+                "task:INSERT:1,2",
+                "task_instance:INSERT:1,2",
+                "task:UPDATE:3,4",
+                "task_instance:UPDATE:3,4",
+                "task:INSERT:6",
+                "task_instance:INSERT:6"), groups);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.syncer.consumer;
+
+import com.oppo.cloud.syncer.domain.Mapping;
+import com.oppo.cloud.syncer.domain.RawTable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+public class TestDeferredMessages {
+
+    @Test
+    public void testDeferAndRetry() {
+        DeferredMessages deferredMessages = new DeferredMessages(2, 0);
+        Mapping mapping = new Mapping();
+        RawTable first = new RawTable();
+        RawTable second = new RawTable();
+
+        Assertions.assertTrue(deferredMessages.defer(first, mapping, Collections.singleton("q1")));
+        // later changes of the same row wait behind
+        Assertions.assertTrue(deferredMessages.isBlocked(Collections.singletonList("q1")));
+        Assertions.assertFalse(deferredMessages.isBlocked(Collections.singletonList("q2")));
+        Assertions.assertTrue(deferredMessages.defer(second, mapping, Collections.singleton("q1")));
+
+        List<DeferredMessages.Deferred> due = deferredMessages.pollDue(System.currentTimeMillis());
+        Assertions.assertEquals(2, due.size());
+        Assertions.assertSame(first, due.get(0).getRawTable());
+        Assertions.assertFalse(deferredMessages.isBlocked(Collections.singletonList("q1")));
+
+        // second attempt, then handled as it is
+        Assertions.assertTrue(deferredMessages.defer(first, mapping, Collections.singleton("q1")));
+        deferredMessages.settle();
+        Assertions.assertEquals(1, deferredMessages.pollDue(System.currentTimeMillis()).size());
+        Assertions.assertFalse(deferredMessages.defer(first, mapping, Collections.singleton("q1")));
+        deferredMessages.settle();
+        Assertions.assertEquals(0, deferredMessages.size());
+    }
+
+    @Test
+    public void testConcurrentRetries() {
+        DeferredMessages deferredMessages = new DeferredMessages(2, 0);
+        Mapping mapping = new Mapping();
+        RawTable first = new RawTable();
+        RawTable second = new RawTable();
+        deferredMessages.defer(first, mapping, Collections.singleton("q1"));
+        deferredMessages.defer(second, mapping, Collections.singleton("q2"));
+
+        List<DeferredMessages.Deferred> due = deferredMessages.pollDue(System.currentTimeMillis());
+        Assertions.assertTrue(deferredMessages.isDeferred(first));
+        // the lane of the first message settles it, the second one is still being retried
+        deferredMessages.settle(Collections.singletonList(due.get(0)));
+        Assertions.assertFalse(deferredMessages.isDeferred(first));
+        Assertions.assertTrue(deferredMessages.isDeferred(second));
+        Assertions.assertTrue(deferredMessages.defer(second, mapping, Collections.singleton("q2")));
+        Assertions.assertTrue(deferredMessages.isDeferred(second));
+    }
+
+    @Test
+    public void testDiscard() {
+        DeferredMessages deferredMessages = new DeferredMessages(2, 0);
+        Mapping mapping = new Mapping();
+        RawTable first = new RawTable();
+        RawTable second = new RawTable();
+        deferredMessages.defer(first, mapping, Collections.singleton("q1"));
+        deferredMessages.defer(second, mapping, Collections.singleton("q2"));
+        deferredMessages.pollDue(System.currentTimeMillis());
+        deferredMessages.defer(second, mapping, Collections.singleton("q2"));
+
+        // the partition of the first message is revoked while it is being retried
+        deferredMessages.discard(rawTable -> rawTable == first);
+        Assertions.assertFalse(deferredMessages.isDeferred(first));
+        Assertions.assertTrue(deferredMessages.isDeferred(second));
+        Assertions.assertEquals(1, deferredMessages.pollDue(System.currentTimeMillis()).size());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.syncer.consumer;
+
+import com.oppo.cloud.syncer.domain.Mapping;
+import com.oppo.cloud.syncer.domain.RawTable;
+import com.oppo.cloud.syncer.service.ActionService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestLaneDispatcher {
+
+    @Test
+    public void testKeyOrder() throws Exception {
+        LaneDispatcher dispatcher = new LaneDispatcher(4);
+        Map<String, List<Integer>> applied = new ConcurrentHashMap<>();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 1000; i++) {
+            String key = "task_instance|" + (i % 20);
+            int sequence = i;
+            dispatcher.submit(dispatcher.lane(key), () -> {
+                threads.add(Thread.currentThread().getName());
+                applied.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>())).add(sequence);
+            });
+        }
+        dispatcher.drain();
+        dispatcher.shutdown();
+
+        Assertions.assertEquals(20, applied.size());
+        for (List<Integer> sequences : applied.values()) {
+            Assertions.assertEquals(50, sequences.size());
+            List<Integer> sorted = new ArrayList<>(sequences);
+            Collections.sort(sorted);
+            Assertions.assertEquals(sorted, sequences);
+        }
+        Assertions.assertTrue(threads.size() > 1);
+    }
+
+    @Test
+    public void testSplitRows() {
+        RawTable rawTable = new RawTable();
+        rawTable.setTable("t_ds_task_instance");
+        rawTable.setType("UPDATE");
+        rawTable.setPkNames(Collections.singletonList("id"));
+        rawTable.setData(Arrays.asList(row("1", "RUNNING_EXECUTION"), row("2", "SUCCESS")));
+        rawTable.setOld(Arrays.asList(row("1", "SUBMITTED_SUCCESS"), row("2", "RUNNING_EXECUTION")));
+        Mapping mapping = new Mapping();
+        mapping.setTargetTable("task_instance");
+
+        List<RawTable> rows = MessageConsumer.splitRows(rawTable);
+        Assertions.assertEquals(2, rows.size());
+        Assertions.assertEquals("SUCCESS", rows.get(1).getData().get(0).get("state"));
+        Assertions.assertEquals("RUNNING_EXECUTION", rows.get(1).getOld().get(0).get("state"));
+        Assertions.assertEquals("UPDATE", rows.get(1).getType());
+        Assertions.assertEquals("task_instance|1", MessageConsumer.laneKey(rows.get(0), mapping));
+        Assertions.assertEquals("task_instance|2", MessageConsumer.laneKey(rows.get(1), mapping));
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        Assertions.assertTrue(MessageConsumer.retry(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("database unavailable");
+            }
+        }, 5, 1, 2));
+        Assertions.assertEquals(3, attempts.get());
+
+        attempts.set(0);
+        Assertions.assertFalse(MessageConsumer.retry(() -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("database unavailable");
+        }, 3, 1, 2));
+        Assertions.assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testConsumeRows() {
+        RawTable rawTable = new RawTable();
+        rawTable.setTable("t_ds_task_instance");
+        rawTable.setType("INSERT");
+        rawTable.setPkNames(Collections.singletonList("id"));
+        rawTable.setData(Arrays.asList(row("1", "SUCCESS"), row("2", "FAILURE"), row("3", "SUCCESS")));
+        Mapping mapping = new Mapping();
+        mapping.setTargetTable("task_instance");
+        ChangeBatch batch = new ChangeBatch();
+        List<RawTable> rows = MessageConsumer.splitRows(rawTable);
+        rows.forEach(row -> batch.add(row, mapping));
+
+        ActionService service = Mockito.mock(ActionService.class);
+        Mockito.doThrow(new IllegalStateException("data too long")).when(service)
+                .insert(Mockito.same(rows.get(1)), Mockito.any());
+        Map<String, ActionService> serviceMap = new HashMap<>();
+        serviceMap.put("taskInstanceService", service);
+        MessageConsumer consumer = new MessageConsumer();
+        ReflectionTestUtils.setField(consumer, "serviceMap", serviceMap);
+
+        List<RawTable> failed = consumer.consumeRows(batch.getGroups().get(0));
+        Assertions.assertEquals(Collections.singletonList(rows.get(1)), failed);
+        Mockito.verify(service, Mockito.times(3)).insert(Mockito.any(), Mockito.same(mapping));
+    }
+
+    private static Map<String, String> row(String id, String state) {
+        Map<String, String> row = new HashMap<>();
+        row.put("id", id);
+        row.put("state", state);
+        return row;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.syncer.consumer;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+public class TestOffsetTracker {
+
+    private static final TopicPartition PARTITION = new TopicPartition("mysqldata", 0);
+
+    @Test
+    public void testCommitLowestIncomplete() {
+        OffsetTracker tracker = new OffsetTracker();
+        OffsetTracker.Record first = tracker.register(PARTITION, 10, 2);
+        OffsetTracker.Record second = tracker.register(PARTITION, 11, 1);
+        // nothing to apply
+        tracker.register(PARTITION, 12, 0);
+        Assertions.assertEquals(2, tracker.inFlight());
+        Assertions.assertEquals(10, tracker.committable(Collections.singletonList(PARTITION)).get(PARTITION).offset());
+
+        second.complete();
+        first.complete();
+        // one part of the first record is still processed
+        Assertions.assertTrue(tracker.committable(Collections.singletonList(PARTITION)).isEmpty());
+
+        first.complete();
+        Map<TopicPartition, OffsetAndMetadata> offsets = tracker.committable(Collections.singletonList(PARTITION));
+        Assertions.assertEquals(13, offsets.get(PARTITION).offset());
+        Assertions.assertEquals(0, tracker.inFlight());
+        Assertions.assertTrue(tracker.committable(Collections.singletonList(PARTITION)).isEmpty());
+    }
+
+    @Test
+    public void testRevoke() throws Exception {
+        OffsetTracker tracker = new OffsetTracker();
+        OffsetTracker.Record record = tracker.register(PARTITION, 5, 1);
+        Assertions.assertFalse(tracker.awaitBelow(1, 10));
+        tracker.remove(Collections.singletonList(PARTITION));
+        Assertions.assertTrue(tracker.awaitBelow(1, 10));
+        record.complete();
+        Assertions.assertEquals(0, tracker.inFlight());
+        Assertions.assertTrue(tracker.committable(Collections.singletonList(PARTITION)).isEmpty());
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.syncer.init;
+
+import com.oppo.cloud.syncer.domain.Mapping;
+import com.oppo.cloud.syncer.service.impl.ColumnDepResolver;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies tables of an in-memory Derby database
+ */
+public class TestTableCopier {
+
+    private JdbcTemplate jdbcTemplate;
+
+    private InitCheckpointStore checkpointStore;
+
+    private final ColumnDepResolver columnDepResolver = new ColumnDepResolver(600, 0, 1000);
+
+    @BeforeEach
+    public void setUp() {
+        System.setProperty("derby.stream.error.file", "target/derby.log");
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:derby:memory:" + UUID.randomUUID() + ";create=true"));
+        jdbcTemplate.execute("CREATE TABLE task_syncer_checkpoint (target_table VARCHAR(64) NOT NULL, "
+                + "range_no INT NOT NULL, range_start BIGINT, range_end BIGINT, last_key VARCHAR(1024), "
+                + "done INT NOT NULL DEFAULT 0, update_time TIMESTAMP, PRIMARY KEY (target_table, range_no))");
+        jdbcTemplate.execute("CREATE TABLE t_ds_user (id INT PRIMARY KEY, user_name VARCHAR(64))");
+        // ids with gaps
+        for (int i = 1; i <= 237; i++) {
+            jdbcTemplate.update("INSERT INTO t_ds_user VALUES (?, ?)", i * 3, "user" + i);
+        }
+        checkpointStore = new InitCheckpointStore(jdbcTemplate);
+    }
+
+    private Mapping userMapping() {
+        Mapping mapping = new Mapping();
+        mapping.setTable("t_ds_user");
+        mapping.setTargetTable("user");
+        mapping.setColumnMapping(columns("user_id", "ID", "username", "USER_NAME"));
+        return mapping;
+    }
+
+    private static Map<String, String> columns(String... pairs) {
+        Map<String, String> columns = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            columns.put(pairs[i], pairs[i + 1]);
+        }
+        return columns;
+    }
+
+    private static void collect(List<Map<String, String>> datas, List<String> copied) {
+        for (Map<String, String> data : datas) {
+            copied.add(data.get("user_id"));
+        }
+    }
+
+    @Test
+    public void testParallelCopy() throws Exception {
+        List<String> copied = Collections.synchronizedList(new ArrayList<>());
+        TableCopier copier = new TableCopier(jdbcTemplate, checkpointStore, columnDepResolver, 10, 4);
+        copier.copy(userMapping(), datas -> collect(datas, copied));
+
+        Assertions.assertEquals(237, copied.size());
+        Assertions.assertEquals(237, new HashSet<>(copied).size());
+        List<InitCheckpointStore.Checkpoint> checkpoints = checkpointStore.load("user");
+        Assertions.assertEquals(4, checkpoints.size());
+        Assertions.assertTrue(checkpoints.stream().allMatch(InitCheckpointStore.Checkpoint::isDone));
+
+        // copied already
+        copier.copy(userMapping(), datas -> collect(datas, copied));
+        Assertions.assertEquals(237, copied.size());
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        List<String> copied = new ArrayList<>();
+        AtomicInteger pages = new AtomicInteger();
+        TableCopier copier = new TableCopier(jdbcTemplate, checkpointStore, columnDepResolver, 10, 1);
+        Assertions.assertThrows(IllegalStateException.class, () -> copier.copy(userMapping(), datas -> {
+            if (pages.incrementAndGet() == 3) {
+                throw new IllegalStateException("interrupted");
+            }
+            collect(datas, copied);
+        }));
+        Assertions.assertEquals(20, copied.size());
+        Assertions.assertEquals("[60]", checkpointStore.load("user").get(0).getLastKey());
+
+        copier.copy(userMapping(), datas -> collect(datas, copied));
+        Assertions.assertEquals(237, copied.size());
+        Assertions.assertEquals(237, new HashSet<>(copied).size());
+    }
+
+    @Test
+    public void testCompositeKey() throws Exception {
+        jdbcTemplate.execute("CREATE TABLE task_instance (dag_id VARCHAR(64) NOT NULL, task_id VARCHAR(64) NOT NULL, "
+                + "map_index INT NOT NULL, state VARCHAR(16), PRIMARY KEY (dag_id, task_id, map_index))");
+        for (int dag = 0; dag < 5; dag++) {
+            for (int task = 0; task < 7; task++) {
+                for (int index = 0; index < 3; index++) {
+                    jdbcTemplate.update("INSERT INTO task_instance VALUES (?, ?, ?, ?)", "dag" + dag,
+                            "task" + task, index, "success");
+                }
+            }
+        }
+        Mapping mapping = new Mapping();
+        mapping.setTable("task_instance");
+        mapping.setTargetTable("task_instance");
+        mapping.setInitKeys(Arrays.asList("dag_id", "task_id", "map_index"));
+        mapping.setColumnMapping(columns("flow_name", "DAG_ID", "task_name", "TASK_ID", "retry_times",
+                "MAP_INDEX"));
+
+        List<String> copied = new ArrayList<>();
+        TableCopier copier = new TableCopier(jdbcTemplate, checkpointStore, columnDepResolver, 8, 4);
+        copier.copy(mapping, datas -> {
+            for (Map<String, String> data : datas) {
+                copied.add(data.get("flow_name") + "/" + data.get("task_name") + "/" + data.get("retry_times"));
+            }
+        });
+
+        Assertions.assertEquals(105, copied.size());
+        Set<String> unique = new HashSet<>(copied);
+        Assertions.assertEquals(105, unique.size());
+        List<String> sorted = new ArrayList<>(copied);
+        Collections.sort(sorted);
+        Assertions.assertEquals(sorted, copied);
+        Assertions.assertEquals(1, checkpointStore.load("task_instance").size());
+    }
+
+    @Test
+    public void testLock() {
+        Assertions.assertTrue(checkpointStore.lock("a", 60000));
+        Assertions.assertFalse(checkpointStore.lock("b", 60000));
+        // renewed by its owner, kept by clear
+        Assertions.assertTrue(checkpointStore.lock("a", 60000));
+        checkpointStore.clear();
+        Assertions.assertFalse(checkpointStore.lock("b", 60000));
+        // taken over once the lease expired
+        jdbcTemplate.update("UPDATE task_syncer_checkpoint SET update_time = ?",
+                new Date(System.currentTimeMillis() - 120000));
+        Assertions.assertTrue(checkpointStore.lock("b", 60000));
+        checkpointStore.unlock("a");
+        Assertions.assertFalse(checkpointStore.lock("a", 60000));
+        checkpointStore.unlock("b");
+        Assertions.assertTrue(checkpointStore.lock("a", 60000));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.oppo.cloud.syncer.service.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestColumnDepResolver {
+
+    private static final String QUERY = "select project.id as project_id, project.name as project_name "
+            + "from t_ds_process_definition as process inner join t_ds_project as project "
+            + "on process.project_code=project.code where process.id=${id}";
+
+    private JdbcTemplate jdbcTemplate;
+
+    private ColumnDepResolver resolver;
+
+    @BeforeEach
+    public void setUp() {
+        jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        resolver = new ColumnDepResolver();
+        ReflectionTestUtils.setField(resolver, "ttl", 600L);
+        ReflectionTestUtils.setField(resolver, "negativeTtlMs", 60000L);
+        ReflectionTestUtils.setField(resolver, "maxSize", 1000L);
+        resolver.init();
+    }
+
+    private static Map<String, String> row(String id) {
+        Map<String, String> row = new HashMap<>();
+        row.put("id", id);
+        return row;
+    }
+
+    private static Map<String, Object> result(Object key, Object projectId) {
+        Map<String, Object> result = new LinkedCaseInsensitiveMap<>();
+        result.put(ColumnDepResolver.KEY_ALIAS, key);
+        result.put("project_id", projectId);
+        result.put("project_name", "project" + projectId);
+        return result;
+    }
+
+    @Test
+    public void testCacheAndNegativeCache() {
+        Mockito.when(jdbcTemplate.queryForMap(Mockito.contains("'1'")))
+                .thenReturn(Collections.singletonMap("project_id", 10));
+        Mockito.when(jdbcTemplate.queryForMap(Mockito.contains("'2'")))
+                .thenThrow(new EmptyResultDataAccessException(1));
+
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(10, resolver.resolve(jdbcTemplate, QUERY, row("1")).get("project_id"));
+            Assertions.assertNull(resolver.resolve(jdbcTemplate, QUERY, row("2")));
+        }
+        Mockito.verify(jdbcTemplate, Mockito.times(2)).queryForMap(Mockito.anyString());
+    }
+
+    @Test
+    public void testFailuresAreNotCached() {
+        Mockito.when(jdbcTemplate.queryForMap(Mockito.anyString())).thenThrow(new IllegalStateException("down"));
+        Assertions.assertNull(resolver.resolve(jdbcTemplate, QUERY, row("1")));
+        Assertions.assertNull(resolver.resolve(jdbcTemplate, QUERY, row("1")));
+        Mockito.verify(jdbcTemplate, Mockito.times(2)).queryForMap(Mockito.anyString());
+    }
+
+    @Test
+    public void testPrefetch() {
+        Mockito.when(jdbcTemplate.queryForList(Mockito.anyString(), Mockito.<Object[]>any()))
+                .thenReturn(new ArrayList<>(Arrays.asList(result(1, 10), result(3, 30))));
+        List<Map<String, String>> rows = Arrays.asList(row("1"), row("2"), row("3"), row("1"));
+
+        resolver.prefetch(jdbcTemplate, QUERY, rows);
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(jdbcTemplate).queryForList(sql.capture(), Mockito.<Object[]>any());
+        Assertions.assertTrue(sql.getValue().startsWith("select process.id as " + ColumnDepResolver.KEY_ALIAS
+                + ", project.id as project_id"), sql.getValue());
+        Assertions.assertTrue(sql.getValue().endsWith("where process.id in (?, ?, ?)"), sql.getValue());
+
+        Map<String, Object> first = resolver.resolve(jdbcTemplate, QUERY, row("1"));
+        Assertions.assertEquals(10, first.get("project_id"));
+        Assertions.assertFalse(first.containsKey(ColumnDepResolver.KEY_ALIAS));
+        Assertions.assertEquals(30, resolver.resolve(jdbcTemplate, QUERY, row("3")).get("project_id"));
+        Assertions.assertNull(resolver.resolve(jdbcTemplate, QUERY, row("2")));
+        Mockito.verify(jdbcTemplate, Mockito.never()).queryForMap(Mockito.anyString());
+    }
+
+    @Test
+    public void testPrefetchSkipsQueriesWithSeveralParameters() {
+        Map<String, String> row = new HashMap<>();
+        row.put("flow_name", "f");
+        row.put("run_id", "r");
+        resolver.prefetch(jdbcTemplate, "select execution_date as execution_time from tb_dag_run "
+                + "where dag_id=${flow_name} and run_id=${run_id}", Collections.singletonList(row));
+        Mockito.verifyNoInteractions(jdbcTemplate);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.syncer.service.impl;
+
+import com.oppo.cloud.syncer.domain.Mapping;
+import com.oppo.cloud.syncer.domain.RawTable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestTaskInstanceService {
+
+    private static RawTable rawTable(String id, String taskName) {
+        Map<String, String> data = new HashMap<>();
+        if (id != null) {
+            data.put("id", id);
+        }
+        data.put("flow_name", "flow");
+        data.put("task_name", taskName);
+        data.put("execution_time", "2023-05-01 00:00:00");
+        data.put("task_state", "success");
+        RawTable rawTable = new RawTable();
+        rawTable.setType("UPDATE");
+        rawTable.setData(new ArrayList<>(Arrays.asList(data)));
+        return rawTable;
+    }
+
+    @Test
+    public void testUpsertSql() {
+        String mysql = TaskInstanceService.upsertSql(true);
+        Assertions.assertTrue(mysql.contains("ON DUPLICATE KEY UPDATE project_name = VALUES(project_name)"));
+        Assertions.assertFalse(mysql.contains("create_time = VALUES"));
+
+        String postgres = TaskInstanceService.upsertSql(false);
+        Assertions.assertTrue(postgres.contains("ON CONFLICT (" + TaskInstanceService.UNIQUE_KEY
+                + ") DO UPDATE SET project_name = EXCLUDED.project_name"));
+        Assertions.assertFalse(postgres.contains("id = EXCLUDED.id"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testUpdateBatchKeepsOrder() {
+        JdbcTemplate jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        TaskInstanceService service = new TaskInstanceService();
+        ReflectionTestUtils.setField(service, "jdbcTemplate", jdbcTemplate);
+        Map<String, String> columns = new HashMap<>();
+        for (String column : Arrays.asList("id", "flow_name", "task_name", "execution_time", "task_state")) {
+            columns.put(column, column);
+        }
+        Mapping mapping = new Mapping();
+        mapping.setTargetTable("task_instance");
+        mapping.setColumnMapping(columns);
+
+        service.updateBatch(Arrays.asList(rawTable("1", "a"), rawTable("2", "b"), rawTable(null, "c"),
+                rawTable("3", "d")), mapping);
+
+        ArgumentCaptor<String> sqls = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<List<Object[]>> args = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(jdbcTemplate, Mockito.times(3)).batchUpdate(sqls.capture(), args.capture());
+        // by-id and composite key updates are applied in message order
+        Assertions.assertEquals(Arrays.asList(TaskInstanceService.UPDATE_BY_ID_SQL,
+                TaskInstanceService.UPDATE_BY_COMPOSITE_KEY_SQL, TaskInstanceService.UPDATE_BY_ID_SQL),
+                sqls.getAllValues());
+        Assertions.assertEquals(Arrays.asList(2, 1, 1), Arrays.asList(args.getAllValues().get(0).size(),
+                args.getAllValues().get(1).size(), args.getAllValues().get(2).size()));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023 OPPO.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.oppo.cloud.syncer.util;
+
+import com.oppo.cloud.syncer.util.databuild.DataBuilder;
+import com.oppo.cloud.syncer.util.databuild.DataFactory;
+import com.oppo.cloud.syncer.util.databuild.GenericFactory;
+import com.oppo.cloud.syncer.util.databuild.TaskInstanceBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-row mapping cost of DataUtil: a GenericFactory and a reflective builder instance per row against the
+ * cached builder, and a SimpleDateFormat per value against the shared DateTimeFormatter.
+ * Run main() from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataUtilBenchmark {
+
+    private static final String[] DATE_COLUMNS = {"start_time", "end_time", "execution_time", "create_time",
+            "update_time"};
+
+    private Map<String, String> row;
+
+    /**
+     * A task_instance row as mapped from a source table
+     */
+    @Setup
+    public void setUp() {
+        row = new HashMap<>();
+        row.put("id", "123456");
+        row.put("project_name", "project");
+        row.put("flow_name", "flow");
+        row.put("task_name", "task");
+        row.put("start_time", "2023-05-01 00:00:02");
+        row.put("end_time", "2023-05-01 00:10:02");
+        row.put("execution_time", "2023-05-01 00:00:00");
+        row.put("task_state", "success");
+        row.put("task_type", "SHELL");
+        row.put("retry_times", "0");
+        row.put("max_retry_times", "3");
+        row.put("worker_group", "default");
+        row.put("create_time", "2023-05-01 00:00:01");
+        row.put("update_time", "2023-05-01 00:10:03");
+    }
+
+    /**
+     * Former builder lookup: a new factory and a reflective builder instance for every row
+     */
+    @Benchmark
+    public Object builderPerRow() {
+        DataFactory<DataBuilder> dataFactory = new GenericFactory<>();
+        return dataFactory.getBuilder(TaskInstanceBuilder.class).run(row);
+    }
+
+    @Benchmark
+    public Object cachedBuilder() {
+        return DataUtil.parseInstance(row, TaskInstanceBuilder.class);
+    }
+
+    /**
+     * Former date parsing: a new SimpleDateFormat for every value
+     */
+    @Benchmark
+    public void simpleDateFormatPerValue(Blackhole blackhole) throws ParseException {
+        for (String column : DATE_COLUMNS) {
+            blackhole.consume(new SimpleDateFormat(DataUtil.DATETIME_FORMAT).parse(row.get(column)));
+        }
+    }
+
+    @Benchmark
+    public void sharedFormatter(Blackhole blackhole) {
+        for (String column : DATE_COLUMNS) {
+            blackhole.consume(DataUtil.parseDate(row.get(column)));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(DataUtilBenchmark.class.getSimpleName()).build()).run();
+    }
+}
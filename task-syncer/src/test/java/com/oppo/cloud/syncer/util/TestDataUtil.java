@@ -17,10 +17,13 @@
 package com.oppo.cloud.syncer.util;
 
 import com.oppo.cloud.model.UserInfo;
+import com.oppo.cloud.syncer.domain.ValueMapping;
 import com.oppo.cloud.syncer.util.databuild.UserBuilder;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.HashMap;
 
 public class TestDataUtil {
@@ -30,4 +33,33 @@ public class TestDataUtil {
         UserInfo user = (UserInfo) DataUtil.parseInstance(new HashMap<>(), UserBuilder.class);
         Assertions.assertTrue(user != null);
     }
+
+    @Test
+    public void testBuilderIsShared() {
+        Assertions.assertSame(DataUtil.getBuilder(UserBuilder.class), DataUtil.getBuilder(UserBuilder.class));
+    }
+
+    @Test
+    public void testParseDate() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat(DataUtil.DATETIME_FORMAT);
+        Assertions.assertEquals(format.parse("2023-05-01 10:20:30"), DataUtil.parseDate("2023-05-01 10:20:30"));
+        // Timestamp.toString()
+        Assertions.assertEquals(format.parse("2023-05-01 10:20:30"), DataUtil.parseDate("2023-05-01 10:20:30.0"));
+        Assertions.assertEquals(format.parse("2023-05-01 01:02:03"), DataUtil.parseDate("2023-5-1 1:2:3"));
+        Assertions.assertNull(DataUtil.parseDate("2023-05-01"));
+        Assertions.assertNull(DataUtil.parseDate(""));
+    }
+
+    @Test
+    public void testMapValue() {
+        ValueMapping success = new ValueMapping();
+        success.setTargetValue("success");
+        success.setOriginValue(Arrays.asList("7", "SUCCESS"));
+        ValueMapping fail = new ValueMapping();
+        fail.setTargetValue("fail");
+        fail.setOriginValue(Arrays.asList("6", "7"));
+        Assertions.assertEquals("success", DataUtil.mapValue("7", Arrays.asList(success, fail)));
+        Assertions.assertEquals("fail", DataUtil.mapValue("6", Arrays.asList(success, fail)));
+        Assertions.assertEquals("1", DataUtil.mapValue("1", Arrays.asList(success, fail)));
+    }
 }